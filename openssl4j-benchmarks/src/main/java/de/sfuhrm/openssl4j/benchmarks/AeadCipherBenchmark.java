@@ -0,0 +1,79 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption of records in direct byte buffers
+ * with a new IV for each record.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AeadCipherBenchmark {
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, Providers.SUN_JCE})
+    String provider;
+
+    /** The JCA transformations. */
+    @Param({"AES/GCM/NoPadding", "ChaCha20-Poly1305"})
+    String transformation;
+
+    /** The record size in bytes. */
+    @Param({"1024", "16384"})
+    int size;
+
+    private Cipher cipher;
+    private SecretKeySpec key;
+    private byte[] iv;
+    private long counter;
+    private ByteBuffer input;
+    private ByteBuffer output;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        cipher = Cipher.getInstance(transformation, Providers.get(provider));
+        key = new SecretKeySpec(new byte[32], transformation.startsWith("AES") ? "AES" : "ChaCha20");
+        iv = new byte[12];
+        input = ByteBuffer.allocateDirect(size);
+        output = ByteBuffer.allocateDirect(size + 16);
+    }
+
+    /** Encrypts a record with the next IV. */
+    @Benchmark
+    public ByteBuffer encryptRecord() throws GeneralSecurityException {
+        counter++;
+        for (int i = 0; i < 8; i++) {
+            iv[i] = (byte) (counter >>> (8 * i));
+        }
+        cipher.init(Cipher.ENCRYPT_MODE, key, transformation.startsWith("AES")
+                ? new GCMParameterSpec(128, iv) : new IvParameterSpec(iv));
+        input.clear();
+        output.clear();
+        cipher.doFinal(input, output);
+        return output;
+    }
+}
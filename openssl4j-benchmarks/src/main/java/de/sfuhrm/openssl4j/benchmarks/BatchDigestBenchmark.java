@@ -0,0 +1,103 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.OpenSSL4J;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of many short messages with the batch API
+ * compared to one digest call per message.
+ * The scores are messages per second.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchDigestBenchmark {
+
+    /** The number of messages per batch. */
+    private static final int MESSAGES = 16384;
+
+    /** The JCA algorithm names. */
+    @Param({"SHA-256"})
+    String algorithm;
+
+    /** The message size in bytes. */
+    @Param({"32", "128"})
+    int size;
+
+    private MessageDigest openSsl;
+    private MessageDigest sun;
+    private byte[] data;
+    private int[] offsets;
+    private int[] lengths;
+    private byte[] digests;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        openSsl = Providers.messageDigest(Providers.OPENSSL4J, algorithm);
+        sun = Providers.messageDigest(Providers.SUN, algorithm);
+        data = new byte[MESSAGES * size];
+        offsets = new int[MESSAGES];
+        lengths = new int[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            offsets[i] = i * size;
+            lengths[i] = size;
+        }
+        digests = new byte[MESSAGES * OpenSSL4J.getDigestLength(algorithm)];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] batch() {
+        OpenSSL4J.digestBatch(algorithm, data, offsets, lengths, digests);
+        return digests;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] batchParallel() {
+        OpenSSL4J.digestBatch(algorithm, data, offsets, lengths, digests, ForkJoinPool.commonPool());
+        return digests;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] openSslMessageDigest() {
+        byte[] result = null;
+        for (int i = 0; i < MESSAGES; i++) {
+            openSsl.update(data, offsets[i], lengths[i]);
+            result = openSsl.digest();
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] sunMessageDigest() {
+        byte[] result = null;
+        for (int i = 0; i < MESSAGES; i++) {
+            sun.update(data, offsets[i], lengths[i]);
+            result = sun.digest();
+        }
+        return result;
+    }
+}
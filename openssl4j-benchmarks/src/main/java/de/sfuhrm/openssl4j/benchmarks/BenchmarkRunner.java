@@ -0,0 +1,189 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.OpenSSL4JProvider;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Runs the JMH benchmarks.
+ * Accepts the usual JMH command line options and adds some defaults
+ * if they are not given on the command line:
+ * <ul>
+ *     <li>the GC profiler ({@code -prof gc}) for allocation rates,</li>
+ *     <li>JSON results in {@code jmh-result.json},</li>
+ *     <li>all message digests of the OpenSSL4J provider for the
+ *     {@linkplain MessageDigestBenchmark}.</li>
+ * </ul>
+ * Additionally the results are written as chart data to the file named by the
+ * system property {@code chart} (default {@code benchmark-chart.json}).
+ * Each entry has the provider, algorithm, benchmark method, message size, threads,
+ * operations per second, throughput in megabytes per second and the normalized allocation
+ * in bytes per operation. This is the data the performance chart
+ * in the README is drawn from. Benchmarks without a provider or message size
+ * parameter have {@code null} for the provider or the size and throughput.
+ * @author Stephan Fuhrmann
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // no instances allowed
+    }
+
+    /** Runs the benchmarks and writes the chart data.
+     * @param args the JMH command line options.
+     * @throws CommandLineOptionException if the command line options are invalid.
+     * @throws RunnerException if running the benchmarks failed.
+     * @throws IOException if writing the chart data failed.
+     * */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        if (!commandLine.getParameter(MessageDigestBenchmark.DIGEST_PARAM).hasValue()) {
+            builder.param(MessageDigestBenchmark.DIGEST_PARAM, messageDigestAlgorithms());
+        }
+
+        Collection<RunResult> results = new Runner(builder.build()).run();
+        writeChartData(Paths.get(System.getProperty("chart", "benchmark-chart.json")), results);
+    }
+
+    /** Gets the usable message digest algorithms of the OpenSSL4J provider without aliases.
+     * @return the Java names the provider maps OpenSSL algorithms to, sorted.
+     * */
+    static String[] messageDigestAlgorithms() {
+        Provider provider = new OpenSSL4JProvider();
+        Collection<String> result = new TreeSet<>();
+        for (Provider.Service service : provider.getServices()) {
+            String name = service.getAlgorithm();
+            // the class of an algorithm is named after its Java name, aliases share it
+            String className = MessageDigest.class.getSimpleName() + "$" + name.replace('-', '_').replace('/', '_');
+            if (service.getType().equals("MessageDigest") && service.getClassName().endsWith(className)) {
+                try {
+                    MessageDigest.getInstance(name, provider);
+                    result.add(name);
+                } catch (NoSuchAlgorithmException e) {
+                    // listed by OpenSSL, but not available, like legacy algorithms in OpenSSL 3
+                }
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /** Writes the results in the flat format the performance chart is drawn from.
+     * @param file the file to write to.
+     * @param results the JMH results.
+     * @throws IOException if writing fails.
+     * */
+    static void writeChartData(Path file, Collection<RunResult> results) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             PrintWriter out = new PrintWriter(writer)) {
+            out.println("[");
+            Iterator<RunResult> iterator = results.iterator();
+            while (iterator.hasNext()) {
+                RunResult runResult = iterator.next();
+                BenchmarkParams params = runResult.getParams();
+                String benchmark = params.getBenchmark();
+                String path = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+                String algorithm = params.getParam("algorithm");
+                if (algorithm == null) {
+                    algorithm = params.getParam(MessageDigestBenchmark.DIGEST_PARAM);
+                }
+                String size = params.getParam("size");
+                double opsPerSecond = opsPerSecond(params, runResult.getPrimaryResult());
+                // only benchmarks with a message size have a throughput in bytes
+                String megabytesPerSecond = size != null
+                        ? String.format(Locale.ENGLISH, "%f", opsPerSecond * Integer.parseInt(size) / (1024. * 1024.))
+                        : "null";
+
+                out.format(Locale.ENGLISH,
+                        "  {\"provider\": %s, \"algorithm\": %s, \"path\": %s, "
+                                + "\"size\": %s, \"threads\": %d, \"opsPerSecond\": %f, "
+                                + "\"megabytesPerSecond\": %s, \"allocatedBytesPerOp\": %f}%s%n",
+                        jsonString(params.getParam("provider")),
+                        jsonString(algorithm),
+                        jsonString(path),
+                        size != null ? size : "null",
+                        params.getThreads(),
+                        opsPerSecond,
+                        megabytesPerSecond,
+                        allocatedBytesPerOp(runResult),
+                        iterator.hasNext() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    /** Formats a JSON string.
+     * @param value the value, may be {@code null}.
+     * @return the quoted value, or {@code null} for a missing value.
+     * */
+    private static String jsonString(String value) {
+        return value != null ? "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"" : "null";
+    }
+
+    /** Gets the operations per second of a result, for throughput and for time per operation modes.
+     * @return the operations per second.
+     * */
+    private static double opsPerSecond(BenchmarkParams params, Result<?> primary) {
+        double secondsPerUnit = params.getTimeUnit().toNanos(1) / 1e9;
+        if (params.getMode() == Mode.Throughput) {
+            return primary.getScore() / secondsPerUnit;
+        }
+        return 1.0 / (primary.getScore() * secondsPerUnit);
+    }
+
+    /** Gets the normalized allocation rate of the GC profiler.
+     * @return the allocated bytes per operation, or -1 if the GC profiler was not active.
+     * */
+    private static double allocatedBytesPerOp(RunResult runResult) {
+        for (Map.Entry<String, Result> entry : runResult.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+                return entry.getValue().getScore();
+            }
+        }
+        return -1;
+    }
+}
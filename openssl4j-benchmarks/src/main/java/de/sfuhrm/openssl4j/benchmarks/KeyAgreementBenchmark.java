@@ -0,0 +1,86 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyAgreement;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The key exchange of a handshake: generating an ephemeral key pair
+ * and agreeing on a secret with the public key of the peer.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyAgreementBenchmark {
+
+    /** The curve of the ECDH keys. */
+    static final String CURVE = "secp256r1";
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, SignatureBenchmark.JDK})
+    String provider;
+
+    /** The JCA key agreement algorithm names. ECDH uses the curve {@link #CURVE}. */
+    @Param({"X25519", "ECDH"})
+    String algorithm;
+
+    private KeyPairGenerator generator;
+    private KeyAgreement keyAgreement;
+    private PublicKey peerKey;
+
+    private KeyPairGenerator generator(boolean jdk) throws GeneralSecurityException {
+        String generatorName = algorithm.equals("ECDH") ? "EC" : algorithm;
+        KeyPairGenerator result = jdk
+                ? KeyPairGenerator.getInstance(generatorName)
+                : KeyPairGenerator.getInstance(generatorName, Providers.get(provider));
+        if (algorithm.equals("ECDH")) {
+            result.initialize(new ECGenParameterSpec(CURVE));
+        }
+        return result;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        boolean jdk = SignatureBenchmark.JDK.equals(provider);
+        generator = generator(jdk);
+        keyAgreement = jdk
+                ? KeyAgreement.getInstance(algorithm)
+                : KeyAgreement.getInstance(algorithm, Providers.get(provider));
+        peerKey = generator(true).generateKeyPair().getPublic();
+    }
+
+    /** Generates an ephemeral key pair. */
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return generator.generateKeyPair();
+    }
+
+    /** Generates an ephemeral key pair and derives the shared secret. */
+    @Benchmark
+    public byte[] handshake() throws GeneralSecurityException {
+        keyAgreement.init(generator.generateKeyPair().getPrivate());
+        keyAgreement.doPhase(peerKey, true);
+        return keyAgreement.generateSecret();
+    }
+}
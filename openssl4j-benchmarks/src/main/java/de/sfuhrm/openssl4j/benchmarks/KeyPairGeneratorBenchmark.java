@@ -0,0 +1,61 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA key pair generation, sampled to show the variance of the
+ * generation time.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyPairGeneratorBenchmark {
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, SignatureBenchmark.JDK})
+    String provider;
+
+    /** The JCA key pair generator algorithm names. */
+    @Param({"RSA"})
+    String algorithm;
+
+    /** The key size in bits. */
+    @Param({"2048", "3072"})
+    int bits;
+
+    private KeyPairGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        generator = SignatureBenchmark.JDK.equals(provider)
+                ? KeyPairGenerator.getInstance(algorithm)
+                : KeyPairGenerator.getInstance(algorithm, Providers.get(provider));
+        generator.initialize(bits);
+    }
+
+    /** Generates a key pair. */
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return generator.generateKeyPair();
+    }
+}
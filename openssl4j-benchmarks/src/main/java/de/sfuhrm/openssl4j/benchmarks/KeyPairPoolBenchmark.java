@@ -0,0 +1,76 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.KeyPairPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA key pair generation with the {@linkplain KeyPairPool}, for requests
+ * that arrive with a pause in between, like at a certificate issuing endpoint.
+ * The pause isn't measured.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dopenssl4j.keyPoolSize=4")
+public class KeyPairPoolBenchmark {
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J})
+    String provider;
+
+    /** The JCA key pair generator algorithm names. */
+    @Param({"RSA"})
+    String algorithm;
+
+    /** The key size in bits. */
+    @Param({"3072"})
+    int bits;
+
+    /** The pause between two requests in milliseconds. */
+    @Param({"1000"})
+    long pause;
+
+    private KeyPairGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        generator = KeyPairGenerator.getInstance(algorithm, Providers.get(provider));
+        generator.initialize(bits);
+    }
+
+    @Setup(Level.Invocation)
+    public void pause() throws InterruptedException {
+        Thread.sleep(pause);
+    }
+
+    @TearDown(Level.Trial)
+    public void printStatistics() {
+        System.out.println(KeyPairPool.getPools());
+    }
+
+    /** Generates a key pair. */
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return generator.generateKeyPair();
+    }
+}
@@ -0,0 +1,89 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HMAC calculation of short messages with a few keys,
+ * like the verification of webhook signatures.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MacBenchmark {
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, Providers.SUN_JCE})
+    String provider;
+
+    /** The JCA algorithm names. */
+    @Param({"HmacSHA256", "HmacSHA512"})
+    String algorithm;
+
+    /** The message size in bytes. */
+    @Param({"64", "1024"})
+    int size;
+
+    private Provider jcaProvider;
+    private Mac mac;
+    private SecretKeySpec[] keys;
+    private byte[] message;
+    private int keyIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        jcaProvider = Providers.get(provider);
+        mac = Mac.getInstance(algorithm, jcaProvider);
+        keys = new SecretKeySpec[4];
+        for (int i = 0; i < keys.length; i++) {
+            byte[] key = new byte[32];
+            key[0] = (byte) i;
+            keys[i] = new SecretKeySpec(key, algorithm);
+        }
+        mac.init(keys[0]);
+        message = new byte[size];
+    }
+
+    /** The same key for all messages. */
+    @Benchmark
+    public byte[] sameKey() {
+        return mac.doFinal(message);
+    }
+
+    /** The key changes with each message. */
+    @Benchmark
+    public byte[] initPerMessage() throws GeneralSecurityException {
+        keyIndex = (keyIndex + 1) & 3;
+        mac.init(keys[keyIndex]);
+        return mac.doFinal(message);
+    }
+
+    /** A new Mac instance for each message. */
+    @Benchmark
+    public byte[] newInstancePerMessage() throws GeneralSecurityException {
+        keyIndex = (keyIndex + 1) & 3;
+        Mac newMac = Mac.getInstance(algorithm, jcaProvider);
+        newMac.init(keys[keyIndex]);
+        return newMac.doFinal(message);
+    }
+}
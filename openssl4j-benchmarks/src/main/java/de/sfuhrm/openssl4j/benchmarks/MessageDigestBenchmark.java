@@ -0,0 +1,97 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the message digest update paths of
+ * multiple providers.
+ * Every benchmark hashes {@link #size} bytes and finishes the digest,
+ * so one operation per second equals {@link #size} bytes per second.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDigestBenchmark {
+
+    /** The provider to benchmark, see {@link Providers}. */
+    @Param({Providers.OPENSSL4J, Providers.SUN, Providers.BC})
+    String provider;
+
+    /** The name of the {@link #digest} parameter. */
+    static final String DIGEST_PARAM = "digest";
+
+    /** The JCA algorithm names. {@link BenchmarkRunner} replaces them with all
+     * the message digests of the OpenSSL4J provider, unless given on the command line.
+     * */
+    @Param({"SHA-256"})
+    String digest;
+
+    /** The message size in bytes, from 16 bytes to 64 megabytes. */
+    @Param({"16", "256", "4096", "65536", "1048576", "67108864"})
+    int size;
+
+    private MessageDigest messageDigest;
+    private byte[] array;
+    private ByteBuffer heapBuffer;
+    private ByteBuffer directBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        messageDigest = Providers.messageDigest(provider, digest);
+        array = new byte[size];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = (byte) i;
+        }
+        heapBuffer = ByteBuffer.wrap(array.clone());
+        directBuffer = ByteBuffer.allocateDirect(size);
+        directBuffer.put(array);
+        directBuffer.flip();
+    }
+
+    @Benchmark
+    public byte[] updateWithByte() {
+        for (int i = 0; i < size; i++) {
+            messageDigest.update(array[i]);
+        }
+        return messageDigest.digest();
+    }
+
+    @Benchmark
+    public byte[] updateWithArray() {
+        messageDigest.update(array, 0, size);
+        return messageDigest.digest();
+    }
+
+    @Benchmark
+    public byte[] updateWithHeapBuffer() {
+        heapBuffer.clear();
+        messageDigest.update(heapBuffer);
+        return messageDigest.digest();
+    }
+
+    @Benchmark
+    public byte[] updateWithDirectBuffer() {
+        directBuffer.clear();
+        messageDigest.update(directBuffer);
+        return messageDigest.digest();
+    }
+}
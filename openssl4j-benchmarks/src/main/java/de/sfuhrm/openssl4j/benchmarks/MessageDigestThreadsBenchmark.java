@@ -0,0 +1,83 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the message digest throughput with the number of threads.
+ * Each thread uses its own message digest instance.
+ * The reported score is the sum of all threads.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDigestThreadsBenchmark {
+
+    /** The provider to benchmark, see {@link Providers}. */
+    @Param({Providers.OPENSSL4J, Providers.SUN, Providers.BC})
+    String provider;
+
+    /** The JCA algorithm names. */
+    @Param({"MD5", "SHA-256", "SHA-512", "SHA3-256"})
+    String algorithm;
+
+    /** The message size in bytes. */
+    @Param({"16", "4096", "1048576"})
+    int size;
+
+    private MessageDigest messageDigest;
+    private byte[] array;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        messageDigest = Providers.messageDigest(provider, algorithm);
+        array = new byte[size];
+    }
+
+    private byte[] hash() {
+        messageDigest.update(array, 0, size);
+        return messageDigest.digest();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] threads1() {
+        return hash();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public byte[] threads2() {
+        return hash();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] threads4() {
+        return hash();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] threadsMax() {
+        return hash();
+    }
+}
@@ -0,0 +1,96 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.OpenSSL4J;
+import de.sfuhrm.openssl4j.OpenSSLMessageDigestNative;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of short messages with the static one-shot API
+ * compared to the JCA message digest of OpenSSL4J and SUN.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OneShotDigestBenchmark {
+
+    /** The JCA algorithm names. */
+    @Param({"SHA-256", "SHA-512"})
+    String algorithm;
+
+    /** The message size in bytes. */
+    @Param({"32", "128", "512"})
+    int size;
+
+    private Provider openSslProvider;
+    private MessageDigest openSsl;
+    private MessageDigest sun;
+    private byte[] array;
+    private byte[] digest;
+    private ByteBuffer directDigest;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        openSslProvider = Providers.get(Providers.OPENSSL4J);
+        openSsl = Providers.messageDigest(Providers.OPENSSL4J, algorithm);
+        sun = Providers.messageDigest(Providers.SUN, algorithm);
+        array = new byte[size];
+        digest = new byte[64];
+        directDigest = ByteBuffer.allocateDirect(64);
+    }
+
+    @Benchmark
+    public byte[] oneShot() {
+        OpenSSL4J.digest(algorithm, array, digest);
+        return digest;
+    }
+
+    @Benchmark
+    public byte[] openSslMessageDigest() {
+        return openSsl.digest(array);
+    }
+
+    @Benchmark
+    public int openSslMessageDigestIntoArray() throws DigestException {
+        openSsl.update(array);
+        return openSsl.digest(digest, 0, digest.length);
+    }
+
+    @Benchmark
+    public int openSslMessageDigestIntoDirectBuffer() {
+        openSsl.update(array);
+        directDigest.clear();
+        return ((OpenSSLMessageDigestNative) openSsl).digest(directDigest);
+    }
+
+    @Benchmark
+    public byte[] openSslNewMessageDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(algorithm, openSslProvider).digest(array);
+    }
+
+    @Benchmark
+    public byte[] sunMessageDigest() {
+        return sun.digest(array);
+    }
+}
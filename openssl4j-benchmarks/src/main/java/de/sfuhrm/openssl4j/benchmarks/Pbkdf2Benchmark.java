@@ -0,0 +1,62 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PBKDF2 key derivation like in password verification.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Pbkdf2Benchmark {
+
+    /** The derived key size in bytes. */
+    static final int KEY_LENGTH = 32;
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, Providers.SUN_JCE})
+    String provider;
+
+    /** The JCA algorithm names. */
+    @Param({"PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"})
+    String algorithm;
+
+    /** The PBKDF2 iteration count. */
+    @Param({"10000"})
+    int iterations;
+
+    private SecretKeyFactory factory;
+    private PBEKeySpec spec;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        factory = SecretKeyFactory.getInstance(algorithm, Providers.get(provider));
+        spec = new PBEKeySpec("correct horse battery staple".toCharArray(), new byte[16], iterations, KEY_LENGTH * 8);
+    }
+
+    /** Derives a key. */
+    @Benchmark
+    public byte[] deriveKey() throws GeneralSecurityException {
+        return factory.generateSecret(spec).getEncoded();
+    }
+}
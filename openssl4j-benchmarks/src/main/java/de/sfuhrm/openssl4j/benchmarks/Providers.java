@@ -0,0 +1,68 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.OpenSSL4JProvider;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Resolves the provider names used as benchmark parameters.
+ * @author Stephan Fuhrmann
+ */
+final class Providers {
+
+    /** Benchmark parameter value for the OpenSSL4J provider. */
+    static final String OPENSSL4J = "OpenSSL4J";
+
+    /** Benchmark parameter value for the JDK SUN provider. */
+    static final String SUN = "SUN";
+
+    /** Benchmark parameter value for the JDK SunJCE provider. */
+    static final String SUN_JCE = "SunJCE";
+
+    /** Benchmark parameter value for the BouncyCastle provider. */
+    static final String BC = "BC";
+
+    private Providers() {
+        // no instances allowed
+    }
+
+    /** Gets the provider for a benchmark parameter value.
+     * @param name one of {@link #OPENSSL4J}, {@link #SUN}, {@link #SUN_JCE} or {@link #BC}.
+     * @return the provider instance.
+     * @throws IllegalArgumentException if the name is not known.
+     * */
+    static Provider get(String name) {
+        switch (name) {
+            case OPENSSL4J:
+                return new OpenSSL4JProvider();
+            case SUN:
+                return Security.getProvider("SUN");
+            case SUN_JCE:
+                return Security.getProvider("SunJCE");
+            case BC:
+                return new BouncyCastleProvider();
+            default:
+                throw new IllegalArgumentException("Unknown provider " + name);
+        }
+    }
+
+    /** Creates a message digest for a benchmark parameter combination.
+     * @param providerName the benchmark provider parameter.
+     * @param algorithm the JCA algorithm name.
+     * @return the message digest.
+     * @throws IllegalStateException if the provider does not offer the algorithm.
+     * JMH reports the combination as failed and continues with the next one.
+     * */
+    static MessageDigest messageDigest(String providerName, String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm, get(providerName));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Provider " + providerName
+                    + " has no algorithm " + algorithm, e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.Scrypt;
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * scrypt password hashing with the interactive login parameters of RFC 7914.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScryptBenchmark {
+
+    /** The derived key size in bytes. */
+    static final int KEY_LENGTH = 32;
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, Providers.BC})
+    String provider;
+
+    /** The algorithm name. */
+    @Param({"scrypt"})
+    String algorithm;
+
+    /** The CPU and memory cost. */
+    @Param({"16384"})
+    int n;
+
+    private Scrypt scrypt;
+    private byte[] password;
+    private byte[] salt;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scrypt = new Scrypt(n, 8, 1);
+        password = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        salt = new byte[16];
+    }
+
+    /** Derives a key. */
+    @Benchmark
+    public byte[] deriveKey() {
+        if (Providers.BC.equals(provider)) {
+            return SCrypt.generate(password, salt, n, 8, 1, KEY_LENGTH);
+        }
+        return scrypt.derive(password, salt, KEY_LENGTH);
+    }
+}
@@ -0,0 +1,66 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of nonces and tokens with a shared secure random.
+ * Run it with {@code -t} for multiple threads.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecureRandomBenchmark {
+
+    /** The provider and algorithm names. */
+    @Param({Providers.OPENSSL4J + ":OpenSSL", Providers.SUN + ":NativePRNG", Providers.SUN + ":DRBG", Providers.SUN + ":SHA1PRNG"})
+    String algorithm;
+
+    /** The number of bytes per call. */
+    @Param({"16", "32", "1024"})
+    int size;
+
+    private SecureRandom secureRandom;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        String[] parts = algorithm.split(":");
+        secureRandom = SecureRandom.getInstance(parts[1], Providers.get(parts[0]));
+    }
+
+    /** Thread local output, so the threads only share the secure random. */
+    @State(Scope.Thread)
+    public static class Output {
+        byte[] bytes;
+
+        @Setup(Level.Trial)
+        public void setup(SecureRandomBenchmark benchmark) {
+            bytes = new byte[benchmark.size];
+        }
+    }
+
+    /** Fills an array with random bytes. */
+    @Benchmark
+    public byte[] nextBytes(Output output) {
+        secureRandom.nextBytes(output.bytes);
+        return output.bytes;
+    }
+}
@@ -0,0 +1,99 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.SeekableCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decryption of AES-CTR encrypted ranges at random positions of a blob.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeekableCipherBenchmark {
+
+    /** The size of the blob in bytes. */
+    private static final int BLOB_SIZE = 64 * 1024 * 1024;
+
+    /** The range size in bytes. */
+    @Param({"4096", "65536"})
+    int size;
+
+    private byte[] key;
+    private byte[] iv;
+    private SeekableCipher seekableCipher;
+    private Cipher jcaCipher;
+    private SecretKeySpec keySpec;
+    private ByteBuffer blob;
+    private ByteBuffer range;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        key = new byte[32];
+        iv = new byte[16];
+        seekableCipher = SeekableCipher.aesCtr(key, iv);
+        jcaCipher = Cipher.getInstance("AES/CTR/NoPadding", "SunJCE");
+        keySpec = new SecretKeySpec(key, "AES");
+        blob = ByteBuffer.allocateDirect(BLOB_SIZE);
+        range = ByteBuffer.allocateDirect(size);
+        random = new SplittableRandom(1);
+    }
+
+    private long nextPosition() {
+        long position = random.nextLong(BLOB_SIZE - size);
+        ByteBuffer source = blob.duplicate();
+        source.position((int) position).limit((int) position + size);
+        range.clear();
+        range.put(source);
+        range.flip();
+        return position;
+    }
+
+    /** Decrypts the range in place with the counter of the position. */
+    @Benchmark
+    public ByteBuffer seekable() {
+        seekableCipher.decrypt(nextPosition(), range);
+        return range;
+    }
+
+    /** Decrypts the range with a JCA cipher, initialized with the counter block of the position.
+     * The range is aligned to the block before, because the JCA cipher can't skip into a block.
+     * */
+    @Benchmark
+    public ByteBuffer jcaWithCounterOfPosition() throws GeneralSecurityException {
+        long position = nextPosition() & ~15L;
+        byte[] counter = new BigInteger(1, iv).add(BigInteger.valueOf(position / 16)).toByteArray();
+        byte[] counterBlock = new byte[16];
+        int length = Math.min(16, counter.length);
+        System.arraycopy(counter, counter.length - length, counterBlock, 16 - length, length);
+        jcaCipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(counterBlock));
+        ByteBuffer output = range.duplicate();
+        output.clear();
+        jcaCipher.doFinal(range, output);
+        return output;
+    }
+}
@@ -0,0 +1,117 @@
+package de.sfuhrm.openssl4j.benchmarks;
+
+import de.sfuhrm.openssl4j.BatchVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature verification of token sized messages with a few keys,
+ * like the verification of JWTs.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    /** Benchmark parameter value for the default JDK providers. */
+    static final String JDK = "JDK";
+
+    /** The number of signatures per batch. */
+    static final int BATCH_SIZE = 64;
+
+    /** The benchmark provider names. */
+    @Param({Providers.OPENSSL4J, JDK})
+    String provider;
+
+    /** The JCA algorithm names. */
+    @Param({"Ed25519", "SHA256withECDSA", "SHA256withRSA"})
+    String algorithm;
+
+    /** The message size in bytes. */
+    @Param({"256"})
+    int size;
+
+    private Signature signature;
+    private BatchVerifier batchVerifier;
+    private KeyPair keyPair;
+    private List<byte[]> messages;
+    private List<byte[]> signatures;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        KeyPairGenerator generator;
+        if (algorithm.endsWith("ECDSA")) {
+            generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else if (algorithm.endsWith("RSA")) {
+            generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+        } else {
+            generator = KeyPairGenerator.getInstance(algorithm);
+        }
+        keyPair = generator.generateKeyPair();
+
+        signature = JDK.equals(provider)
+                ? Signature.getInstance(algorithm)
+                : Signature.getInstance(algorithm, Providers.get(provider));
+        batchVerifier = new BatchVerifier(algorithm);
+
+        Signature signer = Signature.getInstance(algorithm);
+        messages = new ArrayList<>();
+        signatures = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            byte[] message = new byte[size];
+            message[0] = (byte) i;
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message);
+            messages.add(message);
+            signatures.add(signer.sign());
+        }
+    }
+
+    /** Verifies one signature, initializing with the public key like a token verifier. */
+    @Benchmark
+    public boolean verify() throws GeneralSecurityException {
+        signature.initVerify(keyPair.getPublic());
+        signature.update(messages.get(0));
+        return signature.verify(signatures.get(0));
+    }
+
+    /** Verifies a batch of signatures, with the {@linkplain BatchVerifier} for OpenSSL4J. */
+    @Benchmark
+    public boolean[] verifyBatch() throws GeneralSecurityException {
+        if (!JDK.equals(provider)) {
+            return batchVerifier.verify(keyPair.getPublic(), messages, signatures);
+        }
+        boolean[] results = new boolean[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            signature.initVerify(keyPair.getPublic());
+            signature.update(messages.get(i));
+            results[i] = signature.verify(signatures.get(i));
+        }
+        return results;
+    }
+}
@@ -7,10 +7,37 @@
 #define OPENSSL4J_H
 
 #include <jni.h>
+#include <stdint.h>
 
 #define NULL_POINTER_EXCEPTION "java/lang/NullPointerException"
 #define ILLEGAL_STATE_EXCEPTION "java/lang/IllegalStateException"
 #define UNSUPPORTED_OPERATION_EXCEPTION "java/lang/UnsupportedOperationException"
+#define ILLEGAL_ARGUMENT_EXCEPTION "java/lang/IllegalArgumentException"
+#define ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION "java/lang/ArrayIndexOutOfBoundsException"
+#define IO_EXCEPTION "java/io/IOException"
+#define EOF_EXCEPTION "java/io/EOFException"
+
+/* Converts a native pointer to a handle that is kept in a Java long. */
+#define HANDLE_FROM_POINTER(pointer) ((jlong)(intptr_t)(pointer))
+
+/* Converts a handle kept in a Java long back to a native pointer. */
+#define POINTER_FROM_HANDLE(type, handle) ((type)(intptr_t)(handle))
+
+/* Array regions up to this size are copied to a stack buffer. */
+#define REGION_BUFFER_SIZE 4096
+
+/* Maximum number of bytes processed while holding a critical array section.
+** Bounds the time the GC can be held off by a single critical section. */
+#define CRITICAL_CHUNK_SIZE (1024 * 1024)
+
+/*
+* Function consuming a block of data, for example EVP_DigestUpdate.
+* @param ctx the context of the function.
+* @param data the data to consume.
+* @param length the number of bytes to consume.
+* @return 1 for success, everything else for failure.
+*/
+typedef int (*update_func)(void *ctx, const void *data, size_t length);
 
 struct StringArrayPosition {
     /* The next write index in the array below. */
@@ -33,10 +60,50 @@ struct StringArrayPosition {
 void throw_error(JNIEnv *env, const char *exceptionClassName, const char *message);
 
 /*
-* Returns the MD / Crypto context from a passed in ByteBuffer jobject.
+* Returns the MD / Crypto context from a passed in handle.
+* @param env the JNI environment.
+* @param context the context pointer kept in a Java long, see HANDLE_FROM_POINTER.
+* @return the context, or NULL if an exception was thrown.
+*/
+void* get_context_from(JNIEnv *env, jlong context);
+
+/*
+* Returns the native object of a Java object that holds its handle in a long field.
+* Passing the holder instead of the handle keeps the holder, which is the
+* referent of the phantom cleanup, reachable while the native method runs.
+* @param env the JNI environment.
+* @param holder the Java object holding the handle.
+* @param field the cached field ID, looked up on the first call.
+* @param fieldName the name of the long field holding the handle.
+* @return the native object, or NULL if an exception was thrown.
+*/
+void* get_handle_from(JNIEnv *env, jobject holder, jfieldID *field, const char *fieldName);
+
+/*
+* Returns the EVP_PKEY of a de.sfuhrm.openssl4j.NativeKey.
+* The key object, and so the EVP_PKEY, stays reachable while the
+* native method that got it as an argument runs.
+* @param env the JNI environment.
+* @param key the NativeKey object.
+* @return the EVP_PKEY, or NULL if an exception was thrown.
+*/
+void* get_pkey_from(JNIEnv *env, jobject key);
+
+/*
+* Passes the region [offset, offset+length) of a Java byte array to an update function.
+* Only the region is accessed, the rest of the array is never copied.
+* Small regions are copied to a stack buffer. Bigger regions are
+* passed in chunks of at most CRITICAL_CHUNK_SIZE bytes
+* from critical array sections.
 * @param env the JNI environment.
-* @param context a pointer to the context ByteBuffer object.
+* @param jarray the Java array to read from.
+* @param offset the offset of the region in the array.
+* @param length the length of the region.
+* @param func the function to pass the data to.
+* @param ctx the context to pass to the function.
+* @param failMessage the message of the exception if the function fails.
+* @return 1 for success, 0 if an exception was thrown.
 */
-void* get_context_from(JNIEnv *env, jobject context);
+int update_from_array_region(JNIEnv *env, jbyteArray jarray, jint offset, jint length, update_func func, void *ctx, const char *failMessage);
 
 #endif
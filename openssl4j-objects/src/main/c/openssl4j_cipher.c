@@ -0,0 +1,308 @@
+/*
+** OpenSSL Cipher to Java Binding Code.
+**
+** A cipher context is keyed once. Following initializations
+** with only a new IV keep the key schedule of the context.
+** Updates write the output in place when input and output
+** are the same memory.
+** @author Stephan Fuhrmann
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <openssl/evp.h>
+#include <openssl/err.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_OpenSSLCipherNative.h"
+
+#ifndef EVP_MAX_AEAD_TAG_LENGTH
+#define EVP_MAX_AEAD_TAG_LENGTH 16
+#endif
+
+/* Checks that the region [offset, offset+length) is within the array. */
+static int check_array_region(JNIEnv *env, jbyteArray jarray, jint offset, jint length) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return 0;
+    }
+    jsize arrayLength = (*env)->GetArrayLength(env, jarray);
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "offset or length out of array bounds");
+        return 0;
+    }
+    return 1;
+}
+
+/* Passes additional authenticated data to an AEAD cipher. */
+static int aad_update(void *ctx, const void *data, size_t length) {
+    int outl;
+    return EVP_CipherUpdate((EVP_CIPHER_CTX*)ctx, NULL, &outl, data, (int)length);
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeNew
+  (JNIEnv *env, jclass clazz) {
+    EVP_CIPHER_CTX *ctx = EVP_CIPHER_CTX_new();
+    if (ctx == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate cipher context");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(ctx);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeFree
+  (JNIEnv *env, jclass clazz, jlong context) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx != NULL) {
+        EVP_CIPHER_CTX_free(ctx);
+    }
+}
+
+/* The handle field of OpenSSLCipherNative. */
+static jfieldID cipherHandleField;
+
+/* Gets the native context of an OpenSSLCipherNative. */
+static EVP_CIPHER_CTX *get_cipher_from(JNIEnv *env, jobject cipher) {
+    return get_handle_from(env, cipher, &cipherHandleField, "context");
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeInit
+  (JNIEnv *env, jclass clazz, jobject cipher, jstring jcipherName, jbyteArray jkey, jbyteArray jiv, jboolean encrypt) {
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx == NULL) {
+        return;
+    }
+    int enc = encrypt == JNI_TRUE ? 1 : 0;
+    if (jcipherName != NULL) {
+        const char *cipherName = (*env)->GetStringUTFChars(env, jcipherName, NULL);
+        if (cipherName == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetStringUTFChars failed");
+            return;
+        }
+        const EVP_CIPHER *cipher = EVP_get_cipherbyname(cipherName);
+        (*env)->ReleaseStringUTFChars(env, jcipherName, cipherName);
+        if (cipher == NULL) {
+            throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Cipher not known");
+            return;
+        }
+        if (1 != EVP_CipherInit_ex(ctx, cipher, NULL, NULL, NULL, enc)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherInit_ex failed");
+            return;
+        }
+    }
+
+    unsigned char key[EVP_MAX_KEY_LENGTH];
+    unsigned char iv[EVP_MAX_IV_LENGTH];
+    unsigned char *keyPointer = NULL;
+    unsigned char *ivPointer = NULL;
+    if (jkey != NULL) {
+        jsize keyLength = (*env)->GetArrayLength(env, jkey);
+        if (keyLength != EVP_CIPHER_CTX_key_length(ctx)) {
+            throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal key length");
+            return;
+        }
+        (*env)->GetByteArrayRegion(env, jkey, 0, keyLength, (jbyte*)key);
+        keyPointer = key;
+    }
+    if (jiv != NULL) {
+        jsize ivLength = (*env)->GetArrayLength(env, jiv);
+        if (ivLength <= 0 || ivLength > EVP_MAX_IV_LENGTH) {
+            throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal IV length");
+            return;
+        }
+        if (ivLength != EVP_CIPHER_CTX_iv_length(ctx)
+                && 1 != EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_AEAD_SET_IVLEN, ivLength, NULL)) {
+            throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal IV length");
+            return;
+        }
+        (*env)->GetByteArrayRegion(env, jiv, 0, ivLength, (jbyte*)iv);
+        ivPointer = iv;
+    }
+    int result = EVP_CipherInit_ex(ctx, NULL, NULL, keyPointer, ivPointer, enc);
+    OPENSSL_cleanse(key, sizeof(key));
+    if (1 != result) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherInit_ex failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeUpdateAAD
+  (JNIEnv *env, jclass clazz, jobject cipher, jbyteArray jarray, jint offset, jint length) {
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx != NULL) {
+        update_from_array_region(env, jarray, offset, length, aad_update, ctx, "AAD update failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeUpdateAADWithByteBuffer
+  (JNIEnv *env, jclass clazz, jobject cipher, jobject bb, jint offset, jint length) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return;
+    }
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx != NULL) {
+        jbyte* buffer = (*env)->GetDirectBufferAddress(env, bb);
+        if (buffer == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+            return;
+        }
+        if (1 != aad_update(ctx, buffer + offset, length)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "AAD update failed");
+        }
+    }
+}
+
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeUpdate
+  (JNIEnv *env, jclass clazz, jobject cipher, jbyteArray jin, jint inOffset, jint length, jbyteArray jout, jint outOffset) {
+    if (!check_array_region(env, jin, inOffset, length) || !check_array_region(env, jout, outOffset, length)) {
+        return 0;
+    }
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx == NULL) {
+        return 0;
+    }
+    int outl;
+    if (length <= REGION_BUFFER_SIZE) {
+        unsigned char buffer[REGION_BUFFER_SIZE];
+        (*env)->GetByteArrayRegion(env, jin, inOffset, length, (jbyte*)buffer);
+        if (1 != EVP_CipherUpdate(ctx, buffer, &outl, buffer, length)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherUpdate failed");
+            return 0;
+        }
+        (*env)->SetByteArrayRegion(env, jout, outOffset, outl, (jbyte*)buffer);
+        return outl;
+    }
+
+    /* the caller copies partially overlapping regions of the same array */
+    jboolean same = (*env)->IsSameObject(env, jin, jout);
+    jint position = 0;
+    jint written = 0;
+    while (position < length) {
+        jint chunk = length - position;
+        if (chunk > CRITICAL_CHUNK_SIZE) {
+            chunk = CRITICAL_CHUNK_SIZE;
+        }
+        /* no JNI calls allowed until the release */
+        unsigned char *cin = (*env)->GetPrimitiveArrayCritical(env, jin, NULL);
+        if (cin == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+            return 0;
+        }
+        unsigned char *cout = same ? cin : (*env)->GetPrimitiveArrayCritical(env, jout, NULL);
+        if (cout == NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, jin, cin, JNI_ABORT);
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+            return 0;
+        }
+        int result = EVP_CipherUpdate(ctx, cout + outOffset + written, &outl, cin + inOffset + position, chunk);
+        if (!same) {
+            (*env)->ReleasePrimitiveArrayCritical(env, jout, cout, 0);
+        }
+        (*env)->ReleasePrimitiveArrayCritical(env, jin, cin, same ? 0 : JNI_ABORT);
+        if (1 != result) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherUpdate failed");
+            return 0;
+        }
+        position += chunk;
+        written += outl;
+    }
+    return written;
+}
+
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeUpdateWithByteBuffer
+  (JNIEnv *env, jclass clazz, jobject cipher, jobject jin, jint inOffset, jint length, jobject jout, jint outOffset) {
+    if (jin == NULL || jout == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return 0;
+    }
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx == NULL) {
+        return 0;
+    }
+    unsigned char *inBuffer = (*env)->GetDirectBufferAddress(env, jin);
+    unsigned char *outBuffer = (*env)->GetDirectBufferAddress(env, jout);
+    if (inBuffer == NULL || outBuffer == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+        return 0;
+    }
+    const unsigned char *in = inBuffer + inOffset;
+    unsigned char *out = outBuffer + outOffset;
+    unsigned char *copy = NULL;
+    /* OpenSSL allows the same, but no partially overlapping memory */
+    if (in != out && in < out + length && out < in + length) {
+        copy = malloc(length);
+        if (copy == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate buffer");
+            return 0;
+        }
+        memcpy(copy, in, length);
+        in = copy;
+    }
+    int outl;
+    int result = EVP_CipherUpdate(ctx, out, &outl, in, length);
+    free(copy);
+    if (1 != result) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherUpdate failed");
+        return 0;
+    }
+    return outl;
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeFinalEncrypt
+  (JNIEnv *env, jclass clazz, jobject cipher, jbyteArray jtag, jint tagOffset, jint tagLength) {
+    if (!check_array_region(env, jtag, tagOffset, tagLength)) {
+        return;
+    }
+    if (tagLength > EVP_MAX_AEAD_TAG_LENGTH) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal tag length");
+        return;
+    }
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx == NULL) {
+        return;
+    }
+    unsigned char buffer[EVP_MAX_BLOCK_LENGTH];
+    int outl;
+    if (1 != EVP_CipherFinal_ex(ctx, buffer, &outl)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherFinal_ex failed");
+        return;
+    }
+    unsigned char tag[EVP_MAX_AEAD_TAG_LENGTH];
+    if (1 != EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_AEAD_GET_TAG, tagLength, tag)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Getting the tag failed");
+        return;
+    }
+    (*env)->SetByteArrayRegion(env, jtag, tagOffset, tagLength, (jbyte*)tag);
+}
+
+JNIEXPORT jboolean JNICALL Java_de_sfuhrm_openssl4j_OpenSSLCipherNative_nativeFinalDecrypt
+  (JNIEnv *env, jclass clazz, jobject cipher, jbyteArray jtag) {
+    if (jtag == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "tag is NULL");
+        return JNI_FALSE;
+    }
+    jsize tagLength = (*env)->GetArrayLength(env, jtag);
+    if (tagLength <= 0 || tagLength > EVP_MAX_AEAD_TAG_LENGTH) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal tag length");
+        return JNI_FALSE;
+    }
+    EVP_CIPHER_CTX *ctx = get_cipher_from(env, cipher);
+    if (ctx == NULL) {
+        return JNI_FALSE;
+    }
+    unsigned char tag[EVP_MAX_AEAD_TAG_LENGTH];
+    (*env)->GetByteArrayRegion(env, jtag, 0, tagLength, (jbyte*)tag);
+    if (1 != EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_AEAD_SET_TAG, tagLength, tag)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Setting the tag failed");
+        return JNI_FALSE;
+    }
+    unsigned char buffer[EVP_MAX_BLOCK_LENGTH];
+    int outl;
+    if (1 != EVP_CipherFinal_ex(ctx, buffer, &outl)) {
+        /* a tag mismatch is no error of the library */
+        ERR_clear_error();
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
@@ -18,14 +18,73 @@ void throw_error(JNIEnv *env, const char *exceptionClassName, const char *messag
     }
 }
 
-void* get_context_from(JNIEnv *env, jobject context) {
-    if (context == NULL) {
-        throw_error(env, NULL_POINTER_EXCEPTION, "context is NULL");
+void* get_context_from(JNIEnv *env, jlong context) {
+    if (context == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "context is 0");
         return NULL;
     }
-    void* context_data = (void*) (*env)->GetDirectBufferAddress(env, context);
-    if (context_data == NULL) {
-        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress() for Context failed");
+    return POINTER_FROM_HANDLE(void*, context);
+}
+
+void* get_handle_from(JNIEnv *env, jobject holder, jfieldID *field, const char *fieldName) {
+    if (holder == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "holder is NULL");
+        return NULL;
+    }
+    if (*field == NULL) {
+        jclass holderClass = (*env)->GetObjectClass(env, holder);
+        *field = (*env)->GetFieldID(env, holderClass, fieldName, "J");
+        (*env)->DeleteLocalRef(env, holderClass);
+        if (*field == NULL) {
+            /* NoSuchFieldError is pending */
+            return NULL;
+        }
+    }
+    return get_context_from(env, (*env)->GetLongField(env, holder, *field));
+}
+
+int update_from_array_region(JNIEnv *env, jbyteArray jarray, jint offset, jint length, update_func func, void *ctx, const char *failMessage) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return 0;
+    }
+    jsize arrayLength = (*env)->GetArrayLength(env, jarray);
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "offset or length out of array bounds");
+        return 0;
+    }
+
+    if (length <= REGION_BUFFER_SIZE) {
+        jbyte buffer[REGION_BUFFER_SIZE];
+        (*env)->GetByteArrayRegion(env, jarray, offset, length, buffer);
+        if (1 != func(ctx, buffer, length)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, failMessage);
+            return 0;
+        }
+        return 1;
+    }
+
+    jint position = offset;
+    jint end = offset + length;
+    while (position < end) {
+        jint chunk = end - position;
+        if (chunk > CRITICAL_CHUNK_SIZE) {
+            chunk = CRITICAL_CHUNK_SIZE;
+        }
+        /* no JNI calls allowed until the release */
+        jbyte *carray = (*env)->GetPrimitiveArrayCritical(env, jarray, NULL);
+        if (carray == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+            return 0;
+        }
+        int result = func(ctx, carray + position, chunk);
+        /* JNI_ABORT: Don't copy back the array, nothing has changed */
+        (*env)->ReleasePrimitiveArrayCritical(env, jarray, carray, JNI_ABORT);
+        if (1 != result) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, failMessage);
+            return 0;
+        }
+        position += chunk;
     }
-    return context_data;
+    return 1;
 }
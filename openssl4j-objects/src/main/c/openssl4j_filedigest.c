@@ -0,0 +1,232 @@
+/*
+** OpenSSL file digest to Java Binding Code.
+**
+** Opens files by path, reads them with mmap or pread and passes
+** the data to the EVP message digest functions, without copying it
+** through the Java heap. The file descriptor is owned by the native
+** call, so it can't be closed or reused concurrently.
+** @author Stephan Fuhrmann
+*/
+
+#define _GNU_SOURCE
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <openssl/evp.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_FileDigest.h"
+
+#if OPENSSL_VERSION_NUMBER >= 0x10101000L
+#define OPENSSL_MD_NEW_FUNC EVP_MD_CTX_new
+#define OPENSSL_MD_FREE_FUNC EVP_MD_CTX_free
+#else
+#define OPENSSL_MD_NEW_FUNC EVP_MD_CTX_create
+#define OPENSSL_MD_FREE_FUNC EVP_MD_CTX_destroy
+#endif
+
+/* The ordinals of the Java FileDigestMode enum. */
+#define FILE_DIGEST_MODE_MMAP 0
+#define FILE_DIGEST_MODE_PREAD 1
+
+/* Number of bytes mapped at once in mmap mode.
+** Each chunk is unmapped before the next one is mapped. */
+#define MMAP_CHUNK_SIZE ((off_t)64 * 1024 * 1024)
+
+/* Size of the per-thread read buffer in pread mode. */
+#define PREAD_BUFFER_SIZE (1024 * 1024)
+
+/* Alignment of the per-thread read buffer in pread mode. */
+#define PREAD_BUFFER_ALIGNMENT 4096
+
+/* Key for the per-thread read buffer of the pread mode. */
+static pthread_key_t read_buffer_key;
+static pthread_once_t read_buffer_once = PTHREAD_ONCE_INIT;
+
+static void create_read_buffer_key() {
+    pthread_key_create(&read_buffer_key, free);
+}
+
+/* Throws an IOException with the message of errno.
+** @param message the description of the failed operation.
+*/
+static void throw_io_error(JNIEnv *env, const char *message) {
+    char error[128];
+    char text[256];
+    /* the GNU strerror_r is thread safe and may return a static string */
+    snprintf(text, sizeof(text), "%s: %s", message, strerror_r(errno, error, sizeof(error)));
+    throw_error(env, IO_EXCEPTION, text);
+}
+
+/* Passes a file region to the context using mmap.
+** @return 1 for success, 0 if an exception was thrown.
+*/
+static int update_with_mmap(JNIEnv *env, EVP_MD_CTX *mdctx, int fd, off_t offset, off_t length) {
+    off_t pageSize = sysconf(_SC_PAGESIZE);
+    off_t end = offset + length;
+    off_t position = offset;
+    while (position < end) {
+        off_t chunk = end - position;
+        if (chunk > MMAP_CHUNK_SIZE) {
+            chunk = MMAP_CHUNK_SIZE;
+        }
+        /* mmap offsets need to be page aligned */
+        off_t alignedPosition = position - position % pageSize;
+        size_t mapLength = (size_t)(chunk + position - alignedPosition);
+        void *map = mmap(NULL, mapLength, PROT_READ, MAP_SHARED, fd, alignedPosition);
+        if (map == MAP_FAILED) {
+            throw_io_error(env, "mmap failed");
+            return 0;
+        }
+        madvise(map, mapLength, MADV_SEQUENTIAL);
+        int success = EVP_DigestUpdate(mdctx, (char*)map + (position - alignedPosition), (size_t)chunk);
+        munmap(map, mapLength);
+        if (1 != success) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestUpdate failed");
+            return 0;
+        }
+        position += chunk;
+    }
+    return 1;
+}
+
+/* Passes a file region to the context using pread into a per-thread buffer.
+** @return 1 for success, 0 if an exception was thrown.
+*/
+static int update_with_pread(JNIEnv *env, EVP_MD_CTX *mdctx, int fd, off_t offset, off_t length) {
+    pthread_once(&read_buffer_once, create_read_buffer_key);
+    void *buffer = pthread_getspecific(read_buffer_key);
+    if (buffer == NULL) {
+        if (0 != posix_memalign(&buffer, PREAD_BUFFER_ALIGNMENT, PREAD_BUFFER_SIZE)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate read buffer");
+            return 0;
+        }
+        pthread_setspecific(read_buffer_key, buffer);
+    }
+
+    posix_fadvise(fd, offset, length, POSIX_FADV_SEQUENTIAL);
+    off_t end = offset + length;
+    off_t position = offset;
+    while (position < end) {
+        size_t chunk = PREAD_BUFFER_SIZE;
+        if (end - position < (off_t)chunk) {
+            chunk = (size_t)(end - position);
+        }
+        ssize_t bytesRead = pread(fd, buffer, chunk, position);
+        if (bytesRead < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            throw_io_error(env, "pread failed");
+            return 0;
+        }
+        if (bytesRead == 0) {
+            throw_error(env, EOF_EXCEPTION, "File was truncated while reading");
+            return 0;
+        }
+        if (1 != EVP_DigestUpdate(mdctx, buffer, (size_t)bytesRead)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestUpdate failed");
+            return 0;
+        }
+        position += bytesRead;
+    }
+    return 1;
+}
+
+/* Calculates the digest of a whole file.
+** @return 1 for success, 0 if an exception was thrown.
+*/
+static int digest_fd(JNIEnv *env, const EVP_MD *evp_md, int fd, jint mode, unsigned char *digest, unsigned int *digestLength) {
+    /* mmap would crash with SIGBUS beyond the end of the file */
+    struct stat fileStat;
+    if (0 != fstat(fd, &fileStat)) {
+        throw_io_error(env, "fstat failed");
+        return 0;
+    }
+
+    EVP_MD_CTX *mdctx;
+    if ((mdctx = OPENSSL_MD_NEW_FUNC()) == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate context");
+        return 0;
+    }
+
+    int success;
+    if (1 != EVP_DigestInit_ex(mdctx, evp_md, NULL)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestInit_ex failed");
+        success = 0;
+    } else if (fileStat.st_size == 0) {
+        success = 1;
+    } else if (mode == FILE_DIGEST_MODE_MMAP) {
+        success = update_with_mmap(env, mdctx, fd, 0, fileStat.st_size);
+    } else if (mode == FILE_DIGEST_MODE_PREAD) {
+        success = update_with_pread(env, mdctx, fd, 0, fileStat.st_size);
+    } else {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Unknown file digest mode");
+        success = 0;
+    }
+
+    if (success && 1 != EVP_DigestFinal_ex(mdctx, digest, digestLength)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
+        success = 0;
+    }
+    OPENSSL_MD_FREE_FUNC(mdctx);
+    return success;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_sfuhrm_openssl4j_FileDigest_nativeDigestFile
+  (JNIEnv *env, jclass clazz, jlong md, jbyteArray jpath, jint mode) {
+    if (jpath == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "path is NULL");
+        return NULL;
+    }
+    if (md == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MessageDigest handle is 0");
+        return NULL;
+    }
+    const EVP_MD *evp_md = POINTER_FROM_HANDLE(const EVP_MD*, md);
+
+    jsize pathLength = (*env)->GetArrayLength(env, jpath);
+    char *path = malloc((size_t)pathLength + 1);
+    if (path == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate path");
+        return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, jpath, 0, pathLength, (jbyte*)path);
+    path[pathLength] = 0;
+    if (strlen(path) != (size_t)pathLength) {
+        free(path);
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "path contains NUL");
+        return NULL;
+    }
+
+    int fd;
+    do {
+        fd = open(path, O_RDONLY | O_CLOEXEC);
+    } while (fd < 0 && errno == EINTR);
+    free(path);
+    if (fd < 0) {
+        throw_io_error(env, "open failed");
+        return NULL;
+    }
+
+    unsigned char digest[EVP_MAX_MD_SIZE];
+    unsigned int digestLength = 0;
+    int success = digest_fd(env, evp_md, fd, mode, digest, &digestLength);
+    close(fd);
+    if (!success) {
+        return NULL;
+    }
+
+    jbyteArray result = (*env)->NewByteArray(env, (jsize)digestLength);
+    if (result != NULL) {
+        (*env)->SetByteArrayRegion(env, result, 0, (jsize)digestLength, (jbyte*)digest);
+    }
+    return result;
+}
@@ -0,0 +1,407 @@
+/*
+** OpenSSL Key Derivation Functions to Java Binding Code.
+**
+** PBKDF2 runs the whole iteration loop in one call
+** of PKCS5_PBKDF2_HMAC. HKDF uses EVP_KDF on OpenSSL 3
+** and the EVP_PKEY HKDF method on OpenSSL 1.1.1.
+** scrypt and Argon2id allocate their memory blocks
+** natively, Argon2id (OpenSSL 3.2) processes its lanes
+** in the thread pool of OpenSSL.
+** @author Stephan Fuhrmann
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <openssl/evp.h>
+#include <openssl/err.h>
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+#include <openssl/kdf.h>
+#include <openssl/core_names.h>
+#include <openssl/params.h>
+#if OPENSSL_VERSION_NUMBER >= 0x30200000L
+#include <openssl/thread.h>
+#endif
+#elif OPENSSL_VERSION_NUMBER >= 0x10101000L
+#include <openssl/kdf.h>
+#endif
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_Pbkdf2.h"
+#include "de_sfuhrm_openssl4j_Hkdf.h"
+#include "de_sfuhrm_openssl4j_Scrypt.h"
+#include "de_sfuhrm_openssl4j_Argon2id.h"
+
+/* Copies a Java array to the heap, or returns NULL if an exception was thrown.
+** The copy has to be released with free_copy. */
+static unsigned char *copy_array(JNIEnv *env, jbyteArray jarray, jsize *length) {
+    *length = (*env)->GetArrayLength(env, jarray);
+    /* one more byte, so empty arrays are no special case */
+    unsigned char *result = malloc(*length + 1);
+    if (result == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate array copy");
+        return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, jarray, 0, *length, (jbyte*)result);
+    return result;
+}
+
+/* Frees an array copy, overwriting secret contents. */
+static void free_copy(unsigned char *copy, jsize length) {
+    if (copy != NULL) {
+        OPENSSL_cleanse(copy, length);
+        free(copy);
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_Pbkdf2_nativePbkdf2
+  (JNIEnv *env, jclass clazz, jlong md, jbyteArray jpassword, jbyteArray jsalt, jint iterations, jbyteArray jkey) {
+    if (md == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MessageDigest handle is 0");
+        return;
+    }
+    if (jpassword == NULL || jsalt == NULL || jkey == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "password, salt or key is NULL");
+        return;
+    }
+    jsize passwordLength, saltLength, keyLength;
+    unsigned char *password = copy_array(env, jpassword, &passwordLength);
+    unsigned char *salt = copy_array(env, jsalt, &saltLength);
+    unsigned char *key = copy_array(env, jkey, &keyLength);
+    if (password == NULL || salt == NULL || key == NULL) {
+        free_copy(password, passwordLength);
+        free_copy(salt, saltLength);
+        free_copy(key, keyLength);
+        return;
+    }
+
+    int result = PKCS5_PBKDF2_HMAC((const char*)password, passwordLength,
+            salt, saltLength, iterations,
+            POINTER_FROM_HANDLE(const EVP_MD*, md), keyLength, key);
+    if (1 == result) {
+        (*env)->SetByteArrayRegion(env, jkey, 0, keyLength, (jbyte*)key);
+    }
+    free_copy(password, passwordLength);
+    free_copy(salt, saltLength);
+    free_copy(key, keyLength);
+    if (1 != result) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "PKCS5_PBKDF2_HMAC failed");
+    }
+}
+
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+
+/* The HKDF implementation, fetched once. */
+static EVP_KDF *hkdf = NULL;
+static pthread_once_t hkdf_once = PTHREAD_ONCE_INIT;
+
+static void fetch_hkdf() {
+    hkdf = EVP_KDF_fetch(NULL, "HKDF", NULL);
+}
+
+static int hkdf_derive(const EVP_MD *md, int mode,
+        unsigned char *key, size_t keyLength,
+        unsigned char *salt, size_t saltLength,
+        unsigned char *info, size_t infoLength,
+        unsigned char *out, size_t outLength) {
+    pthread_once(&hkdf_once, fetch_hkdf);
+    if (hkdf == NULL) {
+        return 0;
+    }
+    EVP_KDF_CTX *ctx = EVP_KDF_CTX_new(hkdf);
+    if (ctx == NULL) {
+        return 0;
+    }
+    OSSL_PARAM params[6];
+    OSSL_PARAM *p = params;
+    *p++ = OSSL_PARAM_construct_utf8_string(OSSL_KDF_PARAM_DIGEST, (char*)EVP_MD_get0_name(md), 0);
+    *p++ = OSSL_PARAM_construct_int(OSSL_KDF_PARAM_MODE, &mode);
+    *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_KEY, key, keyLength);
+    if (salt != NULL && saltLength > 0) {
+        *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_SALT, salt, saltLength);
+    }
+    if (info != NULL && infoLength > 0) {
+        *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_INFO, info, infoLength);
+    }
+    *p = OSSL_PARAM_construct_end();
+    int result = EVP_KDF_derive(ctx, out, outLength, params);
+    EVP_KDF_CTX_free(ctx);
+    return result;
+}
+
+#elif OPENSSL_VERSION_NUMBER >= 0x10101000L
+
+static int hkdf_derive(const EVP_MD *md, int mode,
+        unsigned char *key, size_t keyLength,
+        unsigned char *salt, size_t saltLength,
+        unsigned char *info, size_t infoLength,
+        unsigned char *out, size_t outLength) {
+    EVP_PKEY_CTX *ctx = EVP_PKEY_CTX_new_id(EVP_PKEY_HKDF, NULL);
+    if (ctx == NULL) {
+        return 0;
+    }
+    int result = EVP_PKEY_derive_init(ctx) == 1
+            && EVP_PKEY_CTX_hkdf_mode(ctx, mode) == 1
+            && EVP_PKEY_CTX_set_hkdf_md(ctx, md) == 1
+            && EVP_PKEY_CTX_set1_hkdf_key(ctx, key, keyLength) == 1
+            && (salt == NULL || saltLength == 0 || EVP_PKEY_CTX_set1_hkdf_salt(ctx, salt, saltLength) == 1)
+            && (info == NULL || infoLength == 0 || EVP_PKEY_CTX_add1_hkdf_info(ctx, info, infoLength) == 1)
+            && EVP_PKEY_derive(ctx, out, &outLength) == 1;
+    EVP_PKEY_CTX_free(ctx);
+    return result;
+}
+
+#endif
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_Hkdf_nativeHkdf
+  (JNIEnv *env, jclass clazz, jlong md, jint mode, jbyteArray jkey, jbyteArray jsalt, jbyteArray jinfo, jbyteArray jout) {
+#if OPENSSL_VERSION_NUMBER >= 0x10101000L
+    if (md == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MessageDigest handle is 0");
+        return;
+    }
+    if (jkey == NULL || jout == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "key or output is NULL");
+        return;
+    }
+    jsize keyLength = 0, saltLength = 0, infoLength = 0, outLength = 0;
+    unsigned char *salt = NULL;
+    unsigned char *info = NULL;
+    unsigned char *key = copy_array(env, jkey, &keyLength);
+    unsigned char *out = copy_array(env, jout, &outLength);
+    int ok = key != NULL && out != NULL;
+    if (ok && jsalt != NULL) {
+        salt = copy_array(env, jsalt, &saltLength);
+        ok = salt != NULL;
+    }
+    if (ok && jinfo != NULL) {
+        info = copy_array(env, jinfo, &infoLength);
+        ok = info != NULL;
+    }
+
+    if (ok) {
+        int result = hkdf_derive(POINTER_FROM_HANDLE(const EVP_MD*, md), mode,
+                key, keyLength, salt, saltLength, info, infoLength, out, outLength);
+        if (1 == result) {
+            (*env)->SetByteArrayRegion(env, jout, 0, outLength, (jbyte*)out);
+        } else {
+            ERR_clear_error();
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "HKDF derivation failed");
+        }
+    }
+    free_copy(key, keyLength);
+    free_copy(salt, saltLength);
+    free_copy(info, infoLength);
+    free_copy(out, outLength);
+#else
+    throw_error(env, UNSUPPORTED_OPERATION_EXCEPTION, "HKDF needs OpenSSL 1.1.1 or later");
+#endif
+}
+
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+
+/* The scrypt implementation, fetched once. */
+static EVP_KDF *scrypt = NULL;
+static pthread_once_t scrypt_once = PTHREAD_ONCE_INIT;
+
+static void fetch_scrypt() {
+    scrypt = EVP_KDF_fetch(NULL, "SCRYPT", NULL);
+}
+
+static int scrypt_derive(unsigned char *password, size_t passwordLength,
+        unsigned char *salt, size_t saltLength,
+        uint64_t n, uint32_t r, uint32_t p, uint64_t maxMemory,
+        unsigned char *out, size_t outLength) {
+    pthread_once(&scrypt_once, fetch_scrypt);
+    if (scrypt == NULL) {
+        return 0;
+    }
+    EVP_KDF_CTX *ctx = EVP_KDF_CTX_new(scrypt);
+    if (ctx == NULL) {
+        return 0;
+    }
+    OSSL_PARAM params[7];
+    params[0] = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_PASSWORD, password, passwordLength);
+    params[1] = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_SALT, salt, saltLength);
+    params[2] = OSSL_PARAM_construct_uint64(OSSL_KDF_PARAM_SCRYPT_N, &n);
+    params[3] = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_SCRYPT_R, &r);
+    params[4] = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_SCRYPT_P, &p);
+    params[5] = OSSL_PARAM_construct_uint64(OSSL_KDF_PARAM_SCRYPT_MAXMEM, &maxMemory);
+    params[6] = OSSL_PARAM_construct_end();
+    int result = EVP_KDF_derive(ctx, out, outLength, params);
+    EVP_KDF_CTX_free(ctx);
+    return result;
+}
+
+#else
+
+static int scrypt_derive(unsigned char *password, size_t passwordLength,
+        unsigned char *salt, size_t saltLength,
+        uint64_t n, uint32_t r, uint32_t p, uint64_t maxMemory,
+        unsigned char *out, size_t outLength) {
+    return EVP_PBE_scrypt((const char*)password, passwordLength, salt, saltLength,
+            n, r, p, maxMemory, out, outLength);
+}
+
+#endif
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_Scrypt_nativeScrypt
+  (JNIEnv *env, jclass clazz, jbyteArray jpassword, jbyteArray jsalt, jlong n, jint r, jint p, jlong maxMemory, jbyteArray jkey) {
+    if (jpassword == NULL || jsalt == NULL || jkey == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "password, salt or key is NULL");
+        return;
+    }
+    jsize passwordLength = 0, saltLength = 0, keyLength = 0;
+    unsigned char *salt = NULL;
+    unsigned char *key = NULL;
+    unsigned char *password = copy_array(env, jpassword, &passwordLength);
+    if (password != NULL) {
+        salt = copy_array(env, jsalt, &saltLength);
+    }
+    if (salt != NULL) {
+        key = copy_array(env, jkey, &keyLength);
+    }
+
+    if (key != NULL) {
+        /* the memory blocks are allocated by OpenSSL, outside of the Java heap */
+        int result = scrypt_derive(password, passwordLength, salt, saltLength,
+                (uint64_t) n, (uint32_t) r, (uint32_t) p, (uint64_t) maxMemory,
+                key, keyLength);
+        if (1 == result) {
+            (*env)->SetByteArrayRegion(env, jkey, 0, keyLength, (jbyte*)key);
+        } else {
+            ERR_clear_error();
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "scrypt derivation failed");
+        }
+    }
+    free_copy(password, passwordLength);
+    free_copy(salt, saltLength);
+    free_copy(key, keyLength);
+}
+
+#if OPENSSL_VERSION_NUMBER >= 0x30200000L
+
+/* The Argon2id implementation, fetched once. */
+static EVP_KDF *argon2id = NULL;
+static pthread_once_t argon2id_once = PTHREAD_ONCE_INIT;
+
+/* Serializes raising the size of the OpenSSL thread pool. */
+static pthread_mutex_t max_threads_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static void fetch_argon2id() {
+    argon2id = EVP_KDF_fetch(NULL, "ARGON2ID", NULL);
+    if (argon2id == NULL) {
+        ERR_clear_error();
+    }
+}
+
+/* Makes the OpenSSL thread pool big enough for a derivation with the given threads. */
+static void ensure_max_threads(uint32_t threads) {
+    pthread_mutex_lock(&max_threads_mutex);
+    if (OSSL_get_max_threads(NULL) < threads) {
+        OSSL_set_max_threads(NULL, threads);
+    }
+    pthread_mutex_unlock(&max_threads_mutex);
+}
+
+static int argon2id_derive(unsigned char *password, size_t passwordLength,
+        unsigned char *salt, size_t saltLength,
+        unsigned char *secret, size_t secretLength,
+        unsigned char *ad, size_t adLength,
+        uint32_t iterations, uint32_t memoryKiB, uint32_t lanes, uint32_t threads,
+        unsigned char *out, size_t outLength) {
+    pthread_once(&argon2id_once, fetch_argon2id);
+    if (argon2id == NULL) {
+        return 0;
+    }
+    if (threads > 1) {
+        ensure_max_threads(threads);
+    }
+    EVP_KDF_CTX *ctx = EVP_KDF_CTX_new(argon2id);
+    if (ctx == NULL) {
+        return 0;
+    }
+    OSSL_PARAM params[10];
+    OSSL_PARAM *p = params;
+    *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_PASSWORD, password, passwordLength);
+    *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_SALT, salt, saltLength);
+    if (secret != NULL && secretLength > 0) {
+        *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_SECRET, secret, secretLength);
+    }
+    if (ad != NULL && adLength > 0) {
+        *p++ = OSSL_PARAM_construct_octet_string(OSSL_KDF_PARAM_ARGON2_AD, ad, adLength);
+    }
+    *p++ = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_ITER, &iterations);
+    *p++ = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_ARGON2_MEMCOST, &memoryKiB);
+    *p++ = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_ARGON2_LANES, &lanes);
+    *p++ = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_THREADS, &threads);
+    *p = OSSL_PARAM_construct_end();
+    int result = EVP_KDF_derive(ctx, out, outLength, params);
+    if (1 != result && threads > 1) {
+        /* the pool is busy with other derivations, the lanes give the same result in one thread */
+        ERR_clear_error();
+        uint32_t oneThread = 1;
+        OSSL_PARAM retry[2];
+        retry[0] = OSSL_PARAM_construct_uint32(OSSL_KDF_PARAM_THREADS, &oneThread);
+        retry[1] = OSSL_PARAM_construct_end();
+        result = EVP_KDF_derive(ctx, out, outLength, retry);
+    }
+    EVP_KDF_CTX_free(ctx);
+    return result;
+}
+
+#endif
+
+JNIEXPORT jboolean JNICALL Java_de_sfuhrm_openssl4j_Argon2id_nativeIsAvailable
+  (JNIEnv *env, jclass clazz) {
+#if OPENSSL_VERSION_NUMBER >= 0x30200000L
+    pthread_once(&argon2id_once, fetch_argon2id);
+    return argon2id != NULL ? JNI_TRUE : JNI_FALSE;
+#else
+    return JNI_FALSE;
+#endif
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_Argon2id_nativeArgon2id
+  (JNIEnv *env, jclass clazz, jbyteArray jpassword, jbyteArray jsalt, jbyteArray jsecret, jbyteArray jad,
+   jint iterations, jint memoryKiB, jint lanes, jint threads, jbyteArray jout) {
+#if OPENSSL_VERSION_NUMBER >= 0x30200000L
+    if (jpassword == NULL || jsalt == NULL || jout == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "password, salt or output is NULL");
+        return;
+    }
+    jsize passwordLength = 0, saltLength = 0, secretLength = 0, adLength = 0, outLength = 0;
+    unsigned char *salt = NULL;
+    unsigned char *secret = NULL;
+    unsigned char *ad = NULL;
+    unsigned char *out = NULL;
+    unsigned char *password = copy_array(env, jpassword, &passwordLength);
+    int ok = password != NULL
+            && (salt = copy_array(env, jsalt, &saltLength)) != NULL
+            && (out = copy_array(env, jout, &outLength)) != NULL
+            && (jsecret == NULL || (secret = copy_array(env, jsecret, &secretLength)) != NULL)
+            && (jad == NULL || (ad = copy_array(env, jad, &adLength)) != NULL);
+
+    if (ok) {
+        /* the memory blocks are allocated by OpenSSL, outside of the Java heap */
+        int result = argon2id_derive(password, passwordLength, salt, saltLength,
+                secret, secretLength, ad, adLength,
+                (uint32_t) iterations, (uint32_t) memoryKiB, (uint32_t) lanes, (uint32_t) threads,
+                out, outLength);
+        if (1 == result) {
+            (*env)->SetByteArrayRegion(env, jout, 0, outLength, (jbyte*)out);
+        } else {
+            ERR_clear_error();
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Argon2id derivation failed");
+        }
+    }
+    free_copy(password, passwordLength);
+    free_copy(salt, saltLength);
+    free_copy(secret, secretLength);
+    free_copy(ad, adLength);
+    free_copy(out, outLength);
+#else
+    throw_error(env, UNSUPPORTED_OPERATION_EXCEPTION, "Argon2id needs OpenSSL 3.2 or later");
+#endif
+}
@@ -0,0 +1,59 @@
+/*
+** OpenSSL Key Agreement to Java Binding Code.
+**
+** Derives shared secrets with EVP_PKEY_derive from
+** the EVP_PKEY handles of NativeKey (X25519, X448, ECDH).
+** @author Stephan Fuhrmann
+*/
+
+#include <openssl/evp.h>
+#include <openssl/err.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_OpenSSLKeyAgreementNative.h"
+
+/* Big enough for the secrets of all supported curves. */
+#define MAX_SECRET_LENGTH 128
+
+JNIEXPORT jbyteArray JNICALL Java_de_sfuhrm_openssl4j_OpenSSLKeyAgreementNative_nativeDerive
+  (JNIEnv *env, jclass clazz, jobject privateKey, jobject peerKey) {
+    EVP_PKEY *pkey = get_pkey_from(env, privateKey);
+    if (pkey == NULL) {
+        return NULL;
+    }
+    EVP_PKEY *peer = get_pkey_from(env, peerKey);
+    if (peer == NULL) {
+        return NULL;
+    }
+    unsigned char secret[MAX_SECRET_LENGTH];
+    size_t secretLength = 0;
+    EVP_PKEY_CTX *ctx = EVP_PKEY_CTX_new(pkey, NULL);
+    /* rejects peer keys with other parameters, and all-zero X25519 secrets.
+     * Parsing an EC key already checks that the point is on the curve, which is
+     * enough for the cofactor 1 NIST curves, so the costly full public key check
+     * of OpenSSL 3 is skipped. */
+    int ok = ctx != NULL
+            && 1 == EVP_PKEY_derive_init(ctx)
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+            && 1 == EVP_PKEY_derive_set_peer_ex(ctx, peer, 0)
+#else
+            && 1 == EVP_PKEY_derive_set_peer(ctx, peer)
+#endif
+            && 1 == EVP_PKEY_derive(ctx, NULL, &secretLength)
+            && secretLength <= MAX_SECRET_LENGTH
+            && 1 == EVP_PKEY_derive(ctx, secret, &secretLength);
+    EVP_PKEY_CTX_free(ctx);
+    if (!ok) {
+        ERR_clear_error();
+        OPENSSL_cleanse(secret, sizeof(secret));
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Key derivation failed");
+        return NULL;
+    }
+    jbyteArray result = (*env)->NewByteArray(env, secretLength);
+    if (result != NULL) {
+        (*env)->SetByteArrayRegion(env, result, 0, secretLength, (jbyte*)secret);
+    }
+    OPENSSL_cleanse(secret, sizeof(secret));
+    return result;
+}
@@ -0,0 +1,267 @@
+/*
+** OpenSSL HMAC to Java Binding Code.
+**
+** Uses EVP_MAC on OpenSSL 3 and HMAC_CTX on OpenSSL 1.1.
+** A keyed context holds the precomputed inner and outer
+** padded key states. Contexts are duplicated from it and
+** re-initialized without the key, which restores the
+** precomputed states instead of hashing the key again.
+** @author Stephan Fuhrmann
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <openssl/evp.h>
+#include <openssl/crypto.h>
+
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+#include <openssl/core_names.h>
+#include <openssl/params.h>
+#else
+#include <openssl/hmac.h>
+#endif
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_OpenSSLMacNative.h"
+
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+
+typedef EVP_MAC_CTX MAC_CTX;
+
+/* The HMAC implementation, fetched once. */
+static EVP_MAC *hmac = NULL;
+static pthread_once_t hmac_once = PTHREAD_ONCE_INIT;
+
+static void fetch_hmac() {
+    hmac = EVP_MAC_fetch(NULL, "HMAC", NULL);
+}
+
+static MAC_CTX *mac_new_keyed(const EVP_MD *md, const unsigned char *key, size_t keyLength) {
+    pthread_once(&hmac_once, fetch_hmac);
+    if (hmac == NULL) {
+        return NULL;
+    }
+    MAC_CTX *ctx = EVP_MAC_CTX_new(hmac);
+    if (ctx == NULL) {
+        return NULL;
+    }
+    OSSL_PARAM params[2];
+    params[0] = OSSL_PARAM_construct_utf8_string(OSSL_MAC_PARAM_DIGEST, (char*)EVP_MD_get0_name(md), 0);
+    params[1] = OSSL_PARAM_construct_end();
+    if (1 != EVP_MAC_init(ctx, key, keyLength, params)) {
+        EVP_MAC_CTX_free(ctx);
+        return NULL;
+    }
+    return ctx;
+}
+
+#define mac_dup EVP_MAC_CTX_dup
+#define mac_free EVP_MAC_CTX_free
+
+static int mac_update(void *ctx, const void *data, size_t length) {
+    return EVP_MAC_update((MAC_CTX*)ctx, data, length);
+}
+
+static int mac_final(MAC_CTX *ctx, unsigned char *out) {
+    size_t length;
+    return EVP_MAC_final(ctx, out, &length, EVP_MAX_MD_SIZE);
+}
+
+/* Restores the precomputed key states. */
+static int mac_reinit(MAC_CTX *ctx) {
+    return EVP_MAC_init(ctx, NULL, 0, NULL);
+}
+
+#else
+
+typedef HMAC_CTX MAC_CTX;
+
+static MAC_CTX *mac_new_keyed(const EVP_MD *md, const unsigned char *key, size_t keyLength) {
+    MAC_CTX *ctx = HMAC_CTX_new();
+    if (ctx == NULL) {
+        return NULL;
+    }
+    if (1 != HMAC_Init_ex(ctx, key, (int)keyLength, md, NULL)) {
+        HMAC_CTX_free(ctx);
+        return NULL;
+    }
+    return ctx;
+}
+
+static MAC_CTX *mac_dup(MAC_CTX *src) {
+    MAC_CTX *ctx = HMAC_CTX_new();
+    if (ctx == NULL) {
+        return NULL;
+    }
+    if (1 != HMAC_CTX_copy(ctx, src)) {
+        HMAC_CTX_free(ctx);
+        return NULL;
+    }
+    return ctx;
+}
+
+#define mac_free HMAC_CTX_free
+
+static int mac_update(void *ctx, const void *data, size_t length) {
+    return HMAC_Update((MAC_CTX*)ctx, data, length);
+}
+
+static int mac_final(MAC_CTX *ctx, unsigned char *out) {
+    unsigned int length;
+    return HMAC_Final(ctx, out, &length);
+}
+
+/* Restores the precomputed key states. */
+static int mac_reinit(MAC_CTX *ctx) {
+    return HMAC_Init_ex(ctx, NULL, 0, NULL, NULL);
+}
+
+#endif
+
+/* The handle fields of OpenSSLMacNative.KeySchedule and OpenSSLMacNative.Context. */
+static jfieldID scheduleHandleField;
+static jfieldID contextHandleField;
+
+/* Gets the keyed context of a key schedule. */
+static MAC_CTX *get_schedule_from(JNIEnv *env, jobject schedule) {
+    return get_handle_from(env, schedule, &scheduleHandleField, "template");
+}
+
+/* Gets the native context of a Context holder. */
+static MAC_CTX *get_mac_from(JNIEnv *env, jobject context) {
+    return get_handle_from(env, context, &contextHandleField, "nativeContext");
+}
+
+/* Duplicates a context.
+** @return the handle of the copy, or 0 if an exception was thrown.
+*/
+static jlong dup_context(JNIEnv *env, MAC_CTX *src) {
+    if (src == NULL) {
+        return 0;
+    }
+    MAC_CTX *ctx = mac_dup(src);
+    if (ctx == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not duplicate HMAC context");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(ctx);
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeNewKeyed
+  (JNIEnv *env, jclass clazz, jlong md, jbyteArray jkey) {
+    if (jkey == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "key is NULL");
+        return 0;
+    }
+    if (md == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MessageDigest handle is 0");
+        return 0;
+    }
+    jsize keyLength = (*env)->GetArrayLength(env, jkey);
+    unsigned char *key = malloc(keyLength > 0 ? keyLength : 1);
+    if (key == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate key");
+        return 0;
+    }
+    (*env)->GetByteArrayRegion(env, jkey, 0, keyLength, (jbyte*)key);
+    MAC_CTX *ctx = mac_new_keyed(POINTER_FROM_HANDLE(const EVP_MD*, md), key, keyLength);
+    OPENSSL_cleanse(key, keyLength);
+    free(key);
+    if (ctx == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not initialize HMAC");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(ctx);
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeDup
+  (JNIEnv *env, jclass clazz, jobject schedule) {
+    return dup_context(env, get_schedule_from(env, schedule));
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeCopy
+  (JNIEnv *env, jclass clazz, jobject context) {
+    return dup_context(env, get_mac_from(env, context));
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeFree
+  (JNIEnv *env, jclass clazz, jlong context) {
+    MAC_CTX *ctx = get_context_from(env, context);
+    if (ctx != NULL) {
+        mac_free(ctx);
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeUpdateWithByte
+  (JNIEnv *env, jclass clazz, jobject context, jbyte byteData) {
+    MAC_CTX *ctx = get_mac_from(env, context);
+    if (ctx != NULL) {
+        if (1 != mac_update(ctx, &byteData, 1)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "HMAC update failed");
+        }
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeUpdateWithByteArray
+  (JNIEnv *env, jclass clazz, jobject context, jbyteArray jarray, jint offset, jint length) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return;
+    }
+    MAC_CTX *ctx = get_mac_from(env, context);
+    if (ctx != NULL) {
+        update_from_array_region(env, jarray, offset, length, mac_update, ctx, "HMAC update failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeUpdateWithByteBuffer
+  (JNIEnv *env, jclass clazz, jobject context, jobject bb, jint offset, jint length) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return;
+    }
+    MAC_CTX *ctx = get_mac_from(env, context);
+    if (ctx != NULL) {
+        jbyte* buffer = (*env)->GetDirectBufferAddress(env, bb);
+        if (buffer != NULL) {
+            if (1 != mac_update(ctx, buffer + offset, length)) {
+                throw_error(env, ILLEGAL_STATE_EXCEPTION, "HMAC update failed");
+            }
+        } else {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+        }
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeFinal
+  (JNIEnv *env, jclass clazz, jobject context, jbyteArray jmac, jint macOffset, jint macLength) {
+    if (jmac == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MAC array is NULL");
+        return;
+    }
+    MAC_CTX *ctx = get_mac_from(env, context);
+    if (ctx != NULL) {
+        unsigned char cmac[EVP_MAX_MD_SIZE];
+        if (1 != mac_final(ctx, cmac)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "HMAC final failed");
+            return;
+        }
+        if (1 != mac_reinit(ctx)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "HMAC init failed");
+            return;
+        }
+        (*env)->SetByteArrayRegion(env, jmac, macOffset, macLength, (jbyte*)cmac);
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMacNative_nativeReset
+  (JNIEnv *env, jclass clazz, jobject context) {
+    MAC_CTX *ctx = get_mac_from(env, context);
+    if (ctx != NULL) {
+        if (1 != mac_reinit(ctx)) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "HMAC init failed");
+        }
+    }
+}
@@ -9,7 +9,8 @@
 #include <stdlib.h>
 #include <string.h>
 #include <openssl/evp.h>
-#include <malloc.h>
+#include <openssl/err.h>
+#include <pthread.h>
 
 #include "openssl4j.h"
 
@@ -23,17 +24,8 @@
 #define OPENSSL_MD_FREE_FUNC EVP_MD_CTX_destroy
 #endif
 
-JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_digestLength
-  (JNIEnv *env, jclass clazz, jobject context) {
-    EVP_MD_CTX *mdctx = get_context_from(env, context);
-    if (mdctx != NULL) {
-        return EVP_MD_CTX_size(mdctx);
-    }
-    return 0;
-}
-
 JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_removeContext
-  (JNIEnv *env, jclass clazz, jobject context) {
+  (JNIEnv *env, jclass clazz, jlong context) {
     EVP_MD_CTX *mdctx = get_context_from(env, context);
     if (mdctx != NULL) {
         OPENSSL_MD_FREE_FUNC(mdctx);
@@ -96,26 +88,19 @@ JNIEXPORT jobjectArray JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNati
   return result;
 }
 
-JNIEXPORT jobject JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeContext
-  (JNIEnv *env, jobject obj) {
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeContext
+  (JNIEnv *env, jclass clazz) {
     EVP_MD_CTX *mdctx;
 
 	if ((mdctx = OPENSSL_MD_NEW_FUNC()) == NULL) {
         throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate context");
-        return NULL;
+        return 0;
 	}
-
-    size_t usableSize = malloc_usable_size(mdctx);
-    jobject result = (*env)->NewDirectByteBuffer(env, mdctx, usableSize);
-    if (result == NULL) {
-        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not NewDirectByteBuffer()");
-    }
-
-    return result;
+    return HANDLE_FROM_POINTER(mdctx);
 }
 
 JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeUpdateWithByte
-    (JNIEnv *env, jobject obj, jobject context, jbyte byteData) {
+    (JNIEnv *env, jobject obj, jlong context, jbyte byteData) {
       EVP_MD_CTX* context_data = get_context_from(env, context);
       if (context_data != NULL) {
   	    if (1 != EVP_DigestUpdate(context_data, &byteData, 1)) {
@@ -124,8 +109,13 @@ JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativ
       }
 }
 
+/* Adapter of EVP_DigestUpdate to the update_func signature. */
+static int digest_update(void *ctx, const void *data, size_t length) {
+    return EVP_DigestUpdate((EVP_MD_CTX*)ctx, data, length);
+}
+
 JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeUpdateWithByteArray
-  (JNIEnv *env, jobject obj, jobject context, jbyteArray jarray, jint offset, jint length) {
+  (JNIEnv *env, jobject obj, jlong context, jbyteArray jarray, jint offset, jint length) {
     if (jarray == NULL) {
         throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
         return;
@@ -133,24 +123,12 @@ JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativ
 
     EVP_MD_CTX* context_data = get_context_from(env, context);
     if (context_data != NULL) {
-        jboolean isCopy = JNI_FALSE;
-
-        /* TODO this copies the whole array, even if length is 1 byte */
-        jbyte *carray = (*env)->GetByteArrayElements(env, jarray, &isCopy);
-        if (carray != NULL) {
-    	    if (1 != EVP_DigestUpdate(context_data, carray + offset, length)) {
-               throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestUpdate failed");
-	        }
-            /* JNI_ABORT: Don't copy back the array, nothing has changed */
-            (*env)->ReleaseByteArrayElements(env, jarray, carray, JNI_ABORT);
-        } else {
-            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetByteArrayElements for array failed");
-        }
+        update_from_array_region(env, jarray, offset, length, digest_update, context_data, "EVP_DigestUpdate failed");
     }
 }
 
 JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeUpdateWithByteBuffer
-  (JNIEnv *env, jobject obj, jobject context, jobject bb, jint offset, jint length) {
+  (JNIEnv *env, jobject obj, jlong context, jobject bb, jint offset, jint length) {
     if (bb == NULL) {
         throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
         return;
@@ -170,56 +148,450 @@ JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativ
     }
 }
 
+/* Finishes the digest calculation and initializes the context for the next one.
+** @return 1 for success, 0 if an exception was thrown.
+*/
+static int final_and_init(JNIEnv *env, EVP_MD_CTX *mdctx, unsigned char *digest) {
+    unsigned int actualSize;
+    if (1 != EVP_DigestFinal_ex(mdctx, digest, &actualSize)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
+        return 0;
+    }
+    if (1 != EVP_DigestInit_ex(mdctx, NULL, NULL)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestInit_ex failed");
+        return 0;
+    }
+    return 1;
+}
+
 JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeFinal
-  (JNIEnv *env, jobject obj, jobject context, jbyteArray jdigest) {
-    EVP_MD_CTX* context_data = get_context_from(env, context);
+  (JNIEnv *env, jobject obj, jlong context, jbyteArray jdigest, jint digestOffset) {
     if (jdigest == NULL) {
         throw_error(env, NULL_POINTER_EXCEPTION, "Digest array is NULL");
         return;
     }
+    EVP_MD_CTX* context_data = get_context_from(env, context);
     if (context_data != NULL) {
         jbyte cdigest[EVP_MAX_MD_SIZE];
-        unsigned int actualSize;
-  	    if (1 != EVP_DigestFinal_ex(context_data, (unsigned char*)cdigest, &actualSize)) {
-            throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
-	    }
-        (*env)->SetByteArrayRegion(env, jdigest, 0, actualSize, cdigest);
+        if (final_and_init(env, context_data, (unsigned char*)cdigest)) {
+            (*env)->SetByteArrayRegion(env, jdigest, digestOffset, EVP_MD_CTX_size(context_data), cdigest);
+        }
     }
 }
 
-JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeInit
-  (JNIEnv *env, jobject obj, jobject context, jstring jalgoName) {
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeFinalToBuffer
+  (JNIEnv *env, jobject obj, jlong context, jobject bb, jint offset) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return;
+    }
+    EVP_MD_CTX* context_data = get_context_from(env, context);
+    if (context_data != NULL) {
+        jbyte* buffer = (*env)->GetDirectBufferAddress(env, bb);
+        if (buffer != NULL) {
+            final_and_init(env, context_data, (unsigned char*)(buffer + offset));
+        } else {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+        }
+    }
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeFetch
+  (JNIEnv *env, jclass clazz, jstring jalgoName, jstring jpropertyQuery) {
     if (jalgoName == NULL) {
         throw_error(env, NULL_POINTER_EXCEPTION, "Algorithm name is NULL");
-        return;
+        return 0;
+    }
+    const char *algoName = (*env)->GetStringUTFChars(env, jalgoName, NULL);
+    if (algoName == NULL) {
+        return 0;
+    }
+    const char *propertyQuery = NULL;
+    if (jpropertyQuery != NULL) {
+        propertyQuery = (*env)->GetStringUTFChars(env, jpropertyQuery, NULL);
+        if (propertyQuery == NULL) {
+            (*env)->ReleaseStringUTFChars(env, jalgoName, algoName);
+            return 0;
+        }
+    }
+
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+    /* explicit fetch, so EVP_DigestInit_ex does not need to look up the provider store */
+    const EVP_MD *evp_md = EVP_MD_fetch(NULL, algoName, propertyQuery);
+    if (evp_md == NULL) {
+        ERR_clear_error();
     }
+#else
+    /* there are no providers before OpenSSL 3, the property query is ignored */
+    const EVP_MD *evp_md = EVP_get_digestbyname(algoName);
+#endif
+
+    if (propertyQuery != NULL) {
+        (*env)->ReleaseStringUTFChars(env, jpropertyQuery, propertyQuery);
+    }
+    (*env)->ReleaseStringUTFChars(env, jalgoName, algoName);
+
+    if (evp_md == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Named MessageDigest was not found");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(evp_md);
+}
+
+/* Gets the message digest of a handle returned by nativeFetch.
+** @return the message digest, or NULL if an exception was thrown.
+*/
+static const EVP_MD *get_md_from(JNIEnv *env, jlong md) {
+    if (md == 0) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "MessageDigest handle is 0");
+        return NULL;
+    }
+    return POINTER_FROM_HANDLE(const EVP_MD*, md);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeInit
+  (JNIEnv *env, jclass clazz, jlong context, jlong md) {
     EVP_MD_CTX* context_data = get_context_from(env, context);
     if (context_data == NULL) {
+        return;
+    }
+
+    const EVP_MD *evp_md = get_md_from(env, md);
+    if (evp_md == NULL) {
+        return;
+    }
+
+    if (1 != EVP_DigestInit_ex(context_data, evp_md, NULL)) {
         throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestInit_ex failed");
         return;
-     }
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeCopy
+  (JNIEnv *env, jobject obj, jlong from, jlong to) {
+    EVP_MD_CTX* from_data = get_context_from(env, from);
+    if (from_data == NULL) {
+        return;
+    }
+    EVP_MD_CTX* to_data = get_context_from(env, to);
+    if (to_data == NULL) {
+        return;
+    }
+    if (1 != EVP_MD_CTX_copy_ex(to_data, from_data)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_MD_CTX_copy_ex failed");
+    }
+}
 
-    jsize nameLength = (*env)->GetStringUTFLength(env, jalgoName);
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeSnapshot
+  (JNIEnv *env, jobject obj, jlong context, jbyteArray jdigest) {
+    if (jdigest == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "Digest array is NULL");
+        return;
+    }
+    EVP_MD_CTX* context_data = get_context_from(env, context);
+    if (context_data == NULL) {
+        return;
+    }
 
-    char javaNameC[256];
-    if (nameLength > sizeof(javaNameC)) {
-        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Algorithm name exceeds the limit");
+    EVP_MD_CTX *snapshot;
+    if ((snapshot = OPENSSL_MD_NEW_FUNC()) == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate context");
         return;
     }
 
-    jboolean isCopy;
-    const char * cstr = (*env)->GetStringUTFChars(env, jalgoName, &isCopy);
-    strncpy(javaNameC, cstr, sizeof(javaNameC));
-    (*env)->ReleaseStringUTFChars(env, jalgoName, cstr);
+    /* finalize a copy, the original context stays untouched */
+    jbyte cdigest[EVP_MAX_MD_SIZE];
+    unsigned int actualSize;
+    if (1 != EVP_MD_CTX_copy_ex(snapshot, context_data)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_MD_CTX_copy_ex failed");
+    } else if (1 != EVP_DigestFinal_ex(snapshot, (unsigned char*)cdigest, &actualSize)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
+    } else {
+        (*env)->SetByteArrayRegion(env, jdigest, 0, actualSize, cdigest);
+    }
+    OPENSSL_MD_FREE_FUNC(snapshot);
+}
+
+/* Key for the per-thread context of the one-shot functions. */
+static pthread_key_t thread_context_key;
+static pthread_once_t thread_context_once = PTHREAD_ONCE_INIT;
+
+static void free_thread_context(void *context) {
+    OPENSSL_MD_FREE_FUNC((EVP_MD_CTX*)context);
+}
 
-    const EVP_MD *evp_md = EVP_get_digestbyname(javaNameC);
+static void create_thread_context_key() {
+    pthread_key_create(&thread_context_key, free_thread_context);
+}
+
+/* Gets a context that is private to the calling thread.
+** The context is allocated on first use and freed when the thread terminates.
+** @return the context, or NULL if an exception was thrown.
+*/
+static EVP_MD_CTX *get_thread_context(JNIEnv *env) {
+    pthread_once(&thread_context_once, create_thread_context_key);
+    EVP_MD_CTX *mdctx = pthread_getspecific(thread_context_key);
+    if (mdctx == NULL) {
+        if ((mdctx = OPENSSL_MD_NEW_FUNC()) == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate context");
+            return NULL;
+        }
+        pthread_setspecific(thread_context_key, mdctx);
+    }
+    return mdctx;
+}
+
+/* Finishes a digest calculation and writes the digest to a Java array.
+** @return the digest length, or 0 if an exception was thrown.
+*/
+static jint final_to_array(JNIEnv *env, EVP_MD_CTX *mdctx, jbyteArray jdigest, jint digestOffset) {
+    jbyte cdigest[EVP_MAX_MD_SIZE];
+    unsigned int actualSize;
+    if (1 != EVP_DigestFinal_ex(mdctx, (unsigned char*)cdigest, &actualSize)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
+        return 0;
+    }
+    (*env)->SetByteArrayRegion(env, jdigest, digestOffset, actualSize, cdigest);
+    return actualSize;
+}
+
+/* Looks up the digest, checks the output array and initializes the per-thread context.
+** @return the initialized context, or NULL if an exception was thrown.
+*/
+static EVP_MD_CTX *init_one_shot(JNIEnv *env, jlong md, jbyteArray jdigest, jint digestOffset) {
+    if (jdigest == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "Digest array is NULL");
+        return NULL;
+    }
+    const EVP_MD *evp_md = get_md_from(env, md);
     if (evp_md == NULL) {
-        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Named MessageDigest was not found");
-        return;
+        return NULL;
+    }
+    if (digestOffset < 0 || (*env)->GetArrayLength(env, jdigest) - digestOffset < EVP_MD_size(evp_md)) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Digest array too small");
+        return NULL;
+    }
+    EVP_MD_CTX *mdctx = get_thread_context(env);
+    if (mdctx == NULL) {
+        return NULL;
+    }
+    if (1 != EVP_DigestInit_ex(mdctx, evp_md, NULL)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestInit_ex failed");
+        return NULL;
     }
+    return mdctx;
+}
 
-    if (1 != EVP_DigestInit_ex(context_data, evp_md, NULL)) {
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeDigestArray
+  (JNIEnv *env, jclass clazz, jlong md, jbyteArray jarray, jint offset, jint length, jbyteArray jdigest, jint digestOffset) {
+    EVP_MD_CTX *mdctx = init_one_shot(env, md, jdigest, digestOffset);
+    if (mdctx == NULL) {
+        return 0;
+    }
+    if (!update_from_array_region(env, jarray, offset, length, digest_update, mdctx, "EVP_DigestUpdate failed")) {
+        return 0;
+    }
+    return final_to_array(env, mdctx, jdigest, digestOffset);
+}
+
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeDigestBuffer
+  (JNIEnv *env, jclass clazz, jlong md, jobject bb, jint offset, jint length, jbyteArray jdigest, jint digestOffset) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return 0;
+    }
+    EVP_MD_CTX *mdctx = init_one_shot(env, md, jdigest, digestOffset);
+    if (mdctx == NULL) {
+        return 0;
+    }
+    jbyte* buffer = (*env)->GetDirectBufferAddress(env, bb);
+    if (buffer == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+        return 0;
+    }
+    if (1 != EVP_DigestUpdate(mdctx, buffer + offset, length)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestUpdate failed");
+        return 0;
+    }
+    return final_to_array(env, mdctx, jdigest, digestOffset);
+}
+
+/* Number of messages of a batch that are processed per block. */
+#define BATCH_BLOCK_SIZE 256
+
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeDigestLength
+  (JNIEnv *env, jclass clazz, jlong md) {
+    const EVP_MD *evp_md = get_md_from(env, md);
+    if (evp_md == NULL) {
+        return 0;
+    }
+    return EVP_MD_size(evp_md);
+}
+
+/* Checks the batch arguments and initializes the per-thread context.
+** @return the initialized context, or NULL if an exception was thrown.
+*/
+static EVP_MD_CTX *init_batch(JNIEnv *env, jlong md, jintArray joffsets, jintArray jlengths, jint from, jint to, jbyteArray jdigests) {
+    if (joffsets == NULL || jlengths == NULL || jdigests == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "offsets, lengths or digests array is NULL");
+        return NULL;
+    }
+    jsize count = (*env)->GetArrayLength(env, joffsets);
+    if (count != (*env)->GetArrayLength(env, jlengths)) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "offsets and lengths arrays differ in length");
+        return NULL;
+    }
+    if (from < 0 || from > to || to > count) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "batch range out of bounds");
+        return NULL;
+    }
+    const EVP_MD *evp_md = get_md_from(env, md);
+    if (evp_md == NULL) {
+        return NULL;
+    }
+    if ((jlong)(*env)->GetArrayLength(env, jdigests) < (jlong)to * EVP_MD_size(evp_md)) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Digests array too small");
+        return NULL;
+    }
+    EVP_MD_CTX *mdctx = get_thread_context(env);
+    if (mdctx == NULL) {
+        return NULL;
+    }
+    if (1 != EVP_DigestInit_ex(mdctx, evp_md, NULL)) {
         throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestInit_ex failed");
+        return NULL;
+    }
+    return mdctx;
+}
+
+/* Reads a block of offsets and lengths and checks them against the data length.
+** @return 1 for success, 0 if an exception was thrown.
+*/
+static int read_batch_block(JNIEnv *env, jintArray joffsets, jintArray jlengths, jint start, jint count, jlong dataLength, jint *offsets, jint *lengths) {
+    (*env)->GetIntArrayRegion(env, joffsets, start, count, offsets);
+    (*env)->GetIntArrayRegion(env, jlengths, start, count, lengths);
+    for (jint i = 0; i < count; i++) {
+        if (offsets[i] < 0 || lengths[i] < 0 || (jlong)offsets[i] + lengths[i] > dataLength) {
+            throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "message out of data bounds");
+            return 0;
+        }
+    }
+    return 1;
+}
+
+/* Calculates one digest of a batch. The context is initialized afterwards
+** for the next message.
+** @return 1 for success, 0 for failure.
+*/
+static int digest_message(EVP_MD_CTX *mdctx, const void *data, size_t length, unsigned char *digest) {
+    unsigned int actualSize;
+    return 1 == EVP_DigestUpdate(mdctx, data, length)
+        && 1 == EVP_DigestFinal_ex(mdctx, digest, &actualSize)
+        && 1 == EVP_DigestInit_ex(mdctx, NULL, NULL);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeDigestBatchArray
+  (JNIEnv *env, jclass clazz, jlong md, jbyteArray jdata, jintArray joffsets, jintArray jlengths, jint from, jint to, jbyteArray jdigests) {
+    if (jdata == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "data array is NULL");
+        return;
+    }
+    EVP_MD_CTX *mdctx = init_batch(env, md, joffsets, jlengths, from, to, jdigests);
+    if (mdctx == NULL) {
+        return;
+    }
+    int mdSize = EVP_MD_CTX_size(mdctx);
+    jsize dataLength = (*env)->GetArrayLength(env, jdata);
+
+    jint offsets[BATCH_BLOCK_SIZE];
+    jint lengths[BATCH_BLOCK_SIZE];
+    unsigned char digests[BATCH_BLOCK_SIZE * EVP_MAX_MD_SIZE];
+
+    for (jint block = from; block < to; block += BATCH_BLOCK_SIZE) {
+        jint count = to - block;
+        if (count > BATCH_BLOCK_SIZE) {
+            count = BATCH_BLOCK_SIZE;
+        }
+        if (!read_batch_block(env, joffsets, jlengths, block, count, dataLength, offsets, lengths)) {
+            return;
+        }
+
+        jint i = 0;
+        while (i < count) {
+            if (lengths[i] > CRITICAL_CHUNK_SIZE) {
+                /* big messages are passed in chunks outside of a critical section */
+                unsigned int actualSize;
+                if (!update_from_array_region(env, jdata, offsets[i], lengths[i], digest_update, mdctx, "EVP_DigestUpdate failed")) {
+                    return;
+                }
+                if (1 != EVP_DigestFinal_ex(mdctx, digests + i * mdSize, &actualSize)
+                    || 1 != EVP_DigestInit_ex(mdctx, NULL, NULL)) {
+                    throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_DigestFinal_ex failed");
+                    return;
+                }
+                i++;
+                continue;
+            }
+
+            /* small messages share one critical section up to CRITICAL_CHUNK_SIZE bytes */
+            jbyte *carray = (*env)->GetPrimitiveArrayCritical(env, jdata, NULL);
+            if (carray == NULL) {
+                throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+                return;
+            }
+            jlong budget = CRITICAL_CHUNK_SIZE;
+            int success = 1;
+            while (success && i < count && lengths[i] <= budget) {
+                success = digest_message(mdctx, carray + offsets[i], lengths[i], digests + i * mdSize);
+                budget -= lengths[i];
+                i++;
+            }
+            (*env)->ReleasePrimitiveArrayCritical(env, jdata, carray, JNI_ABORT);
+            if (!success) {
+                throw_error(env, ILLEGAL_STATE_EXCEPTION, "Message digest failed");
+                return;
+            }
+        }
+        (*env)->SetByteArrayRegion(env, jdigests, block * mdSize, count * mdSize, (jbyte*)digests);
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLMessageDigestNative_nativeDigestBatchBuffer
+  (JNIEnv *env, jclass clazz, jlong md, jobject bb, jintArray joffsets, jintArray jlengths, jint from, jint to, jbyteArray jdigests) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return;
+    }
+    EVP_MD_CTX *mdctx = init_batch(env, md, joffsets, jlengths, from, to, jdigests);
+    if (mdctx == NULL) {
+        return;
+    }
+    jbyte* buffer = (*env)->GetDirectBufferAddress(env, bb);
+    if (buffer == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
         return;
     }
+    int mdSize = EVP_MD_CTX_size(mdctx);
+    jlong dataLength = (*env)->GetDirectBufferCapacity(env, bb);
+
+    jint offsets[BATCH_BLOCK_SIZE];
+    jint lengths[BATCH_BLOCK_SIZE];
+    unsigned char digests[BATCH_BLOCK_SIZE * EVP_MAX_MD_SIZE];
+
+    for (jint block = from; block < to; block += BATCH_BLOCK_SIZE) {
+        jint count = to - block;
+        if (count > BATCH_BLOCK_SIZE) {
+            count = BATCH_BLOCK_SIZE;
+        }
+        if (!read_batch_block(env, joffsets, jlengths, block, count, dataLength, offsets, lengths)) {
+            return;
+        }
+        for (jint i = 0; i < count; i++) {
+            if (!digest_message(mdctx, buffer + offsets[i], lengths[i], digests + i * mdSize)) {
+                throw_error(env, ILLEGAL_STATE_EXCEPTION, "Message digest failed");
+                return;
+            }
+        }
+        (*env)->SetByteArrayRegion(env, jdigests, block * mdSize, count * mdSize, (jbyte*)digests);
+    }
 }
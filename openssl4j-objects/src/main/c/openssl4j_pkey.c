@@ -0,0 +1,217 @@
+/*
+** OpenSSL EVP_PKEY to Java Binding Code.
+**
+** Parses encoded keys once into native EVP_PKEY handles
+** that are shared by the signature and key agreement
+** calls. EVP_PKEY objects are not modified by these calls,
+** so a handle can be used by multiple threads at once.
+** Generated keys stay native until they are exported.
+** @author Stephan Fuhrmann
+*/
+
+#include <stdlib.h>
+#include <openssl/evp.h>
+#include <openssl/x509.h>
+#include <openssl/rsa.h>
+#include <openssl/bn.h>
+#include <openssl/err.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_NativeKey.h"
+
+/* Copies an encoded key to the heap, or returns NULL if an exception was thrown. */
+static unsigned char *copy_encoded(JNIEnv *env, jbyteArray jencoded, jsize *length) {
+    if (jencoded == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "encoded key is NULL");
+        return NULL;
+    }
+    *length = (*env)->GetArrayLength(env, jencoded);
+    unsigned char *result = malloc(*length + 1);
+    if (result == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate key copy");
+        return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, jencoded, 0, *length, (jbyte*)result);
+    return result;
+}
+
+/* The field ID of NativeKey.handle, looked up on first use. */
+static jfieldID handleField;
+
+void* get_pkey_from(JNIEnv *env, jobject key) {
+    if (key == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "key is NULL");
+        return NULL;
+    }
+    if (handleField == NULL) {
+        jclass keyClass = (*env)->GetObjectClass(env, key);
+        handleField = (*env)->GetFieldID(env, keyClass, "handle", "J");
+        (*env)->DeleteLocalRef(env, keyClass);
+        if (handleField == NULL) {
+            /* NoSuchFieldError is pending */
+            return NULL;
+        }
+    }
+    return get_context_from(env, (*env)->GetLongField(env, key, handleField));
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeParsePublicKey
+  (JNIEnv *env, jclass clazz, jbyteArray jencoded) {
+    jsize length;
+    unsigned char *encoded = copy_encoded(env, jencoded, &length);
+    if (encoded == NULL) {
+        return 0;
+    }
+    const unsigned char *p = encoded;
+    EVP_PKEY *pkey = d2i_PUBKEY(NULL, &p, length);
+    free(encoded);
+    if (pkey == NULL) {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Could not parse X.509 public key");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(pkey);
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeParsePrivateKey
+  (JNIEnv *env, jclass clazz, jbyteArray jencoded) {
+    jsize length;
+    unsigned char *encoded = copy_encoded(env, jencoded, &length);
+    if (encoded == NULL) {
+        return 0;
+    }
+    const unsigned char *p = encoded;
+    PKCS8_PRIV_KEY_INFO *p8 = d2i_PKCS8_PRIV_KEY_INFO(NULL, &p, length);
+    OPENSSL_cleanse(encoded, length);
+    free(encoded);
+    EVP_PKEY *pkey = NULL;
+    if (p8 != NULL) {
+        pkey = EVP_PKCS82PKEY(p8);
+        PKCS8_PRIV_KEY_INFO_free(p8);
+    }
+    if (pkey == NULL) {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Could not parse PKCS#8 private key");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(pkey);
+}
+
+JNIEXPORT jint JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeKeyType
+  (JNIEnv *env, jclass clazz, jlong key) {
+    EVP_PKEY *pkey = get_context_from(env, key);
+    if (pkey == NULL) {
+        return 0;
+    }
+    return EVP_PKEY_id(pkey);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeFree
+  (JNIEnv *env, jclass clazz, jlong key) {
+    EVP_PKEY *pkey = get_context_from(env, key);
+    if (pkey != NULL) {
+        EVP_PKEY_free(pkey);
+    }
+}
+
+/* Sets the RSA key size and public exponent of a key generation context. */
+static int set_rsa_keygen_params(JNIEnv *env, EVP_PKEY_CTX *ctx, jint bits, jbyteArray jexponent) {
+    if (1 != EVP_PKEY_CTX_set_rsa_keygen_bits(ctx, bits)) {
+        return 0;
+    }
+    if (jexponent == NULL) {
+        return 1;
+    }
+    unsigned char exponent[REGION_BUFFER_SIZE];
+    jsize length = (*env)->GetArrayLength(env, jexponent);
+    if (length > (jsize)sizeof(exponent)) {
+        return 0;
+    }
+    (*env)->GetByteArrayRegion(env, jexponent, 0, length, (jbyte*)exponent);
+    BIGNUM *e = BN_bin2bn(exponent, length, NULL);
+    if (e == NULL) {
+        return 0;
+    }
+#if OPENSSL_VERSION_NUMBER >= 0x30000000L
+    int ok = 1 == EVP_PKEY_CTX_set1_rsa_keygen_pubexp(ctx, e);
+    BN_free(e);
+#else
+    /* takes the ownership of e on success */
+    int ok = 1 == EVP_PKEY_CTX_set_rsa_keygen_pubexp(ctx, e);
+    if (!ok) {
+        BN_free(e);
+    }
+#endif
+    return ok;
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeGenerate
+  (JNIEnv *env, jclass clazz, jint type, jint parameter, jbyteArray jexponent) {
+    EVP_PKEY *pkey = NULL;
+    EVP_PKEY_CTX *ctx = EVP_PKEY_CTX_new_id(type, NULL);
+    int ok = ctx != NULL && 1 == EVP_PKEY_keygen_init(ctx);
+    if (ok && type == EVP_PKEY_EC) {
+        ok = 1 == EVP_PKEY_CTX_set_ec_paramgen_curve_nid(ctx, parameter);
+    }
+    if (ok && type == EVP_PKEY_RSA) {
+        ok = set_rsa_keygen_params(env, ctx, parameter, jexponent);
+    }
+    ok = ok && 1 == EVP_PKEY_keygen(ctx, &pkey);
+    EVP_PKEY_CTX_free(ctx);
+    if (!ok) {
+        EVP_PKEY_free(pkey);
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Key generation failed");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(pkey);
+}
+
+/* Copies DER encoded bytes into a new Java array and cleanses them. */
+static jbyteArray to_java_array(JNIEnv *env, unsigned char *der, int length) {
+    jbyteArray result = (*env)->NewByteArray(env, length);
+    if (result != NULL) {
+        (*env)->SetByteArrayRegion(env, result, 0, length, (jbyte*)der);
+    }
+    OPENSSL_cleanse(der, length);
+    OPENSSL_free(der);
+    return result;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeExportPublicKey
+  (JNIEnv *env, jclass clazz, jobject key) {
+    EVP_PKEY *pkey = get_pkey_from(env, key);
+    if (pkey == NULL) {
+        return NULL;
+    }
+    unsigned char *der = NULL;
+    int length = i2d_PUBKEY(pkey, &der);
+    if (length <= 0) {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not encode public key");
+        return NULL;
+    }
+    return to_java_array(env, der, length);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_sfuhrm_openssl4j_NativeKey_nativeExportPrivateKey
+  (JNIEnv *env, jclass clazz, jobject key) {
+    EVP_PKEY *pkey = get_pkey_from(env, key);
+    if (pkey == NULL) {
+        return NULL;
+    }
+    unsigned char *der = NULL;
+    int length = -1;
+    PKCS8_PRIV_KEY_INFO *p8 = EVP_PKEY2PKCS8(pkey);
+    if (p8 != NULL) {
+        length = i2d_PKCS8_PRIV_KEY_INFO(p8, &der);
+        PKCS8_PRIV_KEY_INFO_free(p8);
+    }
+    if (length <= 0) {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not encode private key");
+        return NULL;
+    }
+    return to_java_array(env, der, length);
+}
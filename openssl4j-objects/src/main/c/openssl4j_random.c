@@ -0,0 +1,88 @@
+/*
+** OpenSSL Random Number Generator to Java Binding Code.
+**
+** RAND_bytes and RAND_priv_bytes use the per-thread DRBGs
+** of OpenSSL, so concurrent calls don't contend on a lock.
+** @author Stephan Fuhrmann
+*/
+
+#include <openssl/rand.h>
+#include <openssl/crypto.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_OpenSSLSecureRandomNative.h"
+
+/* Fills a buffer from the public or the private DRBG. */
+static int random_bytes(unsigned char *buffer, int length, jboolean privateGenerator) {
+#if OPENSSL_VERSION_NUMBER >= 0x10101000L
+    if (privateGenerator == JNI_TRUE) {
+        return RAND_priv_bytes(buffer, length);
+    }
+#endif
+    return RAND_bytes(buffer, length);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLSecureRandomNative_nativeRandomBytes
+  (JNIEnv *env, jclass clazz, jbyteArray jarray, jint offset, jint length, jboolean privateGenerator) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return;
+    }
+    jsize arrayLength = (*env)->GetArrayLength(env, jarray);
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "offset or length out of array bounds");
+        return;
+    }
+
+    if (length <= REGION_BUFFER_SIZE) {
+        unsigned char buffer[REGION_BUFFER_SIZE];
+        int result = random_bytes(buffer, length, privateGenerator);
+        if (1 == result) {
+            (*env)->SetByteArrayRegion(env, jarray, offset, length, (jbyte*)buffer);
+        }
+        OPENSSL_cleanse(buffer, length);
+        if (1 != result) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Generating random bytes failed");
+        }
+        return;
+    }
+
+    jint position = offset;
+    jint end = offset + length;
+    while (position < end) {
+        jint chunk = end - position;
+        if (chunk > CRITICAL_CHUNK_SIZE) {
+            chunk = CRITICAL_CHUNK_SIZE;
+        }
+        /* no JNI calls allowed until the release */
+        jbyte *carray = (*env)->GetPrimitiveArrayCritical(env, jarray, NULL);
+        if (carray == NULL) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+            return;
+        }
+        int result = random_bytes((unsigned char*)carray + position, chunk, privateGenerator);
+        (*env)->ReleasePrimitiveArrayCritical(env, jarray, carray, 0);
+        if (1 != result) {
+            throw_error(env, ILLEGAL_STATE_EXCEPTION, "Generating random bytes failed");
+            return;
+        }
+        position += chunk;
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLSecureRandomNative_nativeAddSeed
+  (JNIEnv *env, jclass clazz, jbyteArray jseed) {
+    if (jseed == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "seed is NULL");
+        return;
+    }
+    jsize length = (*env)->GetArrayLength(env, jseed);
+    jbyte *seed = (*env)->GetByteArrayElements(env, jseed, NULL);
+    if (seed == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetByteArrayElements for seed failed");
+        return;
+    }
+    RAND_seed(seed, length);
+    (*env)->ReleaseByteArrayElements(env, jseed, seed, JNI_ABORT);
+}
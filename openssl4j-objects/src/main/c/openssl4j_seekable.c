@@ -0,0 +1,221 @@
+/*
+** OpenSSL Seekable Cipher to Java Binding Code.
+**
+** Encrypts or decrypts ranges of data in place, starting
+** at any position of the data instead of the start:
+** CTR computes the counter block of the position in Java and
+** skips the keystream up to the position within the block,
+** XTS derives the tweak from the number of the data unit.
+** @author Stephan Fuhrmann
+*/
+
+#include <string.h>
+#include <openssl/evp.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_SeekableCipher.h"
+
+#define CTR_BLOCK_SIZE 16
+#define XTS_TWEAK_SIZE 16
+
+/* Processes data in place, starting at an offset within the counter block. */
+static int ctr_crypt(EVP_CIPHER_CTX *ctx, const unsigned char *counter, jint skip, unsigned char *data, jint length) {
+    int outl;
+    if (1 != EVP_CipherInit_ex(ctx, NULL, NULL, NULL, counter, -1)) {
+        return 0;
+    }
+    if (skip > 0) {
+        unsigned char scratch[CTR_BLOCK_SIZE];
+        memset(scratch, 0, sizeof(scratch));
+        if (1 != EVP_CipherUpdate(ctx, scratch, &outl, scratch, skip)) {
+            return 0;
+        }
+    }
+    return length == 0 || 1 == EVP_CipherUpdate(ctx, data, &outl, data, length);
+}
+
+/* Processes consecutive data units in place. The last unit may be shorter. */
+static int xts_crypt(EVP_CIPHER_CTX *ctx, jlong firstUnit, jint unitSize, unsigned char *data, jint length) {
+    unsigned char tweak[XTS_TWEAK_SIZE];
+    uint64_t unit = (uint64_t) firstUnit;
+    jint position;
+    for (position = 0; position < length; position += unitSize, unit++) {
+        jint chunk = length - position < unitSize ? length - position : unitSize;
+        int i;
+        memset(tweak, 0, sizeof(tweak));
+        /* the data unit number, little endian as in IEEE 1619 */
+        for (i = 0; i < 8; i++) {
+            tweak[i] = (unsigned char) (unit >> (8 * i));
+        }
+        int outl;
+        if (1 != EVP_CipherInit_ex(ctx, NULL, NULL, NULL, tweak, -1)
+                || 1 != EVP_CipherUpdate(ctx, data + position, &outl, data + position, chunk)) {
+            return 0;
+        }
+    }
+    return 1;
+}
+
+/* Gets a critical section of an array region, or NULL if an exception was thrown. */
+static unsigned char *get_critical_region(JNIEnv *env, jbyteArray jarray, jint offset, jint length) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return NULL;
+    }
+    jsize arrayLength = (*env)->GetArrayLength(env, jarray);
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "offset or length out of array bounds");
+        return NULL;
+    }
+    unsigned char *carray = (*env)->GetPrimitiveArrayCritical(env, jarray, NULL);
+    if (carray == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetPrimitiveArrayCritical for array failed");
+    }
+    return carray;
+}
+
+/* Gets the address of a direct byte buffer, or NULL if an exception was thrown. */
+static unsigned char *get_buffer_address(JNIEnv *env, jobject bb) {
+    if (bb == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "ByteBuffer is NULL");
+        return NULL;
+    }
+    unsigned char *buffer = (*env)->GetDirectBufferAddress(env, bb);
+    if (buffer == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetDirectBufferAddress for ByteBuffer failed");
+    }
+    return buffer;
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeNewKeyed
+  (JNIEnv *env, jclass clazz, jstring jcipherName, jbyteArray jkey, jboolean encrypt) {
+    if (jcipherName == NULL || jkey == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "cipher name or key is NULL");
+        return 0;
+    }
+    const char *cipherName = (*env)->GetStringUTFChars(env, jcipherName, NULL);
+    if (cipherName == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "GetStringUTFChars failed");
+        return 0;
+    }
+    const EVP_CIPHER *cipher = EVP_get_cipherbyname(cipherName);
+    (*env)->ReleaseStringUTFChars(env, jcipherName, cipherName);
+    if (cipher == NULL) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Cipher not known");
+        return 0;
+    }
+    jsize keyLength = (*env)->GetArrayLength(env, jkey);
+    if (keyLength != EVP_CIPHER_key_length(cipher)) {
+        throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "Illegal key length");
+        return 0;
+    }
+    unsigned char key[EVP_MAX_KEY_LENGTH];
+    (*env)->GetByteArrayRegion(env, jkey, 0, keyLength, (jbyte*)key);
+
+    EVP_CIPHER_CTX *ctx = EVP_CIPHER_CTX_new();
+    if (ctx == NULL) {
+        OPENSSL_cleanse(key, sizeof(key));
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate cipher context");
+        return 0;
+    }
+    int result = EVP_CipherInit_ex(ctx, cipher, NULL, key, NULL, encrypt == JNI_TRUE ? 1 : 0);
+    OPENSSL_cleanse(key, sizeof(key));
+    if (1 != result) {
+        EVP_CIPHER_CTX_free(ctx);
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "EVP_CipherInit_ex failed");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(ctx);
+}
+
+JNIEXPORT jlong JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeDup
+  (JNIEnv *env, jclass clazz, jlong context) {
+    EVP_CIPHER_CTX *src = get_context_from(env, context);
+    if (src == NULL) {
+        return 0;
+    }
+    EVP_CIPHER_CTX *ctx = EVP_CIPHER_CTX_new();
+    if (ctx == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate cipher context");
+        return 0;
+    }
+    if (1 != EVP_CIPHER_CTX_copy(ctx, src)) {
+        EVP_CIPHER_CTX_free(ctx);
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not copy cipher context");
+        return 0;
+    }
+    return HANDLE_FROM_POINTER(ctx);
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeFree
+  (JNIEnv *env, jclass clazz, jlong context) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx != NULL) {
+        EVP_CIPHER_CTX_free(ctx);
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeCtrWithByteBuffer
+  (JNIEnv *env, jclass clazz, jlong context, jobject bb, jint offset, jint length, jbyteArray jcounter, jint skip) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx == NULL) {
+        return;
+    }
+    unsigned char counter[CTR_BLOCK_SIZE];
+    (*env)->GetByteArrayRegion(env, jcounter, 0, CTR_BLOCK_SIZE, (jbyte*)counter);
+    unsigned char *buffer = get_buffer_address(env, bb);
+    if (buffer != NULL && 1 != ctr_crypt(ctx, counter, skip, buffer + offset, length)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "CTR update failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeCtrWithByteArray
+  (JNIEnv *env, jclass clazz, jlong context, jbyteArray jarray, jint offset, jint length, jbyteArray jcounter, jint skip) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx == NULL) {
+        return;
+    }
+    unsigned char counter[CTR_BLOCK_SIZE];
+    (*env)->GetByteArrayRegion(env, jcounter, 0, CTR_BLOCK_SIZE, (jbyte*)counter);
+    /* no JNI calls allowed until the release */
+    unsigned char *carray = get_critical_region(env, jarray, offset, length);
+    if (carray == NULL) {
+        return;
+    }
+    int result = ctr_crypt(ctx, counter, skip, carray + offset, length);
+    (*env)->ReleasePrimitiveArrayCritical(env, jarray, carray, 0);
+    if (1 != result) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "CTR update failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeXtsWithByteBuffer
+  (JNIEnv *env, jclass clazz, jlong context, jobject bb, jint offset, jint length, jint unitSize, jlong firstUnit) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx == NULL) {
+        return;
+    }
+    unsigned char *buffer = get_buffer_address(env, bb);
+    if (buffer != NULL && 1 != xts_crypt(ctx, firstUnit, unitSize, buffer + offset, length)) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "XTS update failed");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_SeekableCipher_nativeXtsWithByteArray
+  (JNIEnv *env, jclass clazz, jlong context, jbyteArray jarray, jint offset, jint length, jint unitSize, jlong firstUnit) {
+    EVP_CIPHER_CTX *ctx = get_context_from(env, context);
+    if (ctx == NULL) {
+        return;
+    }
+    /* no JNI calls allowed until the release */
+    unsigned char *carray = get_critical_region(env, jarray, offset, length);
+    if (carray == NULL) {
+        return;
+    }
+    int result = xts_crypt(ctx, firstUnit, unitSize, carray + offset, length);
+    (*env)->ReleasePrimitiveArrayCritical(env, jarray, carray, 0);
+    if (1 != result) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "XTS update failed");
+    }
+}
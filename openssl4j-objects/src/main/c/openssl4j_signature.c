@@ -0,0 +1,232 @@
+/*
+** OpenSSL Signature to Java Binding Code.
+**
+** Signs and verifies with the one-shot EVP_DigestSign and
+** EVP_DigestVerify functions, which also cover EdDSA.
+** The keys are EVP_PKEY handles parsed by NativeKey.
+** A batch verifies many signatures in one call.
+** @author Stephan Fuhrmann
+*/
+
+#include <stdlib.h>
+#include <openssl/evp.h>
+#include <openssl/rsa.h>
+#include <openssl/err.h>
+
+#include "openssl4j.h"
+
+#include "de_sfuhrm_openssl4j_OpenSSLSignatureNative.h"
+
+/* The padding and digest parameters of a signature algorithm. */
+typedef struct {
+    const EVP_MD *md;
+    int padding;
+    int saltLength;
+    const EVP_MD *mgf1Md;
+} signature_params;
+
+/* Sets up a digest context for signing or verifying. */
+static int signature_init(EVP_MD_CTX *mdctx, EVP_PKEY *pkey, const signature_params *params, int sign) {
+    EVP_PKEY_CTX *pctx = NULL;
+    int result = sign
+            ? EVP_DigestSignInit(mdctx, &pctx, params->md, NULL, pkey)
+            : EVP_DigestVerifyInit(mdctx, &pctx, params->md, NULL, pkey);
+    if (1 != result) {
+        return 0;
+    }
+    if (params->padding != 0) {
+        if (1 != EVP_PKEY_CTX_set_rsa_padding(pctx, params->padding)) {
+            return 0;
+        }
+        if (params->padding == RSA_PKCS1_PSS_PADDING
+                && (1 != EVP_PKEY_CTX_set_rsa_pss_saltlen(pctx, params->saltLength)
+                    || 1 != EVP_PKEY_CTX_set_rsa_mgf1_md(pctx, params->mgf1Md))) {
+            return 0;
+        }
+    }
+    return 1;
+}
+
+/* Copies a region of a Java array to the heap, or returns NULL if an exception was thrown. */
+static unsigned char *copy_region(JNIEnv *env, jbyteArray jarray, jint offset, jint length) {
+    if (jarray == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "array is NULL");
+        return NULL;
+    }
+    jsize arrayLength = (*env)->GetArrayLength(env, jarray);
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "offset or length out of array bounds");
+        return NULL;
+    }
+    unsigned char *result = malloc(length + 1);
+    if (result == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate array copy");
+        return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, jarray, offset, length, (jbyte*)result);
+    return result;
+}
+
+static void fill_params(signature_params *params, jlong md, jint padding, jint saltLength, jlong mgf1Md) {
+    params->md = POINTER_FROM_HANDLE(const EVP_MD*, md);
+    params->padding = padding;
+    params->saltLength = saltLength;
+    params->mgf1Md = POINTER_FROM_HANDLE(const EVP_MD*, mgf1Md);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_sfuhrm_openssl4j_OpenSSLSignatureNative_nativeSign
+  (JNIEnv *env, jclass clazz, jobject key, jlong md, jint padding, jint saltLength, jlong mgf1Md,
+   jbyteArray jdata, jint length) {
+    EVP_PKEY *pkey = get_pkey_from(env, key);
+    if (pkey == NULL) {
+        return NULL;
+    }
+    unsigned char *data = copy_region(env, jdata, 0, length);
+    if (data == NULL) {
+        return NULL;
+    }
+    signature_params params;
+    fill_params(&params, md, padding, saltLength, mgf1Md);
+
+    jbyteArray result = NULL;
+    size_t signatureLength = EVP_PKEY_size(pkey);
+    unsigned char *signature = malloc(signatureLength + 1);
+    EVP_MD_CTX *mdctx = EVP_MD_CTX_new();
+    if (signature != NULL && mdctx != NULL
+            && 1 == signature_init(mdctx, pkey, &params, 1)
+            && 1 == EVP_DigestSign(mdctx, signature, &signatureLength, data, length)) {
+        result = (*env)->NewByteArray(env, signatureLength);
+        if (result != NULL) {
+            (*env)->SetByteArrayRegion(env, result, 0, signatureLength, (jbyte*)signature);
+        }
+    } else {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Signing failed");
+    }
+    EVP_MD_CTX_free(mdctx);
+    free(signature);
+    free(data);
+    return result;
+}
+
+JNIEXPORT jboolean JNICALL Java_de_sfuhrm_openssl4j_OpenSSLSignatureNative_nativeVerify
+  (JNIEnv *env, jclass clazz, jobject key, jlong md, jint padding, jint saltLength, jlong mgf1Md,
+   jbyteArray jdata, jint length, jbyteArray jsignature, jint signatureOffset, jint signatureLength) {
+    EVP_PKEY *pkey = get_pkey_from(env, key);
+    if (pkey == NULL) {
+        return JNI_FALSE;
+    }
+    unsigned char *data = copy_region(env, jdata, 0, length);
+    if (data == NULL) {
+        return JNI_FALSE;
+    }
+    unsigned char *signature = copy_region(env, jsignature, signatureOffset, signatureLength);
+    if (signature == NULL) {
+        free(data);
+        return JNI_FALSE;
+    }
+    signature_params params;
+    fill_params(&params, md, padding, saltLength, mgf1Md);
+
+    jboolean result = JNI_FALSE;
+    EVP_MD_CTX *mdctx = EVP_MD_CTX_new();
+    if (mdctx != NULL && 1 == signature_init(mdctx, pkey, &params, 0)) {
+        /* 0 is a wrong signature, a negative value a malformed one */
+        result = 1 == EVP_DigestVerify(mdctx, signature, signatureLength, data, length) ? JNI_TRUE : JNI_FALSE;
+        ERR_clear_error();
+    } else {
+        ERR_clear_error();
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Verification init failed");
+    }
+    EVP_MD_CTX_free(mdctx);
+    free(signature);
+    free(data);
+    return result;
+}
+
+JNIEXPORT void JNICALL Java_de_sfuhrm_openssl4j_OpenSSLSignatureNative_nativeVerifyBatch
+  (JNIEnv *env, jclass clazz, jobjectArray jkeys, jlong md, jint padding, jint saltLength, jlong mgf1Md,
+   jbyteArray jdata, jintArray jdataOffsets, jintArray jdataLengths,
+   jbyteArray jsignatures, jintArray jsignatureOffsets, jintArray jsignatureLengths,
+   jbooleanArray jresults) {
+    if (jkeys == NULL || jdata == NULL || jdataOffsets == NULL || jdataLengths == NULL
+            || jsignatures == NULL || jsignatureOffsets == NULL || jsignatureLengths == NULL || jresults == NULL) {
+        throw_error(env, NULL_POINTER_EXCEPTION, "an argument is NULL");
+        return;
+    }
+    jsize count = (*env)->GetArrayLength(env, jresults);
+    if ((*env)->GetArrayLength(env, jkeys) < count
+            || (*env)->GetArrayLength(env, jdataOffsets) < count
+            || (*env)->GetArrayLength(env, jdataLengths) < count
+            || (*env)->GetArrayLength(env, jsignatureOffsets) < count
+            || (*env)->GetArrayLength(env, jsignatureLengths) < count) {
+        throw_error(env, ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION, "arrays are shorter than the results");
+        return;
+    }
+    jsize dataLength = (*env)->GetArrayLength(env, jdata);
+    jsize signaturesLength = (*env)->GetArrayLength(env, jsignatures);
+
+    jlong *keys = malloc(sizeof(jlong) * (count + 1));
+    jint *ranges = malloc(sizeof(jint) * 4 * (count + 1));
+    jboolean *results = malloc(sizeof(jboolean) * (count + 1));
+    unsigned char *data = malloc(dataLength + 1);
+    unsigned char *signatures = malloc(signaturesLength + 1);
+    EVP_MD_CTX *mdctx = EVP_MD_CTX_new();
+    if (keys == NULL || ranges == NULL || results == NULL || data == NULL || signatures == NULL || mdctx == NULL) {
+        throw_error(env, ILLEGAL_STATE_EXCEPTION, "Could not allocate batch buffers");
+    } else {
+        jint *dataOffsets = ranges;
+        jint *dataLengths = ranges + count;
+        jint *signatureOffsets = ranges + 2 * count;
+        jint *signatureLengths = ranges + 3 * count;
+        jsize k;
+        /* the key array keeps the keys reachable until the call returns */
+        for (k = 0; k < count; k++) {
+            jobject key = (*env)->GetObjectArrayElement(env, jkeys, k);
+            keys[k] = HANDLE_FROM_POINTER(get_pkey_from(env, key));
+            (*env)->DeleteLocalRef(env, key);
+            if (keys[k] == 0) {
+                break;
+            }
+        }
+        (*env)->GetIntArrayRegion(env, jdataOffsets, 0, count, dataOffsets);
+        (*env)->GetIntArrayRegion(env, jdataLengths, 0, count, dataLengths);
+        (*env)->GetIntArrayRegion(env, jsignatureOffsets, 0, count, signatureOffsets);
+        (*env)->GetIntArrayRegion(env, jsignatureLengths, 0, count, signatureLengths);
+        (*env)->GetByteArrayRegion(env, jdata, 0, dataLength, (jbyte*)data);
+        (*env)->GetByteArrayRegion(env, jsignatures, 0, signaturesLength, (jbyte*)signatures);
+
+        signature_params params;
+        fill_params(&params, md, padding, saltLength, mgf1Md);
+        jsize i;
+        int failed = (*env)->ExceptionCheck(env) ? 1 : 0;
+        for (i = 0; i < count && !failed; i++) {
+            if (keys[i] == 0
+                    || dataOffsets[i] < 0 || dataLengths[i] < 0 || dataOffsets[i] > dataLength - dataLengths[i]
+                    || signatureOffsets[i] < 0 || signatureLengths[i] < 0
+                    || signatureOffsets[i] > signaturesLength - signatureLengths[i]) {
+                throw_error(env, ILLEGAL_ARGUMENT_EXCEPTION, "key, message or signature range is not valid");
+                failed = 1;
+            } else if (1 != signature_init(mdctx, POINTER_FROM_HANDLE(EVP_PKEY*, keys[i]), &params, 0)) {
+                ERR_clear_error();
+                throw_error(env, ILLEGAL_STATE_EXCEPTION, "Verification init failed");
+                failed = 1;
+            } else {
+                results[i] = 1 == EVP_DigestVerify(mdctx,
+                        signatures + signatureOffsets[i], signatureLengths[i],
+                        data + dataOffsets[i], dataLengths[i]) ? JNI_TRUE : JNI_FALSE;
+                ERR_clear_error();
+                EVP_MD_CTX_reset(mdctx);
+            }
+        }
+        if (!failed) {
+            (*env)->SetBooleanArrayRegion(env, jresults, 0, count, results);
+        }
+    }
+    EVP_MD_CTX_free(mdctx);
+    free(signatures);
+    free(data);
+    free(results);
+    free(ranges);
+    free(keys);
+}
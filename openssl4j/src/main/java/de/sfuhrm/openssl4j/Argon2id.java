@@ -0,0 +1,134 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Derives keys from passwords with the memory-hard function Argon2id (RFC 9106).
+ * Needs OpenSSL 3.2 or later, see {@linkplain #isAvailable()}.
+ * The memory blocks are allocated by OpenSSL outside of the Java heap.
+ * The lanes are processed in parallel by the thread pool of OpenSSL,
+ * with up to {@linkplain #MAX_THREADS} threads per derivation.
+ * The result only depends on the number of lanes, not on the number of threads.
+ * Passwords are encoded in UTF-8.
+ * Instances are thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class Argon2id {
+
+    /** Derives a key with a single native call.
+     * @param password the password bytes.
+     * @param salt the salt.
+     * @param secret the optional secret, or {@code null}.
+     * @param associatedData the optional associated data, or {@code null}.
+     * @param iterations the number of passes over the memory.
+     * @param memoryKiB the memory size in KiB.
+     * @param lanes the number of lanes.
+     * @param threads the number of threads to process the lanes in.
+     * @param out the array to store the key in. The length of the array is the key length.
+     * */
+    private static native void nativeArgon2id(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                                              int iterations, int memoryKiB, int lanes, int threads, byte[] out);
+
+    /** Checks whether the linked OpenSSL implements Argon2id.
+     * @return {@code true} if Argon2id is available.
+     * */
+    private static native boolean nativeIsAvailable();
+
+    /** The maximum number of threads per derivation.
+     * Configured with the system property {@code openssl4j.argon2Threads},
+     * defaults to the number of processors.
+     * */
+    static final int MAX_THREADS = Math.max(1,
+            PropertyAccessor.getInt("argon2Threads", Runtime.getRuntime().availableProcessors()));
+
+    /** The minimum salt length in bytes. */
+    static final int MIN_SALT_LENGTH = 8;
+
+    /** The minimum key length in bytes. */
+    static final int MIN_KEY_LENGTH = 4;
+
+    private final int iterations;
+    private final int memoryKiB;
+    private final int lanes;
+
+    /** Creates an instance with cost parameters.
+     * @param iterations the number of passes over the memory, greater than zero.
+     * @param memoryKiB the memory size in KiB, at least 8 KiB per lane.
+     * @param lanes the number of lanes (the parallelism), between 1 and 2^24 - 1.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     * @throws UnsupportedOperationException if the linked OpenSSL doesn't implement Argon2id.
+     * */
+    public Argon2id(int iterations, int memoryKiB, int lanes) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        if (lanes <= 0 || lanes > 0xffffff) {
+            throw new IllegalArgumentException("Lanes must be between 1 and 2^24 - 1: " + lanes);
+        }
+        if (memoryKiB < 8 * lanes) {
+            throw new IllegalArgumentException("Memory must be at least 8 KiB per lane: " + memoryKiB);
+        }
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("Argon2id needs OpenSSL 3.2 or later");
+        }
+        this.iterations = iterations;
+        this.memoryKiB = memoryKiB;
+        this.lanes = lanes;
+    }
+
+    /** Checks whether the linked OpenSSL implements Argon2id.
+     * @return {@code true} if Argon2id is available.
+     * */
+    public static boolean isAvailable() {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return nativeIsAvailable();
+    }
+
+    /** Derives a key.
+     * @param password the password, encoded in UTF-8 for the derivation.
+     * @param salt the salt with at least 8 bytes.
+     * @param keyLength the length of the key in bytes, at least 4.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the salt or key length is too short.
+     * */
+    public byte[] derive(char[] password, byte[] salt, int keyLength) {
+        Objects.requireNonNull(password, "password is null");
+        byte[] passwordBytes = Pbkdf2.passwordBytes(password);
+        try {
+            return derive(passwordBytes, salt, null, null, keyLength);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    /** Derives a key with the optional inputs of Argon2.
+     * @param password the password.
+     * @param salt the salt with at least 8 bytes.
+     * @param secret the optional secret (pepper), or {@code null}.
+     * @param associatedData the optional associated data, or {@code null}.
+     * @param keyLength the length of the key in bytes, at least 4.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the salt or key length is too short.
+     * */
+    public byte[] derive(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, int keyLength) {
+        Objects.requireNonNull(password, "password is null");
+        Objects.requireNonNull(salt, "salt is null");
+        if (salt.length < MIN_SALT_LENGTH) {
+            throw new IllegalArgumentException("Salt must have at least " + MIN_SALT_LENGTH + " bytes");
+        }
+        if (keyLength < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key length must be at least " + MIN_KEY_LENGTH + ": " + keyLength);
+        }
+        byte[] key = new byte[keyLength];
+        nativeArgon2id(password, salt, secret, associatedData,
+                iterations, memoryKiB, lanes, Math.min(lanes, MAX_THREADS), key);
+        return key;
+    }
+}
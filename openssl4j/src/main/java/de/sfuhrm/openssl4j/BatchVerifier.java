@@ -0,0 +1,127 @@
+package de.sfuhrm.openssl4j;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Verifies many signatures with a single native call, for example
+ * the signatures of a batch of tokens or requests.
+ * The algorithms are the signature algorithms of the {@linkplain OpenSSL4JProvider}.
+ * The public keys are parsed once and cached like in the
+ * {@linkplain java.security.Signature} services.
+ * Instances are thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class BatchVerifier {
+
+    /** The provider to look up the signature algorithms in, created on first use. */
+    private static final class ProviderHolder {
+        private static final Provider PROVIDER = new OpenSSL4JProvider();
+    }
+
+    private final OpenSSLSignatureNative signature;
+
+    /** Creates a verifier for an algorithm without parameters.
+     * @param algorithm the JCA signature algorithm name, for example {@code Ed25519}
+     *                  or {@code SHA256withECDSA}.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     * */
+    public BatchVerifier(String algorithm) throws NoSuchAlgorithmException {
+        Objects.requireNonNull(algorithm, "algorithm is null");
+        Provider.Service service = ProviderHolder.PROVIDER.getService("Signature", algorithm);
+        if (service == null) {
+            throw new NoSuchAlgorithmException("Signature algorithm not supported: " + algorithm);
+        }
+        signature = (OpenSSLSignatureNative) service.newInstance(null);
+    }
+
+    /** Creates a verifier for an algorithm with parameters.
+     * @param algorithm the JCA signature algorithm name, for example {@code RSASSA-PSS}.
+     * @param params the algorithm parameters.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     * @throws InvalidAlgorithmParameterException if the parameters are not supported.
+     * */
+    public BatchVerifier(String algorithm, AlgorithmParameterSpec params)
+            throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+        this(algorithm);
+        signature.engineSetParameter(params);
+    }
+
+    /** Verifies signatures of messages that were signed with the same key.
+     * @param key the public key.
+     * @param messages the messages.
+     * @param signatures the signatures, one per message.
+     * @return whether each signature is valid.
+     * @throws InvalidKeyException if the key is not supported by the algorithm.
+     * @throws SignatureException if the algorithm parameters are missing.
+     * */
+    public boolean[] verify(PublicKey key, List<byte[]> messages, List<byte[]> signatures)
+            throws InvalidKeyException, SignatureException {
+        Objects.requireNonNull(messages, "messages is null");
+        return verify(Collections.nCopies(messages.size(), key), messages, signatures);
+    }
+
+    /** Verifies signatures of messages.
+     * @param keys the public keys, one per message.
+     * @param messages the messages.
+     * @param signatures the signatures, one per message.
+     * @return whether each signature is valid.
+     * @throws IllegalArgumentException if the lists differ in size.
+     * @throws InvalidKeyException if a key is not supported by the algorithm.
+     * @throws SignatureException if the algorithm parameters are missing.
+     * */
+    public boolean[] verify(List<PublicKey> keys, List<byte[]> messages, List<byte[]> signatures)
+            throws InvalidKeyException, SignatureException {
+        Objects.requireNonNull(keys, "keys is null");
+        Objects.requireNonNull(messages, "messages is null");
+        Objects.requireNonNull(signatures, "signatures is null");
+        int count = messages.size();
+        if (keys.size() != count || signatures.size() != count) {
+            throw new IllegalArgumentException("keys, messages and signatures differ in size");
+        }
+        NativeKey[] nativeKeys = new NativeKey[count];
+        PublicKey previousKey = null;
+        for (int i = 0; i < count; i++) {
+            PublicKey key = keys.get(i);
+            nativeKeys[i] = i > 0 && key == previousKey ? nativeKeys[i - 1] : NativeKey.publicKey(key);
+            previousKey = key;
+        }
+        int[] dataOffsets = new int[count];
+        int[] dataLengths = new int[count];
+        byte[] data = concat(messages, dataOffsets, dataLengths);
+        int[] signatureOffsets = new int[count];
+        int[] signatureLengths = new int[count];
+        byte[] signatureData = concat(signatures, signatureOffsets, signatureLengths);
+        return signature.verifyBatch(nativeKeys, data, dataOffsets, dataLengths,
+                signatureData, signatureOffsets, signatureLengths);
+    }
+
+    /** Concatenates arrays, so they can be passed in one native call.
+     * @param arrays the arrays to concatenate.
+     * @param offsets the array to store the offsets of the arrays in.
+     * @param lengths the array to store the lengths of the arrays in.
+     * @return the concatenation.
+     * */
+    private static byte[] concat(List<byte[]> arrays, int[] offsets, int[] lengths) {
+        int total = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            byte[] array = Objects.requireNonNull(arrays.get(i), "array is null");
+            offsets[i] = total;
+            lengths[i] = array.length;
+            total = Math.addExact(total, array.length);
+        }
+        byte[] result = new byte[total];
+        for (int i = 0; i < offsets.length; i++) {
+            System.arraycopy(arrays.get(i), 0, result, offsets[i], lengths[i]);
+        }
+        return result;
+    }
+}
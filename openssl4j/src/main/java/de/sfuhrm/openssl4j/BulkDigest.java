@@ -0,0 +1,405 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Calculates the message digests of many files on a pool of worker threads.
+ * The files are passed to the workers in chunks. Each worker
+ * reads small files into its own direct buffer and calculates their digests
+ * with a single native call per buffer. Large files are
+ * read in blocks into a direct buffer of the worker thread and passed
+ * to OpenSSL block by block.
+ * The number of chunks in progress is bounded, so file streams of any size
+ * can be processed with bounded memory.
+ * The results are passed to a consumer on the calling thread, either in
+ * the order of the input files or in the order of completion.
+ * @author Stephan Fuhrmann
+ */
+public final class BulkDigest implements AutoCloseable {
+
+    /** Files up to this size are read into the batch buffer of the worker. */
+    static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    /** The size of the batch buffer of each worker. */
+    static final int BATCH_BUFFER_SIZE = 1024 * 1024;
+
+    /** The number of files passed to a worker at once. */
+    static final int CHUNK_SIZE = 64;
+
+    /** The number of chunks in progress per worker thread. */
+    static final int CHUNKS_PER_THREAD = 4;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final String openSslName;
+    private final long md;
+    private final int digestLength;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /** The batch buffers of the worker threads. */
+    private final ThreadLocal<Batch> batches;
+
+    /** Creates a bulk digest engine with its own worker threads.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param threads the number of worker threads. Threads waiting for
+     *                the disk do not use a CPU, so more threads than CPU cores
+     *                can keep both the disk and the CPUs busy.
+     * @throws IllegalArgumentException if the algorithm is not known or
+     * the number of threads is not positive.
+     * */
+    public BulkDigest(String algorithm, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.openSslName = OpenSSL4J.toOpenSslName(algorithm);
+        this.md = OpenSSL4J.toMdHandle(algorithm);
+        this.digestLength = OpenSSLMessageDigestNative.digestLength(md);
+        this.threads = threads;
+        this.batches = ThreadLocal.withInitial(() -> new Batch(digestLength));
+        int poolNumber = POOL_NUMBER.incrementAndGet();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "OpenSSL-BulkDigest-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** The digest of a single file. */
+    public static final class Result {
+        private final Path path;
+        private final long size;
+        private final byte[] digest;
+        private final IOException exception;
+
+        private Result(Path path, long size, byte[] digest, IOException exception) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+            this.exception = exception;
+        }
+
+        /** Gets the path of the file.
+         * @return the path as passed in.
+         * */
+        public Path getPath() {
+            return path;
+        }
+
+        /** Gets the number of bytes the digest was calculated of.
+         * @return the file size in bytes, or 0 if reading the file failed.
+         * */
+        public long getSize() {
+            return size;
+        }
+
+        /** Gets the digest of the file.
+         * @return the digest, or {@code null} if reading the file failed.
+         * */
+        public byte[] getDigest() {
+            return digest;
+        }
+
+        /** Gets the exception that occurred while reading the file.
+         * @return the exception, or {@code null} if the digest was calculated.
+         * */
+        public IOException getException() {
+            return exception;
+        }
+    }
+
+    /** The throughput of a bulk digest run. */
+    public static final class Statistics {
+        private final long files;
+        private final long failures;
+        private final long bytes;
+        private final long nanos;
+
+        private Statistics(long files, long failures, long bytes, long nanos) {
+            this.files = files;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /** Gets the number of files processed.
+         * @return the number of files, including the failed ones.
+         * */
+        public long getFiles() {
+            return files;
+        }
+
+        /** Gets the number of files that could not be read.
+         * @return the number of failed files.
+         * */
+        public long getFailures() {
+            return failures;
+        }
+
+        /** Gets the number of bytes the digests were calculated of.
+         * @return the sum of the file sizes.
+         * */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Gets the duration of the run.
+         * @return the duration in nanoseconds.
+         * */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /** Gets the throughput in bytes.
+         * @return the bytes per second.
+         * */
+        public double getBytesPerSecond() {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+
+        /** Gets the throughput in files.
+         * @return the files per second.
+         * */
+        public double getFilesPerSecond() {
+            return nanos == 0 ? 0 : files * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d failures, %d bytes in %.3f s, %.1f MB/s, %.1f files/s",
+                    files, failures, bytes, nanos / 1e9, getBytesPerSecond() / 1e6, getFilesPerSecond());
+        }
+    }
+
+    /** Calculates the digests of all regular files below a directory.
+     * @param root the directory to search for files.
+     * @param ordered whether the results are passed in the order of the directory walk,
+     *                or in the order of completion.
+     * @param consumer gets the results on the calling thread.
+     * @return the throughput of the run.
+     * @throws IOException if walking the directory failed.
+     * */
+    public Statistics digest(Path root, boolean ordered, Consumer<Result> consumer) throws IOException {
+        Objects.requireNonNull(root, "root is null");
+        try (Stream<Path> files = Files.find(root, Integer.MAX_VALUE, (path, attributes) -> attributes.isRegularFile())) {
+            return digest(files, ordered, consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Calculates the digests of files.
+     * Files that can not be read are passed to the consumer
+     * with their {@linkplain Result#getException() exception}.
+     * @param files the files to calculate the digests of.
+     * @param ordered whether the results are passed in the order of the stream,
+     *                or in the order of completion.
+     * @param consumer gets the results on the calling thread.
+     * @return the throughput of the run.
+     * */
+    public Statistics digest(Stream<Path> files, boolean ordered, Consumer<Result> consumer) {
+        Objects.requireNonNull(files, "files is null");
+        Objects.requireNonNull(consumer, "consumer is null");
+        Run run = new Run(ordered, consumer);
+        Iterator<Path> iterator = files.iterator();
+        List<Path> chunk = new ArrayList<>(CHUNK_SIZE);
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() == CHUNK_SIZE) {
+                run.submit(chunk);
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            run.submit(chunk);
+        }
+        return run.finish();
+    }
+
+    /** Stops the worker threads. */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /** The state of a single digest call on the calling thread. */
+    private final class Run {
+        private final boolean ordered;
+        private final Consumer<Result> consumer;
+        private final ExecutorCompletionService<ChunkResult> completionService = new ExecutorCompletionService<>(executor);
+        private final Map<Integer, ChunkResult> completed = new HashMap<>();
+        private final long start = System.nanoTime();
+        private int submitted;
+        private int emitted;
+        private long files;
+        private long failures;
+        private long bytes;
+
+        Run(boolean ordered, Consumer<Result> consumer) {
+            this.ordered = ordered;
+            this.consumer = consumer;
+        }
+
+        void submit(List<Path> chunk) {
+            int index = submitted++;
+            completionService.submit(() -> digestChunk(index, chunk));
+            while (submitted - emitted >= threads * CHUNKS_PER_THREAD) {
+                takeAndEmit();
+            }
+        }
+
+        Statistics finish() {
+            while (emitted < submitted) {
+                takeAndEmit();
+            }
+            return new Statistics(files, failures, bytes, System.nanoTime() - start);
+        }
+
+        /** Waits for a chunk to complete and emits the chunks that are due. */
+        private void takeAndEmit() {
+            ChunkResult chunkResult;
+            try {
+                Future<ChunkResult> future = completionService.take();
+                chunkResult = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not calculate digests", e.getCause());
+            }
+            if (!ordered) {
+                emit(chunkResult);
+                return;
+            }
+            completed.put(chunkResult.index, chunkResult);
+            ChunkResult next;
+            while ((next = completed.remove(emitted)) != null) {
+                emit(next);
+            }
+        }
+
+        private void emit(ChunkResult chunkResult) {
+            emitted++;
+            for (Result result : chunkResult.results) {
+                files++;
+                if (result.exception != null) {
+                    failures++;
+                } else {
+                    bytes += result.size;
+                }
+                consumer.accept(result);
+            }
+        }
+    }
+
+    /** The results of a chunk in the order of the chunk files. */
+    private static final class ChunkResult {
+        private final int index;
+        private final Result[] results;
+
+        ChunkResult(int index, Result[] results) {
+            this.index = index;
+            this.results = results;
+        }
+    }
+
+    /** The reusable batch buffer of a worker thread. */
+    private static final class Batch {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_BUFFER_SIZE);
+        private final int[] offsets = new int[CHUNK_SIZE];
+        private final int[] lengths = new int[CHUNK_SIZE];
+        private final int[] fileIndexes = new int[CHUNK_SIZE];
+        private final byte[] digests;
+        private int count;
+
+        Batch(int digestLength) {
+            digests = new byte[CHUNK_SIZE * digestLength];
+        }
+    }
+
+    /** Calculates the digests of a chunk on a worker thread. */
+    private ChunkResult digestChunk(int index, List<Path> chunk) {
+        Batch batch = batches.get();
+        batch.buffer.clear();
+        batch.count = 0;
+        Result[] results = new Result[chunk.size()];
+        for (int i = 0; i < results.length; i++) {
+            Path path = chunk.get(i);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size <= SMALL_FILE_SIZE) {
+                    if (batch.buffer.remaining() < size) {
+                        flush(batch, chunk, results);
+                    }
+                    readIntoBatch(batch, channel, i, (int) size);
+                } else {
+                    byte[] digest = new byte[digestLength];
+                    FileDigest.digest(openSslName, channel, 0, size, -1, digest, 0);
+                    results[i] = new Result(path, size, digest, null);
+                }
+            } catch (IOException e) {
+                results[i] = new Result(path, 0, null, e);
+            }
+        }
+        flush(batch, chunk, results);
+        return new ChunkResult(index, results);
+    }
+
+    /** Appends a small file to the batch buffer. */
+    private static void readIntoBatch(Batch batch, FileChannel channel, int fileIndex, int size) throws IOException {
+        ByteBuffer buffer = batch.buffer;
+        int offset = buffer.position();
+        buffer.limit(offset + size);
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the file size or the end of file
+            }
+        } catch (IOException e) {
+            buffer.position(offset);
+            throw e;
+        } finally {
+            buffer.limit(buffer.capacity());
+        }
+        batch.offsets[batch.count] = offset;
+        batch.lengths[batch.count] = buffer.position() - offset;
+        batch.fileIndexes[batch.count] = fileIndex;
+        batch.count++;
+    }
+
+    /** Calculates the digests of the batched files with a single native call. */
+    private void flush(Batch batch, List<Path> chunk, Result[] results) {
+        if (batch.count == 0) {
+            return;
+        }
+        OpenSSLMessageDigestNative.digestBatch(md, batch.buffer, batch.offsets, batch.lengths, 0, batch.count, batch.digests);
+        for (int i = 0; i < batch.count; i++) {
+            byte[] digest = new byte[digestLength];
+            System.arraycopy(batch.digests, i * digestLength, digest, 0, digestLength);
+            int fileIndex = batch.fileIndexes[i];
+            results[fileIndex] = new Result(chunk.get(fileIndex), batch.lengths[i], digest, null);
+        }
+        batch.buffer.clear();
+        batch.count = 0;
+    }
+}
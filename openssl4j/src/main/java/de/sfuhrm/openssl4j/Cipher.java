@@ -0,0 +1,26 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the cipher spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class Cipher {
+
+    private Cipher() {
+        // no instances allowed
+    }
+
+    /** AES/GCM/NoPadding cipher implementation.
+     * The key length selects AES-128, AES-192 or AES-256.
+     * */
+    public final static class AES_GCM_NoPadding extends OpenSSLAeadCipherNative {
+        /** Creates a new instance. */
+        public AES_GCM_NoPadding() { super("AES/GCM/NoPadding"); }
+    }
+
+    /** ChaCha20-Poly1305 cipher implementation.
+     * */
+    public final static class ChaCha20_Poly1305 extends OpenSSLAeadCipherNative {
+        /** Creates a new instance. */
+        public ChaCha20_Poly1305() { super("ChaCha20-Poly1305"); }
+    }
+}
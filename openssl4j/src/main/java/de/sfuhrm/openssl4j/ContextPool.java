@@ -0,0 +1,164 @@
+package de.sfuhrm.openssl4j;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of initialized native contexts of one algorithm.
+ * Each thread has a small private free list, so the typical
+ * acquire and release on the same thread needs no synchronization.
+ * Contexts that do not fit the private list go to a bounded shared list.
+ * Contexts that do not fit the shared list either are dropped and
+ * left to the {@linkplain PhantomReferenceCleanup}.
+ * A pool that is no longer needed is {@linkplain #close(Consumer) closed}
+ * to free the contexts in the lists of all threads.
+ * The pool only holds the private lists weakly, so the list of a
+ * terminated thread becomes unreachable together with its contexts
+ * and the contexts are freed by the {@linkplain PhantomReferenceCleanup}.
+ * @param <T> the type of the pooled context holders.
+ * @author Stephan Fuhrmann
+ */
+class ContextPool<T> {
+
+    /** The maximum number of contexts in the private list of each thread.
+     * Configured with the system property {@code openssl4j.contextPoolPerThread}.
+     * */
+    static final int PER_THREAD_SIZE = PropertyAccessor.getInt("contextPoolPerThread", 4);
+
+    /** The maximum number of contexts in the shared list.
+     * Configured with the system property {@code openssl4j.contextPoolShared}.
+     * */
+    static final int SHARED_SIZE = PropertyAccessor.getInt("contextPoolShared", 64);
+
+    /** Creates new initialized contexts if the pool is empty. */
+    private final Supplier<T> factory;
+
+    /** Weak references to the private free lists of all threads,
+     * so {@linkplain #close(Consumer)} can reach them.
+     * The lists are only strongly reachable from their threads. */
+    private final Set<Reference<ArrayDeque<T>>> perThreadLists = ConcurrentHashMap.newKeySet();
+
+    /** The references of private free lists whose threads terminated. */
+    private final ReferenceQueue<ArrayDeque<T>> collectedLists = new ReferenceQueue<>();
+
+    /** The private free list of each thread. Only locked by its thread,
+     * unless the pool is being closed. */
+    private final ThreadLocal<ArrayDeque<T>> perThread = ThreadLocal.withInitial(() -> {
+        expungeCollectedLists();
+        ArrayDeque<T> list = new ArrayDeque<>();
+        perThreadLists.add(new WeakReference<>(list, collectedLists));
+        return list;
+    });
+
+    /** Whether the pool is closed and takes no more contexts. */
+    private volatile boolean closed;
+
+    /** The free list shared by all threads, {@code null} if disabled. */
+    private final ArrayBlockingQueue<T> shared;
+
+    /** Creates a pool.
+     * @param factory creates new initialized contexts if the pool is empty.
+     * */
+    ContextPool(Supplier<T> factory) {
+        this.factory = Objects.requireNonNull(factory);
+        this.shared = SHARED_SIZE > 0 ? new ArrayBlockingQueue<>(SHARED_SIZE) : null;
+    }
+
+    /** Removes the references of the collected private free lists. */
+    private void expungeCollectedLists() {
+        Reference<? extends ArrayDeque<T>> reference;
+        while ((reference = collectedLists.poll()) != null) {
+            perThreadLists.remove(reference);
+        }
+    }
+
+    /** Gets the number of private free lists that are still registered.
+     * @return the number of registered private free lists.
+     * */
+    int perThreadListCount() {
+        expungeCollectedLists();
+        return perThreadLists.size();
+    }
+
+    /** Takes a context out of the pool, or creates a new one if the pool is empty.
+     * @return an initialized context that is exclusively owned by the caller.
+     * */
+    T acquire() {
+        T result = null;
+        if (PER_THREAD_SIZE > 0) {
+            ArrayDeque<T> list = perThread.get();
+            synchronized (list) {
+                result = list.pollLast();
+            }
+        }
+        if (result == null && shared != null) {
+            result = shared.poll();
+        }
+        if (result == null) {
+            result = factory.get();
+        }
+        return result;
+    }
+
+    /** Puts a context back into the pool.
+     * The caller must not use the context afterwards.
+     * @param context an initialized context that was returned by {@linkplain #acquire()}.
+     * @return {@code true} if the context was pooled, {@code false} if the pool is full or closed.
+     * */
+    boolean release(T context) {
+        Objects.requireNonNull(context);
+        if (PER_THREAD_SIZE > 0) {
+            ArrayDeque<T> list = perThread.get();
+            synchronized (list) {
+                if (closed) {
+                    return false;
+                }
+                if (list.size() < PER_THREAD_SIZE) {
+                    list.addLast(context);
+                    return true;
+                }
+            }
+        }
+        return !closed && shared != null && shared.offer(context);
+    }
+
+    /** Closes the pool and removes the pooled contexts of all threads.
+     * Contexts released afterwards are rejected. Contexts can still be
+     * acquired, they are created by the factory.
+     * @param disposer frees the removed contexts.
+     * */
+    void close(Consumer<T> disposer) {
+        Objects.requireNonNull(disposer);
+        closed = true;
+        for (Reference<ArrayDeque<T>> reference : perThreadLists) {
+            ArrayDeque<T> list = reference.get();
+            if (list == null) {
+                continue;
+            }
+            T context;
+            do {
+                synchronized (list) {
+                    context = list.pollLast();
+                }
+                if (context != null) {
+                    disposer.accept(context);
+                }
+            } while (context != null);
+        }
+        perThreadLists.clear();
+        if (shared != null) {
+            T context;
+            while ((context = shared.poll()) != null) {
+                disposer.accept(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes direct buffers on a background thread while the caller fills the next ones.
+ * The caller {@linkplain #take() takes} a free buffer, fills it and
+ * {@linkplain #submit(ByteBuffer) submits} it. A background task
+ * passes the submitted buffers to OpenSSL and returns them to the free list.
+ * The task is started by a submit and ends as soon as no submitted buffer
+ * is left, so an abandoned pipeline holds no thread and its buffers and
+ * native context are left to the garbage collector.
+ * With two or more buffers, reading and hashing overlap.
+ * Buffers of the default size are taken from and returned to a small
+ * pool shared by all pipelines, so short-lived pipelines don't allocate
+ * direct memory each time.
+ * @author Stephan Fuhrmann
+ */
+final class DigestPipeline implements AutoCloseable {
+
+    /** The default number of buffers in flight. */
+    static final int DEFAULT_BUFFERS = 2;
+
+    /** The default size of each buffer. */
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /** The maximum number of idle buffers of the default size kept for the next pipelines.
+     * Configured with the system property {@code openssl4j.pipelineBufferPool}.
+     * */
+    static final int BUFFER_POOL_SIZE = PropertyAccessor.getInt("pipelineBufferPool", 8);
+
+    /** The idle buffers of the default size, {@code null} if disabled. */
+    private static final BlockingQueue<ByteBuffer> BUFFER_POOL =
+            BUFFER_POOL_SIZE > 0 ? new ArrayBlockingQueue<>(BUFFER_POOL_SIZE) : null;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    /** Runs the hashing side of all pipelines. */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "OpenSSL-Pipeline-" + THREAD_NUMBER.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final OpenSSLMessageDigestNative messageDigest;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final int buffers;
+    private final int bufferSize;
+
+    /** Whether a hashing task is running, or the pipeline is disposed. */
+    private final AtomicBoolean hashing = new AtomicBoolean();
+
+    /** The first exception of the hashing thread, if any. */
+    private volatile RuntimeException failure;
+
+    /** Whether the pipeline was closed before finishing, so the remaining buffers are skipped. */
+    private volatile boolean closed;
+
+    private boolean finished;
+
+    /** Creates a pipeline.
+     * @param openSslName the OpenSSL algorithm name.
+     * @param buffers the number of buffers, at least 1.
+     * @param bufferSize the size of each buffer in bytes.
+     * */
+    DigestPipeline(String openSslName, int buffers, int bufferSize) {
+        if (buffers <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("buffers and bufferSize must be positive");
+        }
+        messageDigest = new OpenSSLMessageDigestNative(openSslName, openSslName);
+        this.buffers = buffers;
+        this.bufferSize = bufferSize;
+        free = new ArrayBlockingQueue<>(buffers);
+        filled = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            free.add(allocate(bufferSize));
+        }
+    }
+
+    /** Takes a pooled buffer or allocates a new one. */
+    private static ByteBuffer allocate(int bufferSize) {
+        ByteBuffer result = null;
+        if (BUFFER_POOL != null && bufferSize == DEFAULT_BUFFER_SIZE) {
+            result = BUFFER_POOL.poll();
+        }
+        return result != null ? result : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /** Gets the number of idle pooled buffers.
+     * @return the number of buffers ready for the next pipelines.
+     * */
+    static int pooledBuffers() {
+        return BUFFER_POOL != null ? BUFFER_POOL.size() : 0;
+    }
+
+    /** Returns the free buffers to the pool. Called once no buffer is hashed anymore. */
+    private void releaseBuffers() {
+        if (BUFFER_POOL != null && bufferSize == DEFAULT_BUFFER_SIZE) {
+            ByteBuffer buffer;
+            while ((buffer = free.poll()) != null && BUFFER_POOL.offer(buffer)) {
+                // the buffers that don't fit the pool are left to the garbage collector
+            }
+        }
+        free.clear();
+    }
+
+    /** Hashes the submitted buffers until none is left.
+     * After {@linkplain #close()}, skips the remaining buffers and
+     * disposes the pipeline.
+     * */
+    private void hashSubmitted() {
+        while (true) {
+            ByteBuffer buffer;
+            while ((buffer = filled.poll()) != null) {
+                try {
+                    if (failure == null && !closed) {
+                        messageDigest.update(buffer);
+                    }
+                } catch (RuntimeException e) {
+                    // keep returning buffers so the caller does not block
+                    failure = e;
+                } finally {
+                    free.add(buffer);
+                }
+            }
+            hashing.set(false);
+            if (closed) {
+                if (hashing.compareAndSet(false, true)) {
+                    dispose();
+                }
+                return;
+            }
+            // a buffer may have been submitted before the flag was reset
+            if (filled.isEmpty() || !hashing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /** Releases the buffers and the native context of the message digest.
+     * Called once, by the thread that set {@linkplain #hashing} after closing.
+     * */
+    private void dispose() {
+        ByteBuffer buffer;
+        while ((buffer = filled.poll()) != null) {
+            free.add(buffer);
+        }
+        releaseBuffers();
+        messageDigest.close();
+    }
+
+    /** Takes a free buffer, waiting for the hashing side if needed.
+     * @return a cleared direct buffer owned by the caller until it is submitted.
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     * */
+    ByteBuffer take() throws InterruptedIOException {
+        try {
+            ByteBuffer buffer = free.take();
+            buffer.clear();
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+    }
+
+    /** Submits a buffer for hashing. The caller must not use the buffer afterwards.
+     * @param buffer a buffer returned by {@linkplain #take()}, with the data to
+     *               hash between position and limit.
+     * @throws IllegalStateException if the pipeline is finished or closed.
+     * */
+    void submit(ByteBuffer buffer) {
+        if (finished) {
+            throw new IllegalStateException("Pipeline already finished");
+        }
+        // there is always room for the buffers taken from the free list
+        filled.add(buffer);
+        if (hashing.compareAndSet(false, true)) {
+            EXECUTOR.execute(this::hashSubmitted);
+        }
+    }
+
+    /** Waits until all submitted buffers are hashed and completes the digest.
+     * The pipeline can not be used afterwards.
+     * @return the digest of all submitted data.
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     * @throws IllegalStateException if hashing failed.
+     * */
+    byte[] finish() throws InterruptedIOException {
+        if (finished) {
+            throw new IllegalStateException("Pipeline already finished");
+        }
+        // all buffers are back in the free list once the submitted ones are hashed
+        ByteBuffer[] returned = new ByteBuffer[buffers];
+        int count = 0;
+        try {
+            while (count < buffers) {
+                returned[count] = free.take();
+                count++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the digest");
+        } finally {
+            for (int i = 0; i < count; i++) {
+                free.add(returned[i]);
+            }
+        }
+        finished = true;
+        try {
+            if (failure != null) {
+                throw new IllegalStateException("Could not calculate digest", failure);
+            }
+            return messageDigest.digest();
+        } finally {
+            releaseBuffers();
+            messageDigest.close();
+        }
+    }
+
+    /** Stops hashing without completing the digest.
+     * A running hashing task skips the buffers still submitted.
+     * The buffers and the native context of the message digest are released
+     * by the hashing task, or right away if no task is running.
+     * */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            closed = true;
+            if (hashing.compareAndSet(false, true)) {
+                dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Calculates message digests of files without copying the file content
+ * through the Java heap.
+ * Files of the default file system are opened by path in native code,
+ * which owns the file descriptor for the duration of the call and reads
+ * the file with {@code mmap} or {@code pread}, see {@linkplain FileDigestMode}.
+ * Channels and files of other file systems are read with the positional
+ * reads of the channel into a per-thread direct buffer, and the native
+ * memory is passed to OpenSSL. The channel takes care of concurrent closes.
+ * Channels are never mapped, because the mappings of
+ * {@linkplain FileChannel#map(FileChannel.MapMode, long, long)} are only
+ * released by the garbage collector and would pile up for large files.
+ * @author Stephan Fuhrmann
+ */
+class FileDigest {
+
+    static {
+        try {
+            NativeLoader.loadAll();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not initialize", e);
+        }
+    }
+
+    /** Calculates the digest of a file that is opened by path in native code.
+     * @param md the message digest handle as returned by {@linkplain OpenSSLMessageDigestNative#mdHandle(String)}.
+     * @param path the path of the file in the platform encoding.
+     * @param mode the {@linkplain FileDigestMode#ordinal() ordinal} of the file digest mode.
+     * @return the digest.
+     * @throws IOException if opening or reading the file failed.
+     * */
+    private static native byte[] nativeDigestFile(long md, byte[] path, int mode) throws IOException;
+
+    /** Size of the per-thread direct buffer of {@linkplain FileDigestMode#PREAD}. */
+    static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    /** The encoding of file names, as used by the JDK for native file system calls. */
+    private static final Charset FILE_NAME_CHARSET = fileNameCharset();
+
+    /** The direct read buffer of each thread. */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    private FileDigest() {
+        // no instances allowed
+    }
+
+    private static Charset fileNameCharset() {
+        String encoding = System.getProperty("sun.jnu.encoding");
+        try {
+            return encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    /** Calculates the digest of a file.
+     * @param openSslName the OpenSSL algorithm name.
+     * @param file the file to calculate the digest of.
+     * @param mode the way the file is read.
+     * @return the digest.
+     * @throws IOException if reading the file failed.
+     * */
+    static byte[] digest(String openSslName, Path file, FileDigestMode mode) throws IOException {
+        Objects.requireNonNull(mode, "mode is null");
+        if (file.getFileSystem() == FileSystems.getDefault()) {
+            byte[] path = file.toAbsolutePath().toString().getBytes(FILE_NAME_CHARSET);
+            return nativeDigestFile(OpenSSLMessageDigestNative.mdHandle(openSslName), path, mode.ordinal());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return digest(openSslName, channel, 0, channel.size(), mode);
+        }
+    }
+
+    /** Calculates the digest of a file region.
+     * The region is always read, {@linkplain FileDigestMode#MMAP} is handled
+     * like {@linkplain FileDigestMode#PREAD}.
+     * The position of the channel is not changed.
+     * @param openSslName the OpenSSL algorithm name.
+     * @param channel the channel to read the file region from.
+     * @param offset the start offset of the region in the file.
+     * @param length the length of the region in bytes.
+     * @param mode the way the file is read.
+     * @return the digest.
+     * @throws IOException if reading the file failed.
+     * @throws EOFException if the region exceeds the end of the file.
+     * */
+    static byte[] digest(String openSslName, FileChannel channel, long offset, long length, FileDigestMode mode) throws IOException {
+        long md = OpenSSLMessageDigestNative.mdHandle(openSslName);
+        byte[] digest = new byte[OpenSSLMessageDigestNative.digestLength(md)];
+        Objects.requireNonNull(mode, "mode is null");
+        digest(openSslName, channel, offset, length, -1, digest, 0);
+        return digest;
+    }
+
+    /** Calculates the digest of a prefix byte followed by a file region.
+     * The region is read with {@linkplain FileChannel#read(ByteBuffer, long)}
+     * into the direct buffer of the thread.
+     * The position of the channel is not changed.
+     * @param openSslName the OpenSSL algorithm name.
+     * @param channel the channel to read the file region from.
+     * @param offset the start offset of the region in the file.
+     * @param length the length of the region in bytes.
+     * @param prefix a byte to calculate the digest of before the region, or -1 for none.
+     * @param digest the array to write the digest to.
+     * @param digestOffset the offset in the digest array to start writing at.
+     * @throws IOException if reading the file failed.
+     * @throws EOFException if the region exceeds the end of the file.
+     * */
+    static void digest(String openSslName, FileChannel channel, long offset, long length,
+                       int prefix, byte[] digest, int digestOffset) throws IOException {
+        Objects.requireNonNull(channel, "channel is null");
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset or length negative");
+        }
+        long size = channel.size();
+        if (offset > size || length > size - offset) {
+            throw new EOFException("Region exceeds the end of the file");
+        }
+        try (OpenSSLMessageDigestNative messageDigest = new OpenSSLMessageDigestNative(openSslName, openSslName)) {
+            if (prefix >= 0) {
+                messageDigest.update((byte) prefix);
+            }
+            updateWithRead(messageDigest, channel, offset, length);
+            messageDigest.digest(ByteBuffer.wrap(digest, digestOffset, digest.length - digestOffset));
+        }
+    }
+
+    /** Reads a file region into the direct buffer of the thread and passes it to OpenSSL. */
+    private static void updateWithRead(OpenSSLMessageDigestNative messageDigest, FileChannel channel,
+                                       long offset, long length) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Region exceeds the end of the file");
+            }
+            buffer.flip();
+            messageDigest.update(buffer);
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.sfuhrm.openssl4j;
+
+/**
+ * The way files are read when calculating file digests with
+ * {@linkplain OpenSSL4J#digest(String, java.nio.file.Path, FileDigestMode)}.
+ * In both modes the file data is passed to OpenSSL without copying
+ * it through the Java heap.
+ * @author Stephan Fuhrmann
+ */
+public enum FileDigestMode {
+    /** The file is mapped into memory with {@code mmap} and
+     * {@code madvise(MADV_SEQUENTIAL)} in chunks of 64 MiB, each chunk
+     * is unmapped before the next one is mapped.
+     * Avoids copying the page cache contents. The file must not be truncated
+     * while the digest is calculated, the JVM may crash otherwise.
+     * Only applies to files of the default file system that are passed by path,
+     * channels and other files are read like {@linkplain #PREAD}.
+     * */
+    MMAP,
+
+    /** Files of the default file system that are passed by path are read with
+     * {@code pread} into a reusable, page aligned native buffer after
+     * {@code posix_fadvise(POSIX_FADV_SEQUENTIAL)}.
+     * Channels and other files are read with the positional reads of the
+     * channel into a reusable direct buffer of the thread.
+     * */
+    PREAD
+}
@@ -0,0 +1,120 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Derives keys with the HMAC-based key derivation function HKDF (RFC 5869).
+ * Uses {@code EVP_KDF} on OpenSSL 3 and needs at least OpenSSL 1.1.1.
+ * Each method is a single native call.
+ * Instances are thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class Hkdf {
+
+    /** Mode for extracting and expanding in one step. */
+    private static final int MODE_EXTRACT_AND_EXPAND = 0;
+
+    /** Mode for the extract step only. */
+    private static final int MODE_EXTRACT_ONLY = 1;
+
+    /** Mode for the expand step only. */
+    private static final int MODE_EXPAND_ONLY = 2;
+
+    /** The maximum length of the info that OpenSSL accepts. */
+    static final int MAX_INFO_LENGTH = 1024;
+
+    /** Derives key material with a single native call.
+     * @param md the message digest handle of the HMAC.
+     * @param mode one of the {@code MODE_} constants.
+     * @param key the input key material, or the pseudorandom key for {@linkplain #MODE_EXPAND_ONLY}.
+     * @param salt the salt, or {@code null}.
+     * @param info the context information, or {@code null}.
+     * @param out the array to store the output in. The length of the array is the output length.
+     * */
+    private static native void nativeHkdf(long md, int mode, byte[] key, byte[] salt, byte[] info, byte[] out);
+
+    /** The message digest handle. */
+    private final long md;
+
+    /** The length of the HMAC in bytes. */
+    private final int digestLength;
+
+    /** Creates an instance for a HMAC message digest.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public Hkdf(String algorithm) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        md = OpenSSL4J.toMdHandle(algorithm);
+        digestLength = OpenSSLMessageDigestNative.digestLength(md);
+    }
+
+    /** Gets the length of the pseudorandom keys returned by {@linkplain #extract(byte[], byte[])}.
+     * @return the length of the HMAC in bytes.
+     * */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /** Extracts a pseudorandom key from input key material.
+     * @param salt the optional salt, or {@code null}.
+     * @param inputKeyMaterial the input key material.
+     * @return the pseudorandom key with the length of the HMAC.
+     * */
+    public byte[] extract(byte[] salt, byte[] inputKeyMaterial) {
+        Objects.requireNonNull(inputKeyMaterial, "inputKeyMaterial is null");
+        byte[] result = new byte[digestLength];
+        nativeHkdf(md, MODE_EXTRACT_ONLY, inputKeyMaterial, salt, null, result);
+        return result;
+    }
+
+    /** Expands a pseudorandom key to output key material.
+     * @param pseudoRandomKey the pseudorandom key, at least as long as the HMAC.
+     * @param info the optional context information, or {@code null}.
+     * @param length the length of the output key material in bytes.
+     * @return the output key material.
+     * @throws IllegalArgumentException if the pseudorandom key is too short,
+     * the info is too long or the length is out of range.
+     * */
+    public byte[] expand(byte[] pseudoRandomKey, byte[] info, int length) {
+        Objects.requireNonNull(pseudoRandomKey, "pseudoRandomKey is null");
+        if (pseudoRandomKey.length < digestLength) {
+            throw new IllegalArgumentException("Pseudorandom key must have at least " + digestLength + " bytes");
+        }
+        checkInfoAndLength(info, length);
+        byte[] result = new byte[length];
+        nativeHkdf(md, MODE_EXPAND_ONLY, pseudoRandomKey, null, info, result);
+        return result;
+    }
+
+    /** Extracts and expands in one step.
+     * @param salt the optional salt, or {@code null}.
+     * @param inputKeyMaterial the input key material.
+     * @param info the optional context information, or {@code null}.
+     * @param length the length of the output key material in bytes.
+     * @return the output key material.
+     * @throws IllegalArgumentException if the info is too long or the length is out of range.
+     * */
+    public byte[] deriveKey(byte[] salt, byte[] inputKeyMaterial, byte[] info, int length) {
+        Objects.requireNonNull(inputKeyMaterial, "inputKeyMaterial is null");
+        checkInfoAndLength(info, length);
+        byte[] result = new byte[length];
+        nativeHkdf(md, MODE_EXTRACT_AND_EXPAND, inputKeyMaterial, salt, info, result);
+        return result;
+    }
+
+    private void checkInfoAndLength(byte[] info, int length) {
+        if (info != null && info.length > MAX_INFO_LENGTH) {
+            throw new IllegalArgumentException("Info must not be longer than " + MAX_INFO_LENGTH + " bytes");
+        }
+        if (length <= 0 || length > 255 * digestLength) {
+            throw new IllegalArgumentException("Length must be between 1 and " + (255 * digestLength) + ": " + length);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the key agreement spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class KeyAgreement {
+
+    private KeyAgreement() {
+        // no instances allowed
+    }
+
+    /** X25519 key agreement implementation.
+     * */
+    public final static class X25519 extends OpenSSLKeyAgreementNative {
+        /** Creates a new instance. */
+        public X25519() { super(NativeKey.TYPE_X25519); }
+    }
+
+    /** X448 key agreement implementation.
+     * */
+    public final static class X448 extends OpenSSLKeyAgreementNative {
+        /** Creates a new instance. */
+        public X448() { super(NativeKey.TYPE_X448); }
+    }
+
+    /** XDH key agreement implementation for X25519 and X448 keys.
+     * */
+    public final static class XDH extends OpenSSLKeyAgreementNative {
+        /** Creates a new instance. */
+        public XDH() { super(NativeKey.TYPE_X25519, NativeKey.TYPE_X448); }
+    }
+
+    /** ECDH key agreement implementation.
+     * */
+    public final static class ECDH extends OpenSSLKeyAgreementNative {
+        /** Creates a new instance. */
+        public ECDH() { super(NativeKey.TYPE_EC); }
+    }
+}
@@ -0,0 +1,46 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the key pair generator spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class KeyPairGenerator {
+
+    private KeyPairGenerator() {
+        // no instances allowed
+    }
+
+    /** X25519 key pair generator implementation.
+     * */
+    public final static class X25519 extends OpenSSLKeyPairGeneratorNative {
+        /** Creates a new instance. */
+        public X25519() { super(0, NativeKey.TYPE_X25519); }
+    }
+
+    /** X448 key pair generator implementation.
+     * */
+    public final static class X448 extends OpenSSLKeyPairGeneratorNative {
+        /** Creates a new instance. */
+        public X448() { super(0, NativeKey.TYPE_X448); }
+    }
+
+    /** XDH key pair generator implementation, generating X25519 keys by default.
+     * */
+    public final static class XDH extends OpenSSLKeyPairGeneratorNative {
+        /** Creates a new instance. */
+        public XDH() { super(0, NativeKey.TYPE_X25519, NativeKey.TYPE_X448); }
+    }
+
+    /** EC key pair generator implementation, generating P-256 keys by default.
+     * */
+    public final static class EC extends OpenSSLKeyPairGeneratorNative {
+        /** Creates a new instance. */
+        public EC() { super(NativeKey.CURVE_P256, NativeKey.TYPE_EC); }
+    }
+
+    /** RSA key pair generator implementation, generating 2048 bit keys by default.
+     * */
+    public final static class RSA extends OpenSSLKeyPairGeneratorNative {
+        /** Creates a new instance. */
+        public RSA() { super(2048, NativeKey.TYPE_RSA); }
+    }
+}
@@ -0,0 +1,232 @@
+package de.sfuhrm.openssl4j;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of RSA and EC key pairs that are generated in the background,
+ * so {@linkplain java.security.KeyPairGenerator#generateKeyPair()} of the
+ * {@linkplain OpenSSL4JProvider} usually returns a key pair without waiting
+ * for the key generation.
+ * There is one pool per key type and size, created on the first request
+ * for such a key pair. A request that finds the pool empty generates the
+ * key pair in the calling thread.
+ * Only the key types and sizes listed in the system property
+ * {@code openssl4j.keyPoolTypes} get a pool, so a rare request for
+ * an unusual key size doesn't keep a background thread busy.
+ * Other key pairs are always generated in the calling thread.
+ * The pools are disabled by default. The system property
+ * {@code openssl4j.keyPoolSize} sets the number of key pairs each pool keeps
+ * ready, and {@code openssl4j.keyPoolThreads} the number of low priority
+ * background threads generating them (default 1).
+ * @author Stephan Fuhrmann
+ */
+public final class KeyPairPool {
+
+    /** The number of key pairs each pool keeps ready, 0 disables the pools. */
+    static final int POOL_SIZE = PropertyAccessor.getInt("keyPoolSize", 0);
+
+    /** The names of the pools that may be created, separated by commas.
+     * Configured with the system property {@code openssl4j.keyPoolTypes}.
+     * */
+    static final Set<String> POOL_TYPES = parseTypes(
+            PropertyAccessor.getConfigured("keyPoolTypes", "RSA-2048,RSA-3072,RSA-4096,EC-P-256,EC-P-384"));
+
+    /** The number of background threads generating key pairs. */
+    static final int POOL_THREADS = Math.max(1, PropertyAccessor.getInt("keyPoolThreads", 1));
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    /** Generates the key pairs of all pools, with threads that end when idle. */
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+
+    /** The pools by name. */
+    private static final Map<String, KeyPairPool> POOLS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int capacity;
+    private final Supplier<KeyPair> generator;
+    private final BlockingQueue<KeyPair> keyPairs;
+
+    /** The number of key pairs being generated in the background. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    KeyPairPool(String name, int capacity, Supplier<KeyPair> generator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.name = Objects.requireNonNull(name, "name is null");
+        this.capacity = capacity;
+        this.generator = Objects.requireNonNull(generator, "generator is null");
+        this.keyPairs = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /** Parses a list of pool names.
+     * @param types the pool names separated by commas.
+     * @return the pool names without surrounding whitespace.
+     * */
+    static Set<String> parseTypes(String types) {
+        Set<String> result = new HashSet<>();
+        for (String type : types.split(",")) {
+            if (!type.trim().isEmpty()) {
+                result.add(type.trim());
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "OpenSSL-KeyPairPool-" + THREAD_NUMBER.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /** Gets a key pair from the pool of the given name, or generates it
+     * if the pools are disabled or the name is not one of the {@linkplain #POOL_TYPES}.
+     * @param name the name of the pool, identifying the key type and size.
+     * @param generator generates the key pairs of the pool.
+     * @return a new key pair.
+     * */
+    static KeyPair take(String name, Supplier<KeyPair> generator) {
+        if (POOL_SIZE <= 0 || !POOL_TYPES.contains(name)) {
+            return generator.get();
+        }
+        return POOLS.computeIfAbsent(name, n -> new KeyPairPool(n, POOL_SIZE, generator)).take();
+    }
+
+    /** Gets a key pair, and starts generating a replacement in the background.
+     * @return a pre-generated key pair, or a key pair generated by the calling
+     * thread if the pool is empty.
+     * */
+    KeyPair take() {
+        KeyPair result = keyPairs.poll();
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        refill();
+        return result != null ? result : generator.get();
+    }
+
+    /** Schedules the background generations that fill up the pool.
+     * Failed generations are not retried before the next {@linkplain #take()}.
+     * */
+    private void refill() {
+        int current;
+        int missing;
+        do {
+            current = pending.get();
+            missing = capacity - keyPairs.size() - current;
+        } while (missing > 0 && !pending.compareAndSet(current, current + missing));
+        for (int i = 0; i < missing; i++) {
+            EXECUTOR.execute(this::generate);
+        }
+    }
+
+    /** Generates one key pair in the background. */
+    private void generate() {
+        boolean generated = false;
+        try {
+            generated = keyPairs.offer(generator.get());
+        } catch (RuntimeException e) {
+            // the next take() tries again
+            failures.increment();
+        } finally {
+            pending.decrementAndGet();
+        }
+        if (generated) {
+            refill();
+        }
+    }
+
+    /** Gets a snapshot of the pools created so far.
+     * @return the pools, empty if the pools are disabled.
+     * */
+    public static List<KeyPairPool> getPools() {
+        return new ArrayList<>(POOLS.values());
+    }
+
+    /** Gets the name of the pool.
+     * @return the key type and size, for example {@code RSA-3072} or {@code EC-P-256}.
+     * */
+    public String getName() {
+        return name;
+    }
+
+    /** Gets the maximum number of key pairs the pool keeps ready.
+     * @return the capacity of the pool.
+     * */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Gets the number of key pairs ready to be taken.
+     * @return the number of pre-generated key pairs.
+     * */
+    public int getAvailable() {
+        return keyPairs.size();
+    }
+
+    /** Gets the number of requests that got a pre-generated key pair.
+     * @return the number of pool hits.
+     * */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Gets the number of requests that found the pool empty
+     * and generated the key pair themselves.
+     * @return the number of pool misses.
+     * */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Gets the number of failed background generations.
+     * @return the number of failures.
+     * */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /** Gets the share of requests that got a pre-generated key pair.
+     * @return the hit rate between 0 and 1, or 0 if there were no requests.
+     * */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [available=" + getAvailable() + "/" + capacity
+                + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+}
@@ -0,0 +1,110 @@
+package de.sfuhrm.openssl4j;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Bounded cache that evicts the least recently used entries.
+ * Lookups are lock-free, they only record the access time in the entry.
+ * Inserting into a full cache takes a lock and scans the entries
+ * for the eldest one, so the cache is meant for small capacities
+ * and values that are expensive to create.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ * @author Stephan Fuhrmann
+ */
+final class LruCache<K, V> {
+
+    /** A cached value with the time of its last access. */
+    private static final class Entry<V> {
+        private final V value;
+        private volatile long lastAccess;
+
+        Entry(V value) {
+            this.value = value;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    /** The maximum number of entries. */
+    private final int capacity;
+
+    /** Gets the evicted values. */
+    private final Consumer<V> evicted;
+
+    /** The cached entries. */
+    private final ConcurrentHashMap<K, Entry<V>> entries;
+
+    /** Serializes the evictions. */
+    private final Object evictionLock = new Object();
+
+    /** Creates a cache.
+     * @param capacity the maximum number of entries.
+     * @param evicted gets the values that are evicted from the cache.
+     * */
+    LruCache(int capacity, Consumer<V> evicted) {
+        this.capacity = capacity;
+        this.evicted = Objects.requireNonNull(evicted);
+        this.entries = new ConcurrentHashMap<>(Math.max(16, capacity * 2));
+    }
+
+    /** Gets a cached value and marks it as recently used.
+     * @param key the key of the value.
+     * @return the value, or {@code null} if it is not cached.
+     * */
+    V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry.value;
+    }
+
+    /** Adds a value unless another value is cached for the key.
+     * Evicts the least recently used entries if the cache is full.
+     * @param key the key of the value.
+     * @param value the value to add.
+     * @return the value that was cached before, or {@code null} if the value was added.
+     * */
+    V putIfAbsent(K key, V value) {
+        Entry<V> previous = entries.putIfAbsent(key, new Entry<>(value));
+        if (previous != null) {
+            previous.lastAccess = System.nanoTime();
+            return previous.value;
+        }
+        if (entries.size() > capacity) {
+            evict();
+        }
+        return null;
+    }
+
+    /** Gets the number of cached entries.
+     * @return the number of entries.
+     * */
+    int size() {
+        return entries.size();
+    }
+
+    /** Removes the least recently used entries until the cache fits its capacity. */
+    private void evict() {
+        synchronized (evictionLock) {
+            while (entries.size() > capacity) {
+                Map.Entry<K, Entry<V>> eldest = null;
+                for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+                    if (eldest == null || candidate.getValue().lastAccess - eldest.getValue().lastAccess < 0) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest == null) {
+                    return;
+                }
+                if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                    evicted.accept(eldest.getValue().value);
+                }
+            }
+        }
+    }
+}
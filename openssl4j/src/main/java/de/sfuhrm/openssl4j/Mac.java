@@ -0,0 +1,95 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the MAC spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class Mac {
+
+    private Mac() {
+        // no instances allowed
+    }
+
+    /** HmacMD5 MAC implementation.
+     * */
+    public final static class HmacMD5 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacMD5() { super("MD5"); }
+    }
+
+    /** HmacSHA1 MAC implementation.
+     * */
+    public final static class HmacSHA1 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA1() { super("SHA1"); }
+    }
+
+    /** HmacSHA224 MAC implementation.
+     * */
+    public final static class HmacSHA224 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA224() { super("SHA224"); }
+    }
+
+    /** HmacSHA256 MAC implementation.
+     * */
+    public final static class HmacSHA256 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA256() { super("SHA256"); }
+    }
+
+    /** HmacSHA384 MAC implementation.
+     * */
+    public final static class HmacSHA384 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA384() { super("SHA384"); }
+    }
+
+    /** HmacSHA512 MAC implementation.
+     * */
+    public final static class HmacSHA512 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA512() { super("SHA512"); }
+    }
+
+    /** HmacSHA512/224 MAC implementation.
+     * */
+    public final static class HmacSHA512_224 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA512_224() { super("SHA512-224"); }
+    }
+
+    /** HmacSHA512/256 MAC implementation.
+     * */
+    public final static class HmacSHA512_256 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA512_256() { super("SHA512-256"); }
+    }
+
+    /** HmacSHA3-224 MAC implementation.
+     * */
+    public final static class HmacSHA3_224 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA3_224() { super("SHA3-224"); }
+    }
+
+    /** HmacSHA3-256 MAC implementation.
+     * */
+    public final static class HmacSHA3_256 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA3_256() { super("SHA3-256"); }
+    }
+
+    /** HmacSHA3-384 MAC implementation.
+     * */
+    public final static class HmacSHA3_384 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA3_384() { super("SHA3-384"); }
+    }
+
+    /** HmacSHA3-512 MAC implementation.
+     * */
+    public final static class HmacSHA3_512 extends OpenSSLMacNative {
+        /** Creates a new instance. */
+        public HmacSHA3_512() { super("SHA3-512"); }
+    }
+}
@@ -0,0 +1,304 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/**
+ * A key parsed into a native OpenSSL {@code EVP_PKEY}.
+ * The native key is freed by the {@linkplain PhantomReferenceCleanup}
+ * once the instance is unreachable.
+ * Public keys are cached by their encoding and by their instance in
+ * bounded least recently used caches, so verifying with a known key
+ * doesn't parse it again.
+ * Generated keys stay in native memory until they are exported.
+ * Instances are immutable and can be used by multiple threads.
+ * @author Stephan Fuhrmann
+ */
+final class NativeKey {
+
+    /** Parses a public key.
+     * @param encoded the X.509 encoded key.
+     * @return the handle of the native key.
+     * */
+    private static native long nativeParsePublicKey(byte[] encoded);
+
+    /** Parses a private key.
+     * @param encoded the PKCS#8 encoded key.
+     * @return the handle of the native key.
+     * */
+    private static native long nativeParsePrivateKey(byte[] encoded);
+
+    /** Gets the OpenSSL type of a key.
+     * @param key the handle of the native key.
+     * @return the {@code EVP_PKEY} id, one of the {@code TYPE_} constants.
+     * */
+    private static native int nativeKeyType(long key);
+
+    /** Frees a native key.
+     * @param key the handle of the native key.
+     * */
+    private static native void nativeFree(long key);
+
+    /** Generates a key with {@code EVP_PKEY_keygen}.
+     * @param type the OpenSSL type of the key, one of the {@code TYPE_} constants.
+     * @param parameter the curve for {@linkplain #TYPE_EC}, the key size in bits
+     *                  for {@linkplain #TYPE_RSA}, otherwise ignored.
+     * @param publicExponent the big endian RSA public exponent, or {@code null}
+     *                       for the OpenSSL default 65537.
+     * @return the handle of the native key.
+     * */
+    private static native long nativeGenerate(int type, int parameter, byte[] publicExponent);
+
+    /** Exports the public part of a key.
+     * @param key the native key, passed as object to keep it reachable during the call.
+     * @return the X.509 encoded public key.
+     * */
+    private static native byte[] nativeExportPublicKey(NativeKey key);
+
+    /** Exports a private key.
+     * @param key the native key, passed as object to keep it reachable during the call.
+     * @return the PKCS#8 encoded private key.
+     * */
+    private static native byte[] nativeExportPrivateKey(NativeKey key);
+
+    /** OpenSSL type of RSA keys. */
+    static final int TYPE_RSA = 6;
+
+    /** OpenSSL type of RSASSA-PSS keys. */
+    static final int TYPE_RSA_PSS = 912;
+
+    /** OpenSSL type of EC keys. */
+    static final int TYPE_EC = 408;
+
+    /** OpenSSL type of Ed25519 keys. */
+    static final int TYPE_ED25519 = 1087;
+
+    /** OpenSSL type of Ed448 keys. */
+    static final int TYPE_ED448 = 1088;
+
+    /** OpenSSL type of X25519 keys. */
+    static final int TYPE_X25519 = 1034;
+
+    /** OpenSSL type of X448 keys. */
+    static final int TYPE_X448 = 1035;
+
+    /** OpenSSL id of the NIST P-256 curve. */
+    static final int CURVE_P256 = 415;
+
+    /** OpenSSL id of the NIST P-384 curve. */
+    static final int CURVE_P384 = 715;
+
+    /** OpenSSL id of the NIST P-521 curve. */
+    static final int CURVE_P521 = 716;
+
+    /** The maximum number of cached public keys.
+     * Configured with the system property {@code openssl4j.keyCacheSize},
+     * 0 disables the cache.
+     * */
+    static final int KEY_CACHE_SIZE = PropertyAccessor.getInt("keyCacheSize", 64);
+
+    /** The cached public keys by encoding.
+     * Evicted keys are freed once they are unreachable.
+     * */
+    private static final LruCache<EncodedKey, NativeKey> PUBLIC_KEYS = new LruCache<>(KEY_CACHE_SIZE, key -> { });
+
+    /** The cached public keys by key instance, so verifying repeatedly
+     * with the same instance neither encodes nor hashes the key.
+     * */
+    private static final LruCache<KeyInstance, NativeKey> PUBLIC_KEY_INSTANCES = new LruCache<>(KEY_CACHE_SIZE, key -> { });
+
+    /** Identifies a public key by its encoding. */
+    private static final class EncodedKey {
+        private final byte[] encoded;
+        private final int hashCode;
+
+        EncodedKey(byte[] encoded) {
+            this.encoded = encoded;
+            this.hashCode = Arrays.hashCode(encoded);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EncodedKey && MessageDigest.isEqual(encoded, ((EncodedKey) o).encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /** Identifies a public key by its instance. */
+    private static final class KeyInstance {
+        private final PublicKey key;
+
+        KeyInstance(PublicKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof KeyInstance && key == ((KeyInstance) o).key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+    }
+
+    /** The handle of the native key. */
+    final long handle;
+
+    /** The OpenSSL type of the key. */
+    final int type;
+
+    private NativeKey(long handle) {
+        this.handle = handle;
+        this.type = nativeKeyType(handle);
+    }
+
+    private static NativeKey wrap(long handle) {
+        NativeKey result = new NativeKey(handle);
+        PhantomReferenceCleanup.enqueueForCleanup(result, NativeKey::free, handle);
+        return result;
+    }
+
+    private static byte[] encoded(Key key, String format) throws InvalidKeyException {
+        if (key == null) {
+            throw new InvalidKeyException("key is null");
+        }
+        byte[] encoded = key.getEncoded();
+        if (!format.equalsIgnoreCase(key.getFormat()) || encoded == null) {
+            throw new InvalidKeyException("Key must be " + format + " encoded");
+        }
+        return encoded;
+    }
+
+    /** Gets the native key of a public key, parsing and caching it if needed.
+     * @param key the X.509 encodable public key.
+     * @return the native key.
+     * @throws InvalidKeyException if the key can't be parsed.
+     * */
+    static NativeKey publicKey(PublicKey key) throws InvalidKeyException {
+        return publicKey(key, true);
+    }
+
+    /** Gets the native key of a public key, parsing it if needed.
+     * @param key the X.509 encodable public key.
+     * @param cache whether to add a parsed key to the cache. Ephemeral
+     *              keys are not added, so they don't evict long-lived keys.
+     * @return the native key.
+     * @throws InvalidKeyException if the key can't be parsed.
+     * */
+    static NativeKey publicKey(PublicKey key, boolean cache) throws InvalidKeyException {
+        if (key instanceof NativePublicKey) {
+            return ((NativePublicKey) key).nativeKey();
+        }
+        KeyInstance instance = KEY_CACHE_SIZE > 0 ? new KeyInstance(key) : null;
+        if (instance != null) {
+            NativeKey cached = PUBLIC_KEY_INSTANCES.get(instance);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        EncodedKey id = new EncodedKey(encoded(key, "X.509"));
+        NativeKey result = instance != null ? PUBLIC_KEYS.get(id) : null;
+        if (result == null) {
+            result = wrap(parse(id.encoded, false));
+            if (cache && instance != null) {
+                // another thread may have parsed the key meanwhile
+                NativeKey cached = PUBLIC_KEYS.putIfAbsent(id, result);
+                if (cached != null) {
+                    result = cached;
+                }
+            }
+        }
+        if (cache && instance != null) {
+            PUBLIC_KEY_INSTANCES.putIfAbsent(instance, result);
+        }
+        return result;
+    }
+
+    /** Gets the native key of a private key. Private keys are not cached.
+     * @param key the PKCS#8 encodable private key.
+     * @return the native key.
+     * @throws InvalidKeyException if the key can't be parsed.
+     * */
+    static NativeKey privateKey(PrivateKey key) throws InvalidKeyException {
+        if (key instanceof NativePrivateKey) {
+            if (key.isDestroyed()) {
+                throw new InvalidKeyException("Key has been destroyed");
+            }
+            return ((NativePrivateKey) key).nativeKey();
+        }
+        byte[] encoded = encoded(key, "PKCS#8");
+        try {
+            return wrap(parse(encoded, true));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    private static long parse(byte[] encoded, boolean privateKey) throws InvalidKeyException {
+        try {
+            NativeLoader.loadAll();
+            return privateKey ? nativeParsePrivateKey(encoded) : nativeParsePublicKey(encoded);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+    }
+
+    /** Generates a new key.
+     * @param type the OpenSSL type of the key, one of the {@code TYPE_} constants.
+     * @param parameter the curve for {@linkplain #TYPE_EC}, one of the {@code CURVE_}
+     *                  constants, the key size in bits for {@linkplain #TYPE_RSA},
+     *                  otherwise ignored.
+     * @param publicExponent the RSA public exponent, or {@code null} for 65537.
+     * @return the native key.
+     * */
+    static NativeKey generate(int type, int parameter, BigInteger publicExponent) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return wrap(nativeGenerate(type, parameter,
+                publicExponent != null ? publicExponent.toByteArray() : null));
+    }
+
+    /** Exports the public part of the key.
+     * @return the X.509 encoded public key.
+     * */
+    byte[] exportPublicKey() {
+        return nativeExportPublicKey(this);
+    }
+
+    /** Exports the private key.
+     * @return the PKCS#8 encoded private key.
+     * */
+    byte[] exportPrivateKey() {
+        return nativeExportPrivateKey(this);
+    }
+
+    /** Frees a native key.
+     * @param key the key handle.
+     * */
+    static void free(long key) {
+        if (key == 0) {
+            throw new NullPointerException("key is 0");
+        }
+        nativeFree(key);
+    }
+}
@@ -0,0 +1,197 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.ObjectStreamException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyRep;
+import java.security.PrivateKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * A private key generated by {@linkplain OpenSSLKeyPairGeneratorNative}.
+ * The key material stays in native memory, {@linkplain #getEncoded()}
+ * exports a new PKCS#8 encoding on every call.
+ * RSA and EC keys implement the key interfaces of their type, the
+ * parameters are exported and parsed on first use.
+ * Serialized as a {@linkplain KeyRep} of its PKCS#8 encoding.
+ * @author Stephan Fuhrmann
+ */
+class NativePrivateKey implements PrivateKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+    private transient volatile NativeKey nativeKey;
+
+    /** The key parsed by the key factory of the algorithm, {@code null} before first use. */
+    private transient volatile PrivateKey parsed;
+
+    NativePrivateKey(String algorithm, NativeKey nativeKey) {
+        this.algorithm = algorithm;
+        this.nativeKey = nativeKey;
+    }
+
+    /** Creates the private key of a generated native key.
+     * @param algorithm the Java name of the key algorithm.
+     * @param nativeKey the generated native key.
+     * @return a key implementing the key interface of the algorithm, if there is one.
+     * */
+    static NativePrivateKey of(String algorithm, NativeKey nativeKey) {
+        switch (nativeKey.type) {
+            case NativeKey.TYPE_RSA:
+                return new RsaCrt(algorithm, nativeKey);
+            case NativeKey.TYPE_EC:
+                return new Ec(algorithm, nativeKey);
+            default:
+                return new NativePrivateKey(algorithm, nativeKey);
+        }
+    }
+
+    /** Gets the key parsed from the exported encoding, exporting it on first use.
+     * @return the key as parsed by the key factory of the algorithm.
+     * @throws IllegalStateException if the key has been destroyed or
+     * the key factory can't parse the key.
+     * */
+    final PrivateKey parsed() {
+        PrivateKey result = parsed;
+        if (result == null) {
+            byte[] encoded = getEncoded();
+            try {
+                result = KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                Arrays.fill(encoded, (byte) 0);
+            }
+            if (isDestroyed()) {
+                throw new IllegalStateException("Key has been destroyed");
+            }
+            parsed = result;
+        }
+        return result;
+    }
+
+    /** Gets the native key.
+     * @return the native key this key was generated as.
+     * @throws IllegalStateException if the key has been destroyed.
+     * */
+    NativeKey nativeKey() {
+        NativeKey result = nativeKey;
+        if (result == null) {
+            throw new IllegalStateException("Key has been destroyed");
+        }
+        return result;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "PKCS#8";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        return nativeKey().exportPrivateKey();
+    }
+
+    protected final Object writeReplace() throws ObjectStreamException {
+        return new KeyRep(KeyRep.Type.PRIVATE, algorithm, getFormat(), getEncoded());
+    }
+
+    /** Drops the references to the native and the parsed key. The native memory is freed
+     * once no service that was initialized with this key uses it anymore.
+     * */
+    @Override
+    public void destroy() {
+        nativeKey = null;
+        parsed = null;
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return nativeKey == null;
+    }
+
+    /** A generated RSA private key with CRT parameters. */
+    static final class RsaCrt extends NativePrivateKey implements RSAPrivateCrtKey {
+
+        private static final long serialVersionUID = 1L;
+
+        RsaCrt(String algorithm, NativeKey nativeKey) {
+            super(algorithm, nativeKey);
+        }
+
+        private RSAPrivateCrtKey crtKey() {
+            return (RSAPrivateCrtKey) parsed();
+        }
+
+        @Override
+        public BigInteger getModulus() {
+            return crtKey().getModulus();
+        }
+
+        @Override
+        public BigInteger getPrivateExponent() {
+            return crtKey().getPrivateExponent();
+        }
+
+        @Override
+        public BigInteger getPublicExponent() {
+            return crtKey().getPublicExponent();
+        }
+
+        @Override
+        public BigInteger getPrimeP() {
+            return crtKey().getPrimeP();
+        }
+
+        @Override
+        public BigInteger getPrimeQ() {
+            return crtKey().getPrimeQ();
+        }
+
+        @Override
+        public BigInteger getPrimeExponentP() {
+            return crtKey().getPrimeExponentP();
+        }
+
+        @Override
+        public BigInteger getPrimeExponentQ() {
+            return crtKey().getPrimeExponentQ();
+        }
+
+        @Override
+        public BigInteger getCrtCoefficient() {
+            return crtKey().getCrtCoefficient();
+        }
+    }
+
+    /** A generated EC private key. */
+    static final class Ec extends NativePrivateKey implements ECPrivateKey {
+
+        private static final long serialVersionUID = 1L;
+
+        Ec(String algorithm, NativeKey nativeKey) {
+            super(algorithm, nativeKey);
+        }
+
+        @Override
+        public BigInteger getS() {
+            return ((ECPrivateKey) parsed()).getS();
+        }
+
+        @Override
+        public ECParameterSpec getParams() {
+            return ((ECPrivateKey) parsed()).getParams();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.ObjectStreamException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyRep;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * A public key generated by {@linkplain OpenSSLKeyPairGeneratorNative}.
+ * Keeps the native key, so the signature and key agreement services
+ * use it without parsing the encoding again.
+ * RSA and EC keys implement the key interfaces of their type, the
+ * parameters are parsed from the encoding on first use.
+ * Serialized as a {@linkplain KeyRep} of its X.509 encoding.
+ * @author Stephan Fuhrmann
+ */
+class NativePublicKey implements PublicKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+    private final byte[] encoded;
+    private final transient NativeKey nativeKey;
+
+    /** The key parsed by the key factory of the algorithm, {@code null} before first use. */
+    private transient volatile PublicKey parsed;
+
+    NativePublicKey(String algorithm, NativeKey nativeKey) {
+        this.algorithm = algorithm;
+        this.nativeKey = nativeKey;
+        this.encoded = nativeKey.exportPublicKey();
+    }
+
+    /** Creates the public key of a generated native key.
+     * @param algorithm the Java name of the key algorithm.
+     * @param nativeKey the generated native key.
+     * @return a key implementing the key interface of the algorithm, if there is one.
+     * */
+    static NativePublicKey of(String algorithm, NativeKey nativeKey) {
+        switch (nativeKey.type) {
+            case NativeKey.TYPE_RSA:
+                return new Rsa(algorithm, nativeKey);
+            case NativeKey.TYPE_EC:
+                return new Ec(algorithm, nativeKey);
+            default:
+                return new NativePublicKey(algorithm, nativeKey);
+        }
+    }
+
+    /** Gets the key parsed from the encoding, parsing it on first use.
+     * @return the key as parsed by the key factory of the algorithm.
+     * @throws IllegalStateException if the key factory can't parse the key.
+     * */
+    final PublicKey parsed() {
+        PublicKey result = parsed;
+        if (result == null) {
+            try {
+                result = KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            parsed = result;
+        }
+        return result;
+    }
+
+    /** Gets the native key.
+     * @return the native key this key was generated as.
+     * */
+    NativeKey nativeKey() {
+        return nativeKey;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "X.509";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    protected final Object writeReplace() throws ObjectStreamException {
+        return new KeyRep(KeyRep.Type.PUBLIC, algorithm, getFormat(), encoded);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PublicKey)) {
+            return false;
+        }
+        PublicKey other = (PublicKey) o;
+        return getFormat().equals(other.getFormat())
+                && MessageDigest.isEqual(encoded, other.getEncoded());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(encoded);
+    }
+
+    /** A generated RSA public key. */
+    static final class Rsa extends NativePublicKey implements RSAPublicKey {
+
+        private static final long serialVersionUID = 1L;
+
+        Rsa(String algorithm, NativeKey nativeKey) {
+            super(algorithm, nativeKey);
+        }
+
+        @Override
+        public BigInteger getModulus() {
+            return ((RSAPublicKey) parsed()).getModulus();
+        }
+
+        @Override
+        public BigInteger getPublicExponent() {
+            return ((RSAPublicKey) parsed()).getPublicExponent();
+        }
+    }
+
+    /** A generated EC public key. */
+    static final class Ec extends NativePublicKey implements ECPublicKey {
+
+        private static final long serialVersionUID = 1L;
+
+        Ec(String algorithm, NativeKey nativeKey) {
+            super(algorithm, nativeKey);
+        }
+
+        @Override
+        public ECPoint getW() {
+            return ((ECPublicKey) parsed()).getW();
+        }
+
+        @Override
+        public ECParameterSpec getParams() {
+            return ((ECPublicKey) parsed()).getParams();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Static functions for OpenSSL operations without the JCA overhead.
+ * Each function does all of its work in a single native call,
+ * without a Java side context object.
+ * The algorithm names are the JCA names of the {@linkplain OpenSSL4JProvider},
+ * their aliases or the OpenSSL names, for example {@code SHA-256}.
+ * @author Stephan Fuhrmann
+ */
+public final class OpenSSL4J {
+
+    static {
+        try {
+            NativeLoader.loadAll();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not initialize", e);
+        }
+    }
+
+    /** Batches with more messages than this are split by
+     * the parallel batch functions. */
+    static final int BATCH_SPLIT_SIZE = 4096;
+
+    /** Maps the requested algorithm names to message digest handles. */
+    private static final Map<String, Long> MD_HANDLES = new ConcurrentHashMap<>();
+
+    private OpenSSL4J() {
+        // no instances allowed
+    }
+
+    /** Gets the OpenSSL name of a message digest algorithm.
+     * @param algorithm the algorithm name as passed by the caller.
+     * @return the OpenSSL name of the algorithm.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    static String toOpenSslName(String algorithm) {
+        Objects.requireNonNull(algorithm, "algorithm is null");
+        String openSslName = OpenSSL4JProvider.getOpenSslMessageDigestName(algorithm);
+        if (openSslName == null) {
+            throw new IllegalArgumentException("Unknown message digest algorithm " + algorithm);
+        }
+        return openSslName;
+    }
+
+    /** Gets the handle of a message digest algorithm.
+     * @param algorithm the algorithm name as passed by the caller.
+     * @return the message digest handle.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    static long toMdHandle(String algorithm) {
+        Objects.requireNonNull(algorithm, "algorithm is null");
+        Long result = MD_HANDLES.get(algorithm);
+        if (result == null) {
+            result = OpenSSLMessageDigestNative.mdHandle(toOpenSslName(algorithm));
+            MD_HANDLES.put(algorithm, result);
+        }
+        return result;
+    }
+
+    /** Calculates the digest of an array.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param input the data to calculate the digest of.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public static byte[] digest(String algorithm, byte[] input) {
+        byte[] digest = new byte[OpenSSLMessageDigestNative.MAX_DIGEST_LENGTH];
+        int length = digest(algorithm, input, digest);
+        byte[] result = new byte[length];
+        System.arraycopy(digest, 0, result, 0, length);
+        return result;
+    }
+
+    /** Calculates the digest of an array.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param input the data to calculate the digest of.
+     * @param digest the array to write the digest to, starting at index 0.
+     * @return the length of the digest in bytes.
+     * @throws IllegalArgumentException if the algorithm is not known or the
+     * digest array is too small.
+     * */
+    public static int digest(String algorithm, byte[] input, byte[] digest) {
+        Objects.requireNonNull(input, "input is null");
+        return digest(algorithm, input, 0, input.length, digest, 0);
+    }
+
+    /** Calculates the digest of an array region.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param input the data to calculate the digest of.
+     * @param offset the start offset of the data in the input array.
+     * @param length the number of bytes to calculate the digest of.
+     * @param digest the array to write the digest to.
+     * @param digestOffset the offset in the digest array to start writing at.
+     * @return the length of the digest in bytes.
+     * @throws IllegalArgumentException if the algorithm is not known or the
+     * digest array is too small.
+     * @throws ArrayIndexOutOfBoundsException if the input region is not within the input array.
+     * */
+    public static int digest(String algorithm, byte[] input, int offset, int length, byte[] digest, int digestOffset) {
+        return OpenSSLMessageDigestNative.digest(toMdHandle(algorithm), input, offset, length, digest, digestOffset);
+    }
+
+    /** Calculates the digest of the remaining bytes of a buffer.
+     * Direct buffers are passed to OpenSSL without copying.
+     * The buffer position is moved to the limit.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param input the data to calculate the digest of.
+     * @param digest the array to write the digest to, starting at index 0.
+     * @return the length of the digest in bytes.
+     * @throws IllegalArgumentException if the algorithm is not known or the
+     * digest array is too small.
+     * */
+    public static int digest(String algorithm, ByteBuffer input, byte[] digest) {
+        Objects.requireNonNull(input, "input is null");
+        return OpenSSLMessageDigestNative.digest(toMdHandle(algorithm), input, digest, 0);
+    }
+
+    /** Calculates the digest of a file in native code.
+     * The file is read with {@linkplain FileDigestMode#PREAD}.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param file the file to calculate the digest of.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * @throws IOException if reading the file failed.
+     * */
+    public static byte[] digest(String algorithm, Path file) throws IOException {
+        return digest(algorithm, file, FileDigestMode.PREAD);
+    }
+
+    /** Calculates the digest of a file in native code.
+     * The file content is not copied to the Java heap.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param file the file to calculate the digest of.
+     * @param mode the way the file is read.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * @throws IOException if reading the file failed.
+     * */
+    public static byte[] digest(String algorithm, Path file, FileDigestMode mode) throws IOException {
+        Objects.requireNonNull(file, "file is null");
+        return FileDigest.digest(toOpenSslName(algorithm), file, mode);
+    }
+
+    /** Calculates the digest of a file region in native code.
+     * The file content is not copied to the Java heap.
+     * Regions larger than 2 GB are supported.
+     * The position of the channel is not changed.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param channel the channel to read the file region from.
+     * @param offset the start offset of the region in the file.
+     * @param length the length of the region in bytes.
+     * @param mode the way the file is read. Channels are always read,
+     *             {@linkplain FileDigestMode#MMAP} is handled like
+     *             {@linkplain FileDigestMode#PREAD}.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known or
+     * the offset or length is negative.
+     * @throws java.io.EOFException if the region exceeds the end of the file.
+     * @throws IOException if reading the file failed.
+     * */
+    public static byte[] digest(String algorithm, FileChannel channel, long offset, long length, FileDigestMode mode) throws IOException {
+        return FileDigest.digest(toOpenSslName(algorithm), channel, offset, length, mode);
+    }
+
+    /** Calculates the digest of the remaining bytes of a stream.
+     * The stream is read on the calling thread into direct buffers,
+     * while the previous buffer is hashed on a background thread.
+     * The stream is not closed.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param in the stream to read until its end.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * @throws IOException if reading the stream failed.
+     * @see PipelinedDigestInputStream
+     * */
+    public static byte[] digest(String algorithm, InputStream in) throws IOException {
+        Objects.requireNonNull(in, "in is null");
+        // plain FileInputStreams are unwrapped to their channel
+        return digest(algorithm, Channels.newChannel(in));
+    }
+
+    /** Calculates the digest of the remaining bytes of a channel.
+     * The channel is read on the calling thread into direct buffers,
+     * while the previous buffer is hashed on a background thread.
+     * The channel is not closed.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param channel the channel to read until its end.
+     * @return a new array containing the digest.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * @throws IOException if reading the channel failed.
+     * */
+    public static byte[] digest(String algorithm, ReadableByteChannel channel) throws IOException {
+        Objects.requireNonNull(channel, "channel is null");
+        try (DigestPipeline pipeline = new DigestPipeline(toOpenSslName(algorithm),
+                DigestPipeline.DEFAULT_BUFFERS, DigestPipeline.DEFAULT_BUFFER_SIZE)) {
+            int read = 0;
+            while (read >= 0) {
+                ByteBuffer buffer = pipeline.take();
+                while (buffer.hasRemaining() && (read = channel.read(buffer)) >= 0) {
+                    // fill the buffer to reduce the number of hand-offs
+                }
+                buffer.flip();
+                pipeline.submit(buffer);
+            }
+            return pipeline.finish();
+        }
+    }
+
+    /** Gets the digest length of an algorithm.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @return the length of the digest in bytes.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public static int getDigestLength(String algorithm) {
+        return OpenSSLMessageDigestNative.digestLength(toMdHandle(algorithm));
+    }
+
+    /** Calculates the digests of many messages in an array with a single native call.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param data the array containing the messages.
+     * @param offsets the start offsets of the messages in the data array.
+     * @param lengths the lengths of the messages. Must have the same length as {@code offsets}.
+     * @param digests the array to write the digests to. The digest of message {@code i}
+     *                is written at index {@code i * getDigestLength(algorithm)}.
+     * @throws IllegalArgumentException if the algorithm is not known or the
+     * digests array is too small.
+     * @throws ArrayIndexOutOfBoundsException if a message is not within the data array.
+     * @see #getDigestLength(String)
+     * */
+    public static void digestBatch(String algorithm, byte[] data, int[] offsets, int[] lengths, byte[] digests) {
+        Objects.requireNonNull(data, "data is null");
+        Objects.requireNonNull(offsets, "offsets is null");
+        OpenSSLMessageDigestNative.digestBatch(toMdHandle(algorithm), data, offsets, lengths, 0, offsets.length, digests);
+    }
+
+    /** Calculates the digests of many messages in a direct buffer with a single native call.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param data the direct buffer containing the messages. Position and limit are ignored.
+     * @param offsets the start offsets of the messages, relative to the start of the buffer.
+     * @param lengths the lengths of the messages. Must have the same length as {@code offsets}.
+     * @param digests the array to write the digests to. The digest of message {@code i}
+     *                is written at index {@code i * getDigestLength(algorithm)}.
+     * @throws IllegalArgumentException if the algorithm is not known, the buffer is not direct or the
+     * digests array is too small.
+     * @throws ArrayIndexOutOfBoundsException if a message is not within the buffer capacity.
+     * @see #getDigestLength(String)
+     * */
+    public static void digestBatch(String algorithm, ByteBuffer data, int[] offsets, int[] lengths, byte[] digests) {
+        Objects.requireNonNull(offsets, "offsets is null");
+        OpenSSLMessageDigestNative.digestBatch(toMdHandle(algorithm), requireDirect(data), offsets, lengths, 0, offsets.length, digests);
+    }
+
+    /** Calculates the digests of many messages in an array in parallel.
+     * Batches with many messages are split into parts that are calculated
+     * on the threads of the pool, each part with a single native call.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param data the array containing the messages.
+     * @param offsets the start offsets of the messages in the data array.
+     * @param lengths the lengths of the messages. Must have the same length as {@code offsets}.
+     * @param digests the array to write the digests to. The digest of message {@code i}
+     *                is written at index {@code i * getDigestLength(algorithm)}.
+     * @param pool the pool to calculate the parts in, for example {@link ForkJoinPool#commonPool()}.
+     * @throws IllegalArgumentException if the algorithm is not known or the
+     * digests array is too small.
+     * @throws ArrayIndexOutOfBoundsException if a message is not within the data array.
+     * @see #getDigestLength(String)
+     * */
+    public static void digestBatch(String algorithm, byte[] data, int[] offsets, int[] lengths, byte[] digests, ForkJoinPool pool) {
+        Objects.requireNonNull(data, "data is null");
+        digestBatchParallel(algorithm, data, offsets, lengths, digests, pool);
+    }
+
+    /** Calculates the digests of many messages in a direct buffer in parallel.
+     * Batches with many messages are split into parts that are calculated
+     * on the threads of the pool, each part with a single native call.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param data the direct buffer containing the messages. Position and limit are ignored.
+     * @param offsets the start offsets of the messages, relative to the start of the buffer.
+     * @param lengths the lengths of the messages. Must have the same length as {@code offsets}.
+     * @param digests the array to write the digests to. The digest of message {@code i}
+     *                is written at index {@code i * getDigestLength(algorithm)}.
+     * @param pool the pool to calculate the parts in, for example {@link ForkJoinPool#commonPool()}.
+     * @throws IllegalArgumentException if the algorithm is not known, the buffer is not direct or the
+     * digests array is too small.
+     * @throws ArrayIndexOutOfBoundsException if a message is not within the buffer capacity.
+     * @see #getDigestLength(String)
+     * */
+    public static void digestBatch(String algorithm, ByteBuffer data, int[] offsets, int[] lengths, byte[] digests, ForkJoinPool pool) {
+        digestBatchParallel(algorithm, requireDirect(data), offsets, lengths, digests, pool);
+    }
+
+    private static ByteBuffer requireDirect(ByteBuffer data) {
+        Objects.requireNonNull(data, "data is null");
+        if (!data.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct");
+        }
+        return data;
+    }
+
+    private static void digestBatchParallel(String algorithm, Object data, int[] offsets, int[] lengths, byte[] digests, ForkJoinPool pool) {
+        Objects.requireNonNull(offsets, "offsets is null");
+        Objects.requireNonNull(lengths, "lengths is null");
+        Objects.requireNonNull(pool, "pool is null");
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("offsets and lengths differ in length");
+        }
+        pool.invoke(new BatchDigestTask(toMdHandle(algorithm), data, offsets, lengths, 0, offsets.length, digests));
+    }
+
+    /** Calculates a part of a batch, splitting it in halves if it is too big. */
+    private static final class BatchDigestTask extends RecursiveAction {
+        private final long md;
+        private final Object data;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int from;
+        private final int to;
+        private final byte[] digests;
+
+        BatchDigestTask(long md, Object data, int[] offsets, int[] lengths, int from, int to, byte[] digests) {
+            this.md = md;
+            this.data = data;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.from = from;
+            this.to = to;
+            this.digests = digests;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SPLIT_SIZE) {
+                OpenSSLMessageDigestNative.digestBatch(md, data, offsets, lengths, from, to, digests);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new BatchDigestTask(md, data, offsets, lengths, from, middle, digests),
+                        new BatchDigestTask(md, data, offsets, lengths, middle, to, digests));
+            }
+        }
+    }
+}
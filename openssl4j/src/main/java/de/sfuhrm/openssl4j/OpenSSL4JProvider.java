@@ -28,7 +28,7 @@ public final class OpenSSL4JProvider extends Provider {
                 getLibraryVersion(),
                 "OpenSSL4J provider v"
                 + PropertyAccessor.get("version", "unknown") + ", implementing "
-                + "multiple message digest algorithms.");
+                + "multiple message digest, MAC, cipher, secure random, key derivation, signature, key agreement and key pair generator algorithms.");
 
         try {
             NativeLoader.loadAll();
@@ -37,6 +37,12 @@ public final class OpenSSL4JProvider extends Provider {
             }
 
             Map<String,String> names = getNames(openSslMessageDigestAlgorithms);
+            names.putAll(getMacNames(openSslMessageDigestAlgorithms));
+            names.putAll(getCipherNames());
+            names.putAll(getSecureRandomNames());
+            names.putAll(getSecretKeyFactoryNames(openSslMessageDigestAlgorithms));
+            names.putAll(getSignatureNames());
+            names.putAll(getKeyAgreementNames());
             putAll(names);
         } catch (IOException e) {
             throw new IllegalStateException("Could not initialize", e);
@@ -111,6 +117,194 @@ public final class OpenSSL4JProvider extends Provider {
             "whirlpool", "Whirlpool"
     };
 
+    /** Gets the OpenSSL name of a message digest algorithm.
+     * @param algorithm the Java name, an alias or the OpenSSL name of the algorithm.
+     *                  The case is ignored.
+     * @return the OpenSSL name, or {@code null} if the algorithm is not known.
+     * */
+    static String getOpenSslMessageDigestName(String algorithm) {
+        for (int i = 0; i < SSL_TO_JAVA_NAMES.length; i+= 2) {
+            String sslName = SSL_TO_JAVA_NAMES[i];
+            String javaName = SSL_TO_JAVA_NAMES[i + 1];
+            if (sslName.equalsIgnoreCase(algorithm)
+                    || javaName.equalsIgnoreCase(algorithm)
+                    || javaName.replace("-", "").equalsIgnoreCase(algorithm)) {
+                return sslName;
+            }
+        }
+        if ("SHA".equalsIgnoreCase(algorithm) || "SHA-1".equalsIgnoreCase(algorithm)) {
+            return "SHA1";
+        }
+        return null;
+    }
+
+    /** Name pairs mapping from the SSL message digest name to the Java HMAC name.
+     * First one is SSL name, second one is Java name.
+     * */
+    private static final String[] SSL_TO_JAVA_MAC_NAMES = {
+            "MD5", "HmacMD5",
+            "SHA1", "HmacSHA1",
+            "SHA224", "HmacSHA224",
+            "SHA256", "HmacSHA256",
+            "SHA384", "HmacSHA384",
+            "SHA512", "HmacSHA512",
+            "SHA512-224", "HmacSHA512/224",
+            "SHA512-256", "HmacSHA512/256",
+            "SHA3-224", "HmacSHA3-224",
+            "SHA3-256", "HmacSHA3-256",
+            "SHA3-384", "HmacSHA3-384",
+            "SHA3-512", "HmacSHA3-512"
+    };
+
+    /** Fills a map with the names of the HMAC algorithms
+     * whose message digests are available in OpenSSL.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getMacNames(Set<String> availableOpenSslAlgos) {
+        Map<String, String> map = new HashMap<>();
+
+        for (int i = 0; i < SSL_TO_JAVA_MAC_NAMES.length; i+= 2) {
+            String sslName = SSL_TO_JAVA_MAC_NAMES[i];
+            String javaName = SSL_TO_JAVA_MAC_NAMES[i + 1];
+
+            if (availableOpenSslAlgos.contains(sslName)) {
+                String javaClass = Mac.class.getName() + "$" +
+                        (javaName.replaceAll("-", "_").replaceAll("/", "_"));
+                map.put("Mac." + javaName, javaClass);
+            }
+        }
+
+        return map;
+    }
+
+    /** Java names of the cipher algorithms. */
+    private static final String[] CIPHER_NAMES = {
+            "AES/GCM/NoPadding",
+            "ChaCha20-Poly1305"
+    };
+
+    /** Fills a map with the names of the cipher algorithms.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getCipherNames() {
+        Map<String, String> map = new HashMap<>();
+
+        for (String javaName : CIPHER_NAMES) {
+            String javaClass = Cipher.class.getName() + "$" +
+                    (javaName.replaceAll("-", "_").replaceAll("/", "_"));
+            map.put("Cipher." + javaName, javaClass);
+            map.put("Cipher." + javaName + " SupportedKeyFormats", "RAW");
+        }
+
+        return map;
+    }
+
+    /** Java names of the secure random algorithms. */
+    private static final String[] SECURE_RANDOM_NAMES = {
+            "OpenSSL",
+            "OpenSSLPrivate"
+    };
+
+    /** Fills a map with the names of the secure random algorithms.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getSecureRandomNames() {
+        Map<String, String> map = new HashMap<>();
+
+        for (String javaName : SECURE_RANDOM_NAMES) {
+            map.put("SecureRandom." + javaName, SecureRandom.class.getName() + "$" + javaName);
+            // calls are not synchronized by java.security.SecureRandom (Java 9+)
+            map.put("SecureRandom." + javaName + " ThreadSafe", "true");
+        }
+
+        return map;
+    }
+
+    /** Name pairs mapping from the SSL message digest name to the Java PBKDF2 name.
+     * First one is SSL name, second one is Java name.
+     * */
+    private static final String[] SSL_TO_JAVA_PBKDF2_NAMES = {
+            "SHA1", "PBKDF2WithHmacSHA1",
+            "SHA224", "PBKDF2WithHmacSHA224",
+            "SHA256", "PBKDF2WithHmacSHA256",
+            "SHA384", "PBKDF2WithHmacSHA384",
+            "SHA512", "PBKDF2WithHmacSHA512"
+    };
+
+    /** Fills a map with the names of the secret key factory algorithms
+     * whose message digests are available in OpenSSL.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getSecretKeyFactoryNames(Set<String> availableOpenSslAlgos) {
+        Map<String, String> map = new HashMap<>();
+
+        for (int i = 0; i < SSL_TO_JAVA_PBKDF2_NAMES.length; i+= 2) {
+            String sslName = SSL_TO_JAVA_PBKDF2_NAMES[i];
+            String javaName = SSL_TO_JAVA_PBKDF2_NAMES[i + 1];
+
+            if (availableOpenSslAlgos.contains(sslName)) {
+                map.put("SecretKeyFactory." + javaName, SecretKeyFactory.class.getName() + "$" + javaName);
+            }
+        }
+
+        return map;
+    }
+
+    /** Java names of the signature algorithms. */
+    private static final String[] SIGNATURE_NAMES = {
+            "Ed25519",
+            "Ed448",
+            "EdDSA",
+            "SHA256withECDSA",
+            "SHA384withECDSA",
+            "SHA512withECDSA",
+            "SHA256withRSA",
+            "SHA384withRSA",
+            "SHA512withRSA",
+            "RSASSA-PSS"
+    };
+
+    /** Fills a map with the names of the signature algorithms.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getSignatureNames() {
+        Map<String, String> map = new HashMap<>();
+
+        for (String javaName : SIGNATURE_NAMES) {
+            map.put("Signature." + javaName, Signature.class.getName() + "$" + javaName.replaceAll("-", "_"));
+            map.put("Signature." + javaName + " SupportedKeyFormats", "X.509|PKCS#8");
+        }
+
+        return map;
+    }
+
+    /** Java names of the key agreement and key pair generator algorithms. */
+    private static final String[] KEY_AGREEMENT_NAMES = {
+            "X25519",
+            "X448",
+            "XDH"
+    };
+
+    /** Fills a map with the names of the key agreement and
+     * key pair generator algorithms.
+     * @return mapping from algorithm name to class name.
+     * */
+    private static Map<String, String> getKeyAgreementNames() {
+        Map<String, String> map = new HashMap<>();
+
+        for (String javaName : KEY_AGREEMENT_NAMES) {
+            map.put("KeyAgreement." + javaName, KeyAgreement.class.getName() + "$" + javaName);
+            map.put("KeyAgreement." + javaName + " SupportedKeyFormats", "X.509|PKCS#8");
+            map.put("KeyPairGenerator." + javaName, KeyPairGenerator.class.getName() + "$" + javaName);
+        }
+        map.put("KeyAgreement.ECDH", KeyAgreement.class.getName() + "$ECDH");
+        map.put("KeyAgreement.ECDH SupportedKeyFormats", "X.509|PKCS#8");
+        map.put("KeyPairGenerator.EC", KeyPairGenerator.class.getName() + "$EC");
+        map.put("KeyPairGenerator.RSA", KeyPairGenerator.class.getName() + "$RSA");
+
+        return map;
+    }
+
     /** Fills a map with the names of all algorithms in
      * OpenSSL-JNA.
      * @return mapping from algorithm name to class name.
@@ -0,0 +1,423 @@
+package de.sfuhrm.openssl4j;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * An interface to the OpenSSL AEAD ciphers AES-GCM and ChaCha20-Poly1305.
+ * Encryption writes the ciphertext as the data comes in and appends
+ * the authentication tag on {@code doFinal}.
+ * Decryption buffers the ciphertext until {@code doFinal} and
+ * only releases the plaintext after the tag was verified.
+ * The buffered ciphertext is kept in a heap array, so decrypting large
+ * messages with {@code update} needs heap memory of the message size.
+ * Only a {@code doFinal} on direct byte buffers without a preceding
+ * {@code update} works on the buffers without copying them, also in place.
+ * Key wrapping is not supported, {@code WRAP_MODE} and {@code UNWRAP_MODE}
+ * are rejected with an {@linkplain InvalidParameterException}.
+ * The key schedule is kept when the cipher is initialized again with the same key.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLAeadCipherNative extends OpenSSLCipherNative {
+
+    /** The IV length used when the IV is generated. */
+    private static final int DEFAULT_IV_LENGTH = 12;
+
+    /** The maximum IV length in bytes. */
+    private static final int MAX_IV_LENGTH = 16;
+
+    /** The maximum and default tag length in bytes. */
+    private static final int MAX_TAG_LENGTH = 16;
+
+    /** Whether this is AES-GCM, otherwise it's ChaCha20-Poly1305. */
+    private final boolean gcm;
+
+    private boolean initialized;
+
+    private boolean encrypt;
+
+    private byte[] iv;
+
+    /** The tag length in bytes. */
+    private int tagLength = MAX_TAG_LENGTH;
+
+    /** Whether data of the current message was processed, so no more AAD is accepted. */
+    private boolean started;
+
+    /** Whether an encryption was completed and a new IV is needed. */
+    private boolean finished;
+
+    /** The ciphertext buffered for decryption. */
+    private byte[] buffer = new byte[0];
+
+    /** The number of bytes in {@linkplain #buffer}. */
+    private int buffered;
+
+    OpenSSLAeadCipherNative(String algorithm) {
+        if ("AES/GCM/NoPadding".equals(algorithm)) {
+            gcm = true;
+        } else if ("ChaCha20-Poly1305".equals(algorithm)) {
+            gcm = false;
+        } else {
+            throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+    }
+
+    /** Gets the OpenSSL cipher for a key length.
+     * @param keyLength the key length in bytes.
+     * @return the OpenSSL cipher name.
+     * */
+    private String cipherName(int keyLength) throws InvalidKeyException {
+        if (gcm) {
+            if (keyLength == 16 || keyLength == 24 || keyLength == 32) {
+                return "aes-" + (keyLength * 8) + "-gcm";
+            }
+        } else if (keyLength == 32) {
+            return "chacha20-poly1305";
+        }
+        throw new InvalidKeyException("Illegal key length " + keyLength);
+    }
+
+    @Override
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        if (!(gcm ? "GCM" : "None").equalsIgnoreCase(mode)) {
+            throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+        }
+    }
+
+    @Override
+    protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+        if (!"NoPadding".equalsIgnoreCase(padding)) {
+            throw new NoSuchPaddingException("Unsupported padding " + padding);
+        }
+    }
+
+    @Override
+    protected int engineGetBlockSize() {
+        return gcm ? 16 : 0;
+    }
+
+    @Override
+    protected int engineGetOutputSize(int inputLen) {
+        if (encrypt) {
+            return inputLen + tagLength;
+        }
+        return Math.max(0, buffered + inputLen - tagLength);
+    }
+
+    @Override
+    protected byte[] engineGetIV() {
+        return iv != null ? iv.clone() : null;
+    }
+
+    @Override
+    protected AlgorithmParameters engineGetParameters() {
+        if (iv == null) {
+            return null;
+        }
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance(gcm ? "GCM" : "ChaCha20-Poly1305");
+            parameters.init(gcm ? new GCMParameterSpec(tagLength * 8, iv) : new IvParameterSpec(iv));
+            return parameters;
+        } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected int engineGetKeySize(Key key) throws InvalidKeyException {
+        return rawKey(key).length * 8;
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+        try {
+            engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        AlgorithmParameterSpec spec = null;
+        if (params != null) {
+            try {
+                spec = gcm ? params.getParameterSpec(GCMParameterSpec.class) : params.getParameterSpec(IvParameterSpec.class);
+            } catch (InvalidParameterSpecException e) {
+                throw new InvalidAlgorithmParameterException(e);
+            }
+        }
+        engineInit(opmode, key, spec, random);
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+            throw new InvalidParameterException("Unsupported mode " + opmode);
+        }
+        boolean encrypting = opmode == Cipher.ENCRYPT_MODE;
+        byte[] newIv;
+        int newTagLength = MAX_TAG_LENGTH;
+        if (params == null) {
+            if (!encrypting) {
+                throw new InvalidAlgorithmParameterException("Parameters required for decryption");
+            }
+            newIv = new byte[DEFAULT_IV_LENGTH];
+            (random != null ? random : new SecureRandom()).nextBytes(newIv);
+        } else if (gcm && params instanceof GCMParameterSpec) {
+            GCMParameterSpec gcmParams = (GCMParameterSpec) params;
+            int tagBits = gcmParams.getTLen();
+            if (tagBits < 96 || tagBits > 128 || tagBits % 8 != 0) {
+                throw new InvalidAlgorithmParameterException("Unsupported tag length " + tagBits);
+            }
+            newIv = gcmParams.getIV();
+            newTagLength = tagBits / 8;
+            if (newIv.length == 0 || newIv.length > MAX_IV_LENGTH) {
+                throw new InvalidAlgorithmParameterException("IV must have 1 to " + MAX_IV_LENGTH + " bytes");
+            }
+        } else if (!gcm && params instanceof IvParameterSpec) {
+            newIv = ((IvParameterSpec) params).getIV();
+            if (newIv.length != DEFAULT_IV_LENGTH) {
+                throw new InvalidAlgorithmParameterException("Nonce must have " + DEFAULT_IV_LENGTH + " bytes");
+            }
+        } else {
+            throw new InvalidAlgorithmParameterException("Unsupported parameters " + params);
+        }
+
+        byte[] rawKey = rawKey(key);
+        try {
+            String name = cipherName(rawKey.length);
+            if (encrypting && initialized && encrypt && Arrays.equals(newIv, iv) && isKeyedWith(name, rawKey)) {
+                throw new InvalidAlgorithmParameterException("Cannot reuse key and IV for encryption");
+            }
+            initContext(name, rawKey, newIv, encrypting);
+        } finally {
+            Arrays.fill(rawKey, (byte) 0);
+        }
+        initialized = true;
+        encrypt = encrypting;
+        iv = newIv.clone();
+        tagLength = newTagLength;
+        started = false;
+        finished = false;
+        buffered = 0;
+    }
+
+    private static byte[] rawKey(Key key) throws InvalidKeyException {
+        if (!(key instanceof SecretKey)) {
+            throw new InvalidKeyException("Secret key expected");
+        }
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            throw new InvalidKeyException("Key has no encoding");
+        }
+        return encoded;
+    }
+
+    private void checkState() {
+        if (!initialized) {
+            throw new IllegalStateException("Cipher not initialized");
+        }
+        if (finished) {
+            throw new IllegalStateException("Cipher needs to be initialized with a new IV");
+        }
+    }
+
+    @Override
+    protected void engineUpdateAAD(byte[] src, int offset, int len) {
+        checkState();
+        if (started) {
+            throw new IllegalStateException("AAD must be supplied before the data");
+        }
+        updateAAD(src, offset, len);
+    }
+
+    @Override
+    protected void engineUpdateAAD(ByteBuffer src) {
+        checkState();
+        if (started) {
+            throw new IllegalStateException("AAD must be supplied before the data");
+        }
+        updateAAD(src);
+    }
+
+    /** Appends ciphertext to the decryption buffer. */
+    private void append(byte[] input, int inputOffset, int inputLen) {
+        ensureBufferCapacity(inputLen);
+        System.arraycopy(input, inputOffset, buffer, buffered, inputLen);
+        buffered += inputLen;
+    }
+
+    private void ensureBufferCapacity(int additional) {
+        if (buffer.length - buffered < additional) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffered + additional, 2 * buffer.length));
+        }
+    }
+
+    @Override
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        checkState();
+        if (!encrypt) {
+            append(input, inputOffset, inputLen);
+            started |= inputLen > 0;
+            return new byte[0];
+        }
+        byte[] output = new byte[inputLen];
+        try {
+            engineUpdate(input, inputOffset, inputLen, output, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        return output;
+    }
+
+    @Override
+    protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+        checkState();
+        started |= inputLen > 0;
+        if (!encrypt) {
+            append(input, inputOffset, inputLen);
+            return 0;
+        }
+        return inputLen > 0 ? update(input, inputOffset, inputLen, output, outputOffset) : 0;
+    }
+
+    @Override
+    protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        if (!encrypt) {
+            checkState();
+            int inputLen = input.remaining();
+            ensureBufferCapacity(inputLen);
+            input.get(buffer, buffered, inputLen);
+            buffered += inputLen;
+            started |= inputLen > 0;
+            return 0;
+        }
+        if (input.isDirect() && output.isDirect()) {
+            checkState();
+            started |= input.hasRemaining();
+            return update(input, input.remaining(), output);
+        }
+        return super.engineUpdate(input, output);
+    }
+
+    @Override
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) throws IllegalBlockSizeException, BadPaddingException {
+        byte[] output = new byte[engineGetOutputSize(inputLen)];
+        try {
+            int written = engineDoFinal(input, inputOffset, inputLen, output, 0);
+            return written == output.length ? output : Arrays.copyOf(output, written);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        checkState();
+        int outputLen = engineGetOutputSize(inputLen);
+        if (output.length - outputOffset < outputLen) {
+            throw new ShortBufferException("Output buffer too short, need " + outputLen + " bytes");
+        }
+        if (encrypt) {
+            int written = inputLen > 0 ? update(input, inputOffset, inputLen, output, outputOffset) : 0;
+            finalEncrypt(output, outputOffset + written, tagLength);
+            finished = true;
+            return written + tagLength;
+        }
+
+        byte[] data = input;
+        int dataOffset = inputOffset;
+        int dataLen = inputLen;
+        if (buffered > 0) {
+            append(input, inputOffset, inputLen);
+            data = buffer;
+            dataOffset = 0;
+            dataLen = buffered;
+        }
+        if (dataLen < tagLength) {
+            finishDecryption(false);
+            throw new AEADBadTagException("Input too short for the tag");
+        }
+        int cipherTextLen = dataLen - tagLength;
+        byte[] tag = Arrays.copyOfRange(data, dataOffset + cipherTextLen, dataOffset + dataLen);
+        int written = cipherTextLen > 0 ? update(data, dataOffset, cipherTextLen, output, outputOffset) : 0;
+        if (!finishDecryption(finalDecrypt(tag))) {
+            Arrays.fill(output, outputOffset, outputOffset + written, (byte) 0);
+            throw new AEADBadTagException("Tag mismatch");
+        }
+        return written;
+    }
+
+    @Override
+    protected int engineDoFinal(ByteBuffer input, ByteBuffer output) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        if (!input.isDirect() || !output.isDirect() || buffered > 0) {
+            return super.engineDoFinal(input, output);
+        }
+        checkState();
+        int inputLen = input.remaining();
+        int outputLen = engineGetOutputSize(inputLen);
+        if (output.remaining() < outputLen) {
+            throw new ShortBufferException("Output buffer too short, need " + outputLen + " bytes");
+        }
+        if (encrypt) {
+            int written = update(input, inputLen, output);
+            byte[] tag = new byte[tagLength];
+            finalEncrypt(tag, 0, tagLength);
+            output.put(tag);
+            finished = true;
+            return written + tagLength;
+        }
+
+        if (inputLen < tagLength) {
+            finishDecryption(false);
+            throw new AEADBadTagException("Input too short for the tag");
+        }
+        int cipherTextLen = inputLen - tagLength;
+        byte[] tag = new byte[tagLength];
+        ByteBuffer tagView = input.duplicate();
+        tagView.position(input.position() + cipherTextLen);
+        tagView.get(tag);
+        int outputPosition = output.position();
+        int written = update(input, cipherTextLen, output);
+        input.position(input.limit());
+        if (!finishDecryption(finalDecrypt(tag))) {
+            for (int i = 0; i < written; i++) {
+                output.put(outputPosition + i, (byte) 0);
+            }
+            output.position(outputPosition);
+            throw new AEADBadTagException("Tag mismatch");
+        }
+        return written;
+    }
+
+    /** Prepares the decryption of the next message with the same key and IV.
+     * @param valid whether the tag of the message was valid.
+     * @return the {@code valid} parameter.
+     * */
+    private boolean finishDecryption(boolean valid) {
+        started = false;
+        buffered = 0;
+        reinitContext(iv, false);
+        return valid;
+    }
+}
@@ -0,0 +1,200 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.CipherSpi;
+import javax.crypto.ShortBufferException;
+
+/**
+ * An interface to OpenSSL cipher functions.
+ * The native context of an instance keeps its key schedule
+ * as long as the instance is initialized with the same cipher and key,
+ * so changing only the IV doesn't expand the key again.
+ * @author Stephan Fuhrmann
+ */
+public abstract class OpenSSLCipherNative extends CipherSpi {
+
+    /** Allocates a cipher context.
+     * @return the handle of the context.
+     * */
+    private static native long nativeNew();
+
+    /** Frees a cipher context.
+     * @param context the handle of the context to free.
+     * */
+    private static native void nativeFree(long context);
+
+    /** Initializes a cipher context.
+     * @param cipher the cipher holding the context, passed as object to keep it reachable during the call.
+     * @param cipherName the OpenSSL name of the cipher, or {@code null} to keep the cipher.
+     * @param key the raw key bytes, or {@code null} to keep the key schedule.
+     * @param iv the IV, or {@code null} to keep the IV.
+     * @param encrypt {@code true} for encryption, {@code false} for decryption.
+     * */
+    private static native void nativeInit(OpenSSLCipherNative cipher, String cipherName, byte[] key, byte[] iv, boolean encrypt);
+
+    private static native void nativeUpdateAAD(OpenSSLCipherNative cipher, byte[] data, int offset, int length);
+
+    private static native void nativeUpdateAADWithByteBuffer(OpenSSLCipherNative cipher, ByteBuffer data, int offset, int length);
+
+    /** Encrypts or decrypts an array region.
+     * @return the number of bytes written to the output.
+     * */
+    private static native int nativeUpdate(OpenSSLCipherNative cipher, byte[] input, int inputOffset, int length, byte[] output, int outputOffset);
+
+    /** Encrypts or decrypts a direct byte buffer region.
+     * @return the number of bytes written to the output.
+     * */
+    private static native int nativeUpdateWithByteBuffer(OpenSSLCipherNative cipher, ByteBuffer input, int inputOffset, int length, ByteBuffer output, int outputOffset);
+
+    /** Completes an AEAD encryption.
+     * @param cipher the cipher holding the context, passed as object to keep it reachable during the call.
+     * @param tag the array to write the authentication tag to.
+     * @param tagOffset the offset in the tag array.
+     * @param tagLength the length of the tag in bytes.
+     * */
+    private static native void nativeFinalEncrypt(OpenSSLCipherNative cipher, byte[] tag, int tagOffset, int tagLength);
+
+    /** Completes an AEAD decryption.
+     * @param cipher the cipher holding the context, passed as object to keep it reachable during the call.
+     * @param tag the expected authentication tag.
+     * @return {@code true} if the tag matches.
+     * */
+    private static native boolean nativeFinalDecrypt(OpenSSLCipherNative cipher, byte[] tag);
+
+    /** The handle of the native context, or 0 before the first initialization. */
+    private long context;
+
+    /** The OpenSSL name of the cipher the context is keyed for. */
+    private String cipherName;
+
+    /** The key the context is keyed with. */
+    private byte[] key;
+
+    OpenSSLCipherNative() {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Frees a native cipher context.
+     * @param context the context handle.
+     * */
+    static void free(long context) {
+        if (context == 0) {
+            throw new NullPointerException("context is 0");
+        }
+        nativeFree(context);
+    }
+
+    /** Initializes the native context for a new message.
+     * The key is only expanded if the cipher or the key changed.
+     * @param newCipherName the OpenSSL name of the cipher.
+     * @param newKey the raw key bytes. The array is not kept.
+     * @param iv the IV.
+     * @param encrypt {@code true} for encryption, {@code false} for decryption.
+     * */
+    final void initContext(String newCipherName, byte[] newKey, byte[] iv, boolean encrypt) {
+        if (context == 0) {
+            context = nativeNew();
+            PhantomReferenceCleanup.enqueueForCleanup(this, OpenSSLCipherNative::free, context);
+        }
+        if (isKeyedWith(newCipherName, newKey)) {
+            nativeInit(this, null, null, iv, encrypt);
+        } else {
+            forgetKey();
+            nativeInit(this, newCipherName, newKey, iv, encrypt);
+            cipherName = newCipherName;
+            key = newKey.clone();
+        }
+    }
+
+    /** Checks whether the native context is keyed with a cipher and key. */
+    final boolean isKeyedWith(String otherCipherName, byte[] otherKey) {
+        return otherCipherName.equals(cipherName) && MessageDigest.isEqual(otherKey, key);
+    }
+
+    /** Starts a new message with the current key. */
+    final void reinitContext(byte[] iv, boolean encrypt) {
+        nativeInit(this, null, null, iv, encrypt);
+    }
+
+    /** Clears the key, so the next initialization expands the key again. */
+    private void forgetKey() {
+        if (key != null) {
+            Arrays.fill(key, (byte) 0);
+            key = null;
+        }
+        cipherName = null;
+    }
+
+    final void updateAAD(byte[] data, int offset, int length) {
+        nativeUpdateAAD(this, data, offset, length);
+    }
+
+    final void updateAAD(ByteBuffer data) {
+        int position = data.position();
+        int remaining = data.remaining();
+        if (data.isDirect()) {
+            nativeUpdateAADWithByteBuffer(this, data, position, remaining);
+        } else if (data.hasArray()) {
+            nativeUpdateAAD(this, data.array(), data.arrayOffset() + position, remaining);
+        } else {
+            byte[] copy = new byte[remaining];
+            data.duplicate().get(copy);
+            nativeUpdateAAD(this, copy, 0, remaining);
+        }
+        data.position(position + remaining);
+    }
+
+    /** Encrypts or decrypts an array region. The output has the length of the input.
+     * The input and output regions may be the same.
+     * @return the number of bytes written to the output.
+     * */
+    final int update(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws ShortBufferException {
+        if (output.length - outputOffset < length) {
+            throw new ShortBufferException("Output buffer too short, need " + length + " bytes");
+        }
+        if (input == output && inputOffset != outputOffset
+                && inputOffset < outputOffset + length && outputOffset < inputOffset + length) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + length);
+            inputOffset = 0;
+        }
+        return nativeUpdate(this, input, inputOffset, length, output, outputOffset);
+    }
+
+    /** Encrypts or decrypts the remaining bytes of direct byte buffers
+     * without copying them. The output has the length of the input.
+     * The input and output may be the same memory.
+     * @param input the direct input buffer. Its position is advanced by {@code length}.
+     * @param length the number of bytes to process.
+     * @param output the direct output buffer. Its position is advanced by the number of bytes written.
+     * @return the number of bytes written to the output.
+     * */
+    final int update(ByteBuffer input, int length, ByteBuffer output) throws ShortBufferException {
+        if (output.remaining() < length) {
+            throw new ShortBufferException("Output buffer too short, need " + length + " bytes");
+        }
+        int written = nativeUpdateWithByteBuffer(this, input, input.position(), length, output, output.position());
+        input.position(input.position() + length);
+        output.position(output.position() + written);
+        return written;
+    }
+
+    /** Completes an AEAD encryption and writes the authentication tag. */
+    final void finalEncrypt(byte[] tag, int tagOffset, int tagLength) {
+        nativeFinalEncrypt(this, tag, tagOffset, tagLength);
+    }
+
+    /** Completes an AEAD decryption.
+     * @return {@code true} if the authentication tag matches.
+     * */
+    final boolean finalDecrypt(byte[] tag) {
+        return nativeFinalDecrypt(this, tag);
+    }
+}
@@ -0,0 +1,154 @@
+package de.sfuhrm.openssl4j;
+
+import javax.crypto.KeyAgreementSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+/**
+ * An interface to the OpenSSL key agreement function {@code EVP_PKEY_derive}
+ * for two parties.
+ * Keys generated by {@linkplain OpenSSLKeyPairGeneratorNative} are used
+ * without copying them out of native memory. Peer keys are parsed
+ * without adding them to the public key cache of {@linkplain NativeKey}.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLKeyAgreementNative extends KeyAgreementSpi {
+
+    /** Derives the shared secret.
+     * The keys are passed as objects, so they stay reachable and
+     * are not freed by the {@linkplain PhantomReferenceCleanup} during the call.
+     * @param privateKey the native private key.
+     * @param peerKey the native public key of the peer.
+     * @return the shared secret.
+     * */
+    private static native byte[] nativeDerive(NativeKey privateKey, NativeKey peerKey);
+
+    /** The OpenSSL types of the keys this algorithm accepts. */
+    private final int[] keyTypes;
+
+    /** The private key, or {@code null} if not initialized. */
+    private NativeKey privateKey;
+
+    /** The shared secret of the last phase, or {@code null}. */
+    private byte[] secret;
+
+    OpenSSLKeyAgreementNative(int... keyTypes) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.keyTypes = keyTypes;
+    }
+
+    private NativeKey checkKeyType(NativeKey nativeKey) throws InvalidKeyException {
+        for (int keyType : keyTypes) {
+            if (nativeKey.type == keyType) {
+                return nativeKey;
+            }
+        }
+        throw new InvalidKeyException("Key type not supported by this algorithm");
+    }
+
+    @Override
+    protected void engineInit(Key key, SecureRandom random) throws InvalidKeyException {
+        if (!(key instanceof PrivateKey)) {
+            throw new InvalidKeyException("Private key required");
+        }
+        privateKey = checkKeyType(NativeKey.privateKey((PrivateKey) key));
+        clearSecret();
+    }
+
+    @Override
+    protected void engineInit(Key key, AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (params != null) {
+            throw new InvalidAlgorithmParameterException("No parameters supported");
+        }
+        engineInit(key, random);
+    }
+
+    @Override
+    protected Key engineDoPhase(Key key, boolean lastPhase) throws InvalidKeyException {
+        if (privateKey == null) {
+            throw new IllegalStateException("Key agreement not initialized");
+        }
+        if (!lastPhase) {
+            throw new IllegalStateException("Only two party key agreement is supported");
+        }
+        if (!(key instanceof PublicKey)) {
+            throw new InvalidKeyException("Public key required");
+        }
+        NativeKey peerKey = NativeKey.publicKey((PublicKey) key, false);
+        if (peerKey.type != privateKey.type) {
+            throw new InvalidKeyException("Peer key type differs from the private key type");
+        }
+        clearSecret();
+        try {
+            secret = nativeDerive(privateKey, peerKey);
+        } catch (IllegalStateException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private byte[] takeSecret() {
+        if (secret == null) {
+            throw new IllegalStateException("Key agreement not finished");
+        }
+        byte[] result = secret;
+        secret = null;
+        return result;
+    }
+
+    private void clearSecret() {
+        if (secret != null) {
+            Arrays.fill(secret, (byte) 0);
+            secret = null;
+        }
+    }
+
+    @Override
+    protected byte[] engineGenerateSecret() {
+        return takeSecret();
+    }
+
+    @Override
+    protected int engineGenerateSecret(byte[] sharedSecret, int offset) throws ShortBufferException {
+        if (secret == null) {
+            throw new IllegalStateException("Key agreement not finished");
+        }
+        if (sharedSecret.length - offset < secret.length) {
+            throw new ShortBufferException("Need " + secret.length + " bytes for the shared secret");
+        }
+        byte[] result = takeSecret();
+        System.arraycopy(result, 0, sharedSecret, offset, result.length);
+        Arrays.fill(result, (byte) 0);
+        return result.length;
+    }
+
+    @Override
+    protected SecretKey engineGenerateSecret(String algorithm) throws NoSuchAlgorithmException {
+        if (algorithm == null) {
+            throw new NoSuchAlgorithmException("algorithm is null");
+        }
+        byte[] result = takeSecret();
+        try {
+            return new SecretKeySpec(result, algorithm);
+        } finally {
+            Arrays.fill(result, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package de.sfuhrm.openssl4j;
+
+import java.math.BigInteger;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGeneratorSpi;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * An interface to the OpenSSL key generation function {@code EVP_PKEY_keygen}.
+ * The private keys stay in native memory until they are exported with
+ * {@linkplain java.security.Key#getEncoded()}, so a generated key pair
+ * only allocates the public key encoding on the Java heap.
+ * RSA and EC key pairs come from the {@linkplain KeyPairPool} if it is enabled.
+ * The {@linkplain SecureRandom} parameters are ignored, OpenSSL uses its own
+ * random generator.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLKeyPairGeneratorNative extends KeyPairGeneratorSpi {
+
+    /** The smallest RSA key size OpenSSL generates. */
+    private static final int MIN_RSA_KEY_SIZE = 512;
+
+    /** The largest RSA key size OpenSSL uses. */
+    private static final int MAX_RSA_KEY_SIZE = 16384;
+
+    /** The OpenSSL types of the keys this algorithm generates. */
+    private final int[] keyTypes;
+
+    /** The OpenSSL type of the keys to generate. */
+    private int type;
+
+    /** The curve for EC keys, the key size in bits for RSA keys. */
+    private int parameter;
+
+    /** The RSA public exponent, or {@code null} for 65537. */
+    private BigInteger publicExponent;
+
+    OpenSSLKeyPairGeneratorNative(int parameter, int... keyTypes) {
+        this.keyTypes = keyTypes;
+        this.type = keyTypes[0];
+        this.parameter = parameter;
+    }
+
+    /** Selects the type and parameter to generate keys for.
+     * @param newType the OpenSSL type of the keys.
+     * @param newParameter the curve for EC keys, the key size for RSA keys.
+     * @return {@code false} if this algorithm doesn't generate keys of the type.
+     * */
+    private boolean select(int newType, int newParameter) {
+        for (int keyType : keyTypes) {
+            if (keyType == newType) {
+                type = newType;
+                parameter = newParameter;
+                publicExponent = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRsaKeySize(int keysize) {
+        return keysize >= MIN_RSA_KEY_SIZE && keysize <= MAX_RSA_KEY_SIZE;
+    }
+
+    @Override
+    public void initialize(int keysize, SecureRandom random) {
+        if (type == NativeKey.TYPE_RSA) {
+            if (!isRsaKeySize(keysize)) {
+                throw new InvalidParameterException("Unsupported key size " + keysize);
+            }
+            select(NativeKey.TYPE_RSA, keysize);
+            return;
+        }
+        boolean selected;
+        switch (keysize) {
+            case 255:
+                selected = select(NativeKey.TYPE_X25519, 0);
+                break;
+            case 448:
+                selected = select(NativeKey.TYPE_X448, 0);
+                break;
+            case 256:
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P256);
+                break;
+            case 384:
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P384);
+                break;
+            case 521:
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P521);
+                break;
+            default:
+                selected = false;
+                break;
+        }
+        if (!selected) {
+            throw new InvalidParameterException("Unsupported key size " + keysize);
+        }
+    }
+
+    @Override
+    public void initialize(AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidAlgorithmParameterException {
+        if (type == NativeKey.TYPE_RSA) {
+            initializeRsa(params);
+            return;
+        }
+        String name = curveName(params);
+        boolean selected;
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "X25519":
+                selected = select(NativeKey.TYPE_X25519, 0);
+                break;
+            case "X448":
+                selected = select(NativeKey.TYPE_X448, 0);
+                break;
+            case "SECP256R1":
+            case "PRIME256V1":
+            case "P-256":
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P256);
+                break;
+            case "SECP384R1":
+            case "P-384":
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P384);
+                break;
+            case "SECP521R1":
+            case "P-521":
+                selected = select(NativeKey.TYPE_EC, NativeKey.CURVE_P521);
+                break;
+            default:
+                selected = false;
+                break;
+        }
+        if (!selected) {
+            throw new InvalidAlgorithmParameterException("Unsupported curve " + name);
+        }
+    }
+
+    private void initializeRsa(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+        if (!(params instanceof RSAKeyGenParameterSpec)) {
+            throw new InvalidAlgorithmParameterException("RSAKeyGenParameterSpec required");
+        }
+        RSAKeyGenParameterSpec spec = (RSAKeyGenParameterSpec) params;
+        if (!isRsaKeySize(spec.getKeysize())) {
+            throw new InvalidAlgorithmParameterException("Unsupported key size " + spec.getKeysize());
+        }
+        BigInteger exponent = spec.getPublicExponent();
+        if (exponent != null && (exponent.compareTo(BigInteger.valueOf(3)) < 0 || !exponent.testBit(0))) {
+            throw new InvalidAlgorithmParameterException("Public exponent must be odd and at least 3");
+        }
+        select(NativeKey.TYPE_RSA, spec.getKeysize());
+        publicExponent = RSAKeyGenParameterSpec.F4.equals(exponent) ? null : exponent;
+    }
+
+    /** Gets the curve name of an {@linkplain ECGenParameterSpec} or a
+     * {@code NamedParameterSpec}. The latter is only available
+     * since Java 11 and is accessed by reflection.
+     * @param params the parameters.
+     * @return the curve name.
+     * @throws InvalidAlgorithmParameterException if the parameters have no curve name.
+     * */
+    private static String curveName(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+        if (params instanceof ECGenParameterSpec) {
+            return ((ECGenParameterSpec) params).getName();
+        }
+        if (params != null && "java.security.spec.NamedParameterSpec".equals(params.getClass().getName())) {
+            try {
+                return (String) params.getClass().getMethod("getName").invoke(params);
+            } catch (ReflectiveOperationException e) {
+                throw new InvalidAlgorithmParameterException(e);
+            }
+        }
+        throw new InvalidAlgorithmParameterException("ECGenParameterSpec or NamedParameterSpec required");
+    }
+
+    @Override
+    public KeyPair generateKeyPair() {
+        int generateType = type;
+        int generateParameter = parameter;
+        BigInteger generateExponent = publicExponent;
+        Supplier<KeyPair> generator = () -> generate(generateType, generateParameter, generateExponent);
+        switch (generateType) {
+            case NativeKey.TYPE_RSA:
+                return KeyPairPool.take("RSA-" + generateParameter
+                        + (generateExponent != null ? "-" + generateExponent : ""), generator);
+            case NativeKey.TYPE_EC:
+                return KeyPairPool.take("EC-" + curveName(generateParameter), generator);
+            default:
+                return generator.get();
+        }
+    }
+
+    private static String curveName(int curve) {
+        switch (curve) {
+            case NativeKey.CURVE_P256:
+                return "P-256";
+            case NativeKey.CURVE_P384:
+                return "P-384";
+            case NativeKey.CURVE_P521:
+                return "P-521";
+            default:
+                return Integer.toString(curve);
+        }
+    }
+
+    private static KeyPair generate(int type, int parameter, BigInteger publicExponent) {
+        NativeKey nativeKey = NativeKey.generate(type, parameter, publicExponent);
+        String algorithm;
+        switch (type) {
+            case NativeKey.TYPE_RSA:
+                algorithm = "RSA";
+                break;
+            case NativeKey.TYPE_EC:
+                algorithm = "EC";
+                break;
+            default:
+                algorithm = "XDH";
+                break;
+        }
+        return new KeyPair(NativePublicKey.of(algorithm, nativeKey), NativePrivateKey.of(algorithm, nativeKey));
+    }
+}
@@ -0,0 +1,324 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.crypto.MacSpi;
+import javax.crypto.SecretKey;
+
+/**
+ * An interface to OpenSSL HMAC functions.
+ * The padded inner and outer key states are calculated once per
+ * algorithm and key and kept in a native key schedule.
+ * The contexts of the calculations are copies of the key schedule
+ * that are pooled per key schedule and re-initialized from the
+ * precomputed states instead of hashing the key again.
+ * The key schedules of the least recently used keys are evicted from a
+ * bounded cache that identifies the keys by a keyed hash.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLMacNative extends MacSpi implements Cloneable {
+
+    /** Allocates a context and initializes it with a key.
+     * @param md the message digest handle as returned by {@linkplain OpenSSLMessageDigestNative#mdHandle(String)}.
+     * @param key the raw key bytes.
+     * @return the handle of the keyed context.
+     * */
+    private static native long nativeNewKeyed(long md, byte[] key);
+
+    /** Allocates a copy of the keyed context of a key schedule.
+     * @param schedule the key schedule, passed as object to keep it reachable during the call.
+     * @return the handle of the copy.
+     * */
+    private static native long nativeDup(KeySchedule schedule);
+
+    /** Allocates a copy of a context.
+     * @param context the context to copy, passed as object to keep it reachable during the call.
+     * @return the handle of the copy.
+     * */
+    private static native long nativeCopy(Context context);
+
+    /** Frees a context.
+     * @param context the handle of the context to free.
+     * */
+    private static native void nativeFree(long context);
+
+    private static native void nativeUpdateWithByte(Context context, byte data);
+
+    private static native void nativeUpdateWithByteArray(Context context, byte[] data, int offset, int length);
+
+    private static native void nativeUpdateWithByteBuffer(Context context, ByteBuffer data, int offset, int length);
+
+    /** Completes the MAC calculation and re-initializes the context from the key states.
+     * @param context the context, passed as object to keep it reachable during the call.
+     * @param mac the array to write the MAC to.
+     * @param macOffset the offset in the MAC array.
+     * @param macLength the length of the MAC.
+     * */
+    private static native void nativeFinal(Context context, byte[] mac, int macOffset, int macLength);
+
+    /** Re-initializes the context from the key states.
+     * @param context the context, passed as object to keep it reachable during the call.
+     * */
+    private static native void nativeReset(Context context);
+
+    /** The maximum number of cached key schedules.
+     * Configured with the system property {@code openssl4j.macKeyCacheSize}.
+     * */
+    static final int KEY_CACHE_SIZE = PropertyAccessor.getInt("macKeyCacheSize", 16);
+
+    /** The random keys of the key hashes, so the hashes can not be
+     * looked up in precomputed tables of weak keys. */
+    private static final long[] KEY_HASH_KEYS = new long[4];
+
+    static {
+        byte[] seed = new byte[8 * KEY_HASH_KEYS.length];
+        new SecureRandom().nextBytes(seed);
+        ByteBuffer.wrap(seed).asLongBuffer().get(KEY_HASH_KEYS);
+        Arrays.fill(seed, (byte) 0);
+    }
+
+    /** The key schedules of the recently used keys.
+     * Evicted key schedules free their pooled contexts.
+     * */
+    private static final LruCache<KeyId, KeySchedule> KEY_SCHEDULES = new LruCache<>(KEY_CACHE_SIZE, KeySchedule::close);
+
+    /** Identifies a key schedule by algorithm and a 128 bit keyed hash
+     * of the key, two SipHash-2-4 values with independent random keys,
+     * so the cache does not keep the raw key bytes. */
+    private static final class KeyId {
+        private final long md;
+        private final long keyHash0;
+        private final long keyHash1;
+
+        KeyId(long md, byte[] key) {
+            this.md = md;
+            this.keyHash0 = SipHash.hash(KEY_HASH_KEYS[0], KEY_HASH_KEYS[1], key);
+            this.keyHash1 = SipHash.hash(KEY_HASH_KEYS[2], KEY_HASH_KEYS[3], key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KeyId)) {
+                return false;
+            }
+            KeyId other = (KeyId) o;
+            return md == other.md && keyHash0 == other.keyHash0 && keyHash1 == other.keyHash1;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(keyHash0);
+        }
+    }
+
+    /** A native keyed context and the pool of its copies.
+     * The native context is freed by the {@linkplain PhantomReferenceCleanup}
+     * once the key schedule is unreachable.
+     * The pooled copies are freed when the key schedule is evicted from the cache.
+     * */
+    static final class KeySchedule {
+        private final long template;
+        private final ContextPool<Context> pool;
+
+        private KeySchedule(long template) {
+            this.template = template;
+            this.pool = new ContextPool<>(this::newContext);
+        }
+
+        private Context newContext() {
+            long nativeContext = nativeDup(this);
+            Context result = new Context(nativeContext);
+            result.cleanup = PhantomReferenceCleanup.enqueueForCleanup(result, OpenSSLMacNative::free, nativeContext);
+            return result;
+        }
+
+        /** Frees the pooled copies. Copies in use are freed when they are released. */
+        private void close() {
+            pool.close(context -> context.cleanup.free());
+        }
+    }
+
+    /** A native context copied from a key schedule. */
+    private static final class Context {
+        private final long nativeContext;
+
+        /** Frees the native context. Set right after the allocation. */
+        private PhantomReferenceCleanup.NativePhantomReference cleanup;
+
+        Context(long nativeContext) {
+            this.nativeContext = nativeContext;
+        }
+    }
+
+    /** The message digest handle of the HMAC. */
+    private final long md;
+
+    /** The MAC length in bytes. */
+    private final int macLength;
+
+    /** The key schedule of the current key, or {@code null} if not initialized. */
+    private KeySchedule keySchedule;
+
+    /** The context of the current calculation, or {@code null} if there is none. */
+    private Context context;
+
+    OpenSSLMacNative(String openSslDigestName) {
+        try {
+            NativeLoader.loadAll();
+            md = OpenSSLMessageDigestNative.mdHandle(Objects.requireNonNull(openSslDigestName));
+            macLength = OpenSSLMessageDigestNative.digestLength(md);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Gets the key schedule of a key, creating and caching it if needed.
+     * @param md the message digest handle.
+     * @param key the raw key bytes. The array is not kept.
+     * @return the key schedule.
+     * */
+    static KeySchedule keySchedule(long md, byte[] key) {
+        KeyId id = KEY_CACHE_SIZE > 0 ? new KeyId(md, key) : null;
+        if (id != null) {
+            KeySchedule cached = KEY_SCHEDULES.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long template = nativeNewKeyed(md, key);
+        KeySchedule result = new KeySchedule(template);
+        PhantomReferenceCleanup.enqueueForCleanup(result, OpenSSLMacNative::free, template);
+        if (id != null) {
+            // another thread may have created the key schedule meanwhile
+            KeySchedule cached = KEY_SCHEDULES.putIfAbsent(id, result);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return result;
+    }
+
+    /** Frees a native HMAC context.
+     * @param context the context handle.
+     * */
+    static void free(long context) {
+        if (context == 0) {
+            throw new NullPointerException("context is 0");
+        }
+        nativeFree(context);
+    }
+
+    /** Gets the context of the current calculation, acquiring one if needed. */
+    private Context context() {
+        Context result = context;
+        if (result == null) {
+            if (keySchedule == null) {
+                throw new IllegalStateException("MAC not initialized");
+            }
+            result = keySchedule.pool.acquire();
+            context = result;
+        }
+        return result;
+    }
+
+    /** Returns the initialized context to the pool, or frees it if the pool is full. */
+    private void releaseContext() {
+        Context released = context;
+        if (released != null) {
+            context = null;
+            if (!keySchedule.pool.release(released)) {
+                released.cleanup.free();
+            }
+        }
+    }
+
+    @Override
+    protected int engineGetMacLength() {
+        return macLength;
+    }
+
+    @Override
+    protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (params != null) {
+            throw new InvalidAlgorithmParameterException("HMAC has no parameters");
+        }
+        if (!(key instanceof SecretKey)) {
+            throw new InvalidKeyException("Secret key expected");
+        }
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            throw new InvalidKeyException("Key has no encoding");
+        }
+        try {
+            KeySchedule schedule = keySchedule(md, encoded);
+            engineReset();
+            keySchedule = schedule;
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        nativeUpdateWithByte(context(), input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        nativeUpdateWithByteArray(context(), input, offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (!input.hasRemaining()) {
+            return;
+        }
+        int offset = input.position();
+        int remaining = input.remaining();
+        if (input.isDirect()) {
+            nativeUpdateWithByteBuffer(context(), input, offset, remaining);
+            input.position(offset + remaining);
+        } else if (input.hasArray()) {
+            nativeUpdateWithByteArray(context(), input.array(), input.arrayOffset() + offset, remaining);
+            input.position(offset + remaining);
+        } else {
+            super.engineUpdate(input);
+        }
+    }
+
+    @Override
+    protected byte[] engineDoFinal() {
+        byte[] result = new byte[macLength];
+        nativeFinal(context(), result, 0, macLength);
+        releaseContext();
+        return result;
+    }
+
+    @Override
+    protected void engineReset() {
+        if (context != null) {
+            nativeReset(context);
+            releaseContext();
+        }
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        OpenSSLMacNative result = (OpenSSLMacNative) super.clone();
+        if (context != null) {
+            long nativeContext = nativeCopy(context);
+            Context copy = new Context(nativeContext);
+            copy.cleanup = PhantomReferenceCleanup.enqueueForCleanup(copy, OpenSSLMacNative::free, nativeContext);
+            result.context = copy;
+        }
+        return result;
+    }
+}
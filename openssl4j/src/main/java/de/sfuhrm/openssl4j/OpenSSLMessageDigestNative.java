@@ -1,108 +1,296 @@
 package de.sfuhrm.openssl4j;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.security.MessageDigestSpi;
+import java.nio.ReadOnlyBufferException;
+import java.security.DigestException;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An interface to OpenSSL message digest functions.
+ * The instances returned by {@linkplain java.security.MessageDigest#getInstance(String, java.security.Provider)}
+ * for the {@linkplain OpenSSL4JProvider} are of this class, so the
+ * OpenSSL specific methods can be reached with a cast.
+ * Instances can be {@linkplain #clone() cloned} to continue
+ * the calculation from a common prefix.
+ * {@linkplain #close() Closing} an instance releases its native
+ * context immediately instead of waiting for the garbage collector.
  * @author Stephan Fuhrmann
  */
-class OpenSSLMessageDigestNative extends MessageDigestSpi {
-
-    /** Return the digest length in bytes.
-     * @return the digest length in bytes.
-     * */
-    private static native int digestLength(ByteBuffer context);
+public class OpenSSLMessageDigestNative extends java.security.MessageDigest implements Cloneable, AutoCloseable {
 
     /** Removes a context allocated with {@linkplain #nativeContext()}.
      * @param context the context to free.
      * */
-    private static native void removeContext(ByteBuffer context);
+    private static native void removeContext(long context);
 
     /** Get the list of MessageDigest algorithms supported by OpenSSL.
      * @return  an array of supported message digest algorithms from the OpenSSL library.
      * */
     private native static String[] listMessageDigests();
 
-    /** Returns the context size in bytes. This is used to allocate the {@link #context direct ByteBuffer}.
-     * @return a ByteBuffer containing the native message digest context.
+    /** Calculates the digest of an array region in one call, without a Java side context.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * @param byteArray the array to calculate the digest of.
+     * @param offset the start offset of the array data.
+     * @param length the number of bytes.
+     * @param digest the target array to write the digest data to.
+     * @param digestOffset the offset in the target array.
+     * @return the digest length in bytes.
      * */
-    private final native ByteBuffer nativeContext();
+    private static native int nativeDigestArray(long md, byte[] byteArray, int offset, int length, byte[] digest, int digestOffset);
 
-    /** Initialize the context.
-     * @param context the context as allocated in {@link #context}.
+    /** Calculates the digest of a direct byte buffer region in one call, without a Java side context.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * @param data the direct byte buffer to calculate the digest of.
+     * @param offset the start offset of the buffer data.
+     * @param length the number of bytes.
+     * @param digest the target array to write the digest data to.
+     * @param digestOffset the offset in the target array.
+     * @return the digest length in bytes.
+     * */
+    private static native int nativeDigestBuffer(long md, ByteBuffer data, int offset, int length, byte[] digest, int digestOffset);
+
+    /** Returns the digest length of a message digest.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * @return the digest length in bytes.
+     * */
+    private static native int nativeDigestLength(long md);
+
+    /** Fetches a message digest implementation from OpenSSL.
+     * The returned handle is valid for the lifetime of the process.
      * @param algorithmName the OpenSSL algorithm name as returned by {@linkplain #listMessageDigests()}.
+     * @param propertyQuery the OpenSSL 3 property query to select the implementation,
+     *                      for example {@code provider=default}, or {@code null}.
+     *                      Ignored before OpenSSL 3.
+     * @return the handle of the message digest.
      * */
-    private final native void nativeInit(ByteBuffer context, String algorithmName);
+    private static native long nativeFetch(String algorithmName, String propertyQuery);
+
+    /** Calculates the digests of many array regions in one call, without a Java side context.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * @param data the array containing the messages.
+     * @param offsets the start offsets of the messages in the data array.
+     * @param lengths the lengths of the messages in the data array.
+     * @param from the index of the first message to calculate the digest of, inclusive.
+     * @param to the index of the last message to calculate the digest of, exclusive.
+     * @param digests the target array to write the digests to. The digest of
+     *               message {@code i} starts at {@code i * digestLength}.
+     * */
+    private static native void nativeDigestBatchArray(long md, byte[] data, int[] offsets, int[] lengths, int from, int to, byte[] digests);
+
+    /** Calculates the digests of many direct byte buffer regions in one call, without a Java side context.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * @param data the direct byte buffer containing the messages.
+     * @param offsets the start offsets of the messages in the data buffer.
+     * @param lengths the lengths of the messages in the data buffer.
+     * @param from the index of the first message to calculate the digest of, inclusive.
+     * @param to the index of the last message to calculate the digest of, exclusive.
+     * @param digests the target array to write the digests to. The digest of
+     *               message {@code i} starts at {@code i * digestLength}.
+     * */
+    private static native void nativeDigestBatchBuffer(long md, ByteBuffer data, int[] offsets, int[] lengths, int from, int to, byte[] digests);
+
+    /** Allocates a native message digest context.
+     * @return the handle of the native message digest context.
+     * */
+    private static native long nativeContext();
+
+    /** Initialize the context.
+     * @param context the context as allocated in {@link #nativeContext()}.
+     * @param md the message digest handle as returned by {@linkplain #nativeFetch(String, String)}.
+     * */
+    private static native void nativeInit(long context, long md);
 
     /** Update the context with a single byte.
-     * @param context the context as allocated in {@link #context}.
+     * @param context the context as allocated in {@link #nativeContext()}.
      * @param byteData the byte to update the context with.
      * */
-    private final native void nativeUpdateWithByte(ByteBuffer context, byte byteData);
+    private final native void nativeUpdateWithByte(long context, byte byteData);
 
     /** Update the context with an array.
-     * @param context the context as allocated in {@link #context}.
+     * @param context the context as allocated in {@link #nativeContext()}.
      * @param byteArray the array to update the context with.
      * @param offset the start offset of the array data to update the context with.
      * @param length the number of bytes to update the context with.
      * */
-    private final native void nativeUpdateWithByteArray(ByteBuffer context, byte[] byteArray, int offset, int length);
+    private final native void nativeUpdateWithByteArray(long context, byte[] byteArray, int offset, int length);
 
     /** Update the context with a direct byte buffer.
-     * @param context the context as allocated in {@link #context}.
+     * @param context the context as allocated in {@link #nativeContext()}.
      * @param data the byte buffer to update the context with.
      * @param offset the start offset of the buffer data to update the context with.
      * @param length the number of bytes to update the context with.
      * */
-    private final native void nativeUpdateWithByteBuffer(ByteBuffer context, ByteBuffer data, int offset, int length);
+    private final native void nativeUpdateWithByteBuffer(long context, ByteBuffer data, int offset, int length);
 
-    /** Do the final digest calculation and return it.
-     * @param context the context as allocated in {@link #context}.
+    /** Do the final digest calculation and initialize the context for the next one.
+     * @param context the context as allocated in {@link #nativeContext()}.
      * @param digest the target array to write the digest data to.
+     * @param digestOffset the offset in the target array.
+     * */
+    private final native void nativeFinal(long context, byte[] digest, int digestOffset);
+
+    /** Do the final digest calculation into a direct byte buffer and initialize the context for the next one.
+     * @param context the context as allocated in {@link #nativeContext()}.
+     * @param digest the direct byte buffer to write the digest data to.
+     * @param offset the offset in the buffer to start writing at.
+     * */
+    private final native void nativeFinalToBuffer(long context, ByteBuffer digest, int offset);
+
+    /** Copies the state of a context to another context.
+     * @param from the context to copy the state from.
+     * @param to the context to copy the state to.
+     * */
+    private final native void nativeCopy(long from, long to);
+
+    /** Calculates the digest of the data so far without changing the context.
+     * @param context the context as allocated in {@link #nativeContext()}.
+     * @param digest the target array to write the digest data to.
+     * */
+    private final native void nativeSnapshot(long context, byte[] digest);
+
+    /** A native message digest context together with its staging buffer.
+     * The holders are pooled in a {@linkplain ContextPool} per algorithm.
+     * The native context is freed with {@linkplain #free(long)} when the
+     * pool is full, or by the {@linkplain PhantomReferenceCleanup}
+     * once the holder is unreachable.
+     * */
+    private static final class Context {
+        /** The native context handle, allocated with {@linkplain #nativeContext()}. */
+        private final long nativeContext;
+
+        /** Frees the native context. Set right after the allocation. */
+        private PhantomReferenceCleanup.NativePhantomReference cleanup;
+
+        /** Collects small updates to save native calls. Allocated on first use.
+         * The bytes between zero and the position are not passed to OpenSSL yet.
+         * Empty while the context is in the pool.
+         * @see #STAGING_BUFFER_SIZE
+         * */
+        private ByteBuffer stagingBuffer;
+
+        Context(long nativeContext) {
+            this.nativeContext = nativeContext;
+        }
+    }
+
+    /** The context of the current calculation, or {@code null} if there is none.
+     * Acquired from the {@linkplain #contextPool} on the first update and
+     * released to it when the calculation is finished or reset.
      * */
-    private final native void nativeFinal(ByteBuffer context, byte[] digest);
+    private Context context;
 
-    /** A native message digest context where the state of the current calculation is stored.
-     * Allocated with {@linkplain #nativeContext()}, freed by the
-     * {@linkplain PhantomReferenceCleanup} with {@linkplain #free(ByteBuffer)}.
+    /** The maximum digest length of all algorithms in bytes, EVP_MAX_MD_SIZE in OpenSSL. */
+    static final int MAX_DIGEST_LENGTH = 64;
+
+    /** The OpenSSL property query for fetching the message digests, or {@code null}.
+     * Configured with the system property {@code openssl4j.propertyQuery},
+     * for example {@code provider=default}.
      * */
-    private final ByteBuffer context;
+    static final String PROPERTY_QUERY = PropertyAccessor.getConfigured("propertyQuery", null);
 
-    /** The OpenSSL algorithm name as returned by {@linkplain #listMessageDigests()}. */
-    private final String algorithmName;
+    /** The fetched message digest handles by OpenSSL algorithm name.
+     * Each algorithm is fetched once, the handles are never freed.
+     * */
+    private static final Map<String, Long> MD_HANDLES = new ConcurrentHashMap<>();
+
+    /** The pools of initialized contexts by OpenSSL algorithm name. */
+    private static final Map<String, ContextPool<Context>> CONTEXT_POOLS = new ConcurrentHashMap<>();
+
+    /** The message digest handle as returned by {@linkplain #nativeFetch(String, String)}. */
+    private final long md;
+
+    /** The pool of initialized contexts for this algorithm. */
+    private final ContextPool<Context> contextPool;
 
     /** The digest length as calculated by the engine. */
     private final int digestLength;
 
-    OpenSSLMessageDigestNative(String openSslName) {
+    /** The size of the {@linkplain Context#stagingBuffer staging buffer} in bytes.
+     * Updates smaller than this are collected in the staging buffer
+     * and passed to OpenSSL with one native call when the buffer
+     * is full or the digest is calculated.
+     * Configured with the system property {@code openssl4j.stagingBufferSize},
+     * a value of 0 or less disables staging.
+     * */
+    static final int STAGING_BUFFER_SIZE = Math.max(0, PropertyAccessor.getInt("stagingBufferSize", 1024));
+
+    OpenSSLMessageDigestNative(String openSslName, String javaName) {
+        super(javaName);
         try {
             NativeLoader.loadAll();
-            algorithmName = Objects.requireNonNull(openSslName);
-            context = nativeContext();
-            PhantomReferenceCleanup.enqueueForCleanup(this, OpenSSLMessageDigestNative::free, context);
-            engineReset();
-            digestLength = digestLength(context);
+            md = mdHandle(Objects.requireNonNull(openSslName));
+            contextPool = contextPool(openSslName, md);
+            digestLength = nativeDigestLength(md);
         }
         catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    /** Gets the context pool of an algorithm.
+     * @param openSslName the OpenSSL algorithm name.
+     * @param md the message digest handle of the algorithm.
+     * @return the context pool.
+     * */
+    private static ContextPool<Context> contextPool(String openSslName, long md) {
+        ContextPool<Context> result = CONTEXT_POOLS.get(openSslName);
+        if (result == null) {
+            result = CONTEXT_POOLS.computeIfAbsent(openSslName, name -> new ContextPool<>(() -> newContext(md)));
+        }
+        return result;
+    }
+
+    /** Allocates and initializes a new context.
+     * @param md the message digest handle to initialize the context with.
+     * @return the new context.
+     * */
+    private static Context newContext(long md) {
+        long nativeContext = nativeContext();
+        Context result = new Context(nativeContext);
+        result.cleanup = PhantomReferenceCleanup.enqueueForCleanup(result, OpenSSLMessageDigestNative::free, nativeContext);
+        nativeInit(nativeContext, md);
+        return result;
+    }
+
+    /** Gets the context of the current calculation, acquiring one if needed.
+     * @return the context of the current calculation.
+     * */
+    private Context context() {
+        Context result = context;
+        if (result == null) {
+            result = contextPool.acquire();
+            context = result;
+        }
+        return result;
+    }
+
+    /** Returns the context to the pool, or frees it if the pool is full.
+     * The context must be initialized and the staging buffer must be empty.
+     * */
+    private void releaseContext() {
+        Context released = context;
+        if (released != null) {
+            context = null;
+            if (!contextPool.release(released)) {
+                released.cleanup.free();
+            }
+        }
+    }
+
     /** Free the native context that came from {@linkplain #nativeContext()}.
      * @param context the context allocated with {@linkplain #nativeContext()}.
      * */
-    protected static void free(ByteBuffer context) {
-        Objects.requireNonNull(context);
-        if (! context.isDirect()) {
-            throw new IllegalStateException("Illegal buffer passed in");
+    protected static void free(long context) {
+        if (context == 0) {
+            throw new NullPointerException("context is 0");
         }
         removeContext(context);
     }
@@ -121,49 +309,265 @@ class OpenSSLMessageDigestNative extends MessageDigestSpi {
         return result;
     }
 
+    /** Gets the handle of a message digest, fetching it on first use.
+     * @param openSslName the OpenSSL algorithm name, for example {@code SHA256}.
+     * @return the message digest handle.
+     * @throws IllegalStateException if OpenSSL does not know the algorithm.
+     * */
+    static long mdHandle(String openSslName) {
+        Long result = MD_HANDLES.get(openSslName);
+        if (result == null) {
+            result = MD_HANDLES.computeIfAbsent(openSslName, name -> nativeFetch(name, PROPERTY_QUERY));
+        }
+        return result;
+    }
+
+    /** Calculates the digest of an array region with a single native call.
+     * @param md the message digest handle as returned by {@linkplain #mdHandle(String)}.
+     * @param input the array to calculate the digest of.
+     * @param offset the start offset of the array data.
+     * @param length the number of bytes.
+     * @param digest the target array to write the digest data to.
+     * @param digestOffset the offset in the target array.
+     * @return the digest length in bytes.
+     * */
+    static int digest(long md, byte[] input, int offset, int length, byte[] digest, int digestOffset) {
+        return nativeDigestArray(md, input, offset, length, digest, digestOffset);
+    }
+
+    /** Calculates the digest of the remaining bytes of a buffer with a single native call.
+     * The buffer position is moved to the limit.
+     * @param md the message digest handle as returned by {@linkplain #mdHandle(String)}.
+     * @param input the buffer to calculate the digest of.
+     * @param digest the target array to write the digest data to.
+     * @param digestOffset the offset in the target array.
+     * @return the digest length in bytes.
+     * */
+    static int digest(long md, ByteBuffer input, byte[] digest, int digestOffset) {
+        int remaining = input.remaining();
+        int offset = input.position();
+        int result;
+        if (input.isDirect()) {
+            result = nativeDigestBuffer(md, input, offset, remaining, digest, digestOffset);
+            input.position(offset + remaining);
+        } else if (input.hasArray()) {
+            result = nativeDigestArray(md, input.array(), input.arrayOffset() + offset, remaining, digest, digestOffset);
+            input.position(offset + remaining);
+        } else {
+            // neither direct nor array (read-only?)
+            byte[] array = new byte[remaining];
+            input.get(array);
+            result = nativeDigestArray(md, array, 0, array.length, digest, digestOffset);
+        }
+        return result;
+    }
+
+    /** Gets the digest length of an algorithm.
+     * @param md the message digest handle as returned by {@linkplain #mdHandle(String)}.
+     * @return the digest length in bytes.
+     * */
+    static int digestLength(long md) {
+        return nativeDigestLength(md);
+    }
+
+    /** Calculates the digests of a range of messages with a single native call.
+     * @param md the message digest handle as returned by {@linkplain #mdHandle(String)}.
+     * @param data the array or direct buffer containing the messages.
+     * @param offsets the start offsets of the messages in the data.
+     * @param lengths the lengths of the messages in the data.
+     * @param from the index of the first message, inclusive.
+     * @param to the index of the last message, exclusive.
+     * @param digests the target array to write the digests to.
+     * */
+    static void digestBatch(long md, Object data, int[] offsets, int[] lengths, int from, int to, byte[] digests) {
+        if (data instanceof ByteBuffer) {
+            nativeDigestBatchBuffer(md, (ByteBuffer) data, offsets, lengths, from, to, digests);
+        } else {
+            nativeDigestBatchArray(md, (byte[]) data, offsets, lengths, from, to, digests);
+        }
+    }
+
     @Override
     protected final void engineUpdate(final ByteBuffer input) {
         if (!input.hasRemaining()) {
             return;
         }
+        Context c = context();
         int remaining = input.remaining();
+        if (remaining < STAGING_BUFFER_SIZE) {
+            stage(c, remaining).put(input);
+            return;
+        }
+        flushStagingBuffer(c);
         int offset = input.position();
         if (input.isDirect()) {
-            nativeUpdateWithByteBuffer(context, input, offset, remaining);
+            nativeUpdateWithByteBuffer(c.nativeContext, input, offset, remaining);
             input.position(input.position() + remaining);
         } else if (input.hasArray()){
             // buffer is heap based and has an array
             byte[] array = input.array();
-            nativeUpdateWithByteArray(context, array, offset, remaining);
+            nativeUpdateWithByteArray(c.nativeContext, array, input.arrayOffset() + offset, remaining);
             input.position(offset + remaining);
         } else {
             // neither direct nor array (read-only?)
             byte[] array = new byte[remaining];
             input.get(array);
-            nativeUpdateWithByteArray(context, array, 0, array.length);
+            nativeUpdateWithByteArray(c.nativeContext, array, 0, array.length);
         }
     }
 
     @Override
     protected final void engineUpdate(final byte inputByte) {
-        nativeUpdateWithByte(context, inputByte);
+        Context c = context();
+        if (STAGING_BUFFER_SIZE == 0) {
+            nativeUpdateWithByte(c.nativeContext, inputByte);
+            return;
+        }
+        stage(c, 1).put(inputByte);
     }
 
     @Override
     protected final void engineUpdate(final byte[] input, final int offset, final int len) {
-        nativeUpdateWithByteArray(context, input, offset, len);
+        Context c = context();
+        if (len < STAGING_BUFFER_SIZE) {
+            stage(c, len).put(input, offset, len);
+            return;
+        }
+        flushStagingBuffer(c);
+        nativeUpdateWithByteArray(c.nativeContext, input, offset, len);
+    }
+
+    /** Gets the staging buffer with room for some bytes.
+     * @param c the context of the current calculation.
+     * @param length the number of bytes to stage. Must not be larger than
+     *               {@link #STAGING_BUFFER_SIZE}.
+     * @return the staging buffer with at least {@code length} bytes remaining.
+     * */
+    private ByteBuffer stage(Context c, int length) {
+        if (c.stagingBuffer == null) {
+            c.stagingBuffer = ByteBuffer.allocateDirect(STAGING_BUFFER_SIZE);
+        } else if (c.stagingBuffer.remaining() < length) {
+            flushStagingBuffer(c);
+        }
+        return c.stagingBuffer;
+    }
+
+    /** Passes the staged bytes to OpenSSL.
+     * @param c the context of the current calculation.
+     * */
+    private void flushStagingBuffer(Context c) {
+        ByteBuffer stagingBuffer = c.stagingBuffer;
+        if (stagingBuffer != null && stagingBuffer.position() != 0) {
+            nativeUpdateWithByteBuffer(c.nativeContext, stagingBuffer, 0, stagingBuffer.position());
+            stagingBuffer.clear();
+        }
     }
 
     @Override
     protected final byte[] engineDigest() {
+        Context c = context();
+        flushStagingBuffer(c);
         byte[] result = new byte[digestLength];
-        nativeFinal(context, result);
-        engineReset();
+        nativeFinal(c.nativeContext, result, 0);
+        releaseContext();
         return result;
     }
 
+    @Override
+    protected final int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+        if (len < digestLength) {
+            throw new DigestException("Buffer too short for digest of " + digestLength + " bytes");
+        }
+        Context c = context();
+        flushStagingBuffer(c);
+        nativeFinal(c.nativeContext, buf, offset);
+        releaseContext();
+        return digestLength;
+    }
+
+    /** Completes the digest calculation and writes the digest to a buffer.
+     * The digest is written at the buffer position, which is moved
+     * behind the digest. Direct buffers are written by OpenSSL without
+     * a temporary array. The message digest is reset afterwards.
+     * @param out the buffer to write the digest to.
+     * @return the number of bytes written, the digest length.
+     * @throws BufferOverflowException if the buffer has less than
+     * {@linkplain #getDigestLength()} bytes remaining.
+     * @throws ReadOnlyBufferException if the buffer is read-only.
+     * */
+    public final int digest(ByteBuffer out) {
+        Objects.requireNonNull(out, "out is null");
+        if (out.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (out.remaining() < digestLength) {
+            throw new BufferOverflowException();
+        }
+        Context c = context();
+        flushStagingBuffer(c);
+        int position = out.position();
+        if (out.isDirect()) {
+            nativeFinalToBuffer(c.nativeContext, out, position);
+        } else {
+            // writable heap buffers always have an array
+            nativeFinal(c.nativeContext, out.array(), out.arrayOffset() + position);
+        }
+        releaseContext();
+        out.position(position + digestLength);
+        return digestLength;
+    }
+
+    /** Calculates the digest of the data passed so far without
+     * finishing the calculation. Further updates continue
+     * the calculation as if this method was not called.
+     * @return the digest of the data passed since the last reset.
+     * */
+    public final byte[] digestSnapshot() {
+        Context c = context();
+        flushStagingBuffer(c);
+        byte[] result = new byte[digestLength];
+        nativeSnapshot(c.nativeContext, result);
+        return result;
+    }
+
+    /** Creates a copy of this message digest including the state of the
+     * current calculation. The native context is duplicated, so
+     * the data passed so far does not need to be hashed again.
+     * @return the copy of this message digest.
+     * */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        OpenSSLMessageDigestNative copy = (OpenSSLMessageDigestNative) super.clone();
+        copy.context = null;
+        if (context != null) {
+            flushStagingBuffer(context);
+            Context copyContext = contextPool.acquire();
+            nativeCopy(context.nativeContext, copyContext.nativeContext);
+            copy.context = copyContext;
+        }
+        return copy;
+    }
+
     @Override
     protected final void engineReset() {
-        nativeInit(context, algorithmName);
+        Context c = context;
+        if (c != null) {
+            if (c.stagingBuffer != null) {
+                c.stagingBuffer.clear();
+            }
+            nativeInit(c.nativeContext, md);
+            releaseContext();
+        }
+    }
+
+    /** Releases the native context of a running calculation.
+     * The context goes back to the pool, or is freed immediately if
+     * the pool is full. Data passed since the last digest is discarded.
+     * The message digest can still be used afterwards, the next
+     * update acquires a new context.
+     * */
+    @Override
+    public void close() {
+        reset();
     }
 }
@@ -0,0 +1,90 @@
+package de.sfuhrm.openssl4j;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactorySpi;
+import javax.crypto.interfaces.PBEKey;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.util.Arrays;
+
+/**
+ * A PBKDF2 secret key factory calling {@linkplain Pbkdf2}.
+ * Generates keys from {@linkplain PBEKeySpec} with the key length in bits.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLPBKDF2Native extends SecretKeyFactorySpi {
+
+    /** The JCA algorithm name, for example {@code PBKDF2WithHmacSHA256}. */
+    private final String algorithm;
+
+    private final Pbkdf2 pbkdf2;
+
+    OpenSSLPBKDF2Native(String algorithm, String sslDigestName) {
+        this.algorithm = algorithm;
+        this.pbkdf2 = new Pbkdf2(sslDigestName);
+    }
+
+    @Override
+    protected SecretKey engineGenerateSecret(KeySpec keySpec) throws InvalidKeySpecException {
+        if (!(keySpec instanceof PBEKeySpec)) {
+            throw new InvalidKeySpecException("Only PBEKeySpec is supported");
+        }
+        PBEKeySpec spec = (PBEKeySpec) keySpec;
+        byte[] salt = spec.getSalt();
+        if (salt == null) {
+            throw new InvalidKeySpecException("Salt not found");
+        }
+        if (spec.getIterationCount() <= 0) {
+            throw new InvalidKeySpecException("Iteration count must be positive");
+        }
+        if (spec.getKeyLength() / 8 <= 0) {
+            throw new InvalidKeySpecException("Key length must be at least 8 bits");
+        }
+        char[] password = spec.getPassword();
+        try {
+            byte[] key = pbkdf2.derive(password, salt, spec.getIterationCount(), spec.getKeyLength() / 8);
+            return new PBKDF2Key(algorithm, password, salt, spec.getIterationCount(), key);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    @Override
+    protected KeySpec engineGetKeySpec(SecretKey key, Class<?> keySpec) throws InvalidKeySpecException {
+        if (!(key instanceof PBEKey) || !algorithm.equalsIgnoreCase(key.getAlgorithm())) {
+            throw new InvalidKeySpecException("Key is no " + algorithm + " key");
+        }
+        if (keySpec == null || !keySpec.isAssignableFrom(PBEKeySpec.class)) {
+            throw new InvalidKeySpecException("Only PBEKeySpec is supported");
+        }
+        PBEKey pbeKey = (PBEKey) key;
+        char[] password = pbeKey.getPassword();
+        byte[] encoded = pbeKey.getEncoded();
+        try {
+            return new PBEKeySpec(password, pbeKey.getSalt(), pbeKey.getIterationCount(), encoded.length * 8);
+        } finally {
+            Arrays.fill(password, '\0');
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    @Override
+    protected SecretKey engineTranslateKey(SecretKey key) throws InvalidKeyException {
+        if (key instanceof PBKDF2Key && algorithm.equalsIgnoreCase(key.getAlgorithm())) {
+            return key;
+        }
+        try {
+            SecretKey result = engineGenerateSecret(engineGetKeySpec(key, PBEKeySpec.class));
+            // the foreign key has to be derived from its own parameters
+            if (!MessageDigest.isEqual(result.getEncoded(), key.getEncoded())) {
+                throw new InvalidKeyException("Key does not match its parameters");
+            }
+            return result;
+        } catch (InvalidKeySpecException e) {
+            throw new InvalidKeyException("Key can not be translated", e);
+        }
+    }
+}
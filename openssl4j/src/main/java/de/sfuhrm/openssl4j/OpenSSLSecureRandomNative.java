@@ -0,0 +1,101 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+
+/**
+ * An interface to the OpenSSL random number generator.
+ * The random bytes come from the per-thread DRBGs of OpenSSL,
+ * either the public one ({@code RAND_bytes}) or the private one
+ * for secret values like keys ({@code RAND_priv_bytes}).
+ * Small requests to the public generator are served from a per-thread
+ * buffer that is filled natively, so they don't need a native call each.
+ * Requests to the private generator always go to OpenSSL, so future
+ * secret values are never kept in the Java heap before they are requested.
+ * The implementation is thread safe without locking.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLSecureRandomNative extends SecureRandomSpi {
+
+    /** Fills an array region with random bytes.
+     * @param bytes the array to fill.
+     * @param offset the offset of the region.
+     * @param length the length of the region.
+     * @param privateGenerator {@code true} to use the private generator,
+     *                         {@code false} to use the public generator.
+     * */
+    private static native void nativeRandomBytes(byte[] bytes, int offset, int length, boolean privateGenerator);
+
+    /** Mixes additional seed bytes into the generator.
+     * @param seed the seed bytes.
+     * */
+    private static native void nativeAddSeed(byte[] seed);
+
+    /** The size of the per-thread buffers of the public generator in bytes.
+     * Configured with the system property {@code openssl4j.randomBufferSize},
+     * 0 or less disables the buffers.
+     * */
+    static final int BUFFER_SIZE = Math.max(0, PropertyAccessor.getInt("randomBufferSize", 4096));
+
+    /** Requests to the public generator up to this size are served from the per-thread buffers. */
+    static final int MAX_BUFFERED_REQUEST = Math.min(256, BUFFER_SIZE);
+
+    /** Random bytes of the public generator for one thread. */
+    private static final class Buffer {
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+        /** The index of the next unused byte. */
+        private int position = BUFFER_SIZE;
+    }
+
+    private static final ThreadLocal<Buffer> PUBLIC_BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    /** Whether to use the private generator. */
+    private final boolean privateGenerator;
+
+    OpenSSLSecureRandomNative(boolean privateGenerator) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.privateGenerator = privateGenerator;
+    }
+
+    @Override
+    protected void engineSetSeed(byte[] seed) {
+        nativeAddSeed(seed);
+    }
+
+    @Override
+    protected void engineNextBytes(byte[] bytes) {
+        int length = bytes.length;
+        if (length == 0) {
+            return;
+        }
+        if (privateGenerator || length > MAX_BUFFERED_REQUEST) {
+            nativeRandomBytes(bytes, 0, length, privateGenerator);
+            return;
+        }
+        Buffer buffer = PUBLIC_BUFFERS.get();
+        if (BUFFER_SIZE - buffer.position < length) {
+            nativeRandomBytes(buffer.bytes, 0, BUFFER_SIZE, false);
+            buffer.position = 0;
+        }
+        System.arraycopy(buffer.bytes, buffer.position, bytes, 0, length);
+        // handed out bytes must not stay in memory
+        Arrays.fill(buffer.bytes, buffer.position, buffer.position + length, (byte) 0);
+        buffer.position += length;
+    }
+
+    @Override
+    protected byte[] engineGenerateSeed(int numBytes) {
+        if (numBytes < 0) {
+            throw new IllegalArgumentException("numBytes is negative");
+        }
+        byte[] seed = new byte[numBytes];
+        nativeRandomBytes(seed, 0, numBytes, true);
+        return seed;
+    }
+}
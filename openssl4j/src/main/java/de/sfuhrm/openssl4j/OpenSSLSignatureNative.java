@@ -0,0 +1,284 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.SignatureSpi;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Arrays;
+
+/**
+ * An interface to the OpenSSL signature functions {@code EVP_DigestSign}
+ * and {@code EVP_DigestVerify}.
+ * The message is collected in a buffer and signed or verified with one
+ * native call, as needed by EdDSA. The keys are parsed into native keys,
+ * public keys come from the cache of {@linkplain NativeKey}.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSLSignatureNative extends SignatureSpi {
+
+    /** Signs a message.
+     * The keys are passed as objects, so they stay reachable and
+     * are not freed by the {@linkplain PhantomReferenceCleanup} during the call.
+     * @param key the native private key.
+     * @param md the message digest handle, or 0 for EdDSA.
+     * @param padding the RSA padding, or 0 for no RSA padding.
+     * @param saltLength the salt length for {@linkplain #PADDING_PSS}.
+     * @param mgf1Md the MGF1 message digest handle for {@linkplain #PADDING_PSS}.
+     * @param data the array containing the message.
+     * @param length the length of the message.
+     * @return the signature.
+     * */
+    private static native byte[] nativeSign(NativeKey key, long md, int padding, int saltLength, long mgf1Md,
+                                            byte[] data, int length);
+
+    /** Verifies a signature.
+     * @return {@code true} if the signature is valid, {@code false} if it is wrong or malformed.
+     * @see #nativeSign(NativeKey, long, int, int, long, byte[], int)
+     * */
+    private static native boolean nativeVerify(NativeKey key, long md, int padding, int saltLength, long mgf1Md,
+                                               byte[] data, int length,
+                                               byte[] signature, int signatureOffset, int signatureLength);
+
+    /** Verifies a batch of signatures.
+     * @param keys the native public keys, one per signature.
+     * @param results the array to store the results in. Its length is the number of signatures.
+     * @see #nativeVerify(NativeKey, long, int, int, long, byte[], int, byte[], int, int)
+     * */
+    private static native void nativeVerifyBatch(NativeKey[] keys, long md, int padding, int saltLength, long mgf1Md,
+                                                 byte[] data, int[] dataOffsets, int[] dataLengths,
+                                                 byte[] signatures, int[] signatureOffsets, int[] signatureLengths,
+                                                 boolean[] results);
+
+    /** No RSA padding. */
+    static final int PADDING_NONE = 0;
+
+    /** RSA PKCS#1 v1.5 padding ({@code RSA_PKCS1_PADDING}). */
+    static final int PADDING_PKCS1 = 1;
+
+    /** RSA PSS padding ({@code RSA_PKCS1_PSS_PADDING}). */
+    static final int PADDING_PSS = 6;
+
+    /** The OpenSSL types of the keys this algorithm accepts. */
+    private final int[] keyTypes;
+
+    private final int padding;
+
+    /** The message digest handle, or 0 for EdDSA and PSS without parameters. */
+    private long md;
+
+    private int saltLength;
+
+    private long mgf1Md;
+
+    /** The PSS parameters, or {@code null}. */
+    private PSSParameterSpec pssParameters;
+
+    /** The current key, or {@code null} if not initialized. */
+    private NativeKey key;
+
+    private boolean signing;
+
+    /** The message collected so far. */
+    private byte[] buffer = new byte[256];
+
+    private int count;
+
+    OpenSSLSignatureNative(String openSslDigestName, int padding, int... keyTypes) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.md = openSslDigestName != null ? OpenSSLMessageDigestNative.mdHandle(openSslDigestName) : 0;
+        this.padding = padding;
+        this.keyTypes = keyTypes;
+    }
+
+    private NativeKey checkKeyType(NativeKey nativeKey) throws InvalidKeyException {
+        for (int keyType : keyTypes) {
+            if (nativeKey.type == keyType) {
+                return nativeKey;
+            }
+        }
+        throw new InvalidKeyException("Key type not supported by this algorithm");
+    }
+
+    @Override
+    protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+        key = checkKeyType(NativeKey.publicKey(publicKey));
+        signing = false;
+        count = 0;
+    }
+
+    @Override
+    protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+        key = checkKeyType(NativeKey.privateKey(privateKey));
+        signing = true;
+        count = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > buffer.length - count) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, Math.addExact(count, length)));
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte b) throws SignatureException {
+        checkInitialized();
+        ensureCapacity(1);
+        buffer[count++] = b;
+    }
+
+    @Override
+    protected void engineUpdate(byte[] b, int off, int len) throws SignatureException {
+        checkInitialized();
+        ensureCapacity(len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private void checkInitialized() throws SignatureException {
+        if (key == null) {
+            throw new SignatureException("Signature not initialized");
+        }
+    }
+
+    private void checkReady() throws SignatureException {
+        checkInitialized();
+        if (padding == PADDING_PSS && pssParameters == null) {
+            throw new SignatureException("Parameters required for RSASSA-PSS signatures");
+        }
+    }
+
+    @Override
+    protected byte[] engineSign() throws SignatureException {
+        checkReady();
+        if (!signing) {
+            throw new SignatureException("Signature not initialized for signing");
+        }
+        try {
+            return nativeSign(key, md, padding, saltLength, mgf1Md, buffer, count);
+        } catch (IllegalStateException e) {
+            throw new SignatureException(e.getMessage(), e);
+        } finally {
+            count = 0;
+        }
+    }
+
+    @Override
+    protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+        return engineVerify(sigBytes, 0, sigBytes.length);
+    }
+
+    @Override
+    protected boolean engineVerify(byte[] sigBytes, int offset, int length) throws SignatureException {
+        checkReady();
+        if (signing) {
+            throw new SignatureException("Signature not initialized for verification");
+        }
+        try {
+            return nativeVerify(key, md, padding, saltLength, mgf1Md, buffer, count, sigBytes, offset, length);
+        } catch (IllegalStateException e) {
+            throw new SignatureException(e.getMessage(), e);
+        } finally {
+            count = 0;
+        }
+    }
+
+    /** Verifies many signatures with a single native call.
+     * @param keys the public keys, one per signature.
+     * @param data the array containing the messages.
+     * @param dataOffsets the start offsets of the messages.
+     * @param dataLengths the lengths of the messages.
+     * @param signatures the array containing the signatures.
+     * @param signatureOffsets the start offsets of the signatures.
+     * @param signatureLengths the lengths of the signatures.
+     * @return whether each signature is valid.
+     * @throws InvalidKeyException if a key type is not supported by the algorithm.
+     * @throws SignatureException if the parameters are missing.
+     * */
+    boolean[] verifyBatch(NativeKey[] keys, byte[] data, int[] dataOffsets, int[] dataLengths,
+                          byte[] signatures, int[] signatureOffsets, int[] signatureLengths)
+            throws InvalidKeyException, SignatureException {
+        if (padding == PADDING_PSS && pssParameters == null) {
+            throw new SignatureException("Parameters required for RSASSA-PSS signatures");
+        }
+        for (NativeKey nativeKey : keys) {
+            checkKeyType(nativeKey);
+        }
+        boolean[] results = new boolean[keys.length];
+        nativeVerifyBatch(keys, md, padding, saltLength, mgf1Md,
+                data, dataOffsets, dataLengths, signatures, signatureOffsets, signatureLengths, results);
+        return results;
+    }
+
+    @Override
+    protected void engineSetParameter(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+        if (padding != PADDING_PSS) {
+            if (params != null) {
+                throw new InvalidAlgorithmParameterException("No parameters supported");
+            }
+            return;
+        }
+        if (!(params instanceof PSSParameterSpec)) {
+            throw new InvalidAlgorithmParameterException("PSSParameterSpec required");
+        }
+        PSSParameterSpec spec = (PSSParameterSpec) params;
+        if (!"MGF1".equalsIgnoreCase(spec.getMGFAlgorithm())
+                || !(spec.getMGFParameters() instanceof MGF1ParameterSpec)) {
+            throw new InvalidAlgorithmParameterException("Only MGF1 is supported");
+        }
+        if (spec.getTrailerField() != PSSParameterSpec.TRAILER_FIELD_BC) {
+            throw new InvalidAlgorithmParameterException("Only trailer field 1 is supported");
+        }
+        md = digestHandle(spec.getDigestAlgorithm());
+        mgf1Md = digestHandle(((MGF1ParameterSpec) spec.getMGFParameters()).getDigestAlgorithm());
+        saltLength = spec.getSaltLength();
+        pssParameters = spec;
+    }
+
+    private static long digestHandle(String algorithm) throws InvalidAlgorithmParameterException {
+        String openSslName = OpenSSL4JProvider.getOpenSslMessageDigestName(algorithm);
+        if (openSslName == null) {
+            throw new InvalidAlgorithmParameterException("Unsupported digest " + algorithm);
+        }
+        return OpenSSLMessageDigestNative.mdHandle(openSslName);
+    }
+
+    @Override
+    protected AlgorithmParameters engineGetParameters() {
+        if (pssParameters == null) {
+            return null;
+        }
+        try {
+            AlgorithmParameters result = AlgorithmParameters.getInstance("RSASSA-PSS");
+            result.init(pssParameters);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new UnsupportedOperationException("RSASSA-PSS parameters not available", e);
+        }
+    }
+
+    @Override
+    @Deprecated
+    protected void engineSetParameter(String param, Object value) {
+        throw new InvalidParameterException("Not supported");
+    }
+
+    @Override
+    @Deprecated
+    protected Object engineGetParameter(String param) {
+        throw new InvalidParameterException("Not supported");
+    }
+}
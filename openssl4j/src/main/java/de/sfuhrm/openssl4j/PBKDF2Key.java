@@ -0,0 +1,98 @@
+package de.sfuhrm.openssl4j;
+
+import javax.crypto.interfaces.PBEKey;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * A key derived with PBKDF2, as returned by {@linkplain OpenSSLPBKDF2Native}.
+ * Keeps the password, salt and iteration count it was derived from.
+ * @author Stephan Fuhrmann
+ */
+final class PBKDF2Key implements PBEKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+    private final char[] password;
+    private final byte[] salt;
+    private final int iterationCount;
+    private final byte[] key;
+    private volatile boolean destroyed;
+
+    PBKDF2Key(String algorithm, char[] password, byte[] salt, int iterationCount, byte[] key) {
+        this.algorithm = algorithm;
+        this.password = password.clone();
+        this.salt = salt.clone();
+        this.iterationCount = iterationCount;
+        this.key = key;
+    }
+
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Key has been destroyed");
+        }
+    }
+
+    @Override
+    public char[] getPassword() {
+        checkNotDestroyed();
+        return password.clone();
+    }
+
+    @Override
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    @Override
+    public int getIterationCount() {
+        return iterationCount;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        checkNotDestroyed();
+        return key.clone();
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        Arrays.fill(password, '\0');
+        Arrays.fill(key, (byte) 0);
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PBKDF2Key)) {
+            return false;
+        }
+        PBKDF2Key other = (PBKDF2Key) o;
+        return algorithm.equalsIgnoreCase(other.algorithm)
+                && MessageDigest.isEqual(key, other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(key) ^ algorithm.toLowerCase().hashCode();
+    }
+}
@@ -0,0 +1,155 @@
+package de.sfuhrm.openssl4j;
+
+import javax.crypto.spec.PBEKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Derives keys from passwords with PBKDF2 (RFC 8018) using {@code PKCS5_PBKDF2_HMAC}.
+ * The whole iteration loop runs in one native call.
+ * Passwords are encoded in UTF-8 like in the SunJCE provider, so the
+ * derived keys are the same.
+ * <p>
+ * Many keys can be derived in parallel with
+ * {@linkplain #derive(List, ForkJoinPool)}, for example when
+ * migrating stored password hashes.
+ * Instances are thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class Pbkdf2 {
+
+    /** Derives a key with a single native call.
+     * @param md the message digest handle of the HMAC.
+     * @param password the password bytes.
+     * @param salt the salt.
+     * @param iterations the iteration count.
+     * @param key the array to store the key in. The length of the array is the key length.
+     * */
+    private static native void nativePbkdf2(long md, byte[] password, byte[] salt, int iterations, byte[] key);
+
+    /** The message digest handle. */
+    private final long md;
+
+    /** Creates an instance for a HMAC message digest.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public Pbkdf2(String algorithm) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        md = OpenSSL4J.toMdHandle(algorithm);
+    }
+
+    /** Derives a key.
+     * @param password the password, encoded in UTF-8 for the derivation.
+     * @param salt the salt.
+     * @param iterations the iteration count, greater than zero.
+     * @param keyLength the length of the key in bytes, greater than zero.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the iteration count or key length is not positive.
+     * */
+    public byte[] derive(char[] password, byte[] salt, int iterations, int keyLength) {
+        Objects.requireNonNull(password, "password is null");
+        Objects.requireNonNull(salt, "salt is null");
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iteration count must be positive: " + iterations);
+        }
+        if (keyLength <= 0) {
+            throw new IllegalArgumentException("Key length must be positive: " + keyLength);
+        }
+        byte[] passwordBytes = passwordBytes(password);
+        try {
+            byte[] key = new byte[keyLength];
+            nativePbkdf2(md, passwordBytes, salt, iterations, key);
+            return key;
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    /** Derives a key from a key spec.
+     * @param spec the password, salt, iteration count and key length in bits.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the salt is missing, or the
+     * iteration count or key length is not positive.
+     * */
+    public byte[] derive(PBEKeySpec spec) {
+        Objects.requireNonNull(spec, "spec is null");
+        byte[] salt = spec.getSalt();
+        if (salt == null) {
+            throw new IllegalArgumentException("Salt not found");
+        }
+        char[] password = spec.getPassword();
+        try {
+            return derive(password, salt, spec.getIterationCount(), spec.getKeyLength() / 8);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    /** Derives keys from many key specs in parallel.
+     * @param specs the password, salt, iteration count and key length in bits of each key.
+     * @param pool the pool to derive the keys in.
+     * @return the derived keys in the order of the specs.
+     * @throws IllegalArgumentException if a salt is missing, or an
+     * iteration count or key length is not positive.
+     * */
+    public List<byte[]> derive(List<PBEKeySpec> specs, ForkJoinPool pool) {
+        Objects.requireNonNull(specs, "specs is null");
+        Objects.requireNonNull(pool, "pool is null");
+        PBEKeySpec[] specArray = specs.toArray(new PBEKeySpec[0]);
+        byte[][] keys = new byte[specArray.length][];
+        pool.invoke(new DeriveTask(specArray, keys, 0, specArray.length));
+        return new ArrayList<>(Arrays.asList(keys));
+    }
+
+    /** Encodes a password in UTF-8 without leaving copies behind.
+     * @param password the password to encode.
+     * @return the encoded password.
+     * */
+    static byte[] passwordBytes(char[] password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] result = new byte[encoded.remaining()];
+        encoded.get(result);
+        Arrays.fill(encoded.array(), (byte) 0);
+        return result;
+    }
+
+    /** Derives a range of keys, splitting it in halves if it has more than one key. */
+    private final class DeriveTask extends RecursiveAction {
+        private final PBEKeySpec[] specs;
+        private final byte[][] keys;
+        private final int from;
+        private final int to;
+
+        DeriveTask(PBEKeySpec[] specs, byte[][] keys, int from, int to) {
+            this.specs = specs;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                keys[from] = derive(specs[from]);
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DeriveTask(specs, keys, from, middle),
+                        new DeriveTask(specs, keys, middle, to));
+            }
+        }
+    }
+}
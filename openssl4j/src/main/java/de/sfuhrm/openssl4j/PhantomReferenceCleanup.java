@@ -2,50 +2,109 @@ package de.sfuhrm.openssl4j;
 
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
-import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
 
 /**
  * Frees native AbstractNative objects.
- * The ByteBuffer objects are allocated in {@linkplain OpenSSLMessageDigestNative#OpenSSLMessageDigestNative(String)} ()}
- * and are not used any longer.
+ * The native objects are kept as handles in Java longs,
+ * for example the message digest contexts of {@linkplain OpenSSLMessageDigestNative}.
+ * Native objects can also be freed explicitly with {@linkplain NativePhantomReference#free()}.
  * @author Stephan Fuhrmann
  */
 class PhantomReferenceCleanup {
 
     /** The reference queue of unused AbstractNative objects. */
-    private static final ReferenceQueue<Object> BYTE_BUFFER_REFERENCE_QUEUE = new ReferenceQueue<>();
+    private static final ReferenceQueue<Object> REFERENCE_QUEUE = new ReferenceQueue<>();
+
+    /** Number of registered native objects above which the allocating
+     * threads help the cleanup thread with freeing.
+     * Configured with the system property {@code openssl4j.cleanupHelpThreshold}.
+     * */
+    static final int HELP_THRESHOLD = PropertyAccessor.getInt("cleanupHelpThreshold", 10000);
+
+    /** Maximum number of references an allocating thread frees per registration. */
+    static final int HELP_BATCH_SIZE = 64;
 
     /** Is the thread running? */
-    private static boolean running = false;
+    private static volatile boolean running = false;
 
-    private static final Set<NativePhantomReference> nativePhantomReferenceList = Collections.synchronizedSet(new HashSet<>());
+    /** The references of the native objects that are not freed yet.
+     * Keeps the references reachable until they are processed. */
+    private static final Set<NativePhantomReference> nativePhantomReferenceList = ConcurrentHashMap.newKeySet();
+
+    /** A reference to an object owning a native object.
+     * The native object is freed once, either explicitly
+     * or after the owner became unreachable.
+     * */
+    static final class NativePhantomReference extends PhantomReference<Object> {
+        private final LongConsumer freeFunction;
+        private final long handle;
+        private final AtomicBoolean freed = new AtomicBoolean();
 
-    private static class NativePhantomReference extends PhantomReference<Object> {
-        private final Consumer<ByteBuffer> freeFunction;
-        private final ByteBuffer byteBuffer;
-        NativePhantomReference(Object abstractNative, Consumer<ByteBuffer> freeFunction, ByteBuffer context) {
-            super(abstractNative, BYTE_BUFFER_REFERENCE_QUEUE);
+        NativePhantomReference(Object abstractNative, LongConsumer freeFunction, long handle) {
+            super(abstractNative, REFERENCE_QUEUE);
             this.freeFunction = freeFunction;
-            this.byteBuffer = context;
+            this.handle = handle;
         }
-        public void free() {
-            freeFunction.accept(byteBuffer);
+
+        /** Frees the native object if it was not freed before.
+         * The native object must not be used afterwards.
+         * */
+        void free() {
+            if (freed.compareAndSet(false, true)) {
+                clear();
+                nativePhantomReferenceList.remove(this);
+                freeFunction.accept(handle);
+            }
         }
     }
 
-    /** Enqueues a AbstractNative for later cleanup. */
-    static void enqueueForCleanup(Object ref, Consumer<ByteBuffer> freeFunction, ByteBuffer context) {
+    /** Enqueues a AbstractNative for later cleanup.
+     * If many native objects are registered, the calling thread
+     * frees some of the unreachable ones first.
+     * @param ref the object owning the native object.
+     * @param freeFunction the function freeing the native object.
+     * @param handle the handle of the native object.
+     * @return the reference that can be used to free the native object explicitly.
+     * */
+    static NativePhantomReference enqueueForCleanup(Object ref, LongConsumer freeFunction, long handle) {
         NativePhantomReference phantomReference = new NativePhantomReference(
                 Objects.requireNonNull(ref),
                 Objects.requireNonNull(freeFunction),
-                Objects.requireNonNull(context));
+                handle);
+        if (nativePhantomReferenceList.size() > HELP_THRESHOLD) {
+            drain(HELP_BATCH_SIZE);
+        }
         nativePhantomReferenceList.add(phantomReference);
-        startIfNeeded();
+        if (!running) {
+            startIfNeeded();
+        }
+        return phantomReference;
+    }
+
+    /** Frees native objects whose owners are unreachable, without waiting.
+     * @param max the maximum number of native objects to free.
+     * @return the number of native objects freed.
+     * */
+    static int drain(int max) {
+        int count = 0;
+        NativePhantomReference reference;
+        while (count < max && (reference = (NativePhantomReference) REFERENCE_QUEUE.poll()) != null) {
+            reference.free();
+            count++;
+        }
+        return count;
+    }
+
+    /** Gets the number of native objects that are not freed yet.
+     * @return the number of registered native objects.
+     * */
+    static int registeredCount() {
+        return nativePhantomReferenceList.size();
     }
 
     /** Checks whether the queue thread is already
@@ -57,9 +116,8 @@ class PhantomReferenceCleanup {
             Runnable r = () -> {
                 try {
                     while (true) {
-                        NativePhantomReference reference = (NativePhantomReference)BYTE_BUFFER_REFERENCE_QUEUE.remove();
+                        NativePhantomReference reference = (NativePhantomReference)REFERENCE_QUEUE.remove();
                         reference.free();
-                        nativePhantomReferenceList.remove(reference);
                     }
                 } catch (InterruptedException e) {
                     e.printStackTrace();
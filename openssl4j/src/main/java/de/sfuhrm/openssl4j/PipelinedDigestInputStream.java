@@ -0,0 +1,133 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that calculates the message digest of the bytes read through it,
+ * like {@linkplain java.security.DigestInputStream}.
+ * The bytes are collected in direct buffers that are hashed on a background
+ * thread, so the caller can read the next bytes while OpenSSL hashes the previous ones.
+ * Skipped bytes are not part of the digest.
+ * @author Stephan Fuhrmann
+ */
+public class PipelinedDigestInputStream extends FilterInputStream {
+
+    private final String openSslName;
+    private final int buffers;
+    private final int bufferSize;
+
+    /** The pipeline of the current calculation, or {@code null} if no byte was read yet. */
+    private DigestPipeline pipeline;
+
+    /** The buffer that is currently filled, or {@code null}. */
+    private ByteBuffer current;
+
+    /** Creates a stream with two buffers in flight.
+     * @param in the stream to read from.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public PipelinedDigestInputStream(InputStream in, String algorithm) {
+        this(in, algorithm, DigestPipeline.DEFAULT_BUFFERS, DigestPipeline.DEFAULT_BUFFER_SIZE);
+    }
+
+    /** Creates a stream.
+     * @param in the stream to read from.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param buffers the number of direct buffers in flight, at least 1.
+     * @param bufferSize the size of each direct buffer in bytes.
+     * @throws IllegalArgumentException if the algorithm is not known, or
+     * the number or size of the buffers is not positive.
+     * */
+    public PipelinedDigestInputStream(InputStream in, String algorithm, int buffers, int bufferSize) {
+        super(in);
+        if (buffers <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("buffers and bufferSize must be positive");
+        }
+        this.openSslName = OpenSSL4J.toOpenSslName(algorithm);
+        this.buffers = buffers;
+        this.bufferSize = bufferSize;
+    }
+
+    /** Gets the buffer to append to, submitting the current one if it is full. */
+    private ByteBuffer current() throws IOException {
+        if (pipeline == null) {
+            pipeline = new DigestPipeline(openSslName, buffers, bufferSize);
+        }
+        if (current != null && !current.hasRemaining()) {
+            current.flip();
+            pipeline.submit(current);
+            current = null;
+        }
+        if (current == null) {
+            current = pipeline.take();
+        }
+        return current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = in.read();
+        if (result >= 0) {
+            current().put((byte) result);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int result = in.read(b, off, len);
+        int position = off;
+        int remaining = result;
+        while (remaining > 0) {
+            ByteBuffer buffer = current();
+            int length = Math.min(remaining, buffer.remaining());
+            buffer.put(b, position, length);
+            position += length;
+            remaining -= length;
+        }
+        return result;
+    }
+
+    /** Mark and reset would pass bytes twice, so they are not supported.
+     * @return {@code false}.
+     * */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /** Completes the digest of the bytes read since the last call.
+     * The next bytes read start a new calculation.
+     * @return the digest.
+     * @throws IOException if the thread was interrupted while waiting for the hashing.
+     * */
+    public byte[] digest() throws IOException {
+        if (pipeline == null) {
+            pipeline = new DigestPipeline(openSslName, buffers, bufferSize);
+        }
+        if (current != null) {
+            current.flip();
+            pipeline.submit(current);
+            current = null;
+        }
+        try {
+            return pipeline.finish();
+        } finally {
+            pipeline = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+            current = null;
+        }
+        super.close();
+    }
+}
@@ -18,6 +18,39 @@ class PropertyAccessor {
         return (String)properties.getOrDefault(name, defaultValue);
     }
 
+    /** Gets a configuration value.
+     * The system property {@code openssl4j.<name>} has precedence
+     * over the properties file.
+     * @param name the property name without the {@code openssl4j.} prefix.
+     * @param defaultValue the default value if the property was not set.
+     * */
+    static String getConfigured(String name, String defaultValue) {
+        String value = System.getProperty("openssl4j." + name);
+        if (value == null) {
+            value = get(name, defaultValue);
+        }
+        return value;
+    }
+
+    /** Gets an integer configuration value.
+     * The system property {@code openssl4j.<name>} has precedence
+     * over the properties file.
+     * @param name the property name without the {@code openssl4j.} prefix.
+     * @param defaultValue the default value if the property was not set.
+     * @throws IllegalArgumentException if the value is not an integer.
+     * */
+    static int getInt(String name, int defaultValue) {
+        String value = getConfigured(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + name + " is not an integer: " + value, e);
+        }
+    }
+
     private static Properties loadOpenssl4jProperties() {
         Properties result = new Properties();
         try (InputStream inputStream = ObjectTransfer.class.getResourceAsStream("/META-INF/openssl4j.properties")) {
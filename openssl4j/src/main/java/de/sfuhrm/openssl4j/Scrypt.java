@@ -0,0 +1,104 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Derives keys from passwords with the memory-hard function scrypt (RFC 7914).
+ * The memory blocks of {@code 128 * r * n} bytes are allocated by OpenSSL
+ * outside of the Java heap, so high cost parameters don't put load on
+ * the garbage collector.
+ * Passwords are encoded in UTF-8.
+ * Instances are thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class Scrypt {
+
+    /** Derives a key with a single native call.
+     * @param password the password bytes.
+     * @param salt the salt.
+     * @param n the CPU and memory cost.
+     * @param r the block size.
+     * @param p the parallelization.
+     * @param maxMemory the number of bytes OpenSSL may allocate.
+     * @param key the array to store the key in. The length of the array is the key length.
+     * */
+    private static native void nativeScrypt(byte[] password, byte[] salt, long n, int r, int p, long maxMemory, byte[] key);
+
+    private final long n;
+    private final int r;
+    private final int p;
+
+    /** Creates an instance with cost parameters.
+     * @param n the CPU and memory cost, a power of 2 greater than 1.
+     * @param r the block size, greater than zero.
+     * @param p the parallelization, greater than zero.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     * */
+    public Scrypt(long n, int r, int p) {
+        if (n <= 1 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("n must be a power of 2 greater than 1: " + n);
+        }
+        if (r <= 0 || p <= 0 || (long) r * p >= 1 << 30) {
+            throw new IllegalArgumentException("r and p must be positive and r * p less than 2^30");
+        }
+        if (r < 4 && n >= 1L << (16 * r)) {
+            throw new IllegalArgumentException("n must be less than 2^(16 * r)");
+        }
+        if (Long.MAX_VALUE / 128 / r < n + p + 2) {
+            throw new IllegalArgumentException("Parameters need too much memory");
+        }
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.n = n;
+        this.r = r;
+        this.p = p;
+    }
+
+    /** Gets the number of bytes a derivation allocates natively.
+     * @return the size of the memory blocks in bytes.
+     * */
+    public long getMemorySize() {
+        return 128L * r * (n + p + 2);
+    }
+
+    /** Derives a key.
+     * @param password the password, encoded in UTF-8 for the derivation.
+     * @param salt the salt.
+     * @param keyLength the length of the key in bytes, greater than zero.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the key length is not positive.
+     * */
+    public byte[] derive(char[] password, byte[] salt, int keyLength) {
+        Objects.requireNonNull(password, "password is null");
+        byte[] passwordBytes = Pbkdf2.passwordBytes(password);
+        try {
+            return derive(passwordBytes, salt, keyLength);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    /** Derives a key from a binary password.
+     * @param password the password.
+     * @param salt the salt.
+     * @param keyLength the length of the key in bytes, greater than zero.
+     * @return the derived key.
+     * @throws IllegalArgumentException if the key length is not positive.
+     * */
+    public byte[] derive(byte[] password, byte[] salt, int keyLength) {
+        Objects.requireNonNull(password, "password is null");
+        Objects.requireNonNull(salt, "salt is null");
+        if (keyLength <= 0) {
+            throw new IllegalArgumentException("Key length must be positive: " + keyLength);
+        }
+        byte[] key = new byte[keyLength];
+        nativeScrypt(password, salt, n, r, p, getMemorySize(), key);
+        return key;
+    }
+}
@@ -0,0 +1,46 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the secret key factory spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class SecretKeyFactory {
+
+    private SecretKeyFactory() {
+        // no instances allowed
+    }
+
+    /** PBKDF2WithHmacSHA1 secret key factory implementation.
+     * */
+    public final static class PBKDF2WithHmacSHA1 extends OpenSSLPBKDF2Native {
+        /** Creates a new instance. */
+        public PBKDF2WithHmacSHA1() { super("PBKDF2WithHmacSHA1", "SHA1"); }
+    }
+
+    /** PBKDF2WithHmacSHA224 secret key factory implementation.
+     * */
+    public final static class PBKDF2WithHmacSHA224 extends OpenSSLPBKDF2Native {
+        /** Creates a new instance. */
+        public PBKDF2WithHmacSHA224() { super("PBKDF2WithHmacSHA224", "SHA224"); }
+    }
+
+    /** PBKDF2WithHmacSHA256 secret key factory implementation.
+     * */
+    public final static class PBKDF2WithHmacSHA256 extends OpenSSLPBKDF2Native {
+        /** Creates a new instance. */
+        public PBKDF2WithHmacSHA256() { super("PBKDF2WithHmacSHA256", "SHA256"); }
+    }
+
+    /** PBKDF2WithHmacSHA384 secret key factory implementation.
+     * */
+    public final static class PBKDF2WithHmacSHA384 extends OpenSSLPBKDF2Native {
+        /** Creates a new instance. */
+        public PBKDF2WithHmacSHA384() { super("PBKDF2WithHmacSHA384", "SHA384"); }
+    }
+
+    /** PBKDF2WithHmacSHA512 secret key factory implementation.
+     * */
+    public final static class PBKDF2WithHmacSHA512 extends OpenSSLPBKDF2Native {
+        /** Creates a new instance. */
+        public PBKDF2WithHmacSHA512() { super("PBKDF2WithHmacSHA512", "SHA512"); }
+    }
+}
@@ -0,0 +1,27 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the secure random spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class SecureRandom {
+
+    private SecureRandom() {
+        // no instances allowed
+    }
+
+    /** Random numbers from the public OpenSSL generator ({@code RAND_bytes}),
+     * for nonces, IVs and tokens.
+     * */
+    public final static class OpenSSL extends OpenSSLSecureRandomNative {
+        /** Creates a new instance. */
+        public OpenSSL() { super(false); }
+    }
+
+    /** Random numbers from the private OpenSSL generator ({@code RAND_priv_bytes}),
+     * for secret values like keys.
+     * */
+    public final static class OpenSSLPrivate extends OpenSSLSecureRandomNative {
+        /** Creates a new instance. */
+        public OpenSSLPrivate() { super(true); }
+    }
+}
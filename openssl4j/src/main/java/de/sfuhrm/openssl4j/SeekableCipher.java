@@ -0,0 +1,531 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encrypts and decrypts ranges of data at any position with AES-CTR or AES-XTS,
+ * without processing the data in front of the range.
+ * <ul>
+ *     <li>AES-CTR ({@linkplain #aesCtr(byte[], byte[])}) calculates the counter block
+ *     from the position, so a range can start at any byte.</li>
+ *     <li>AES-XTS ({@linkplain #aesXts(byte[], int)}) encrypts data units of a fixed size
+ *     with the number of the data unit as tweak, so a range starts and ends at a data unit.
+ *     Only the last data unit of the data may be shorter, with at least 16 bytes.
+ *     It is processed with ciphertext stealing, and a range containing it must be
+ *     passed with {@code endOfData} set.</li>
+ * </ul>
+ * The data is encrypted and decrypted in place, for example in a
+ * buffer that a range of a file was read into with
+ * {@linkplain #read(FileChannel, long, ByteBuffer)}, or in a mapped region of a file.
+ * Map the region with {@linkplain FileChannel.MapMode#PRIVATE} to decrypt it without
+ * changing the file.
+ * Instances are thread safe. Each call uses a copy of the keyed native context
+ * from a pool, so ranges can be processed by many threads at the same time.
+ * @author Stephan Fuhrmann
+ */
+public final class SeekableCipher {
+
+    /** Allocates a cipher context and initializes it with a key.
+     * @param cipherName the OpenSSL cipher name.
+     * @param key the raw key bytes.
+     * @param encrypt {@code true} for encryption, {@code false} for decryption.
+     * @return the handle of the keyed context.
+     * */
+    private static native long nativeNewKeyed(String cipherName, byte[] key, boolean encrypt);
+
+    /** Allocates a copy of a context.
+     * @param context the handle of the context to copy.
+     * @return the handle of the copy.
+     * */
+    private static native long nativeDup(long context);
+
+    /** Frees a context.
+     * @param context the handle of the context to free.
+     * */
+    private static native void nativeFree(long context);
+
+    /** Encrypts or decrypts a direct byte buffer region in place with CTR.
+     * @param counter the counter block of the block containing the first byte.
+     * @param skip the position of the first byte within its block.
+     * */
+    private static native void nativeCtrWithByteBuffer(long context, ByteBuffer data, int offset, int length, byte[] counter, int skip);
+
+    /** Encrypts or decrypts an array region in place with CTR.
+     * @param counter the counter block of the block containing the first byte.
+     * @param skip the position of the first byte within its block.
+     * */
+    private static native void nativeCtrWithByteArray(long context, byte[] data, int offset, int length, byte[] counter, int skip);
+
+    /** Encrypts or decrypts consecutive data units of a direct byte buffer region in place with XTS.
+     * @param dataUnitSize the size of the data units.
+     * @param firstDataUnit the number of the first data unit.
+     * */
+    private static native void nativeXtsWithByteBuffer(long context, ByteBuffer data, int offset, int length, int dataUnitSize, long firstDataUnit);
+
+    /** Encrypts or decrypts consecutive data units of an array region in place with XTS.
+     * @param dataUnitSize the size of the data units.
+     * @param firstDataUnit the number of the first data unit.
+     * */
+    private static native void nativeXtsWithByteArray(long context, byte[] data, int offset, int length, int dataUnitSize, long firstDataUnit);
+
+    /** The maximum number of bytes per native call and per parallel task. */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** The AES block size in bytes. */
+    private static final int BLOCK_SIZE = 16;
+
+    /** The initial counter block for CTR, or {@code null} for XTS. */
+    private final byte[] counter;
+
+    /** The size of the XTS data units, or 1 for CTR. */
+    private final int dataUnitSize;
+
+    /** The number of bytes processed per native call, a multiple of the data unit size. */
+    private final int chunkSize;
+
+    private final KeySchedule encryption;
+
+    private final KeySchedule decryption;
+
+    /** A native keyed context and the pool of its copies.
+     * The native context is freed by the {@linkplain PhantomReferenceCleanup}
+     * once the key schedule is unreachable.
+     * */
+    private static final class KeySchedule {
+        private final long template;
+        private final ContextPool<Context> pool;
+
+        private KeySchedule(String cipherName, byte[] key, boolean encrypt) {
+            template = nativeNewKeyed(cipherName, key, encrypt);
+            PhantomReferenceCleanup.enqueueForCleanup(this, SeekableCipher::free, template);
+            pool = new ContextPool<>(this::newContext);
+        }
+
+        private Context newContext() {
+            long nativeContext = nativeDup(template);
+            Context result = new Context(nativeContext);
+            result.cleanup = PhantomReferenceCleanup.enqueueForCleanup(result, SeekableCipher::free, nativeContext);
+            return result;
+        }
+    }
+
+    /** A native context copied from a key schedule. */
+    private static final class Context {
+        private final long nativeContext;
+
+        /** Frees the native context. Set right after the allocation. */
+        private PhantomReferenceCleanup.NativePhantomReference cleanup;
+
+        Context(long nativeContext) {
+            this.nativeContext = nativeContext;
+        }
+    }
+
+    private SeekableCipher(String cipherName, byte[] key, byte[] counter, int dataUnitSize) {
+        try {
+            NativeLoader.loadAll();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.counter = counter;
+        this.dataUnitSize = dataUnitSize;
+        this.chunkSize = CHUNK_SIZE / dataUnitSize * dataUnitSize;
+        encryption = new KeySchedule(cipherName, key, true);
+        // CTR uses the encryption of the counter blocks in both directions
+        decryption = counter != null ? encryption : new KeySchedule(cipherName, key, false);
+    }
+
+    /** Creates an AES-CTR cipher.
+     * The 128 bit counter block starts with the IV at position 0 and
+     * is incremented for every 16 bytes of data.
+     * Encryption and decryption are the same operation.
+     * @param key the AES key with 16, 24 or 32 bytes.
+     * @param iv the initial counter block with 16 bytes.
+     * @return the cipher.
+     * @throws IllegalArgumentException if the key or IV length is not valid.
+     * */
+    public static SeekableCipher aesCtr(byte[] key, byte[] iv) {
+        Objects.requireNonNull(key, "key is null");
+        Objects.requireNonNull(iv, "iv is null");
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("Illegal key length " + key.length);
+        }
+        if (iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("IV must have " + BLOCK_SIZE + " bytes");
+        }
+        return new SeekableCipher("aes-" + (key.length * 8) + "-ctr", key, iv.clone(), 1);
+    }
+
+    /** Creates an AES-XTS cipher.
+     * The data is divided in data units of a fixed size that are
+     * numbered from 0. The number of a data unit is its tweak, as in IEEE 1619.
+     * @param key the two AES keys, 32 bytes for AES-128-XTS or 64 bytes for AES-256-XTS.
+     *            The two halves must differ.
+     * @param dataUnitSize the size of the data units in bytes, for example 512 or 4096.
+     *                     Between 16 bytes and 1 MiB.
+     * @return the cipher.
+     * @throws IllegalArgumentException if the key length or data unit size is not valid.
+     * */
+    public static SeekableCipher aesXts(byte[] key, int dataUnitSize) {
+        Objects.requireNonNull(key, "key is null");
+        if (key.length != 32 && key.length != 64) {
+            throw new IllegalArgumentException("Illegal key length " + key.length);
+        }
+        int half = key.length / 2;
+        if (MessageDigest.isEqual(Arrays.copyOf(key, half), Arrays.copyOfRange(key, half, key.length))) {
+            throw new IllegalArgumentException("The key halves must differ");
+        }
+        if (dataUnitSize < BLOCK_SIZE || dataUnitSize > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Illegal data unit size " + dataUnitSize);
+        }
+        return new SeekableCipher("aes-" + (key.length * 4) + "-xts", key, null, dataUnitSize);
+    }
+
+    /** Gets the alignment of the ranges.
+     * @return the data unit size for XTS, 1 for CTR.
+     * */
+    public int getDataUnitSize() {
+        return dataUnitSize;
+    }
+
+    /** Encrypts the remaining bytes of a buffer in place.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to encrypt. The position is advanced to the limit.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, ByteBuffer data) {
+        encrypt(position, data, false);
+    }
+
+    /** Encrypts the remaining bytes of a buffer in place.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to encrypt. The position is advanced to the limit.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, ByteBuffer data, boolean endOfData) {
+        crypt(encryption, position, data, endOfData, null);
+    }
+
+    /** Decrypts the remaining bytes of a buffer in place.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to decrypt. The position is advanced to the limit.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, ByteBuffer data) {
+        decrypt(position, data, false);
+    }
+
+    /** Decrypts the remaining bytes of a buffer in place.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to decrypt. The position is advanced to the limit.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, ByteBuffer data, boolean endOfData) {
+        crypt(decryption, position, data, endOfData, null);
+    }
+
+    /** Encrypts the remaining bytes of a buffer in place, splitting big ranges in tasks.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to encrypt. The position is advanced to the limit.
+     * @param pool the pool to run the tasks in.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, ByteBuffer data, ForkJoinPool pool) {
+        encrypt(position, data, false, pool);
+    }
+
+    /** Decrypts the remaining bytes of a buffer in place, splitting big ranges in tasks.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to decrypt. The position is advanced to the limit.
+     * @param pool the pool to run the tasks in.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, ByteBuffer data, ForkJoinPool pool) {
+        decrypt(position, data, false, pool);
+    }
+
+    /** Encrypts the remaining bytes of a buffer in place, splitting big ranges in tasks.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to encrypt. The position is advanced to the limit.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @param pool the pool to run the tasks in.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, ByteBuffer data, boolean endOfData, ForkJoinPool pool) {
+        crypt(encryption, position, data, endOfData, Objects.requireNonNull(pool, "pool is null"));
+    }
+
+    /** Decrypts the remaining bytes of a buffer in place, splitting big ranges in tasks.
+     * @param position the position of the first remaining byte in the data.
+     * @param data the data to decrypt. The position is advanced to the limit.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @param pool the pool to run the tasks in.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, ByteBuffer data, boolean endOfData, ForkJoinPool pool) {
+        crypt(decryption, position, data, endOfData, Objects.requireNonNull(pool, "pool is null"));
+    }
+
+    /** Encrypts an array region in place.
+     * @param position the position of the first byte of the region in the data.
+     * @param data the array containing the data.
+     * @param offset the offset of the region in the array.
+     * @param length the length of the region.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, byte[] data, int offset, int length) {
+        encrypt(position, data, offset, length, false);
+    }
+
+    /** Encrypts an array region in place.
+     * @param position the position of the first byte of the region in the data.
+     * @param data the array containing the data.
+     * @param offset the offset of the region in the array.
+     * @param length the length of the region.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void encrypt(long position, byte[] data, int offset, int length, boolean endOfData) {
+        checkArrayRegion(data, offset, length);
+        checkRange(position, length, endOfData);
+        crypt(encryption, position, null, data, offset, length);
+    }
+
+    /** Decrypts an array region in place.
+     * @param position the position of the first byte of the region in the data.
+     * @param data the array containing the data.
+     * @param offset the offset of the region in the array.
+     * @param length the length of the region.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, byte[] data, int offset, int length) {
+        decrypt(position, data, offset, length, false);
+    }
+
+    /** Decrypts an array region in place.
+     * @param position the position of the first byte of the region in the data.
+     * @param data the array containing the data.
+     * @param offset the offset of the region in the array.
+     * @param length the length of the region.
+     * @param endOfData whether the range ends at the end of the data,
+     *                  so its last XTS data unit may be shorter.
+     * @throws IllegalArgumentException if the range is not aligned to data units.
+     * */
+    public void decrypt(long position, byte[] data, int offset, int length, boolean endOfData) {
+        checkArrayRegion(data, offset, length);
+        checkRange(position, length, endOfData);
+        crypt(decryption, position, null, data, offset, length);
+    }
+
+    /** Reads a range of encrypted data from a channel and decrypts it.
+     * Reads until the buffer is full or the end of the channel is reached.
+     * For XTS, only whole data units are read, unless the range reaches the
+     * last data unit at the end of the channel.
+     * The channel position is not changed.
+     * @param channel the channel containing the encrypted data at channel position 0.
+     * @param position the position in the channel to read from.
+     * @param dst the buffer to read the data into. The position is advanced
+     *            by the number of bytes read.
+     * @return the number of bytes read and decrypted, or -1 if the position is
+     * at or behind the end of the channel.
+     * @throws IOException if reading failed.
+     * @throws IllegalArgumentException if the position is not at a data unit,
+     * or the buffer is smaller than a data unit.
+     * */
+    public int read(FileChannel channel, long position, ByteBuffer dst) throws IOException {
+        Objects.requireNonNull(channel, "channel is null");
+        checkRange(position, 0, false);
+        long size = channel.size();
+        if (position >= size) {
+            return -1;
+        }
+        int wanted = dst.remaining();
+        boolean endOfData = size - position <= wanted;
+        if (endOfData) {
+            wanted = (int) (size - position);
+        } else {
+            wanted -= wanted % dataUnitSize;
+            if (wanted == 0) {
+                throw new IllegalArgumentException("Buffer is smaller than a data unit of " + dataUnitSize + " bytes");
+            }
+        }
+        ByteBuffer range = dst.duplicate();
+        range.limit(range.position() + wanted);
+        int total = 0;
+        int count = 0;
+        while (range.hasRemaining() && (count = channel.read(range, position + total)) >= 0) {
+            total += count;
+        }
+        if (total == 0 && count < 0) {
+            return -1;
+        }
+        // the channel might have been truncated while reading
+        endOfData |= total < wanted;
+        range.flip();
+        range.position(dst.position());
+        decrypt(position, range, endOfData);
+        dst.position(dst.position() + total);
+        return total;
+    }
+
+    private static void checkArrayRegion(byte[] data, int offset, int length) {
+        Objects.requireNonNull(data, "data is null");
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new ArrayIndexOutOfBoundsException("offset or length out of array bounds");
+        }
+    }
+
+    /** Checks that a range starts at a data unit and ends at a data unit,
+     * or at the end of the data with at least a block in its last data unit. */
+    private void checkRange(long position, int length, boolean endOfData) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position " + position);
+        }
+        if (position % dataUnitSize != 0) {
+            throw new IllegalArgumentException("Position " + position + " is not at a data unit of " + dataUnitSize + " bytes");
+        }
+        int last = length % dataUnitSize;
+        if (last != 0 && !endOfData) {
+            throw new IllegalArgumentException("Range ends inside a data unit of " + dataUnitSize
+                    + " bytes, only the last data unit of the data may be shorter");
+        }
+        if (last != 0 && last < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Last data unit of the range has less than " + BLOCK_SIZE + " bytes");
+        }
+    }
+
+    private void crypt(KeySchedule keySchedule, long position, ByteBuffer data, boolean endOfData, ForkJoinPool pool) {
+        if (data.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int offset = data.position();
+        int length = data.remaining();
+        ByteBuffer buffer = data.isDirect() ? data : null;
+        byte[] array = buffer == null ? data.array() : null;
+        if (array != null) {
+            offset += data.arrayOffset();
+        }
+        checkRange(position, length, endOfData);
+        if (pool == null || length <= chunkSize) {
+            crypt(keySchedule, position, buffer, array, offset, length);
+        } else {
+            pool.invoke(new RangeTask(keySchedule, position, buffer, array, offset, length));
+        }
+        data.position(data.limit());
+    }
+
+    /** Encrypts or decrypts a checked range with a pooled context.
+     * Either {@code buffer} or {@code array} is {@code null}.
+     * The chunks are multiples of the data unit size, so only the last
+     * chunk can end with a shorter data unit.
+     * */
+    private void crypt(KeySchedule keySchedule, long position, ByteBuffer buffer, byte[] array, int offset, int length) {
+        Context context = keySchedule.pool.acquire();
+        try {
+            for (int done = 0; done < length; ) {
+                int chunk = Math.min(chunkSize, length - done);
+                cryptChunk(context.nativeContext, position + done, buffer, array, offset + done, chunk);
+                done += chunk;
+            }
+        } finally {
+            if (!keySchedule.pool.release(context)) {
+                context.cleanup.free();
+            }
+        }
+    }
+
+    private void cryptChunk(long context, long position, ByteBuffer buffer, byte[] array, int offset, int length) {
+        if (counter != null) {
+            byte[] counterBlock = counterBlock(position / BLOCK_SIZE);
+            int skip = (int) (position % BLOCK_SIZE);
+            if (buffer != null) {
+                nativeCtrWithByteBuffer(context, buffer, offset, length, counterBlock, skip);
+            } else {
+                nativeCtrWithByteArray(context, array, offset, length, counterBlock, skip);
+            }
+        } else {
+            long dataUnit = position / dataUnitSize;
+            if (buffer != null) {
+                nativeXtsWithByteBuffer(context, buffer, offset, length, dataUnitSize, dataUnit);
+            } else {
+                nativeXtsWithByteArray(context, array, offset, length, dataUnitSize, dataUnit);
+            }
+        }
+    }
+
+    /** Calculates the counter block of a block by adding the block index
+     * to the initial counter block, big endian modulo 2<sup>128</sup>.
+     * @param blockIndex the index of the block in the data.
+     * @return the counter block.
+     * */
+    byte[] counterBlock(long blockIndex) {
+        byte[] result = counter.clone();
+        long add = blockIndex;
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int sum = (result[i] & 0xff) + (int) (add & 0xff) + carry;
+            result[i] = (byte) sum;
+            carry = sum >>> 8;
+            add >>>= 8;
+        }
+        return result;
+    }
+
+    /** Frees a native cipher context.
+     * @param context the context handle.
+     * */
+    static void free(long context) {
+        if (context == 0) {
+            throw new NullPointerException("context is 0");
+        }
+        nativeFree(context);
+    }
+
+    /** Processes a range, splitting it in halves at chunks if it is too big. */
+    private final class RangeTask extends RecursiveAction {
+        private final KeySchedule keySchedule;
+        private final long position;
+        private final ByteBuffer buffer;
+        private final byte[] array;
+        private final int offset;
+        private final int length;
+
+        RangeTask(KeySchedule keySchedule, long position, ByteBuffer buffer, byte[] array, int offset, int length) {
+            this.keySchedule = keySchedule;
+            this.position = position;
+            this.buffer = buffer;
+            this.array = array;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            if (length <= chunkSize) {
+                crypt(keySchedule, position, buffer, array, offset, length);
+            } else {
+                int chunks = (length + chunkSize - 1) / chunkSize;
+                int split = chunks / 2 * chunkSize;
+                invokeAll(
+                        new RangeTask(keySchedule, position, buffer, array, offset, split),
+                        new RangeTask(keySchedule, position + split, buffer, array, offset + split, length - split));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.sfuhrm.openssl4j;
+
+/** Class definitions for the signature spis.
+ * @author Stephan Fuhrmann
+ *  */
+public final class Signature {
+
+    private Signature() {
+        // no instances allowed
+    }
+
+    /** Ed25519 signature implementation.
+     * */
+    public final static class Ed25519 extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public Ed25519() { super(null, OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_ED25519); }
+    }
+
+    /** Ed448 signature implementation.
+     * */
+    public final static class Ed448 extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public Ed448() { super(null, OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_ED448); }
+    }
+
+    /** EdDSA signature implementation for Ed25519 and Ed448 keys.
+     * */
+    public final static class EdDSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public EdDSA() { super(null, OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_ED25519, NativeKey.TYPE_ED448); }
+    }
+
+    /** SHA256withECDSA signature implementation with DER encoded signatures.
+     * */
+    public final static class SHA256withECDSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA256withECDSA() { super("SHA256", OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_EC); }
+    }
+
+    /** SHA384withECDSA signature implementation with DER encoded signatures.
+     * */
+    public final static class SHA384withECDSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA384withECDSA() { super("SHA384", OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_EC); }
+    }
+
+    /** SHA512withECDSA signature implementation with DER encoded signatures.
+     * */
+    public final static class SHA512withECDSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA512withECDSA() { super("SHA512", OpenSSLSignatureNative.PADDING_NONE, NativeKey.TYPE_EC); }
+    }
+
+    /** SHA256withRSA (PKCS#1 v1.5) signature implementation.
+     * */
+    public final static class SHA256withRSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA256withRSA() { super("SHA256", OpenSSLSignatureNative.PADDING_PKCS1, NativeKey.TYPE_RSA); }
+    }
+
+    /** SHA384withRSA (PKCS#1 v1.5) signature implementation.
+     * */
+    public final static class SHA384withRSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA384withRSA() { super("SHA384", OpenSSLSignatureNative.PADDING_PKCS1, NativeKey.TYPE_RSA); }
+    }
+
+    /** SHA512withRSA (PKCS#1 v1.5) signature implementation.
+     * */
+    public final static class SHA512withRSA extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public SHA512withRSA() { super("SHA512", OpenSSLSignatureNative.PADDING_PKCS1, NativeKey.TYPE_RSA); }
+    }
+
+    /** RSASSA-PSS signature implementation. Needs a {@linkplain java.security.spec.PSSParameterSpec}.
+     * */
+    public final static class RSASSA_PSS extends OpenSSLSignatureNative {
+        /** Creates a new instance. */
+        public RSASSA_PSS() { super(null, OpenSSLSignatureNative.PADDING_PSS, NativeKey.TYPE_RSA, NativeKey.TYPE_RSA_PSS); }
+    }
+}
@@ -0,0 +1,73 @@
+package de.sfuhrm.openssl4j;
+
+/**
+ * The SipHash-2-4 keyed hash function by Aumasson and Bernstein.
+ * It is a fast pseudorandom function for short inputs, used to
+ * identify secret keys in caches without keeping the key bytes.
+ * @author Stephan Fuhrmann
+ */
+final class SipHash {
+
+    private SipHash() {
+    }
+
+    /** Calculates the SipHash-2-4 of a byte array.
+     * @param k0 the first 64 bits of the key, little endian.
+     * @param k1 the second 64 bits of the key, little endian.
+     * @param data the data to hash.
+     * @return the 64 bit hash.
+     * */
+    static long hash(long k0, long k1, byte[] data) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+
+        int length = data.length;
+        int blocksEnd = length & ~7;
+        for (int i = 0; i < blocksEnd; i += 8) {
+            long m = littleEndian(data, i, 8);
+            v3 ^= m;
+            for (int round = 0; round < 2; round++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+
+        long m = ((long) length << 56) | littleEndian(data, blocksEnd, length - blocksEnd);
+        v3 ^= m;
+        for (int round = 0; round < 2; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= m;
+
+        v2 ^= 0xff;
+        for (int round = 0; round < 4; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /** Reads up to 8 bytes as a little endian number.
+     * @param data the array to read from.
+     * @param offset the offset of the first byte.
+     * @param count the number of bytes to read.
+     * @return the number.
+     * */
+    private static long littleEndian(byte[] data, int offset, int count) {
+        long result = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            result = (result << 8) | (data[offset + i] & 0xffL);
+        }
+        return result;
+    }
+}
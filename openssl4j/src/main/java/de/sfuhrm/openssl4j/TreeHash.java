@@ -0,0 +1,387 @@
+package de.sfuhrm.openssl4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel tree hash of large inputs.
+ * The input is split into leaves of {@linkplain #getLeafSize() leaf size} bytes,
+ * only the last leaf may be shorter. The leaves are hashed in parallel
+ * on a {@linkplain ForkJoinPool} and combined to a Merkle tree root:
+ * <ul>
+ *     <li>The digest of a leaf is {@code H(0x00 || leaf)}.
+ *     An empty input has a single empty leaf.</li>
+ *     <li>The digests of a level are grouped in order into groups of
+ *     {@linkplain #getFanOut() fan-out} digests, only the last group may be smaller.
+ *     The digest of a group is {@code H(0x01 || digest_1 || ... || digest_n)}
+ *     and becomes a digest of the next level.</li>
+ *     <li>The root is the only digest of the first level with one digest.
+ *     The root of an input with a single leaf is the leaf digest.</li>
+ * </ul>
+ * The different prefixes of leaves and inner nodes prevent that
+ * an inner node can be passed off as a leaf.
+ * Because a single leaf hashes to its own leaf digest,
+ * a changed leaf {@code i} can be rehashed with
+ * {@linkplain #hash(FileChannel, long, long, FileDigestMode, ForkJoinPool)} for the
+ * region {@code i * leafSize} and be combined with
+ * {@linkplain #root(List)}.
+ * @author Stephan Fuhrmann
+ */
+public final class TreeHash {
+
+    /** The default leaf size in bytes. */
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+    /** The default number of children of an inner node. */
+    public static final int DEFAULT_FAN_OUT = 2;
+
+    /** The prefix of the leaf digests. */
+    static final byte LEAF_PREFIX = 0x00;
+
+    /** The prefix of the inner node digests. */
+    static final byte NODE_PREFIX = 0x01;
+
+    /** The minimum number of bytes a fork-join task hashes without splitting. */
+    static final int TASK_SIZE = 1024 * 1024;
+
+    private final String openSslName;
+    private final long md;
+    private final int digestLength;
+    private final int leafSize;
+    private final int fanOut;
+
+    /** Creates a tree hash with the default leaf size and fan-out.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @throws IllegalArgumentException if the algorithm is not known.
+     * */
+    public TreeHash(String algorithm) {
+        this(algorithm, DEFAULT_LEAF_SIZE, DEFAULT_FAN_OUT);
+    }
+
+    /** Creates a tree hash.
+     * @param algorithm the message digest algorithm name, for example {@code SHA-256}.
+     * @param leafSize the number of input bytes of a leaf.
+     * @param fanOut the maximum number of children of an inner node, at least 2.
+     * @throws IllegalArgumentException if the algorithm is not known, the leaf size
+     * is not positive or the fan-out is smaller than 2.
+     * */
+    public TreeHash(String algorithm, int leafSize, int fanOut) {
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("leafSize must be positive: " + leafSize);
+        }
+        if (fanOut < 2) {
+            throw new IllegalArgumentException("fanOut must be at least 2: " + fanOut);
+        }
+        this.openSslName = OpenSSL4J.toOpenSslName(algorithm);
+        this.md = OpenSSL4J.toMdHandle(algorithm);
+        this.digestLength = OpenSSLMessageDigestNative.digestLength(md);
+        this.leafSize = leafSize;
+        this.fanOut = fanOut;
+    }
+
+    /** Gets the number of input bytes of a leaf.
+     * @return the leaf size in bytes.
+     * */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /** Gets the maximum number of children of an inner node.
+     * @return the fan-out.
+     * */
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    /** Gets the length of the leaf and root digests.
+     * @return the digest length in bytes.
+     * */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /** The result of a tree hash calculation. */
+    public static final class Result {
+        private final byte[] root;
+        private final byte[] leaves;
+        private final int digestLength;
+
+        private Result(byte[] root, byte[] leaves, int digestLength) {
+            this.root = root;
+            this.leaves = leaves;
+            this.digestLength = digestLength;
+        }
+
+        /** Gets the Merkle tree root.
+         * @return a new array containing the root digest.
+         * */
+        public byte[] getRoot() {
+            return root.clone();
+        }
+
+        /** Gets the number of leaves.
+         * @return the number of leaves, at least 1.
+         * */
+        public int getLeafCount() {
+            return leaves.length / digestLength;
+        }
+
+        /** Gets the digest of a leaf.
+         * @param index the index of the leaf, starting at 0.
+         * @return a new array containing the leaf digest.
+         * @throws IndexOutOfBoundsException if there is no leaf with the index.
+         * */
+        public byte[] getLeaf(int index) {
+            if (index < 0 || index >= getLeafCount()) {
+                throw new IndexOutOfBoundsException("Leaf " + index + " of " + getLeafCount());
+            }
+            byte[] result = new byte[digestLength];
+            System.arraycopy(leaves, index * digestLength, result, 0, digestLength);
+            return result;
+        }
+
+        /** Gets the digests of all leaves in input order.
+         * @return a new modifiable list of new arrays.
+         * */
+        public List<byte[]> getLeaves() {
+            int count = getLeafCount();
+            List<byte[]> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(getLeaf(i));
+            }
+            return result;
+        }
+    }
+
+    /** Calculates the tree hash of the remaining bytes of a buffer
+     * in the {@linkplain ForkJoinPool#commonPool() common pool}.
+     * @param data the data to calculate the tree hash of, for example a
+     *             {@linkplain java.nio.MappedByteBuffer}. The position is not changed.
+     * @return the root and leaf digests.
+     * */
+    public Result hash(ByteBuffer data) {
+        return hash(data, ForkJoinPool.commonPool());
+    }
+
+    /** Calculates the tree hash of the remaining bytes of a buffer.
+     * Direct buffers are passed to OpenSSL without copying.
+     * @param data the data to calculate the tree hash of, for example a
+     *             {@linkplain java.nio.MappedByteBuffer}. The position is not changed.
+     * @param pool the pool to hash the leaves in.
+     * @return the root and leaf digests.
+     * */
+    public Result hash(ByteBuffer data, ForkJoinPool pool) {
+        Objects.requireNonNull(data, "data is null");
+        Objects.requireNonNull(pool, "pool is null");
+        ByteBuffer input = data.slice();
+        byte[] leaves = new byte[leafCount(input.remaining()) * digestLength];
+        pool.invoke(new LeafTask(new BufferLeafSource(input), 0, leaves.length / digestLength, leaves));
+        return new Result(combine(leaves), leaves, digestLength);
+    }
+
+    /** Calculates the tree hash of a file in the
+     * {@linkplain ForkJoinPool#commonPool() common pool}.
+     * The leaves are read with {@linkplain FileDigestMode#PREAD}.
+     * @param file the file to calculate the tree hash of.
+     * @return the root and leaf digests.
+     * @throws IOException if reading the file failed.
+     * */
+    public Result hash(Path file) throws IOException {
+        Objects.requireNonNull(file, "file is null");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return hash(channel, 0, channel.size(), FileDigestMode.PREAD, ForkJoinPool.commonPool());
+        }
+    }
+
+    /** Calculates the tree hash of a file region.
+     * The leaves are read into a direct buffer and passed to OpenSSL, without
+     * copying them to the Java heap. The position of the channel is not changed.
+     * @param channel the channel to read the file region from.
+     * @param offset the start offset of the region in the file.
+     * @param length the length of the region in bytes.
+     * @param mode the way the leaves are read. The leaves are always read,
+     *             {@linkplain FileDigestMode#MMAP} is handled like
+     *             {@linkplain FileDigestMode#PREAD}.
+     * @param pool the pool to hash the leaves in.
+     * @return the root and leaf digests.
+     * @throws IllegalArgumentException if the region has too many leaves.
+     * @throws java.io.EOFException if the region exceeds the end of the file.
+     * @throws IOException if reading the file failed.
+     * */
+    public Result hash(FileChannel channel, long offset, long length, FileDigestMode mode, ForkJoinPool pool) throws IOException {
+        Objects.requireNonNull(channel, "channel is null");
+        Objects.requireNonNull(mode, "mode is null");
+        Objects.requireNonNull(pool, "pool is null");
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset or length negative");
+        }
+        byte[] leaves = new byte[leafCount(length) * digestLength];
+        try {
+            pool.invoke(new LeafTask(new FileLeafSource(channel, offset, length), 0, leaves.length / digestLength, leaves));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Result(combine(leaves), leaves, digestLength);
+    }
+
+    /** Calculates the Merkle tree root of leaf digests, for example
+     * after replacing the digests of changed leaves.
+     * @param leafDigests the leaf digests in input order.
+     * @return a new array containing the root digest.
+     * @throws IllegalArgumentException if the list is empty or a digest has the wrong length.
+     * */
+    public byte[] root(List<byte[]> leafDigests) {
+        Objects.requireNonNull(leafDigests, "leafDigests is null");
+        if (leafDigests.isEmpty()) {
+            throw new IllegalArgumentException("No leaf digests");
+        }
+        byte[] leaves = new byte[leafDigests.size() * digestLength];
+        int i = 0;
+        for (byte[] leaf : leafDigests) {
+            if (leaf.length != digestLength) {
+                throw new IllegalArgumentException("Leaf digest " + i + " has length " + leaf.length);
+            }
+            System.arraycopy(leaf, 0, leaves, i * digestLength, digestLength);
+            i++;
+        }
+        return combine(leaves);
+    }
+
+    /** Gets the number of leaves of an input. */
+    private int leafCount(long length) {
+        long count = Math.max(1, (length + leafSize - 1) / leafSize);
+        if (count * digestLength > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many leaves for length " + length);
+        }
+        return (int) count;
+    }
+
+    /** Combines the digests of a level until the root is left.
+     * Each level is hashed with a single native call.
+     * @param level the concatenated digests of the leaves.
+     * @return the root digest.
+     * */
+    private byte[] combine(byte[] level) {
+        int count = level.length / digestLength;
+        while (count > 1) {
+            int groups = (count + fanOut - 1) / fanOut;
+            byte[] nodeInput = new byte[groups + level.length];
+            int[] offsets = new int[groups];
+            int[] lengths = new int[groups];
+            int position = 0;
+            for (int group = 0; group < groups; group++) {
+                int children = Math.min(fanOut, count - group * fanOut);
+                offsets[group] = position;
+                lengths[group] = 1 + children * digestLength;
+                nodeInput[position] = NODE_PREFIX;
+                System.arraycopy(level, group * fanOut * digestLength, nodeInput, position + 1, children * digestLength);
+                position += lengths[group];
+            }
+            byte[] next = new byte[groups * digestLength];
+            OpenSSLMessageDigestNative.digestBatch(md, nodeInput, offsets, lengths, 0, groups, next);
+            level = next;
+            count = groups;
+        }
+        return level;
+    }
+
+    /** Hashes leaves of an input. */
+    private interface LeafSource {
+        /** Hashes a range of leaves.
+         * @param from the index of the first leaf to hash.
+         * @param to the index behind the last leaf to hash.
+         * @param leaves the array to write the leaf digests to, at the leaf index.
+         * */
+        void hashLeaves(int from, int to, byte[] leaves) throws IOException;
+    }
+
+    /** Hashes the leaves of a buffer with a message digest per task. */
+    private final class BufferLeafSource implements LeafSource {
+        private final ByteBuffer data;
+
+        BufferLeafSource(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public void hashLeaves(int from, int to, byte[] leaves) {
+            try (OpenSSLMessageDigestNative messageDigest = new OpenSSLMessageDigestNative(openSslName, openSslName)) {
+                ByteBuffer leaf = data.duplicate();
+                for (int i = from; i < to; i++) {
+                    int start = i * leafSize;
+                    leaf.limit((int) Math.min(data.limit(), (long) start + leafSize));
+                    leaf.position(start);
+                    messageDigest.update(LEAF_PREFIX);
+                    messageDigest.update(leaf);
+                    messageDigest.digest(leaves, i * digestLength, digestLength);
+                }
+            } catch (DigestException e) {
+                throw new IllegalStateException("Could not calculate digest", e);
+            }
+        }
+    }
+
+    /** Hashes the leaves of a file region in native code. */
+    private final class FileLeafSource implements LeafSource {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+
+        FileLeafSource(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void hashLeaves(int from, int to, byte[] leaves) throws IOException {
+            for (int i = from; i < to; i++) {
+                long start = (long) i * leafSize;
+                long leafLength = Math.min(leafSize, length - start);
+                FileDigest.digest(openSslName, channel, offset + start, leafLength,
+                        LEAF_PREFIX, leaves, i * digestLength);
+            }
+        }
+    }
+
+    /** Hashes a range of leaves, splitting it in halves if it is too big. */
+    private final class LeafTask extends RecursiveAction {
+        private final LeafSource source;
+        private final int from;
+        private final int to;
+        private final byte[] leaves;
+
+        LeafTask(LeafSource source, int from, int to, byte[] leaves) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.leaves = leaves;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= Math.max(1, TASK_SIZE / leafSize)) {
+                try {
+                    source.hashLeaves(from, to, leaves);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new LeafTask(source, from, middle, leaves),
+                        new LeafTask(source, middle, to, leaves));
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test cases that compare the AEAD ciphers of the
+ * SunJCE provider (aka 'reference') with the implementations
+ * in this context (aka 'test').
+ * @author Stephan Fuhrmann
+ */
+public class AeadCipherWithReferenceCipherTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    /** A cipher configuration: the transformation, the key length and the parameters. */
+    private static final class Setup {
+        final String transformation;
+        final int keyLength;
+        final int ivLength;
+        final int tagBits;
+
+        Setup(String transformation, int keyLength, int ivLength, int tagBits) {
+            this.transformation = transformation;
+            this.keyLength = keyLength;
+            this.ivLength = ivLength;
+            this.tagBits = tagBits;
+        }
+
+        SecretKeySpec key(int seed) {
+            byte[] key = new byte[keyLength];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = (byte) (i * 7 + seed);
+            }
+            return new SecretKeySpec(key, transformation.startsWith("AES") ? "AES" : "ChaCha20");
+        }
+
+        AlgorithmParameterSpec params(int seed) {
+            byte[] iv = new byte[ivLength];
+            for (int i = 0; i < iv.length; i++) {
+                iv[i] = (byte) (i * 3 + seed);
+            }
+            return transformation.startsWith("AES") ? new GCMParameterSpec(tagBits, iv) : new IvParameterSpec(iv);
+        }
+
+        @Override
+        public String toString() {
+            return transformation + " key=" + keyLength + " iv=" + ivLength + " tag=" + tagBits;
+        }
+    }
+
+    private static Stream<Arguments> provideTestArguments() throws GeneralSecurityException {
+        List<Setup> setups = new ArrayList<>();
+        for (int keyLength : new int[] {16, 24, 32}) {
+            setups.add(new Setup("AES/GCM/NoPadding", keyLength, 12, 128));
+        }
+        setups.add(new Setup("AES/GCM/NoPadding", 16, 16, 128));
+        setups.add(new Setup("AES/GCM/NoPadding", 16, 8, 96));
+        setups.add(new Setup("AES/GCM/NoPadding", 32, 12, 112));
+        try {
+            Cipher.getInstance("ChaCha20-Poly1305", Security.getProvider("SunJCE"));
+            setups.add(new Setup("ChaCha20-Poly1305", 32, 12, 128));
+        } catch (NoSuchAlgorithmException e) {
+            // not in the reference before Java 11
+        }
+        List<Arguments> result = new ArrayList<>();
+        for (Setup setup : setups) {
+            result.add(Arguments.of(setup,
+                    Cipher.getInstance(setup.transformation, OPENSSL),
+                    Cipher.getInstance(setup.transformation, Security.getProvider("SunJCE"))));
+        }
+        return result.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void encryptLikeReference(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] aad = MessageDigestWithReferenceMDTest.filledArray(33);
+        int[] sizes = {0, 1, 15, 16, 17, 1000, 5000, 3 * 1024 * 1024};
+        for (int i = 0; i < sizes.length; i++) {
+            int size = sizes[i];
+            byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(size);
+            for (Cipher cipher : new Cipher[] {testCipher, referenceCipher}) {
+                cipher.init(Cipher.ENCRYPT_MODE, setup.key(1), setup.params(i));
+                cipher.updateAAD(aad);
+            }
+            byte[] expected = referenceCipher.doFinal(plainText);
+            assertArrayEquals(expected, testCipher.doFinal(plainText), "size " + size);
+            assertEquals(testCipher.getOutputSize(size), expected.length);
+
+            testCipher.init(Cipher.DECRYPT_MODE, setup.key(1), setup.params(i));
+            testCipher.updateAAD(aad);
+            assertArrayEquals(plainText, testCipher.doFinal(expected), "size " + size);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void encryptWithUpdates(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(10000);
+        referenceCipher.init(Cipher.ENCRYPT_MODE, setup.key(2), setup.params(2));
+        byte[] expected = referenceCipher.doFinal(plainText);
+
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(2), setup.params(2));
+        byte[] cipherText = new byte[expected.length];
+        int written = testCipher.update(plainText, 0, 100, cipherText, 0);
+        written += testCipher.update(plainText, 100, 3000, cipherText, written);
+        written += testCipher.doFinal(plainText, 3100, plainText.length - 3100, cipherText, written);
+        assertEquals(expected.length, written);
+        assertArrayEquals(expected, cipherText);
+
+        testCipher.init(Cipher.DECRYPT_MODE, setup.key(2), setup.params(2));
+        byte[] decrypted = new byte[plainText.length];
+        written = testCipher.update(expected, 0, 5000, decrypted, 0);
+        written += testCipher.doFinal(expected, 5000, expected.length - 5000, decrypted, written);
+        assertEquals(plainText.length, written);
+        assertArrayEquals(plainText, decrypted);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void inPlaceArray(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(8000);
+        referenceCipher.init(Cipher.ENCRYPT_MODE, setup.key(3), setup.params(3));
+        byte[] expected = referenceCipher.doFinal(plainText);
+
+        byte[] data = new byte[expected.length + 10];
+        System.arraycopy(plainText, 0, data, 5, plainText.length);
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(3), setup.params(3));
+        testCipher.doFinal(data, 5, plainText.length, data, 5);
+        assertArrayEquals(expected, Arrays.copyOfRange(data, 5, 5 + expected.length));
+
+        // partially overlapping regions
+        testCipher.init(Cipher.DECRYPT_MODE, setup.key(3), setup.params(3));
+        assertEquals(plainText.length, testCipher.doFinal(data, 5, expected.length, data, 0));
+        assertArrayEquals(plainText, Arrays.copyOfRange(data, 0, plainText.length));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void inPlaceDirectByteBuffer(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(20000);
+        byte[] aad = MessageDigestWithReferenceMDTest.filledArray(20);
+        referenceCipher.init(Cipher.ENCRYPT_MODE, setup.key(4), setup.params(4));
+        referenceCipher.updateAAD(aad);
+        byte[] expected = referenceCipher.doFinal(plainText);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length);
+        buffer.put(plainText);
+        buffer.flip();
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(4), setup.params(4));
+        ByteBuffer directAad = ByteBuffer.allocateDirect(aad.length);
+        directAad.put(aad).flip();
+        testCipher.updateAAD(directAad);
+        ByteBuffer output = buffer.duplicate();
+        output.limit(output.capacity());
+        assertEquals(expected.length, testCipher.doFinal(buffer, output));
+        assertEquals(expected.length, output.position());
+        byte[] cipherText = new byte[expected.length];
+        output.flip();
+        output.duplicate().get(cipherText);
+        assertArrayEquals(expected, cipherText);
+
+        testCipher.init(Cipher.DECRYPT_MODE, setup.key(4), setup.params(4));
+        testCipher.updateAAD(aad);
+        ByteBuffer decrypted = output.duplicate();
+        assertEquals(plainText.length, testCipher.doFinal(output, decrypted));
+        byte[] result = new byte[plainText.length];
+        decrypted.flip();
+        decrypted.get(result);
+        assertArrayEquals(plainText, result);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void heapByteBuffer(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(3000);
+        referenceCipher.init(Cipher.ENCRYPT_MODE, setup.key(5), setup.params(5));
+        byte[] expected = referenceCipher.doFinal(plainText);
+
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(5), setup.params(5));
+        ByteBuffer output = ByteBuffer.allocate(expected.length);
+        testCipher.doFinal(ByteBuffer.wrap(plainText).asReadOnlyBuffer(), output);
+        assertArrayEquals(expected, output.array());
+
+        testCipher.init(Cipher.DECRYPT_MODE, setup.key(5), setup.params(5));
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+        direct.put(expected).flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(plainText.length);
+        testCipher.update(direct, decrypted);
+        testCipher.doFinal(direct, decrypted);
+        assertArrayEquals(plainText, decrypted.array());
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void tamperedCipherText(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(100);
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(6), setup.params(6));
+        byte[] cipherText = testCipher.doFinal(plainText);
+        cipherText[10] ^= 1;
+
+        testCipher.init(Cipher.DECRYPT_MODE, setup.key(6), setup.params(6));
+        byte[] output = new byte[plainText.length];
+        assertThrows(AEADBadTagException.class, () -> testCipher.doFinal(cipherText, 0, cipherText.length, output, 0));
+        assertArrayEquals(new byte[plainText.length], output);
+        assertThrows(AEADBadTagException.class, () -> testCipher.doFinal(new byte[3]));
+
+        // the cipher is usable again
+        cipherText[10] ^= 1;
+        assertArrayEquals(plainText, testCipher.doFinal(cipherText));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void newIvKeepsKey(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(64);
+        for (int i = 0; i < 20; i++) {
+            SecretKeySpec key = setup.key(i / 5);
+            testCipher.init(Cipher.ENCRYPT_MODE, key, setup.params(i));
+            referenceCipher.init(Cipher.ENCRYPT_MODE, key, setup.params(i));
+            assertArrayEquals(referenceCipher.doFinal(plainText), testCipher.doFinal(plainText), "message " + i);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void illegalStates(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(7), setup.params(7));
+        testCipher.update(new byte[10]);
+        assertThrows(IllegalStateException.class, () -> testCipher.updateAAD(new byte[10]));
+        testCipher.doFinal();
+        assertThrows(IllegalStateException.class, () -> testCipher.doFinal(new byte[10]));
+        assertThrows(InvalidAlgorithmParameterException.class, () ->
+                testCipher.init(Cipher.ENCRYPT_MODE, setup.key(7), setup.params(7)));
+        assertThrows(InvalidKeyException.class, () ->
+                testCipher.init(Cipher.DECRYPT_MODE, setup.key(7)));
+        assertThrows(InvalidParameterException.class, () ->
+                testCipher.init(Cipher.WRAP_MODE, setup.key(7), setup.params(8)));
+        assertThrows(InvalidParameterException.class, () ->
+                testCipher.init(Cipher.UNWRAP_MODE, setup.key(7), setup.params(8)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void generatedIv(Setup setup, Cipher testCipher, Cipher referenceCipher) throws GeneralSecurityException {
+        byte[] plainText = MessageDigestWithReferenceMDTest.filledArray(50);
+        testCipher.init(Cipher.ENCRYPT_MODE, setup.key(8));
+        byte[] cipherText = testCipher.doFinal(plainText);
+        assertEquals(12, testCipher.getIV().length);
+
+        referenceCipher.init(Cipher.DECRYPT_MODE, setup.key(8), testCipher.getParameters());
+        assertArrayEquals(plainText, referenceCipher.doFinal(cipherText));
+    }
+
+    @Test
+    public void illegalKeyLength() throws GeneralSecurityException {
+        Cipher testCipher = Cipher.getInstance("AES/GCM/NoPadding", OPENSSL);
+        assertThrows(InvalidKeyException.class, () ->
+                testCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[15], "AES")));
+        assertThrows(InvalidAlgorithmParameterException.class, () ->
+                testCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"), new GCMParameterSpec(64, new byte[12])));
+    }
+}
@@ -0,0 +1,116 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@linkplain BulkDigest}.
+ * @author Stephan Fuhrmann
+ */
+public class BulkDigestTest extends BaseTest {
+
+    @TempDir
+    Path tempDir;
+
+    /** Creates files of different sizes, including empty and large ones.
+     * @return the expected digests of the files in creation order.
+     * */
+    private Map<Path, byte[]> createFiles(int count) throws IOException, NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256", Security.getProvider("SUN"));
+        Map<Path, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int size = i % 50 == 7 ? BulkDigest.SMALL_FILE_SIZE + i : (i * 997) % 20000;
+            byte[] data = MessageDigestWithReferenceMDTest.filledArray(size);
+            if (size > 0) {
+                data[0] = (byte) i;
+            }
+            Path dir = tempDir.resolve("dir" + (i % 3));
+            Files.createDirectories(dir);
+            Path file = dir.resolve("file" + i);
+            Files.write(file, data);
+            expected.put(file, messageDigest.digest(data));
+        }
+        return expected;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void digestDirectory(boolean ordered) throws IOException, NoSuchAlgorithmException {
+        Map<Path, byte[]> expected = createFiles(300);
+        List<BulkDigest.Result> results = new ArrayList<>();
+        BulkDigest.Statistics statistics;
+        try (BulkDigest bulkDigest = new BulkDigest("SHA-256", 3)) {
+            statistics = bulkDigest.digest(tempDir, ordered, results::add);
+        }
+        assertEquals(expected.size(), results.size());
+        assertEquals(expected.size(), statistics.getFiles());
+        assertEquals(0, statistics.getFailures());
+        long bytes = 0;
+        for (BulkDigest.Result result : results) {
+            assertNull(result.getException());
+            assertArrayEquals(expected.get(result.getPath()), result.getDigest(), result.getPath().toString());
+            assertEquals(Files.size(result.getPath()), result.getSize());
+            bytes += result.getSize();
+        }
+        assertEquals(bytes, statistics.getBytes());
+    }
+
+    @Test
+    public void digestStreamInOrder() throws IOException, NoSuchAlgorithmException {
+        Map<Path, byte[]> expected = createFiles(200);
+        List<Path> paths = new ArrayList<>(expected.keySet());
+        paths.add(50, tempDir.resolve("missing"));
+        List<BulkDigest.Result> results = new ArrayList<>();
+        BulkDigest.Statistics statistics;
+        try (BulkDigest bulkDigest = new BulkDigest("SHA-256", 2)) {
+            statistics = bulkDigest.digest(paths.stream(), true, results::add);
+        }
+        assertEquals(paths.size(), results.size());
+        assertEquals(1, statistics.getFailures());
+        for (int i = 0; i < paths.size(); i++) {
+            BulkDigest.Result result = results.get(i);
+            assertEquals(paths.get(i), result.getPath());
+            if (i == 50) {
+                assertInstanceOf(NoSuchFileException.class, result.getException());
+                assertNull(result.getDigest());
+            } else {
+                assertArrayEquals(expected.get(result.getPath()), result.getDigest());
+            }
+        }
+    }
+
+    @Test
+    public void digestEmptyStream() {
+        try (BulkDigest bulkDigest = new BulkDigest("MD5", 1)) {
+            BulkDigest.Statistics statistics = bulkDigest.digest(Stream.empty(), false, result -> { });
+            assertEquals(0, statistics.getFiles());
+        }
+    }
+
+    @Test
+    public void illegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BulkDigest("FOO", 1));
+        assertThrows(IllegalArgumentException.class, () -> new BulkDigest("MD5", 0));
+    }
+}
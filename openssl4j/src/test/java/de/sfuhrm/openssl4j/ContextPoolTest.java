@@ -0,0 +1,121 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@linkplain ContextPool}.
+ * @author Stephan Fuhrmann
+ */
+public class ContextPoolTest {
+
+    @Test
+    public void acquireCreatesWhenEmpty() {
+        AtomicInteger created = new AtomicInteger();
+        ContextPool<Object> pool = new ContextPool<>(() -> { created.incrementAndGet(); return new Object(); });
+        Object first = pool.acquire();
+        Object second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void releasedContextIsReused() {
+        AtomicInteger created = new AtomicInteger();
+        ContextPool<Object> pool = new ContextPool<>(() -> { created.incrementAndGet(); return new Object(); });
+        Object context = pool.acquire();
+        assertTrue(pool.release(context));
+        assertSame(context, pool.acquire());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void releasedContextIsSharedWithOtherThreads() throws InterruptedException {
+        ContextPool<Object> pool = new ContextPool<>(Object::new);
+        List<Object> released = new ArrayList<>();
+        for (int i = 0; i < ContextPool.PER_THREAD_SIZE + 1; i++) {
+            released.add(pool.acquire());
+        }
+        released.forEach(pool::release);
+
+        Object[] acquired = new Object[1];
+        Thread thread = new Thread(() -> acquired[0] = pool.acquire());
+        thread.start();
+        thread.join();
+        assertTrue(released.contains(acquired[0]));
+    }
+
+    @Test
+    public void releaseWithFullPool() {
+        ContextPool<Object> pool = new ContextPool<>(Object::new);
+        int capacity = ContextPool.PER_THREAD_SIZE + ContextPool.SHARED_SIZE;
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(pool.release(new Object()));
+        }
+        assertFalse(pool.release(new Object()));
+    }
+
+    @Test
+    public void contextsOfTerminatedThreadsAreFreed() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger live = new AtomicInteger();
+        ContextPool<Object> pool = new ContextPool<>(() -> {
+            Object context = new Object();
+            created.incrementAndGet();
+            live.incrementAndGet();
+            PhantomReferenceCleanup.enqueueForCleanup(context, h -> live.decrementAndGet(), 1L);
+            return context;
+        });
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(() -> {
+                List<Object> contexts = new ArrayList<>();
+                for (int j = 0; j < ContextPool.PER_THREAD_SIZE; j++) {
+                    contexts.add(pool.acquire());
+                }
+                contexts.forEach(pool::release);
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(16 * ContextPool.PER_THREAD_SIZE, created.get());
+
+        for (int i = 0; i < 100 && (live.get() > 0 || pool.perThreadListCount() > 0); i++) {
+            System.gc();
+            PhantomReferenceCleanup.drain(Integer.MAX_VALUE);
+            Thread.sleep(10);
+        }
+        assertEquals(0, live.get());
+        assertEquals(0, pool.perThreadListCount());
+    }
+
+    @Test
+    public void closeDisposesContextsOfAllThreads() throws InterruptedException {
+        ContextPool<Object> pool = new ContextPool<>(Object::new);
+        Object own = pool.acquire();
+        Object[] other = new Object[1];
+        Thread thread = new Thread(() -> {
+            other[0] = pool.acquire();
+            pool.release(other[0]);
+        });
+        thread.start();
+        thread.join();
+        assertTrue(pool.release(own));
+
+        List<Object> disposed = new ArrayList<>();
+        pool.close(disposed::add);
+        assertEquals(2, disposed.size());
+        assertTrue(disposed.contains(own));
+        assertTrue(disposed.contains(other[0]));
+        assertFalse(pool.release(new Object()));
+        assertNotSame(own, pool.acquire());
+    }
+}
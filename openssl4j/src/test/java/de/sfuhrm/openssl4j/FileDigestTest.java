@@ -0,0 +1,225 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@linkplain FileDigest} and the file functions of {@linkplain OpenSSL4J}.
+ * @author Stephan Fuhrmann
+ */
+public class FileDigestTest extends BaseTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] reference(String algorithm, byte[] data, int offset, int length) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance(algorithm, Security.getProvider("SUN"));
+        messageDigest.update(data, offset, length);
+        return messageDigest.digest();
+    }
+
+    private Path file(byte[] data) throws IOException {
+        Path file = tempDir.resolve("data");
+        Files.write(file, data);
+        return file;
+    }
+
+    @ParameterizedTest
+    @EnumSource(FileDigestMode.class)
+    public void digestFile(FileDigestMode mode) throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(3 * 1024 * 1024 + 17);
+        Path file = file(data);
+        assertArrayEquals(reference("SHA-256", data, 0, data.length), OpenSSL4J.digest("SHA-256", file, mode));
+    }
+
+    @Test
+    public void digestFileWithDefaultMode() throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(1000);
+        Path file = file(data);
+        assertArrayEquals(reference("MD5", data, 0, data.length), OpenSSL4J.digest("MD5", file));
+    }
+
+    @ParameterizedTest
+    @EnumSource(FileDigestMode.class)
+    public void digestEmptyFile(FileDigestMode mode) throws IOException, NoSuchAlgorithmException {
+        Path file = file(new byte[0]);
+        assertArrayEquals(reference("SHA-512", new byte[0], 0, 0), OpenSSL4J.digest("SHA-512", file, mode));
+    }
+
+    @ParameterizedTest
+    @EnumSource(FileDigestMode.class)
+    public void digestRegion(FileDigestMode mode) throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(100_000);
+        Path file = file(data);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(5);
+            // the offset is not page aligned
+            byte[] actual = OpenSSL4J.digest("SHA1", channel, 4097, 90_000, mode);
+            assertArrayEquals(reference("SHA1", data, 4097, 90_000), actual);
+            assertEquals(5, channel.position());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FileDigestMode.class)
+    public void digestRegionBeyondEnd(FileDigestMode mode) throws IOException {
+        Path file = file(new byte[100]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThrows(EOFException.class, () -> OpenSSL4J.digest("SHA1", channel, 50, 51, mode));
+            assertThrows(EOFException.class, () -> OpenSSL4J.digest("SHA1", channel, 101, 0, mode));
+            assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digest("SHA1", channel, -1, 10, mode));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FileDigestMode.class)
+    public void digestMissingFileOrDirectory(FileDigestMode mode) {
+        assertThrows(IOException.class, () -> OpenSSL4J.digest("SHA-256", tempDir.resolve("missing"), mode));
+        assertThrows(IOException.class, () -> OpenSSL4J.digest("SHA-256", tempDir, mode));
+    }
+
+    @Test
+    public void digestFileWithUnknownAlgorithm() throws IOException {
+        Path file = file(new byte[10]);
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digest("FOO", file));
+    }
+
+    @Test
+    public void digestClosedChannel() throws IOException {
+        Path file = file(new byte[10]);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.close();
+        for (FileDigestMode mode : FileDigestMode.values()) {
+            assertThrows(ClosedChannelException.class, () -> OpenSSL4J.digest("SHA-256", channel, 0, 10, mode));
+        }
+    }
+
+    @Test
+    public void digestChannelOfOtherImplementation() throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(FileDigest.READ_BUFFER_SIZE * 2 + 3);
+        Path file = file(data);
+        try (FileChannel channel = new DelegatingFileChannel(FileChannel.open(file, StandardOpenOption.READ))) {
+            byte[] actual = OpenSSL4J.digest("SHA-256", channel, 1, data.length - 2, FileDigestMode.MMAP);
+            assertArrayEquals(reference("SHA-256", data, 1, data.length - 2), actual);
+            assertThrows(EOFException.class, () -> OpenSSL4J.digest("SHA-256", channel, 1, data.length, FileDigestMode.PREAD));
+        }
+    }
+
+    /** A file channel of another implementation that can't be mapped. */
+    private static class DelegatingFileChannel extends FileChannel {
+        private final FileChannel delegate;
+
+        DelegatingFileChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
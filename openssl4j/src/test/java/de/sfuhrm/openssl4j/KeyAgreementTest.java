@@ -0,0 +1,215 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.ShortBufferException;
+import javax.security.auth.DestroyFailedException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the key agreement and key pair generator services against the JDK implementations.
+ * @author Stephan Fuhrmann
+ */
+public class KeyAgreementTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    private static byte[] hex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    private static Stream<Arguments> algorithms() {
+        return Stream.of(
+                Arguments.of("X25519", "X25519", "XDH", null),
+                Arguments.of("X448", "X448", "XDH", null),
+                Arguments.of("XDH", "XDH", "XDH", null),
+                Arguments.of("ECDH", "EC", "EC", "secp256r1"),
+                Arguments.of("ECDH", "EC", "EC", "secp384r1"),
+                Arguments.of("ECDH", "EC", "EC", "secp521r1"));
+    }
+
+    private static KeyPair generate(String generatorName, String curve, Provider provider) throws GeneralSecurityException {
+        KeyPairGenerator generator = provider != null
+                ? KeyPairGenerator.getInstance(generatorName, provider)
+                : KeyPairGenerator.getInstance(generatorName);
+        if (curve != null) {
+            generator.initialize(new ECGenParameterSpec(curve));
+        }
+        return generator.generateKeyPair();
+    }
+
+    private static byte[] agree(String algorithm, PrivateKey privateKey, PublicKey publicKey, Provider provider)
+            throws GeneralSecurityException {
+        KeyAgreement agreement = provider != null
+                ? KeyAgreement.getInstance(algorithm, provider)
+                : KeyAgreement.getInstance(algorithm);
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+        return agreement.generateSecret();
+    }
+
+    @ParameterizedTest
+    @MethodSource("algorithms")
+    public void agreeWithJdk(String algorithm, String generatorName, String keyAlgorithm, String curve)
+            throws GeneralSecurityException {
+        KeyPair ours = generate(generatorName, curve, OPENSSL);
+        KeyPair theirs = generate(generatorName, curve, null);
+        assertEquals(keyAlgorithm, ours.getPublic().getAlgorithm());
+        assertEquals(keyAlgorithm, ours.getPrivate().getAlgorithm());
+
+        // the JDK needs its own key classes
+        KeyFactory keyFactory = KeyFactory.getInstance(keyAlgorithm);
+        PublicKey ourPublic = keyFactory.generatePublic(new X509EncodedKeySpec(ours.getPublic().getEncoded()));
+        PrivateKey ourPrivate = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(ours.getPrivate().getEncoded()));
+
+        byte[] expected = agree(algorithm, theirs.getPrivate(), ourPublic, null);
+        assertArrayEquals(expected, agree(algorithm, ours.getPrivate(), theirs.getPublic(), OPENSSL));
+        assertArrayEquals(expected, agree(algorithm, theirs.getPrivate(), ours.getPublic(), OPENSSL));
+        assertArrayEquals(expected, agree(algorithm, ourPrivate, theirs.getPublic(), OPENSSL));
+    }
+
+    @Test
+    public void agreeWithManyEphemeralPeers() throws GeneralSecurityException {
+        // the peer keys are not cached, the agreement must keep them alive
+        KeyPair ours = generate("X25519", null, OPENSSL);
+        PublicKey ourPublic = KeyFactory.getInstance("XDH").generatePublic(
+                new X509EncodedKeySpec(ours.getPublic().getEncoded()));
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519", OPENSSL);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("X25519");
+        for (int i = 0; i < 200; i++) {
+            KeyPair peer = generator.generateKeyPair();
+            agreement.init(ours.getPrivate());
+            agreement.doPhase(peer.getPublic(), true);
+            if (i % 50 == 0) {
+                System.gc();
+            }
+            assertArrayEquals(agree("X25519", peer.getPrivate(), ourPublic, null),
+                    agreement.generateSecret());
+        }
+    }
+
+    @Test
+    public void rfc7748X25519() throws GeneralSecurityException {
+        KeyFactory keyFactory = KeyFactory.getInstance("XDH");
+        PrivateKey alice = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(hex(
+                "302e020100300506032b656e04220420"
+                + "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a")));
+        PublicKey bob = keyFactory.generatePublic(new X509EncodedKeySpec(hex(
+                "302a300506032b656e032100"
+                + "de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f")));
+        assertEquals("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742",
+                formatter.format(agree("X25519", alice, bob, OPENSSL)));
+    }
+
+    @Test
+    public void smallOrderPeerKey() throws GeneralSecurityException {
+        PublicKey zero = KeyFactory.getInstance("XDH").generatePublic(new X509EncodedKeySpec(hex(
+                "302a300506032b656e032100"
+                + "0000000000000000000000000000000000000000000000000000000000000000")));
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519", OPENSSL);
+        agreement.init(generate("X25519", null, OPENSSL).getPrivate());
+        assertThrows(InvalidKeyException.class, () -> agreement.doPhase(zero, true));
+    }
+
+    @Test
+    public void wrongKeys() throws GeneralSecurityException {
+        KeyPair x25519 = generate("X25519", null, OPENSSL);
+        KeyPair x448 = generate("X448", null, OPENSSL);
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519", OPENSSL);
+        assertThrows(InvalidKeyException.class, () -> agreement.init(x448.getPrivate()));
+        agreement.init(x25519.getPrivate());
+        assertThrows(InvalidKeyException.class, () -> agreement.doPhase(x448.getPublic(), true));
+        assertThrows(IllegalStateException.class, () -> agreement.doPhase(x25519.getPublic(), false));
+        assertThrows(IllegalStateException.class, agreement::generateSecret);
+
+        KeyAgreement ecdh = KeyAgreement.getInstance("ECDH", OPENSSL);
+        ecdh.init(generate("EC", "secp256r1", OPENSSL).getPrivate());
+        assertThrows(InvalidKeyException.class, () -> ecdh.doPhase(generate("EC", "secp384r1", null).getPublic(), true));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("X25519", OPENSSL);
+        assertThrows(GeneralSecurityException.class, () -> generator.initialize(new ECGenParameterSpec("X448")));
+    }
+
+    @Test
+    public void generateSecretIntoBuffer() throws GeneralSecurityException {
+        KeyPair first = generate("X448", null, OPENSSL);
+        KeyPair second = generate("X448", null, OPENSSL);
+        KeyAgreement agreement = KeyAgreement.getInstance("XDH", OPENSSL);
+        agreement.init(first.getPrivate());
+        agreement.doPhase(second.getPublic(), true);
+        assertThrows(ShortBufferException.class, () -> agreement.generateSecret(new byte[60], 5));
+        byte[] buffer = new byte[61];
+        assertEquals(56, agreement.generateSecret(buffer, 5));
+
+        // the agreement can be repeated with the same private key
+        agreement.doPhase(second.getPublic(), true);
+        assertEquals("AES", agreement.generateSecret("AES").getAlgorithm());
+        assertArrayEquals(agree("XDH", second.getPrivate(), first.getPublic(), OPENSSL),
+                Arrays.copyOfRange(buffer, 5, 61));
+    }
+
+    @Test
+    public void generatedKeysSign() throws GeneralSecurityException {
+        KeyPair keyPair = generate("EC", "secp384r1", OPENSSL);
+        Signature signer = Signature.getInstance("SHA384withECDSA", OPENSSL);
+        signer.initSign(keyPair.getPrivate());
+        signer.update(new byte[100]);
+        byte[] signature = signer.sign();
+
+        Signature verifier = Signature.getInstance("SHA384withECDSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(new byte[100]);
+        assertTrue(verifier.verify(signature));
+    }
+
+    @Test
+    public void serializeAndDestroy() throws GeneralSecurityException, IOException, ClassNotFoundException, DestroyFailedException {
+        KeyPair keyPair = generate("X25519", null, OPENSSL);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(keyPair);
+        }
+        KeyPair copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (KeyPair) in.readObject();
+        }
+        assertArrayEquals(keyPair.getPublic().getEncoded(), copy.getPublic().getEncoded());
+        assertArrayEquals(keyPair.getPrivate().getEncoded(), copy.getPrivate().getEncoded());
+
+        keyPair.getPrivate().destroy();
+        assertTrue(keyPair.getPrivate().isDestroyed());
+        assertThrows(IllegalStateException.class, keyPair.getPrivate()::getEncoded);
+        assertThrows(InvalidKeyException.class, () -> KeyAgreement.getInstance("X25519", OPENSSL).init(keyPair.getPrivate()));
+    }
+}
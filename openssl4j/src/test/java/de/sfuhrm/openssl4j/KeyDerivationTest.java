@@ -0,0 +1,273 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.interfaces.PBEKey;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for PBKDF2, HKDF, scrypt and Argon2id.
+ * @author Stephan Fuhrmann
+ */
+public class KeyDerivationTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    private static byte[] hex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 13 + seed);
+        }
+        return result;
+    }
+
+    /** HKDF as in RFC 5869, built on the SunJCE HMAC. */
+    private static byte[] referenceHkdf(String hmac, byte[] salt, byte[] ikm, byte[] info, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmac, "SunJCE");
+        mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[mac.getMacLength()], hmac));
+        byte[] prk = mac.doFinal(ikm);
+        mac.init(new SecretKeySpec(prk, hmac));
+        ByteArrayOutputStream okm = new ByteArrayOutputStream();
+        byte[] t = new byte[0];
+        for (int i = 1; okm.size() < length; i++) {
+            mac.update(t);
+            mac.update(info != null ? info : new byte[0]);
+            mac.update((byte) i);
+            t = mac.doFinal();
+            okm.write(t, 0, t.length);
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(okm.toByteArray(), 0, result, 0, length);
+        return result;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA224", "PBKDF2WithHmacSHA256",
+            "PBKDF2WithHmacSHA384", "PBKDF2WithHmacSHA512"})
+    public void pbkdf2LikeReference(String algorithm) throws GeneralSecurityException {
+        SecretKeyFactory reference = SecretKeyFactory.getInstance(algorithm, "SunJCE");
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm, OPENSSL);
+        char[][] passwords = {"".toCharArray(), "password".toCharArray(), "pässwörd €".toCharArray()};
+        for (char[] password : passwords) {
+            for (int iterations : new int[] {1, 2, 1000}) {
+                for (int keyLength : new int[] {8, 128, 256, 1024}) {
+                    PBEKeySpec spec = new PBEKeySpec(password, bytes(16, iterations), iterations, keyLength);
+                    SecretKey key = factory.generateSecret(spec);
+                    assertArrayEquals(reference.generateSecret(spec).getEncoded(), key.getEncoded(),
+                            "iterations " + iterations + ", key length " + keyLength);
+                    assertEquals(algorithm, key.getAlgorithm());
+                    assertEquals("RAW", key.getFormat());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pbkdf2KnownAnswer() throws GeneralSecurityException {
+        // RFC 6070
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1", OPENSSL);
+        PBEKeySpec spec = new PBEKeySpec("password".toCharArray(), "salt".getBytes(ascii), 4096, 160);
+        assertArrayEquals(hex("4b007901b765489abead49d926f721d065a429c1"), factory.generateSecret(spec).getEncoded());
+    }
+
+    @Test
+    public void pbkdf2KeySpecAndTranslate() throws GeneralSecurityException, DestroyFailedException {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256", OPENSSL);
+        SecretKeyFactory reference = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256", "SunJCE");
+        PBEKeySpec spec = new PBEKeySpec("secret".toCharArray(), bytes(8, 1), 100, 256);
+        PBEKey key = (PBEKey) factory.generateSecret(spec);
+        assertArrayEquals("secret".toCharArray(), key.getPassword());
+        assertArrayEquals(bytes(8, 1), key.getSalt());
+        assertEquals(100, key.getIterationCount());
+
+        PBEKeySpec roundTrip = (PBEKeySpec) factory.getKeySpec(key, PBEKeySpec.class);
+        assertEquals(256, roundTrip.getKeyLength());
+        assertEquals(key, factory.generateSecret(roundTrip));
+
+        SecretKey translated = factory.translateKey(reference.generateSecret(spec));
+        assertEquals(key, translated);
+
+        key.destroy();
+        assertThrows(IllegalStateException.class, key::getEncoded);
+    }
+
+    @Test
+    public void pbkdf2IllegalSpecs() throws GeneralSecurityException {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256", OPENSSL);
+        char[] password = "password".toCharArray();
+        assertThrows(InvalidKeySpecException.class, () -> factory.generateSecret(new PBEKeySpec(password)));
+        assertThrows(InvalidKeySpecException.class, () -> factory.generateSecret(new PBEKeySpec(password, new byte[8], 1000)));
+        assertThrows(InvalidKeySpecException.class, () -> factory.generateSecret(new SecretKeySpec(new byte[8], "AES")));
+        assertThrows(IllegalArgumentException.class, () -> new Pbkdf2("SHA-256").derive(password, new byte[8], 0, 32));
+        assertThrows(IllegalArgumentException.class, () -> new Pbkdf2("NoSuchDigest"));
+    }
+
+    @Test
+    public void pbkdf2Batch() {
+        Pbkdf2 pbkdf2 = new Pbkdf2("SHA-512");
+        List<PBEKeySpec> specs = new ArrayList<>();
+        for (int i = 0; i < 37; i++) {
+            specs.add(new PBEKeySpec(("password" + i).toCharArray(), bytes(16, i), 100 + i, 512));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<byte[]> keys = pbkdf2.derive(specs, pool);
+            assertEquals(specs.size(), keys.size());
+            for (int i = 0; i < specs.size(); i++) {
+                assertArrayEquals(pbkdf2.derive(specs.get(i)), keys.get(i));
+            }
+            assertEquals(0, pbkdf2.derive(new ArrayList<>(), pool).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void hkdfKnownAnswer() {
+        // RFC 5869, test case 1
+        Hkdf hkdf = new Hkdf("SHA-256");
+        byte[] ikm = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        byte[] salt = hex("000102030405060708090a0b0c");
+        byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+        byte[] prk = hex("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5");
+        byte[] okm = hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865");
+        assertArrayEquals(prk, hkdf.extract(salt, ikm));
+        assertArrayEquals(okm, hkdf.expand(prk, info, 42));
+        assertArrayEquals(okm, hkdf.deriveKey(salt, ikm, info, 42));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SHA-1", "SHA-256", "SHA-384", "SHA-512"})
+    public void hkdfLikeReference(String algorithm) throws GeneralSecurityException {
+        Hkdf hkdf = new Hkdf(algorithm);
+        String hmac = "Hmac" + algorithm.replace("-", "");
+        for (byte[] salt : new byte[][] {null, new byte[0], bytes(32, 1)}) {
+            for (byte[] info : new byte[][] {null, bytes(20, 2), bytes(Hkdf.MAX_INFO_LENGTH, 3)}) {
+                for (int length : new int[] {1, 32, 100, 255 * hkdf.getDigestLength()}) {
+                    byte[] ikm = bytes(40, length);
+                    assertArrayEquals(referenceHkdf(hmac, salt, ikm, info, length),
+                            hkdf.deriveKey(salt, ikm, info, length), "length " + length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hkdfIllegalArguments() {
+        Hkdf hkdf = new Hkdf("SHA-256");
+        assertEquals(32, hkdf.getDigestLength());
+        assertThrows(IllegalArgumentException.class, () -> hkdf.expand(new byte[31], null, 32));
+        assertThrows(IllegalArgumentException.class, () -> hkdf.expand(new byte[32], null, 0));
+        assertThrows(IllegalArgumentException.class, () -> hkdf.expand(new byte[32], null, 255 * 32 + 1));
+        assertThrows(IllegalArgumentException.class, () -> hkdf.deriveKey(null, new byte[32], new byte[Hkdf.MAX_INFO_LENGTH + 1], 32));
+        assertThrows(NullPointerException.class, () -> hkdf.extract(null, null));
+    }
+
+    @Test
+    public void scryptKnownAnswers() {
+        // RFC 7914, section 12
+        assertArrayEquals(hex("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+                        + "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"),
+                new Scrypt(16, 1, 1).derive(new char[0], new byte[0], 64));
+        assertArrayEquals(hex("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                        + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"),
+                new Scrypt(1024, 8, 16).derive("password".toCharArray(), "NaCl".getBytes(ascii), 64));
+    }
+
+    @Test
+    public void scryptWithMemoryAboveDefaultLimit() {
+        // 64 MiB of memory blocks, more than the default limit of OpenSSL 1.1
+        Scrypt scrypt = new Scrypt(1 << 16, 8, 1);
+        assertEquals(128L * 8 * ((1 << 16) + 3), scrypt.getMemorySize());
+        byte[] key = scrypt.derive("password".toCharArray(), bytes(16, 1), 32);
+        assertArrayEquals(key, scrypt.derive("password".getBytes(ascii), bytes(16, 1), 32));
+    }
+
+    @Test
+    public void scryptIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1000, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1 << 16, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1024, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1024, 8, 1 << 27));
+        assertThrows(IllegalArgumentException.class, () -> new Scrypt(1024, 8, 1).derive(new char[0], new byte[0], 0));
+    }
+
+    @Test
+    public void argon2idKnownAnswer() {
+        assumeTrue(Argon2id.isAvailable(), "Argon2id needs OpenSSL 3.2");
+        // RFC 9106, section 5.3
+        byte[] password = new byte[32];
+        Arrays.fill(password, (byte) 1);
+        byte[] salt = new byte[16];
+        Arrays.fill(salt, (byte) 2);
+        byte[] secret = new byte[8];
+        Arrays.fill(secret, (byte) 3);
+        byte[] associatedData = new byte[12];
+        Arrays.fill(associatedData, (byte) 4);
+        assertArrayEquals(hex("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659"),
+                new Argon2id(3, 32, 4).derive(password, salt, secret, associatedData, 32));
+    }
+
+    @Test
+    public void argon2idLanesInParallel() throws Exception {
+        assumeTrue(Argon2id.isAvailable(), "Argon2id needs OpenSSL 3.2");
+        Argon2id argon2id = new Argon2id(2, 16 * 1024, 4);
+        byte[] expected = argon2id.derive("password".toCharArray(), bytes(16, 1), 32);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(() -> argon2id.derive("password".toCharArray(), bytes(16, 1), 32)));
+            }
+            for (Future<byte[]> future : futures) {
+                assertArrayEquals(expected, future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void argon2idUnavailable() {
+        assumeFalse(Argon2id.isAvailable());
+        assertThrows(UnsupportedOperationException.class, () -> new Argon2id(3, 65536, 4));
+    }
+
+    @Test
+    public void argon2idIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new Argon2id(0, 65536, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Argon2id(3, 31, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Argon2id(3, 65536, 0));
+    }
+}
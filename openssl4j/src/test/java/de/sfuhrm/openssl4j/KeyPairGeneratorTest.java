@@ -0,0 +1,203 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.DestroyFailedException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the RSA key pair generator and the {@linkplain KeyPairPool}.
+ * @author Stephan Fuhrmann
+ */
+public class KeyPairGeneratorTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    @Test
+    public void generateRsa() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", OPENSSL);
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        assertEquals("RSA", keyPair.getPublic().getAlgorithm());
+
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        RSAPrivateCrtKey privateKey = (RSAPrivateCrtKey) keyPair.getPrivate();
+        assertEquals(1024, publicKey.getModulus().bitLength());
+        assertEquals(RSAKeyGenParameterSpec.F4, publicKey.getPublicExponent());
+        assertEquals(publicKey.getModulus(), privateKey.getModulus());
+        assertEquals(publicKey.getPublicExponent(), privateKey.getPublicExponent());
+        assertEquals(publicKey.getModulus(), privateKey.getPrimeP().multiply(privateKey.getPrimeQ()));
+
+        Signature signer = Signature.getInstance("SHA256withRSA", OPENSSL);
+        signer.initSign(keyPair.getPrivate());
+        signer.update(new byte[10]);
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(publicKey);
+        verifier.update(new byte[10]);
+        assertTrue(verifier.verify(signer.sign()));
+    }
+
+    @Test
+    public void generateRsaWithExponent() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", OPENSSL);
+        generator.initialize(new RSAKeyGenParameterSpec(1024, RSAKeyGenParameterSpec.F0));
+        RSAPublicKey publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        assertEquals(RSAKeyGenParameterSpec.F0, publicKey.getPublicExponent());
+    }
+
+    @Test
+    public void generateEc() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", OPENSSL);
+        generator.initialize(new ECGenParameterSpec("secp384r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        ECPublicKey publicKey = (ECPublicKey) keyPair.getPublic();
+        ECPrivateKey privateKey = (ECPrivateKey) keyPair.getPrivate();
+        assertEquals(384, publicKey.getParams().getCurve().getField().getFieldSize());
+        assertEquals(publicKey.getParams().getOrder(), privateKey.getParams().getOrder());
+        assertTrue(privateKey.getS().signum() > 0);
+
+        Signature signer = Signature.getInstance("SHA384withECDSA", OPENSSL);
+        signer.initSign(privateKey);
+        signer.update(new byte[10]);
+        Signature verifier = Signature.getInstance("SHA384withECDSA");
+        verifier.initVerify(publicKey);
+        verifier.update(new byte[10]);
+        assertTrue(verifier.verify(signer.sign()));
+    }
+
+    @Test
+    public void serializeRsa() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", OPENSSL);
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(keyPair);
+        }
+        KeyPair copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (KeyPair) in.readObject();
+        }
+        assertEquals(((RSAPublicKey) keyPair.getPublic()).getModulus(), ((RSAPublicKey) copy.getPublic()).getModulus());
+        assertEquals(((RSAPrivateCrtKey) keyPair.getPrivate()).getPrivateExponent(),
+                ((RSAPrivateCrtKey) copy.getPrivate()).getPrivateExponent());
+    }
+
+    @Test
+    public void destroyedKeyHasNoParameters() throws GeneralSecurityException, DestroyFailedException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", OPENSSL);
+        ECPrivateKey privateKey = (ECPrivateKey) generator.generateKeyPair().getPrivate();
+        assertNotNull(privateKey.getS());
+        privateKey.destroy();
+        assertThrows(IllegalStateException.class, privateKey::getS);
+    }
+
+    @Test
+    public void wrongRsaParameters() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", OPENSSL);
+        assertThrows(InvalidParameterException.class, () -> generator.initialize(256));
+        assertThrows(InvalidAlgorithmParameterException.class,
+                () -> generator.initialize(new RSAKeyGenParameterSpec(2048, BigInteger.valueOf(4))));
+        assertThrows(InvalidAlgorithmParameterException.class,
+                () -> generator.initialize(new ECGenParameterSpec("secp256r1")));
+    }
+
+    /** Generates fresh EC key pairs and counts them. */
+    private static KeyPair countingGenerator(AtomicInteger count) {
+        count.incrementAndGet();
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", OPENSSL);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitAvailable(KeyPairPool pool, int available) throws InterruptedException {
+        for (int i = 0; i < 500 && pool.getAvailable() < available; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(available, pool.getAvailable());
+    }
+
+    @Test
+    public void poolRefills() throws InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        KeyPairPool pool = new KeyPairPool("test", 3, () -> countingGenerator(count));
+        assertEquals(0.0, pool.getHitRate());
+
+        KeyPair first = pool.take();
+        assertNotNull(first);
+        assertEquals(1, pool.getMisses());
+        awaitAvailable(pool, 3);
+
+        KeyPair second = pool.take();
+        assertNotEquals(first.getPublic(), second.getPublic());
+        assertEquals(1, pool.getHits());
+        assertEquals(0.5, pool.getHitRate());
+        awaitAvailable(pool, 3);
+        // one generated by the caller, three to fill the pool, one to refill it
+        assertEquals(5, count.get());
+        assertEquals("test", pool.getName());
+        assertEquals(3, pool.getCapacity());
+    }
+
+    @Test
+    public void poolGenerationFails() throws InterruptedException {
+        KeyPairPool pool = new KeyPairPool("failing", 2, () -> {
+            throw new IllegalStateException("Key generation failed");
+        });
+        assertThrows(IllegalStateException.class, pool::take);
+        for (int i = 0; i < 500 && pool.getFailures() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pool.getFailures());
+        assertEquals(0, pool.getAvailable());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void poolTypes() {
+        assertEquals(new HashSet<>(Arrays.asList("RSA-2048", "EC-P-256")), KeyPairPool.parseTypes(" RSA-2048, ,EC-P-256,"));
+        assertTrue(KeyPairPool.POOL_TYPES.contains("RSA-3072"));
+        assertFalse(KeyPairPool.POOL_TYPES.contains("RSA-16384"));
+
+        AtomicInteger count = new AtomicInteger();
+        KeyPairPool.take("RSA-16384", () -> countingGenerator(count));
+        assertEquals(1, count.get());
+        assertTrue(KeyPairPool.getPools().stream().noneMatch(pool -> pool.getName().equals("RSA-16384")));
+    }
+
+    @Test
+    public void poolWithWrongCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyPairPool("test", 0, () -> null));
+    }
+}
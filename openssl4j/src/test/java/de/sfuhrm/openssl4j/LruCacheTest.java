@@ -0,0 +1,45 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test for {@linkplain LruCache}.
+ * @author Stephan Fuhrmann
+ */
+public class LruCacheTest {
+
+    @Test
+    public void putIfAbsentKeepsFirstValue() {
+        LruCache<String, String> cache = new LruCache<>(4, v -> { });
+        assertNull(cache.putIfAbsent("a", "1"));
+        assertEquals("1", cache.putIfAbsent("a", "2"));
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws InterruptedException {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        LruCache<String, String> cache = new LruCache<>(2, evicted::add);
+        cache.putIfAbsent("a", "1");
+        Thread.sleep(1);
+        cache.putIfAbsent("b", "2");
+        Thread.sleep(1);
+        cache.get("a");
+        Thread.sleep(1);
+        cache.putIfAbsent("c", "3");
+
+        assertEquals(Collections.singletonList("2"), evicted);
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+}
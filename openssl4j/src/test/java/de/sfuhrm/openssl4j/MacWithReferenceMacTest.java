@@ -0,0 +1,179 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test cases that compare the MACs of the
+ * SunJCE provider (aka 'reference') with the implementations
+ * in this context (aka 'test').
+ * @author Stephan Fuhrmann
+ */
+public class MacWithReferenceMacTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    private static Stream<Arguments> provideTestArguments() throws GeneralSecurityException {
+        List<String> macNames = Arrays.asList("HmacMD5", "HmacSHA1", "HmacSHA224", "HmacSHA256", "HmacSHA384", "HmacSHA512",
+                "HmacSHA512/224", "HmacSHA512/256", "HmacSHA3-224", "HmacSHA3-256", "HmacSHA3-384", "HmacSHA3-512");
+        List<Arguments> result = new ArrayList<>();
+        for (String macName : macNames) {
+            result.add(Arguments.of(macName, Mac.getInstance(macName, OPENSSL), Mac.getInstance(macName, Security.getProvider("SunJCE"))));
+        }
+        return result.stream();
+    }
+
+    private static SecretKeySpec key(int length, int seed) {
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = (byte) (i * 13 + seed);
+        }
+        return new SecretKeySpec(key, "HMAC");
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void compareGetters(String macName, Mac testMac, Mac referenceMac) {
+        assertEquals(referenceMac.getAlgorithm(), testMac.getAlgorithm());
+        assertEquals(referenceMac.getMacLength(), testMac.getMacLength());
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void macWithKeyLengths(String macName, Mac testMac, Mac referenceMac) throws GeneralSecurityException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(1000);
+        // the longer keys exceed the block sizes and are hashed first
+        for (int keyLength : new int[] {1, 16, 64, 65, 200}) {
+            SecretKeySpec key = key(keyLength, keyLength);
+            testMac.init(key);
+            referenceMac.init(key);
+            assertArrayEquals(referenceMac.doFinal(data), testMac.doFinal(data), "key length " + keyLength);
+            assertArrayEquals(referenceMac.doFinal(), testMac.doFinal(), "key length " + keyLength);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void macWithUpdates(String macName, Mac testMac, Mac referenceMac) throws GeneralSecurityException {
+        SecretKeySpec key = key(32, 1);
+        testMac.init(key);
+        referenceMac.init(key);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(3 * 1024 * 1024);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+        direct.put(data, 0, 1000);
+        direct.flip();
+        for (Mac mac : new Mac[] {testMac, referenceMac}) {
+            mac.update((byte) 17);
+            mac.update(data, 5, 100);
+            mac.update(data);
+            mac.update(direct.duplicate());
+            mac.update(ByteBuffer.wrap(data, 10, 500));
+            mac.update(ByteBuffer.wrap(data, 10, 500).asReadOnlyBuffer());
+        }
+        assertArrayEquals(referenceMac.doFinal(), testMac.doFinal());
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void resetAndReuse(String macName, Mac testMac, Mac referenceMac) throws GeneralSecurityException {
+        SecretKeySpec key = key(20, 2);
+        testMac.init(key);
+        referenceMac.init(key);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(100);
+        testMac.update(data);
+        testMac.reset();
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(referenceMac.doFinal(data), testMac.doFinal(data));
+        }
+        testMac.update(data);
+        testMac.init(key(20, 3));
+        referenceMac.init(key(20, 3));
+        assertArrayEquals(referenceMac.doFinal(data), testMac.doFinal(data));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void cloneInBetween(String macName, Mac testMac, Mac referenceMac) throws GeneralSecurityException, CloneNotSupportedException {
+        SecretKeySpec key = key(20, 4);
+        testMac.init(key);
+        referenceMac.init(key);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(100);
+        testMac.update(data);
+        referenceMac.update(data);
+        Mac clone = (Mac) testMac.clone();
+        byte[] expected = referenceMac.doFinal(data);
+        assertArrayEquals(expected, testMac.doFinal(data));
+        assertArrayEquals(expected, clone.doFinal(data));
+    }
+
+    @Test
+    public void keyScheduleIsCached() {
+        long md = OpenSSLMessageDigestNative.mdHandle("SHA256");
+        byte[] key = new byte[] {1, 2, 3};
+        OpenSSLMacNative.KeySchedule schedule = OpenSSLMacNative.keySchedule(md, key);
+        assertEquals(schedule, OpenSSLMacNative.keySchedule(md, key.clone()));
+        assertEquals(schedule, OpenSSLMacNative.keySchedule(md, new byte[] {1, 2, 3}));
+        assertThrows(AssertionError.class, () -> assertEquals(schedule, OpenSSLMacNative.keySchedule(md, new byte[] {1, 2, 4})));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyScheduleIsEvicted() {
+        long md = OpenSSLMessageDigestNative.mdHandle("SHA256");
+        byte[] used = new byte[] {5, 6, 7};
+        byte[] unused = new byte[] {5, 6, 8};
+        OpenSSLMacNative.KeySchedule usedSchedule = OpenSSLMacNative.keySchedule(md, used);
+        OpenSSLMacNative.KeySchedule unusedSchedule = OpenSSLMacNative.keySchedule(md, unused);
+        for (int i = 0; i < OpenSSLMacNative.KEY_CACHE_SIZE; i++) {
+            assertSame(usedSchedule, OpenSSLMacNative.keySchedule(md, used));
+            OpenSSLMacNative.keySchedule(md, new byte[] {9, (byte) i});
+        }
+        assertSame(usedSchedule, OpenSSLMacNative.keySchedule(md, used));
+        assertNotSame(unusedSchedule, OpenSSLMacNative.keySchedule(md, unused));
+    }
+
+    @Test
+    public void manyKeys() throws GeneralSecurityException {
+        Mac testMac = Mac.getInstance("HmacSHA256", OPENSSL);
+        Mac referenceMac = Mac.getInstance("HmacSHA256", Security.getProvider("SunJCE"));
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(10);
+        for (int i = 0; i < 3 * OpenSSLMacNative.KEY_CACHE_SIZE; i++) {
+            SecretKeySpec key = key(32, i);
+            testMac.init(key);
+            referenceMac.init(key);
+            assertArrayEquals(referenceMac.doFinal(data), testMac.doFinal(data));
+        }
+    }
+
+    @Test
+    public void initWithIllegalArguments() throws GeneralSecurityException {
+        Mac testMac = Mac.getInstance("HmacSHA256", OPENSSL);
+        assertThrows(InvalidKeyException.class, () ->
+                testMac.init(KeyPairGenerator.getInstance("EC").generateKeyPair().getPrivate()));
+        assertThrows(InvalidAlgorithmParameterException.class, () ->
+                testMac.init(key(16, 0), new IvParameterSpec(new byte[16])));
+        assertThrows(IllegalStateException.class, () -> testMac.doFinal());
+    }
+}
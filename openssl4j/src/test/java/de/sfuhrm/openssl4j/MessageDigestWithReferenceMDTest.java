@@ -6,9 +6,12 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
@@ -73,6 +76,42 @@ public class MessageDigestWithReferenceMDTest extends BaseTest  {
         assertEquals(formatter.format(expectedDigest), formatter.format(actualDigest));
     }
 
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void cloneWithCommonPrefix(String digestName, MessageDigest testMD, MessageDigest referenceMD) throws CloneNotSupportedException {
+        testMD.update(franzJagt());
+        referenceMD.update(franzJagt());
+        testMD.update((byte) 1);
+        referenceMD.update((byte) 1);
+
+        MessageDigest testClone = (MessageDigest) testMD.clone();
+        MessageDigest referenceClone = (MessageDigest) referenceMD.clone();
+        assertEquals(referenceMD.getAlgorithm(), testClone.getAlgorithm());
+
+        testClone.update(franzJagt(), 0, 10);
+        referenceClone.update(franzJagt(), 0, 10);
+        assertEquals(formatter.format(referenceClone.digest()), formatter.format(testClone.digest()));
+
+        testMD.update((byte) 2);
+        referenceMD.update((byte) 2);
+        assertEquals(formatter.format(referenceMD.digest()), formatter.format(testMD.digest()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void digestSnapshot(String digestName, MessageDigest testMD, MessageDigest referenceMD) throws CloneNotSupportedException {
+        testMD.update(franzJagt());
+        referenceMD.update(franzJagt());
+        testMD.update((byte) 1);
+        referenceMD.update((byte) 1);
+
+        byte[] snapshot = ((OpenSSLMessageDigestNative) testMD).digestSnapshot();
+        byte[] expectedSnapshot = ((MessageDigest) referenceMD.clone()).digest();
+        assertEquals(formatter.format(expectedSnapshot), formatter.format(snapshot));
+
+        applyTo(md -> md.update(franzJagt()), testMD, referenceMD);
+    }
+
     @ParameterizedTest
     @MethodSource("provideTestArguments")
     public void updateWithFullArray(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
@@ -89,6 +128,35 @@ public class MessageDigestWithReferenceMDTest extends BaseTest  {
         }, testMD, referenceMD);
     }
 
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void updateWithMixedSizes(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        applyTo(md -> {
+            byte[] data = filledArray(3 * OpenSSLMessageDigestNative.STAGING_BUFFER_SIZE);
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            for (int length = 0; length < data.length; length += 61) {
+                md.update(data[length]);
+                md.update(data, 3, length);
+                direct.position(0);
+                direct.limit(length);
+                md.update(direct);
+                md.update(ByteBuffer.wrap(data, 7, length / 2).slice());
+            }
+        }, testMD, referenceMD);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void updateWithResetInBetween(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        applyTo(md -> {
+            md.update(franzJagt(), 0, 5);
+            md.update((byte) 42);
+            md.reset();
+            md.update(franzJagt());
+        }, testMD, referenceMD);
+    }
+
     @ParameterizedTest
     @MethodSource("provideTestArguments")
     public void updateWithHeapByteBuffer(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
@@ -244,6 +312,27 @@ public class MessageDigestWithReferenceMDTest extends BaseTest  {
         }, testMD, referenceMD);
     }
 
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void updateWithLongFragmentedArray(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        applyTo(md -> {
+            // spans multiple critical chunks, starting and ending off chunk boundaries
+            byte[] data = filledArray(3 * 1024 * 1024 + 4321);
+            md.update(data, 17, data.length - 4000);
+        }, testMD, referenceMD);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void updateWithSmallSliceOfLongArray(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        applyTo(md -> {
+            byte[] data = filledArray(8 * 1024 * 1024);
+            md.update(data, 5 * 1024 * 1024 + 3, 1);
+            md.update(data, 1024, 4096);
+            md.update(data, 2048, 4097);
+        }, testMD, referenceMD);
+    }
+
     @ParameterizedTest
     @MethodSource("provideTestArguments")
     public void updateWithLongDirectBB(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
@@ -323,4 +412,63 @@ public class MessageDigestWithReferenceMDTest extends BaseTest  {
             }, testMD, referenceMD);
         }
     }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void digestIntoArray(String digestName, MessageDigest testMD, MessageDigest referenceMD) throws DigestException {
+        byte[] expectedDigest = referenceMD.digest(franzJagt());
+        byte[] actualDigest = new byte[expectedDigest.length + 10];
+        for (int round = 0; round < 2; round++) {
+            testMD.update(franzJagt());
+            assertEquals(expectedDigest.length, testMD.digest(actualDigest, 5, expectedDigest.length + 5));
+            assertArrayEquals(expectedDigest, Arrays.copyOfRange(actualDigest, 5, 5 + expectedDigest.length));
+        }
+        assertThrows(DigestException.class, () -> testMD.digest(actualDigest, 0, expectedDigest.length - 1));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void digestIntoByteBuffer(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        OpenSSLMessageDigestNative openSslMD = (OpenSSLMessageDigestNative) testMD;
+        byte[] expectedDigest = referenceMD.digest(franzJagt());
+        for (ByteBuffer out : Arrays.asList(ByteBuffer.allocateDirect(200), ByteBuffer.allocate(200))) {
+            out.position(3);
+            for (int round = 0; round < 2; round++) {
+                openSslMD.update(franzJagt());
+                assertEquals(expectedDigest.length, openSslMD.digest(out));
+            }
+            assertEquals(3 + 2 * expectedDigest.length, out.position());
+            byte[] actualDigests = new byte[2 * expectedDigest.length];
+            out.flip();
+            out.position(3);
+            out.get(actualDigests);
+            assertArrayEquals(expectedDigest, Arrays.copyOfRange(actualDigests, 0, expectedDigest.length));
+            assertArrayEquals(expectedDigest, Arrays.copyOfRange(actualDigests, expectedDigest.length, actualDigests.length));
+        }
+        assertThrows(BufferOverflowException.class, () -> openSslMD.digest(ByteBuffer.allocateDirect(expectedDigest.length - 1)));
+        assertThrows(ReadOnlyBufferException.class, () -> openSslMD.digest(ByteBuffer.allocate(100).asReadOnlyBuffer()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void interleavedInstances(String digestName, MessageDigest testMD, MessageDigest referenceMD) throws NoSuchAlgorithmException {
+        MessageDigest otherMD = MessageDigest.getInstance(digestName, testMD.getProvider());
+        testMD.update(franzJagt());
+        otherMD.update(filledArray(100));
+        byte[] actualDigest = testMD.digest();
+        byte[] otherDigest = otherMD.digest();
+        assertArrayEquals(referenceMD.digest(franzJagt()), actualDigest);
+        assertArrayEquals(referenceMD.digest(filledArray(100)), otherDigest);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideTestArguments")
+    public void closeInBetween(String digestName, MessageDigest testMD, MessageDigest referenceMD) {
+        try (OpenSSLMessageDigestNative openSslMD = (OpenSSLMessageDigestNative) testMD) {
+            openSslMD.update(filledArray(100));
+            openSslMD.close();
+            openSslMD.update(franzJagt());
+            assertArrayEquals(referenceMD.digest(franzJagt()), openSslMD.digest());
+        }
+    }
 }
@@ -0,0 +1,172 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@linkplain OpenSSL4J}.
+ * @author Stephan Fuhrmann
+ */
+public class OpenSSL4JTest extends BaseTest {
+
+    private static byte[] reference(String algorithm, byte[] data, int offset, int length) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance(algorithm, Security.getProvider("SUN"));
+        messageDigest.update(data, offset, length);
+        return messageDigest.digest();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"MD5", "SHA1", "SHA-1", "SHA", "SHA-224", "SHA-256", "SHA256", "sha-256", "SHA-512/256", "SHA3-256"})
+    public void digestWithNames(String algorithm) throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(100);
+        assertArrayEquals(reference(algorithm, data, 0, data.length), OpenSSL4J.digest(algorithm, data));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 32, 512, 4095, 4096, 4097, 3 * 1024 * 1024 + 1})
+    public void digestWithSizes(int size) throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(size + 10);
+        byte[] digest = new byte[40];
+        int length = OpenSSL4J.digest("SHA-256", data, 3, size, digest, 8);
+        assertEquals(32, length);
+        byte[] expected = reference("SHA-256", data, 3, size);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], digest[i + 8]);
+        }
+    }
+
+    @Test
+    public void digestWithDirectBuffer() throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(1000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        buffer.position(10);
+        byte[] digest = new byte[64];
+        assertEquals(64, OpenSSL4J.digest("SHA-512", buffer, digest));
+        assertEquals(buffer.limit(), buffer.position());
+        assertArrayEquals(reference("SHA-512", data, 10, 990), digest);
+    }
+
+    @Test
+    public void digestWithHeapBuffers() throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(1000);
+        byte[] expected = reference("MD5", data, 100, 800);
+        byte[] digest = new byte[16];
+
+        ByteBuffer sliced = ByteBuffer.wrap(data, 100, 900).slice();
+        sliced.limit(800);
+        OpenSSL4J.digest("MD5", sliced, digest);
+        assertArrayEquals(expected, digest);
+
+        ByteBuffer readOnly = ByteBuffer.wrap(data, 100, 800).asReadOnlyBuffer();
+        OpenSSL4J.digest("MD5", readOnly, digest);
+        assertArrayEquals(expected, digest);
+        assertEquals(readOnly.limit(), readOnly.position());
+    }
+
+    @Test
+    public void digestWithTooSmallDigestArray() {
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digest("SHA-256", new byte[1], new byte[31]));
+    }
+
+    @Test
+    public void digestWithUnknownAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digest("FOO", new byte[1]));
+    }
+
+    @Test
+    public void digestWithIllegalRegion() {
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> OpenSSL4J.digest("SHA-256", new byte[10], 5, 6, new byte[32], 0));
+    }
+
+    /** Lengths of the batch messages, including one above the critical section budget. */
+    private static int[] batchLengths(int count) {
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = i % 100;
+        }
+        lengths[count / 2] = 2 * 1024 * 1024 + 3;
+        return lengths;
+    }
+
+    private static int[] batchOffsets(int[] lengths) {
+        int[] offsets = new int[lengths.length];
+        int offset = 7;
+        for (int i = 0; i < lengths.length; i++) {
+            offsets[i] = offset;
+            offset += lengths[i];
+        }
+        return offsets;
+    }
+
+    private static void assertBatch(String algorithm, byte[] data, int[] offsets, int[] lengths, byte[] digests) throws NoSuchAlgorithmException {
+        int digestLength = OpenSSL4J.getDigestLength(algorithm);
+        for (int i = 0; i < offsets.length; i++) {
+            byte[] expected = reference(algorithm, data, offsets[i], lengths[i]);
+            byte[] actual = new byte[digestLength];
+            System.arraycopy(digests, i * digestLength, actual, 0, digestLength);
+            assertArrayEquals(expected, actual, "message " + i);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"MD5", "SHA-256", "SHA-512"})
+    public void digestBatchWithArray(String algorithm) throws NoSuchAlgorithmException {
+        int[] lengths = batchLengths(1000);
+        int[] offsets = batchOffsets(lengths);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(offsets[offsets.length - 1] + lengths[lengths.length - 1]);
+        byte[] digests = new byte[lengths.length * OpenSSL4J.getDigestLength(algorithm)];
+        OpenSSL4J.digestBatch(algorithm, data, offsets, lengths, digests);
+        assertBatch(algorithm, data, offsets, lengths, digests);
+    }
+
+    @Test
+    public void digestBatchWithDirectBuffer() throws NoSuchAlgorithmException {
+        int[] lengths = batchLengths(300);
+        int[] offsets = batchOffsets(lengths);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(offsets[offsets.length - 1] + lengths[lengths.length - 1]);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        byte[] digests = new byte[lengths.length * 32];
+        OpenSSL4J.digestBatch("SHA-256", buffer, offsets, lengths, digests);
+        assertBatch("SHA-256", data, offsets, lengths, digests);
+    }
+
+    @Test
+    public void digestBatchParallel() throws NoSuchAlgorithmException {
+        int[] lengths = batchLengths(3 * OpenSSL4J.BATCH_SPLIT_SIZE + 5);
+        int[] offsets = batchOffsets(lengths);
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(offsets[offsets.length - 1] + lengths[lengths.length - 1]);
+        byte[] digests = new byte[lengths.length * 20];
+        OpenSSL4J.digestBatch("SHA1", data, offsets, lengths, digests, ForkJoinPool.commonPool());
+        assertBatch("SHA1", data, offsets, lengths, digests);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        byte[] bufferDigests = new byte[digests.length];
+        OpenSSL4J.digestBatch("SHA1", buffer, offsets, lengths, bufferDigests, ForkJoinPool.commonPool());
+        assertArrayEquals(digests, bufferDigests);
+    }
+
+    @Test
+    public void digestBatchWithIllegalArguments() {
+        byte[] data = new byte[100];
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> OpenSSL4J.digestBatch("SHA-256", data, new int[] {0, 90}, new int[] {10, 11}, new byte[64]));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> OpenSSL4J.digestBatch("SHA-256", data, new int[] {-1}, new int[] {10}, new byte[32]));
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digestBatch("SHA-256", data, new int[] {0, 10}, new int[] {10, 10}, new byte[63]));
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digestBatch("SHA-256", data, new int[] {0, 10}, new int[] {10}, new byte[64]));
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digestBatch("SHA-256", ByteBuffer.allocate(100), new int[] {0}, new int[] {10}, new byte[32]));
+    }
+}
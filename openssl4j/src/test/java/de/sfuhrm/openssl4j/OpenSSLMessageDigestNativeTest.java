@@ -28,9 +28,24 @@ public class OpenSSLMessageDigestNativeTest {
     }
 
     @Test
-    public void freeWithNull() {
+    public void freeWithZero() {
         Assertions.assertThrows(NullPointerException.class, () ->
-            OpenSSLMessageDigestNative.free(null)
+            OpenSSLMessageDigestNative.free(0)
+        );
+    }
+
+    @Test
+    public void mdHandleIsCached() {
+        long handle = OpenSSLMessageDigestNative.mdHandle("SHA256");
+        Assertions.assertNotEquals(0, handle);
+        Assertions.assertEquals(handle, OpenSSLMessageDigestNative.mdHandle("SHA256"));
+        Assertions.assertNotEquals(handle, OpenSSLMessageDigestNative.mdHandle("SHA512"));
+    }
+
+    @Test
+    public void mdHandleWithUnknownAlgorithm() {
+        Assertions.assertThrows(IllegalStateException.class, () ->
+            OpenSSLMessageDigestNative.mdHandle("FOO")
         );
     }
 }
@@ -0,0 +1,40 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test for {@linkplain PhantomReferenceCleanup}.
+ * @author Stephan Fuhrmann
+ */
+public class PhantomReferenceCleanupTest {
+
+    @Test
+    public void freeExplicitlyOnce() {
+        AtomicInteger freed = new AtomicInteger();
+        Object owner = new Object();
+        int registered = PhantomReferenceCleanup.registeredCount();
+        PhantomReferenceCleanup.NativePhantomReference reference =
+                PhantomReferenceCleanup.enqueueForCleanup(owner, h -> freed.incrementAndGet(), 1L);
+        assertEquals(registered + 1, PhantomReferenceCleanup.registeredCount());
+        reference.free();
+        reference.free();
+        assertEquals(1, freed.get());
+        assertEquals(registered, PhantomReferenceCleanup.registeredCount());
+    }
+
+    @Test
+    public void freeUnreachable() throws InterruptedException {
+        AtomicInteger freed = new AtomicInteger();
+        PhantomReferenceCleanup.enqueueForCleanup(new Object(), h -> freed.incrementAndGet(), 1L);
+        for (int i = 0; i < 100 && freed.get() == 0; i++) {
+            System.gc();
+            PhantomReferenceCleanup.drain(PhantomReferenceCleanup.HELP_BATCH_SIZE);
+            Thread.sleep(10);
+        }
+        assertEquals(1, freed.get());
+    }
+}
@@ -0,0 +1,159 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@linkplain PipelinedDigestInputStream} and {@linkplain OpenSSL4J#digest(String, InputStream)}.
+ * @author Stephan Fuhrmann
+ */
+public class PipelinedDigestInputStreamTest extends BaseTest {
+
+    private static byte[] reference(String algorithm, byte[] data, int length) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance(algorithm, Security.getProvider("SUN"));
+        messageDigest.update(data, 0, length);
+        return messageDigest.digest();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 1, 16",
+            "1, 2, 16",
+            "1000, 2, 16",
+            "1000, 1, 1000",
+            "100000, 3, 4096",
+            "1000000, 2, 262144"
+    })
+    public void readAndDigest(int size, int buffers, int bufferSize) throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(size);
+        try (PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(data), "SHA-256", buffers, bufferSize)) {
+            byte[] target = new byte[size];
+            int offset = 0;
+            if (size > 0) {
+                target[offset++] = (byte) in.read();
+            }
+            int read;
+            while ((read = in.read(target, offset, Math.min(777, size - offset))) > 0) {
+                offset += read;
+            }
+            assertEquals(-1, in.read());
+            assertEquals(size, offset);
+            assertArrayEquals(data, target);
+            assertArrayEquals(reference("SHA-256", data, size), in.digest());
+        }
+    }
+
+    @Test
+    public void digestTwice() throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(100);
+        try (PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(data), "MD5")) {
+            assertEquals(60, in.read(new byte[60]));
+            assertArrayEquals(reference("MD5", data, 60), in.digest());
+            assertArrayEquals(reference("MD5", new byte[0], 0), in.digest());
+            assertFalse(in.markSupported());
+        }
+    }
+
+    @Test
+    public void closeWithoutDigest() throws IOException {
+        PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(new byte[1000]), "SHA1", 2, 100);
+        assertEquals(500, in.read(new byte[500]));
+        in.close();
+    }
+
+    /** Reads from a stream and abandons it without digest or close.
+     * @return a reference to the pipeline of the abandoned stream.
+     * */
+    private static WeakReference<DigestPipeline> abandonPipeline() throws IOException {
+        DigestPipeline pipeline = new DigestPipeline("SHA256", 2, 100);
+        for (int i = 0; i < 5; i++) {
+            ByteBuffer buffer = pipeline.take();
+            buffer.put(new byte[100]);
+            buffer.flip();
+            pipeline.submit(buffer);
+        }
+        return new WeakReference<>(pipeline);
+    }
+
+    @Test
+    public void abandonedPipelineIsCollected() throws IOException, InterruptedException {
+        WeakReference<DigestPipeline> reference = abandonPipeline();
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void abandonedStreamHoldsNoThread() throws IOException, InterruptedException {
+        PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(new byte[1000]), "SHA1", 2, 100);
+        assertEquals(1000, in.read(new byte[1000]));
+        boolean waiting = true;
+        for (int i = 0; i < 100 && waiting; i++) {
+            waiting = Thread.getAllStackTraces().entrySet().stream()
+                    .anyMatch(e -> e.getKey().getName().startsWith("OpenSSL-Pipeline-")
+                            && Arrays.stream(e.getValue()).anyMatch(f -> f.getClassName().equals(DigestPipeline.class.getName())));
+            Thread.sleep(10);
+        }
+        assertFalse(waiting);
+    }
+
+    @Test
+    public void buffersAreReused() throws IOException, InterruptedException {
+        int expected = Math.min(DigestPipeline.BUFFER_POOL_SIZE, Math.max(DigestPipeline.pooledBuffers(), 2));
+        try (DigestPipeline pipeline = new DigestPipeline("SHA256", 2, DigestPipeline.DEFAULT_BUFFER_SIZE)) {
+            ByteBuffer buffer = pipeline.take();
+            buffer.put(new byte[100]);
+            buffer.flip();
+            pipeline.submit(buffer);
+            pipeline.finish();
+        }
+        assertEquals(expected, DigestPipeline.pooledBuffers());
+
+        DigestPipeline closed = new DigestPipeline("SHA256", 2, DigestPipeline.DEFAULT_BUFFER_SIZE);
+        ByteBuffer buffer = closed.take();
+        buffer.put(new byte[100]);
+        buffer.flip();
+        closed.submit(buffer);
+        closed.close();
+        // the hashing task returns the buffers after skipping the submitted one
+        for (int i = 0; i < 500 && DigestPipeline.pooledBuffers() < expected; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, DigestPipeline.pooledBuffers());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0", "1", "262144", "262145", "3000000"})
+    public void digestInputStream(int size) throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(size);
+        assertArrayEquals(reference("SHA-512", data, size), OpenSSL4J.digest("SHA-512", new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void illegalArguments() {
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedDigestInputStream(in, "FOO"));
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedDigestInputStream(in, "MD5", 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedDigestInputStream(in, "MD5", 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> OpenSSL4J.digest("FOO", in));
+    }
+}
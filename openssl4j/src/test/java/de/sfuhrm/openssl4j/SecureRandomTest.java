@@ -0,0 +1,112 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the secure random services.
+ * @author Stephan Fuhrmann
+ */
+public class SecureRandomTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"OpenSSL", "OpenSSLPrivate"})
+    public void serviceIsThreadSafe(String algorithm) {
+        assertEquals("true", OPENSSL.getService("SecureRandom", algorithm).getAttribute("ThreadSafe"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"OpenSSL", "OpenSSLPrivate"})
+    public void nextBytesWithSizes(String algorithm) throws GeneralSecurityException {
+        SecureRandom secureRandom = SecureRandom.getInstance(algorithm, OPENSSL);
+        for (int size : new int[] {0, 1, 16, OpenSSLSecureRandomNative.MAX_BUFFERED_REQUEST,
+                OpenSSLSecureRandomNative.MAX_BUFFERED_REQUEST + 1, 100000, 3 * 1024 * 1024}) {
+            byte[] first = new byte[size];
+            byte[] second = new byte[size];
+            secureRandom.nextBytes(first);
+            secureRandom.nextBytes(second);
+            if (size >= 16) {
+                assertFalse(Arrays.equals(first, second), "size " + size);
+                assertFalse(Arrays.equals(new byte[size], first), "size " + size);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"OpenSSL", "OpenSSLPrivate"})
+    public void bitsAreBalanced(String algorithm) throws GeneralSecurityException {
+        SecureRandom secureRandom = SecureRandom.getInstance(algorithm, OPENSSL);
+        for (int size : new int[] {8, 1 << 20}) {
+            long ones = 0;
+            long bits = 0;
+            byte[] bytes = new byte[size];
+            while (bits < 8L << 20) {
+                secureRandom.nextBytes(bytes);
+                for (byte b : bytes) {
+                    ones += Integer.bitCount(b & 0xff);
+                }
+                bits += 8L * size;
+            }
+            double ratio = (double) ones / bits;
+            assertTrue(ratio > 0.499 && ratio < 0.501, "ratio " + ratio + " for size " + size);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"OpenSSL", "OpenSSLPrivate"})
+    public void uniqueTokensInThreads(String algorithm) throws GeneralSecurityException, InterruptedException, ExecutionException {
+        SecureRandom secureRandom = SecureRandom.getInstance(algorithm, OPENSSL);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<ByteBuffer>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(executorService.submit(() -> {
+                    List<ByteBuffer> tokens = new ArrayList<>();
+                    for (int i = 0; i < 10000; i++) {
+                        byte[] token = new byte[16];
+                        secureRandom.nextBytes(token);
+                        tokens.add(ByteBuffer.wrap(token));
+                    }
+                    return tokens;
+                }));
+            }
+            Set<ByteBuffer> tokens = new HashSet<>();
+            for (Future<List<ByteBuffer>> future : futures) {
+                tokens.addAll(future.get());
+            }
+            assertEquals(8 * 10000, tokens.size());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"OpenSSL", "OpenSSLPrivate"})
+    public void seeds(String algorithm) throws GeneralSecurityException {
+        SecureRandom secureRandom = SecureRandom.getInstance(algorithm, OPENSSL);
+        secureRandom.setSeed(new byte[] {1, 2, 3});
+        secureRandom.setSeed(42L);
+        assertEquals(32, secureRandom.generateSeed(32).length);
+        assertEquals(0, secureRandom.generateSeed(0).length);
+    }
+}
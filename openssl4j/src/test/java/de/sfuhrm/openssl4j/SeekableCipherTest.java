@@ -0,0 +1,281 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@linkplain SeekableCipher}.
+ * @author Stephan Fuhrmann
+ */
+public class SeekableCipherTest extends BaseTest {
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 11 + seed);
+        }
+        return result;
+    }
+
+    /** The IV is close to the overflow of the lower 64 bits. */
+    private static byte[] ctrIv() {
+        byte[] iv = bytes(16, 3);
+        Arrays.fill(iv, 8, 16, (byte) 0xff);
+        iv[15] = (byte) 0xf0;
+        return iv;
+    }
+
+    private static byte[] referenceCtr(byte[] key, byte[] iv, byte[] plainText) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding", "SunJCE");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(plainText);
+    }
+
+    /** XTS of complete blocks as in IEEE 1619, built on AES-ECB. */
+    private static byte[] referenceXts(byte[] key, int dataUnitSize, long firstDataUnit, byte[] plainText) throws GeneralSecurityException {
+        int half = key.length / 2;
+        Cipher dataCipher = Cipher.getInstance("AES/ECB/NoPadding", "SunJCE");
+        dataCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 0, half, "AES"));
+        Cipher tweakCipher = Cipher.getInstance("AES/ECB/NoPadding", "SunJCE");
+        tweakCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, half, half, "AES"));
+        byte[] result = new byte[plainText.length];
+        for (int unitStart = 0; unitStart < plainText.length; unitStart += dataUnitSize) {
+            byte[] tweak = new byte[16];
+            long unit = firstDataUnit + unitStart / dataUnitSize;
+            for (int i = 0; i < 8; i++) {
+                tweak[i] = (byte) (unit >>> (8 * i));
+            }
+            byte[] t = tweakCipher.doFinal(tweak);
+            for (int block = unitStart; block < unitStart + dataUnitSize; block += 16) {
+                byte[] pp = new byte[16];
+                for (int i = 0; i < 16; i++) {
+                    pp[i] = (byte) (plainText[block + i] ^ t[i]);
+                }
+                byte[] cc = dataCipher.doFinal(pp);
+                for (int i = 0; i < 16; i++) {
+                    result[block + i] = (byte) (cc[i] ^ t[i]);
+                }
+                // multiply the tweak with alpha in GF(2^128)
+                int carry = 0;
+                for (int i = 0; i < 16; i++) {
+                    int value = ((t[i] & 0xff) << 1) | carry;
+                    carry = (t[i] & 0x80) != 0 ? 1 : 0;
+                    t[i] = (byte) value;
+                }
+                if (carry != 0) {
+                    t[0] ^= (byte) 0x87;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void ctrRangesLikeReference() throws GeneralSecurityException {
+        Random random = new Random(1);
+        for (int keyLength : new int[] {16, 24, 32}) {
+            byte[] key = bytes(keyLength, keyLength);
+            byte[] plainText = bytes(3 * SeekableCipher.CHUNK_SIZE + 17, 5);
+            byte[] cipherText = referenceCtr(key, ctrIv(), plainText);
+            SeekableCipher cipher = SeekableCipher.aesCtr(key, ctrIv());
+
+            byte[] whole = plainText.clone();
+            cipher.encrypt(0, whole, 0, whole.length);
+            assertArrayEquals(cipherText, whole);
+
+            for (int i = 0; i < 50; i++) {
+                int position = random.nextInt(plainText.length);
+                int length = random.nextInt(Math.min(plainText.length - position, 10000) + 1);
+                byte[] range = Arrays.copyOfRange(cipherText, position, position + length);
+                cipher.decrypt(position, range, 0, length);
+                assertArrayEquals(Arrays.copyOfRange(plainText, position, position + length), range,
+                        "position " + position + ", length " + length);
+            }
+        }
+    }
+
+    @Test
+    public void ctrByteBuffers() throws GeneralSecurityException {
+        byte[] key = bytes(16, 1);
+        byte[] plainText = bytes(100000, 2);
+        byte[] cipherText = referenceCtr(key, ctrIv(), plainText);
+        SeekableCipher cipher = SeekableCipher.aesCtr(key, ctrIv());
+
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(1000), ByteBuffer.allocateDirect(1000)}) {
+            buffer.put(cipherText, 12345, 1000);
+            buffer.flip();
+            cipher.decrypt(12345, buffer);
+            assertEquals(buffer.limit(), buffer.position());
+            byte[] result = new byte[1000];
+            buffer.flip();
+            buffer.get(result);
+            assertArrayEquals(Arrays.copyOfRange(plainText, 12345, 13345), result);
+        }
+    }
+
+    @Test
+    public void xtsLikeReference() throws GeneralSecurityException {
+        for (int keyLength : new int[] {32, 64}) {
+            for (int dataUnitSize : new int[] {16, 512, 4096}) {
+                byte[] key = bytes(keyLength, 7);
+                byte[] plainText = bytes(16 * 4096, 8);
+                byte[] expected = referenceXts(key, dataUnitSize, 10, plainText);
+                SeekableCipher cipher = SeekableCipher.aesXts(key, dataUnitSize);
+
+                byte[] data = plainText.clone();
+                cipher.encrypt(10L * dataUnitSize, data, 0, data.length);
+                assertArrayEquals(expected, data, "key " + keyLength + ", data unit " + dataUnitSize);
+
+                // a range in the middle
+                int position = 3 * dataUnitSize;
+                byte[] range = Arrays.copyOfRange(data, position, position + 2 * dataUnitSize);
+                cipher.decrypt(10L * dataUnitSize + position, range, 0, range.length);
+                assertArrayEquals(Arrays.copyOfRange(plainText, position, position + range.length), range);
+            }
+        }
+    }
+
+    @Test
+    public void xtsPartialLastDataUnit() {
+        SeekableCipher cipher = SeekableCipher.aesXts(bytes(32, 1), 512);
+        byte[] plainText = bytes(3 * 512 + 100, 2);
+        byte[] data = plainText.clone();
+        cipher.encrypt(0, data, 0, data.length, true);
+        byte[] cipherText = data.clone();
+        cipher.decrypt(0, data, 0, data.length, true);
+        assertArrayEquals(plainText, data);
+        assertThrows(IllegalArgumentException.class, () -> cipher.decrypt(0, data, 0, data.length));
+        assertThrows(IllegalArgumentException.class, () -> cipher.decrypt(0, data, 0, 512 + 100));
+        assertThrows(IllegalArgumentException.class, () -> cipher.decrypt(0, data, 0, 512 + 15, true));
+
+        // the data units before the last one decrypt on their own
+        byte[] unit = Arrays.copyOfRange(cipherText, 512, 1024);
+        cipher.decrypt(512, unit, 0, unit.length);
+        assertArrayEquals(Arrays.copyOfRange(plainText, 512, 1024), unit);
+
+        byte[] tail = Arrays.copyOfRange(cipherText, 1024, cipherText.length);
+        cipher.decrypt(1024, tail, 0, tail.length, true);
+        assertArrayEquals(Arrays.copyOfRange(plainText, 1024, plainText.length), tail);
+    }
+
+    @Test
+    public void readXtsFromChannel(@TempDir Path dir) throws IOException {
+        SeekableCipher cipher = SeekableCipher.aesXts(bytes(32, 1), 512);
+        byte[] plainText = bytes(3 * 512 + 100, 2);
+        byte[] cipherText = plainText.clone();
+        cipher.encrypt(0, cipherText, 0, cipherText.length, true);
+        Path file = dir.resolve("encrypted");
+        Files.write(file, cipherText);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // only whole data units are read before the end of the data
+            ByteBuffer buffer = ByteBuffer.allocate(700);
+            assertEquals(512, cipher.read(channel, 512, buffer));
+            assertEquals(512, buffer.position());
+            assertArrayEquals(Arrays.copyOfRange(plainText, 512, 1024), Arrays.copyOf(buffer.array(), 512));
+
+            buffer.clear();
+            assertEquals(612, cipher.read(channel, 1024, buffer));
+            assertArrayEquals(Arrays.copyOfRange(plainText, 1024, plainText.length), Arrays.copyOf(buffer.array(), 612));
+
+            assertThrows(IllegalArgumentException.class, () -> cipher.read(channel, 0, ByteBuffer.allocate(500)));
+            assertThrows(IllegalArgumentException.class, () -> cipher.read(channel, 100, ByteBuffer.allocate(512)));
+            assertEquals(-1, cipher.read(channel, 4 * 512, buffer));
+        }
+    }
+
+    @Test
+    public void parallelLikeSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (SeekableCipher cipher : new SeekableCipher[] {
+                    SeekableCipher.aesCtr(bytes(32, 1), ctrIv()),
+                    SeekableCipher.aesXts(bytes(64, 1), 4096)}) {
+                byte[] plainText = bytes(5 * SeekableCipher.CHUNK_SIZE + 4096, 9);
+                byte[] expected = plainText.clone();
+                cipher.encrypt(8192, expected, 0, expected.length);
+
+                ByteBuffer buffer = ByteBuffer.allocateDirect(plainText.length);
+                buffer.put(plainText);
+                buffer.flip();
+                cipher.encrypt(8192, buffer, pool);
+                byte[] result = new byte[plainText.length];
+                buffer.flip();
+                buffer.duplicate().get(result);
+                assertArrayEquals(expected, result);
+
+                cipher.decrypt(8192, buffer, pool);
+                buffer.flip();
+                buffer.get(result);
+                assertArrayEquals(plainText, result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void readFromChannel(@TempDir Path dir) throws GeneralSecurityException, IOException {
+        byte[] key = bytes(16, 4);
+        byte[] plainText = bytes(50000, 6);
+        Path file = dir.resolve("encrypted");
+        Files.write(file, referenceCtr(key, ctrIv(), plainText));
+        SeekableCipher cipher = SeekableCipher.aesCtr(key, ctrIv());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1000);
+            assertEquals(1000, cipher.read(channel, 777, buffer));
+            byte[] result = new byte[1000];
+            buffer.flip();
+            buffer.get(result);
+            assertArrayEquals(Arrays.copyOfRange(plainText, 777, 1777), result);
+
+            buffer.clear();
+            assertEquals(200, cipher.read(channel, plainText.length - 200, buffer));
+            assertEquals(-1, cipher.read(channel, plainText.length, buffer));
+            assertEquals(0, channel.position());
+        }
+    }
+
+    @Test
+    public void illegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> SeekableCipher.aesCtr(new byte[15], new byte[16]));
+        assertThrows(IllegalArgumentException.class, () -> SeekableCipher.aesCtr(new byte[16], new byte[12]));
+        assertThrows(IllegalArgumentException.class, () -> SeekableCipher.aesXts(new byte[32], 512));
+        assertThrows(IllegalArgumentException.class, () -> SeekableCipher.aesXts(bytes(32, 1), 8));
+        SeekableCipher cipher = SeekableCipher.aesXts(bytes(32, 1), 512);
+        assertThrows(IllegalArgumentException.class, () -> cipher.encrypt(100, new byte[512], 0, 512));
+        assertThrows(IllegalArgumentException.class, () -> cipher.encrypt(-512, new byte[512], 0, 512));
+        assertThrows(java.nio.ReadOnlyBufferException.class, () -> cipher.encrypt(0, ByteBuffer.allocate(512).asReadOnlyBuffer()));
+    }
+
+    @Test
+    public void counterBlockCarries() {
+        byte[] iv = new byte[16];
+        Arrays.fill(iv, 1, 16, (byte) 0xff);
+        SeekableCipher cipher = SeekableCipher.aesCtr(new byte[16], iv);
+        byte[] expected = new byte[16];
+        expected[0] = 1;
+        assertArrayEquals(expected, cipher.counterBlock(1));
+        expected[15] = 1;
+        assertArrayEquals(expected, cipher.counterBlock(2));
+    }
+}
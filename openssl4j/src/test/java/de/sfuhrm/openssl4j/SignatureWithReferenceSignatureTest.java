@@ -0,0 +1,289 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the signature services against the JDK implementations.
+ * @author Stephan Fuhrmann
+ */
+public class SignatureWithReferenceSignatureTest extends BaseTest {
+
+    private static final Provider OPENSSL = new OpenSSL4JProvider();
+
+    private static final PSSParameterSpec PSS_SHA256 =
+            new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+
+    private static final Map<String, KeyPair> KEY_PAIRS = new HashMap<>();
+
+    /** Generates the key pairs with the JDK, once per key type. */
+    private static synchronized KeyPair keyPair(String keyType) throws GeneralSecurityException {
+        KeyPair result = KEY_PAIRS.get(keyType);
+        if (result == null) {
+            KeyPairGenerator generator;
+            switch (keyType) {
+                case "P-256":
+                case "P-384":
+                    generator = KeyPairGenerator.getInstance("EC");
+                    generator.initialize(new ECGenParameterSpec(keyType.equals("P-256") ? "secp256r1" : "secp384r1"));
+                    break;
+                case "RSA":
+                    generator = KeyPairGenerator.getInstance("RSA");
+                    generator.initialize(2048);
+                    break;
+                default:
+                    generator = KeyPairGenerator.getInstance(keyType);
+                    break;
+            }
+            result = generator.generateKeyPair();
+            KEY_PAIRS.put(keyType, result);
+        }
+        return result;
+    }
+
+    private static Stream<Arguments> algorithms() {
+        return Stream.of(
+                Arguments.of("Ed25519", "Ed25519"),
+                Arguments.of("Ed448", "Ed448"),
+                Arguments.of("EdDSA", "Ed25519"),
+                Arguments.of("SHA256withECDSA", "P-256"),
+                Arguments.of("SHA384withECDSA", "P-384"),
+                Arguments.of("SHA512withECDSA", "P-256"),
+                Arguments.of("SHA256withRSA", "RSA"),
+                Arguments.of("SHA384withRSA", "RSA"),
+                Arguments.of("SHA512withRSA", "RSA"),
+                Arguments.of("RSASSA-PSS", "RSA"));
+    }
+
+    private static Signature signature(String algorithm, Provider provider) throws GeneralSecurityException {
+        Signature result = provider != null ? Signature.getInstance(algorithm, provider) : Signature.getInstance(algorithm);
+        if (algorithm.equals("RSASSA-PSS")) {
+            result.setParameter(PSS_SHA256);
+        }
+        return result;
+    }
+
+    private static Provider referenceProvider(String algorithm) {
+        for (Provider provider : java.security.Security.getProviders("Signature." + algorithm)) {
+            if (!provider.getName().equals(OpenSSL4JProvider.PROVIDER_NAME)) {
+                return provider;
+            }
+        }
+        throw new IllegalStateException("No reference for " + algorithm);
+    }
+
+    private static byte[] message(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 7 + length);
+        }
+        return result;
+    }
+
+    @ParameterizedTest
+    @MethodSource("algorithms")
+    public void signWithReferenceVerify(String algorithm, String keyType) throws GeneralSecurityException {
+        KeyPair keyPair = keyPair(keyType);
+        Signature signer = signature(algorithm, OPENSSL);
+        Signature verifier = signature(algorithm, referenceProvider(algorithm));
+        for (int length : new int[] {0, 1, 100, 5000}) {
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message(length), 0, length / 2);
+            signer.update(message(length), length / 2, length - length / 2);
+            byte[] signature = signer.sign();
+
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(message(length));
+            assertTrue(verifier.verify(signature), "length " + length);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("algorithms")
+    public void verifyReferenceSignatures(String algorithm, String keyType) throws GeneralSecurityException {
+        KeyPair keyPair = keyPair(keyType);
+        Signature signer = signature(algorithm, referenceProvider(algorithm));
+        Signature verifier = signature(algorithm, OPENSSL);
+        for (int length : new int[] {0, 1, 100, 5000}) {
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message(length));
+            byte[] signature = signer.sign();
+
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(message(length));
+            assertTrue(verifier.verify(signature), "length " + length);
+
+            // the verifier is reset after verify
+            verifier.update(message(length));
+            verifier.update((byte) 1);
+            assertFalse(verifier.verify(signature), "length " + length);
+
+            byte[] tampered = signature.clone();
+            tampered[tampered.length / 2] ^= 1;
+            verifier.update(message(length));
+            assertFalse(verifier.verify(tampered), "length " + length);
+        }
+    }
+
+    @Test
+    public void malformedSignatureIsWrong() throws GeneralSecurityException {
+        Signature verifier = Signature.getInstance("SHA256withECDSA", OPENSSL);
+        verifier.initVerify(keyPair("P-256").getPublic());
+        verifier.update(message(10));
+        assertFalse(verifier.verify(new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    public void wrongKeyType() throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("SHA256withECDSA", OPENSSL);
+        assertThrows(InvalidKeyException.class, () -> signature.initVerify(keyPair("RSA").getPublic()));
+        assertThrows(InvalidKeyException.class, () -> signature.initSign(keyPair("Ed25519").getPrivate()));
+        Signature ed25519 = Signature.getInstance("Ed25519", OPENSSL);
+        assertThrows(InvalidKeyException.class, () -> ed25519.initVerify(keyPair("Ed448").getPublic()));
+    }
+
+    @Test
+    public void pssNeedsParameters() throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("RSASSA-PSS", OPENSSL);
+        signature.initSign(keyPair("RSA").getPrivate());
+        signature.update(message(10));
+        assertThrows(SignatureException.class, signature::sign);
+        signature.setParameter(PSS_SHA256);
+        assertEquals(PSS_SHA256.getSaltLength(),
+                signature.getParameters().getParameterSpec(PSSParameterSpec.class).getSaltLength());
+        signature.update(message(10));
+        assertEquals(256, signature.sign().length);
+    }
+
+    @Test
+    public void publicKeysAreCached() throws GeneralSecurityException {
+        KeyPair keyPair = keyPair("Ed25519");
+        assertSame(NativeKey.publicKey(keyPair.getPublic()), NativeKey.publicKey(keyPair.getPublic()));
+    }
+
+    @Test
+    public void leastRecentlyUsedPublicKeyIsEvicted() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        PublicKey used = generator.generateKeyPair().getPublic();
+        PublicKey unused = generator.generateKeyPair().getPublic();
+        NativeKey usedKey = NativeKey.publicKey(used);
+        NativeKey unusedKey = NativeKey.publicKey(unused);
+        for (int i = 0; i < NativeKey.KEY_CACHE_SIZE; i++) {
+            assertSame(usedKey, NativeKey.publicKey(used));
+            NativeKey.publicKey(generator.generateKeyPair().getPublic());
+        }
+        assertSame(usedKey, NativeKey.publicKey(used));
+        assertNotSame(unusedKey, NativeKey.publicKey(unused));
+    }
+
+    @Test
+    public void batchVerify() throws GeneralSecurityException {
+        for (Arguments arguments : (Iterable<Arguments>) algorithms()::iterator) {
+            String algorithm = (String) arguments.get()[0];
+            KeyPair keyPair = keyPair((String) arguments.get()[1]);
+            Signature signer = signature(algorithm, referenceProvider(algorithm));
+            List<byte[]> messages = new ArrayList<>();
+            List<byte[]> signatures = new ArrayList<>();
+            boolean[] expected = new boolean[20];
+            for (int i = 0; i < expected.length; i++) {
+                byte[] message = message(i * 10);
+                signer.initSign(keyPair.getPrivate());
+                signer.update(message);
+                byte[] signature = signer.sign();
+                expected[i] = i % 3 != 0;
+                if (!expected[i]) {
+                    signature[signature.length - 1] ^= 1;
+                }
+                messages.add(message);
+                signatures.add(signature);
+            }
+            BatchVerifier verifier = algorithm.equals("RSASSA-PSS")
+                    ? new BatchVerifier(algorithm, PSS_SHA256) : new BatchVerifier(algorithm);
+            assertArrayEquals(expected, verifier.verify(keyPair.getPublic(), messages, signatures), algorithm);
+        }
+    }
+
+    @Test
+    public void batchVerifyWithMoreKeysThanCached() throws GeneralSecurityException {
+        // the keys evict each other from the cache, the batch must keep them alive
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        Signature signer = Signature.getInstance("Ed25519");
+        List<PublicKey> keys = new ArrayList<>();
+        List<byte[]> messages = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        int count = NativeKey.KEY_CACHE_SIZE * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            KeyPair keyPair = generator.generateKeyPair();
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message(i));
+            signatures.add(signer.sign());
+            messages.add(message(i));
+            keys.add(keyPair.getPublic());
+        }
+        boolean[] expected = new boolean[count];
+        Arrays.fill(expected, true);
+        BatchVerifier verifier = new BatchVerifier("Ed25519");
+        for (int round = 0; round < 3; round++) {
+            System.gc();
+            assertArrayEquals(expected, verifier.verify(keys, messages, signatures));
+        }
+    }
+
+    @Test
+    public void batchVerifyWithDifferentKeys() throws GeneralSecurityException {
+        KeyPair first = keyPair("P-256");
+        KeyPair second = KeyPairGenerator.getInstance("EC").generateKeyPair();
+        Signature signer = Signature.getInstance("SHA256withECDSA", OPENSSL);
+        List<PublicKey> keys = new ArrayList<>();
+        List<byte[]> messages = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            KeyPair keyPair = i % 2 == 0 ? first : second;
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message(i));
+            signatures.add(signer.sign());
+            messages.add(message(i));
+            // the last key doesn't match its signature
+            keys.add(i == 9 ? first.getPublic() : keyPair.getPublic());
+        }
+        boolean[] expected = new boolean[10];
+        Arrays.fill(expected, true);
+        expected[9] = false;
+        BatchVerifier verifier = new BatchVerifier("SHA256withECDSA");
+        assertArrayEquals(expected, verifier.verify(keys, messages, signatures));
+        assertEquals(0, verifier.verify(keys.subList(0, 0), messages.subList(0, 0), signatures.subList(0, 0)).length);
+
+        assertThrows(IllegalArgumentException.class, () -> verifier.verify(keys, messages, signatures.subList(0, 9)));
+        assertThrows(InvalidKeyException.class, () -> verifier.verify(keyPair("RSA").getPublic(), messages, signatures));
+        assertThrows(SignatureException.class, () -> new BatchVerifier("RSASSA-PSS").verify(keyPair("RSA").getPublic(), messages, signatures));
+        assertThrows(java.security.NoSuchAlgorithmException.class, () -> new BatchVerifier("MD2withRSA"));
+    }
+}
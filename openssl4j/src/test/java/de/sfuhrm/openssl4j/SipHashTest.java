@@ -0,0 +1,38 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Test for {@linkplain SipHash}.
+ * @author Stephan Fuhrmann
+ */
+public class SipHashTest {
+
+    /** Key 00 01 02 ... 0f of the reference vectors. */
+    private static final long K0 = 0x0706050403020100L;
+    private static final long K1 = 0x0f0e0d0c0b0a0908L;
+
+    private static byte[] sequence(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) i;
+        }
+        return result;
+    }
+
+    @Test
+    public void hashWithReferenceVectors() {
+        assertEquals(0x726fdb47dd0e0e31L, SipHash.hash(K0, K1, sequence(0)));
+        assertEquals(0x74f839c593dc67fdL, SipHash.hash(K0, K1, sequence(1)));
+        assertEquals(0x93f5f5799a932462L, SipHash.hash(K0, K1, sequence(8)));
+        assertEquals(0xa129ca6149be45e5L, SipHash.hash(K0, K1, sequence(15)));
+    }
+
+    @Test
+    public void hashDependsOnKey() {
+        assertNotEquals(SipHash.hash(K0, K1, sequence(15)), SipHash.hash(K0, K1 + 1, sequence(15)));
+    }
+}
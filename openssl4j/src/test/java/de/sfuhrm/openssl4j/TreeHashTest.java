@@ -0,0 +1,161 @@
+package de.sfuhrm.openssl4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@linkplain TreeHash}.
+ * @author Stephan Fuhrmann
+ */
+public class TreeHashTest extends BaseTest {
+
+    @TempDir
+    Path tempDir;
+
+    /** Calculates the documented tree hash with the SUN provider. */
+    private static byte[] reference(String algorithm, byte[] data, int leafSize, int fanOut, List<byte[]> leaves) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance(algorithm, Security.getProvider("SUN"));
+        List<byte[]> level = new ArrayList<>();
+        int offset = 0;
+        do {
+            int length = Math.min(leafSize, data.length - offset);
+            messageDigest.update((byte) 0x00);
+            messageDigest.update(data, offset, length);
+            level.add(messageDigest.digest());
+            offset += length;
+        } while (offset < data.length);
+        leaves.addAll(level);
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += fanOut) {
+                messageDigest.update((byte) 0x01);
+                for (int j = i; j < Math.min(i + fanOut, level.size()); j++) {
+                    messageDigest.update(level.get(j));
+                }
+                next.add(messageDigest.digest());
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    private static void assertResult(byte[] expectedRoot, List<byte[]> expectedLeaves, TreeHash.Result result) {
+        assertArrayEquals(expectedRoot, result.getRoot());
+        assertEquals(expectedLeaves.size(), result.getLeafCount());
+        List<byte[]> leaves = result.getLeaves();
+        for (int i = 0; i < expectedLeaves.size(); i++) {
+            assertArrayEquals(expectedLeaves.get(i), leaves.get(i), "leaf " + i);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 1024, 2",
+            "1, 1024, 2",
+            "1024, 1024, 2",
+            "1025, 1024, 2",
+            "7000, 1000, 3",
+            "100000, 100, 2",
+            "100000, 4096, 16",
+            "3000000, 65536, 4"
+    })
+    public void hashDirectBuffer(int size, int leafSize, int fanOut) throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(size);
+        List<byte[]> expectedLeaves = new ArrayList<>();
+        byte[] expectedRoot = reference("SHA-256", data, leafSize, fanOut, expectedLeaves);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + 3);
+        buffer.put(new byte[3]);
+        buffer.put(data);
+        buffer.flip();
+        buffer.position(3);
+        TreeHash.Result result = new TreeHash("SHA-256", leafSize, fanOut).hash(buffer);
+        assertResult(expectedRoot, expectedLeaves, result);
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void hashHeapBuffer() throws NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(50000);
+        List<byte[]> expectedLeaves = new ArrayList<>();
+        byte[] expectedRoot = reference("MD5", data, 3000, 5, expectedLeaves);
+
+        TreeHash treeHash = new TreeHash("MD5", 3000, 5);
+        assertResult(expectedRoot, expectedLeaves, treeHash.hash(ByteBuffer.wrap(data), new ForkJoinPool(3)));
+        assertResult(expectedRoot, expectedLeaves, treeHash.hash(ByteBuffer.wrap(data).asReadOnlyBuffer()));
+    }
+
+    @Test
+    public void hashFile() throws IOException, NoSuchAlgorithmException {
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(5 * 1024 * 1024 + 5);
+        Path file = tempDir.resolve("data");
+        Files.write(file, data);
+        List<byte[]> expectedLeaves = new ArrayList<>();
+        byte[] expectedRoot = reference("SHA-512", data, TreeHash.DEFAULT_LEAF_SIZE, TreeHash.DEFAULT_FAN_OUT, expectedLeaves);
+
+        TreeHash treeHash = new TreeHash("SHA-512");
+        assertResult(expectedRoot, expectedLeaves, treeHash.hash(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertResult(expectedRoot, expectedLeaves,
+                    treeHash.hash(channel, 0, data.length, FileDigestMode.MMAP, ForkJoinPool.commonPool()));
+            assertThrows(EOFException.class, () ->
+                    treeHash.hash(channel, 1, data.length, FileDigestMode.PREAD, ForkJoinPool.commonPool()));
+        }
+    }
+
+    @Test
+    public void rehashChangedLeaf() throws IOException {
+        int leafSize = 4096;
+        byte[] data = MessageDigestWithReferenceMDTest.filledArray(10 * leafSize + 100);
+        Path file = tempDir.resolve("data");
+        Files.write(file, data);
+        TreeHash treeHash = new TreeHash("SHA-256", leafSize, 4);
+        TreeHash.Result original = treeHash.hash(file);
+
+        data[5 * leafSize + 7] ^= 1;
+        Files.write(file, data);
+        List<byte[]> leaves = original.getLeaves();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TreeHash.Result leaf = treeHash.hash(channel, 5L * leafSize, leafSize, FileDigestMode.PREAD, ForkJoinPool.commonPool());
+            assertEquals(1, leaf.getLeafCount());
+            assertArrayEquals(leaf.getLeaf(0), leaf.getRoot());
+            assertFalse(Arrays.equals(leaves.get(5), leaf.getRoot()));
+            leaves.set(5, leaf.getRoot());
+        }
+        assertArrayEquals(treeHash.hash(file).getRoot(), treeHash.root(leaves));
+        assertArrayEquals(original.getRoot(), treeHash.root(original.getLeaves()));
+    }
+
+    @Test
+    public void illegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TreeHash("FOO"));
+        assertThrows(IllegalArgumentException.class, () -> new TreeHash("SHA-256", 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new TreeHash("SHA-256", 1024, 1));
+        TreeHash treeHash = new TreeHash("SHA-256");
+        assertThrows(IllegalArgumentException.class, () -> treeHash.root(new ArrayList<>()));
+        assertThrows(IllegalArgumentException.class, () -> treeHash.root(Arrays.asList(new byte[32], new byte[31])));
+        assertThrows(IndexOutOfBoundsException.class, () -> treeHash.hash(ByteBuffer.allocate(10)).getLeaf(1));
+    }
+}